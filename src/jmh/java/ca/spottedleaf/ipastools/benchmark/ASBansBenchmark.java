@@ -0,0 +1,85 @@
+package ca.spottedleaf.ipastools.benchmark;
+
+import ca.spottedleaf.ipastools.astools.ASBans;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Login ban checks under contention from many pre-login threads, with a mix of AS bans and range bans.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class ASBansBenchmark {
+
+    private static final int BANS = 1000;
+
+    private ASBans bans;
+
+    @Setup
+    public void setup() throws IOException {
+        // never written, as the benchmark does not modify the bans after setup
+        final File file = new File(Files.createTempDirectory("ipastools-bench").toFile(), "bans.json");
+        this.bans = new ASBans(file);
+
+        final Random random = new Random(1L);
+        for (int i = 0; i < BANS; ++i) {
+            this.bans.addBanEntry(1 + random.nextInt(SyntheticTables.AS_NUMBERS), "Banned", null);
+            final int address = random.nextInt() & 0xFFFFFF00;
+            this.bans.addRangeBanEntry(ASBans.RangeBanEntry.parse(
+                    ((address >>> 24) & 0xFF) + "." + ((address >>> 16) & 0xFF) + "." + ((address >>> 8) & 0xFF) + ".0/" + (16 + random.nextInt(9)),
+                    "Banned", null
+            ));
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private final Random random = new Random();
+        private final int[] ASNumbers = new int[1 << 12];
+        private final int[] addresses = new int[1 << 12];
+        private int index;
+
+        @Setup
+        public void setup() {
+            for (int i = 0; i < this.ASNumbers.length; ++i) {
+                this.ASNumbers[i] = 1 + this.random.nextInt(SyntheticTables.AS_NUMBERS);
+                this.addresses[i] = this.random.nextInt();
+            }
+        }
+
+        private int next() {
+            return this.index = (this.index + 1) & (this.ASNumbers.length - 1);
+        }
+    }
+
+    @Benchmark
+    public String getKickReason(final Cursor cursor) {
+        return this.bans.getKickReason(cursor.ASNumbers[cursor.next()]);
+    }
+
+    @Benchmark
+    public String getKickReasonWithAddress(final Cursor cursor) {
+        final int idx = cursor.next();
+        return this.bans.getKickReason(cursor.ASNumbers[idx], cursor.addresses[idx]);
+    }
+}
@@ -0,0 +1,64 @@
+package ca.spottedleaf.ipastools.benchmark;
+
+import ca.spottedleaf.ipastools.astools.ASRaidDetector;
+import ca.spottedleaf.ipastools.util.IntervalledCounter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the join rate counters: a single {@link IntervalledCounter}, and the striped per-AS counters of the
+ * raid detector under contention.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CounterBenchmark {
+
+    @State(Scope.Thread)
+    public static class Counter {
+
+        private IntervalledCounter counter;
+
+        @Setup
+        public void setup() {
+            this.counter = new IntervalledCounter(TimeUnit.SECONDS.toNanos(1L));
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Detector {
+
+        private ASRaidDetector detector;
+
+        @Setup
+        public void setup() {
+            // never trips
+            this.detector = new ASRaidDetector(Double.MAX_VALUE, TimeUnit.SECONDS.toNanos(10L));
+        }
+    }
+
+    @Benchmark
+    public long updateAndAdd(final Counter counter) {
+        counter.counter.updateAndAdd(1L);
+        return counter.counter.getSum();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean recordJoin(final Detector detector) {
+        return detector.detector.recordJoin(1 + ThreadLocalRandom.current().nextInt(SyntheticTables.AS_NUMBERS));
+    }
+}
@@ -0,0 +1,86 @@
+package ca.spottedleaf.ipastools.benchmark;
+
+import ca.spottedleaf.ipastools.astools.ASLookup;
+import ca.spottedleaf.ipastools.astools.ASNameTable;
+import ca.spottedleaf.ipastools.astools.IPv4PrefixIndex;
+import ca.spottedleaf.ipastools.astools.IPv6PrefixIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookup latency over a ~1M prefix synthetic table. {@link #lookupEntry} mirrors {@code ASLookup.lookup(int)}, which
+ * cannot be constructed outside of the server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PrefixLookupBenchmark {
+
+    private static final int ADDRESSES = 1 << 16;
+
+    @Param({ "SORTED_RANGES", "STRIDE_TRIE" })
+    public IPv4PrefixIndex.Engine engine;
+
+    private IPv4PrefixIndex ipv4;
+    private IPv6PrefixIndex ipv6;
+    private ASNameTable names;
+    private int[] ipv4Addresses;
+    private long[] ipv6Addresses;
+
+    @Setup
+    public void setup() {
+        this.ipv4 = SyntheticTables.ipv4(1L, SyntheticTables.IPV4_PREFIXES).build(this.engine);
+        this.ipv6 = SyntheticTables.ipv6(2L, SyntheticTables.IPV6_PREFIXES).build();
+        this.names = SyntheticTables.names().build();
+        this.ipv4Addresses = SyntheticTables.ipv4Addresses(3L, ADDRESSES, this.ipv4);
+        this.ipv6Addresses = SyntheticTables.ipv6Addresses(4L, ADDRESSES, this.ipv6);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ADDRESSES)
+    public int lookupASNumber() {
+        final IPv4PrefixIndex index = this.ipv4;
+        int ret = 0;
+        for (final int address : this.ipv4Addresses) {
+            ret += index.lookupASNumber(address);
+        }
+        return ret;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ADDRESSES)
+    public void lookupEntry(final Blackhole blackhole) {
+        final IPv4PrefixIndex index = this.ipv4;
+        for (final int address : this.ipv4Addresses) {
+            final int prefix = index.findPrefix(address);
+            blackhole.consume(prefix == IPv4PrefixIndex.NO_MATCH ? ASLookup.NO_MATCH : index.getEntry(prefix, this.names));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ADDRESSES)
+    public int lookupASNumberIPv6() {
+        final IPv6PrefixIndex index = this.ipv6;
+        final long[] addresses = this.ipv6Addresses;
+        int ret = 0;
+        for (int i = 0; i < ADDRESSES; ++i) {
+            ret += index.lookupASNumber(addresses[i << 1], addresses[(i << 1) | 1]);
+        }
+        return ret;
+    }
+}
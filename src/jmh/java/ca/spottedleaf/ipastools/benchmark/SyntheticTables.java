@@ -0,0 +1,164 @@
+package ca.spottedleaf.ipastools.benchmark;
+
+import ca.spottedleaf.ipastools.astools.ASNameTable;
+import ca.spottedleaf.ipastools.astools.IPv4PrefixIndex;
+import ca.spottedleaf.ipastools.astools.IPv6PrefixIndex;
+import ca.spottedleaf.ipastools.util.Util;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Generates deterministic synthetic prefix tables and feeds for the benchmarks.
+ * <p>
+ * The prefix lengths loosely follow the global routing table: most prefixes are /24, the rest are spread over /8 to
+ * /23, so that prefixes nest to a realistic depth.
+ * </p>
+ */
+public final class SyntheticTables {
+
+    public static final int IPV4_PREFIXES = 1_000_000;
+    public static final int IPV6_PREFIXES = 200_000;
+    public static final int AS_NUMBERS = 75_000;
+
+    private SyntheticTables() {}
+
+    private static int ipv4Length(final Random random) {
+        final int roll = random.nextInt(100);
+        if (roll < 60) {
+            return 24;
+        }
+        if (roll < 95) {
+            return 16 + random.nextInt(8);
+        }
+        return 8 + random.nextInt(8);
+    }
+
+    private static int ipv6Length(final Random random) {
+        final int roll = random.nextInt(100);
+        if (roll < 50) {
+            return 48;
+        }
+        if (roll < 80) {
+            return 32;
+        }
+        return 29 + random.nextInt(36);
+    }
+
+    private static int ASNumber(final Random random) {
+        return 1 + random.nextInt(AS_NUMBERS);
+    }
+
+    private static int ipv4Mask(final int length) {
+        return length == 0 ? 0 : (-1 << (32 - length));
+    }
+
+    private static long ipv6MaskHigh(final int length) {
+        return length == 0 ? 0L : (length >= 64 ? -1L : (-1L << (64 - length)));
+    }
+
+    public static IPv4PrefixIndex.Builder ipv4(final long seed, final int count) {
+        final Random random = new Random(seed);
+        final IPv4PrefixIndex.Builder ret = new IPv4PrefixIndex.Builder();
+        for (int i = 0; i < count; ++i) {
+            ret.addPrefix(random.nextInt(), ipv4Length(random), ASNumber(random));
+        }
+        return ret;
+    }
+
+    public static IPv6PrefixIndex.Builder ipv6(final long seed, final int count) {
+        final Random random = new Random(seed);
+        final IPv6PrefixIndex.Builder ret = new IPv6PrefixIndex.Builder();
+        for (int i = 0; i < count; ++i) {
+            // 2000::/3
+            ret.addPrefix((random.nextLong() >>> 3) | (1L << 61), 0L, ipv6Length(random), ASNumber(random));
+        }
+        return ret;
+    }
+
+    public static ASNameTable.Builder names() {
+        final ASNameTable.Builder ret = new ASNameTable.Builder();
+        for (int i = 1; i <= AS_NUMBERS; ++i) {
+            ret.addName(i, "AS-" + i + " Synthetic Network " + (i % 97) + ", ZZ");
+        }
+        return ret;
+    }
+
+    /**
+     * Writes the same prefixes as {@link #ipv4(long, int)} in the {@code data-raw-table} format.
+     */
+    public static void writeIPv4Feed(final File file, final long seed, final int count) throws IOException {
+        final Random random = new Random(seed);
+        try (final BufferedWriter out = Files.newBufferedWriter(file.toPath(), StandardCharsets.US_ASCII)) {
+            for (int i = 0; i < count; ++i) {
+                final int address = random.nextInt();
+                final int length = ipv4Length(random);
+                out.write(Util.toIPv4String(address & ipv4Mask(length)) + "/" + length + "\t" + ASNumber(random) + "\n");
+            }
+        }
+    }
+
+    /**
+     * Writes the same prefixes as {@link #ipv6(long, int)} in the {@code ipv6-raw-table} format.
+     */
+    public static void writeIPv6Feed(final File file, final long seed, final int count) throws IOException {
+        final Random random = new Random(seed);
+        try (final BufferedWriter out = Files.newBufferedWriter(file.toPath(), StandardCharsets.US_ASCII)) {
+            for (int i = 0; i < count; ++i) {
+                final long high = (random.nextLong() >>> 3) | (1L << 61);
+                final int length = ipv6Length(random);
+                out.write(Util.toIPv6String(high & ipv6MaskHigh(length), 0L) + "/" + length + "\t" + ASNumber(random) + "\n");
+            }
+        }
+    }
+
+    /**
+     * Writes the same names as {@link #names()} in the {@code data-used-autnums} format.
+     */
+    public static void writeNamesFeed(final File file) throws IOException {
+        try (final BufferedWriter out = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            for (int i = 1; i <= AS_NUMBERS; ++i) {
+                out.write(String.format("%6d AS-%d Synthetic Network %d, ZZ\n", i, i, i % 97));
+            }
+        }
+    }
+
+    /**
+     * Returns random addresses to look up, half of which are taken from inside the prefixes of the index.
+     */
+    public static int[] ipv4Addresses(final long seed, final int count, final IPv4PrefixIndex index) {
+        final Random random = new Random(seed);
+        final int[] ret = new int[count];
+        for (int i = 0; i < count; ++i) {
+            if ((i & 1) == 0) {
+                ret[i] = random.nextInt();
+            } else {
+                final int prefix = random.nextInt(index.prefixCount());
+                ret[i] = index.getPrefixAddress(prefix) | (random.nextInt() & ~ipv4Mask(index.getPrefixLength(prefix)));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Returns random addresses to look up as [high, low] pairs, half of which are taken from inside the prefixes of
+     * the index.
+     */
+    public static long[] ipv6Addresses(final long seed, final int count, final IPv6PrefixIndex index) {
+        final Random random = new Random(seed);
+        final long[] ret = new long[count << 1];
+        for (int i = 0; i < count; ++i) {
+            if ((i & 1) == 0) {
+                ret[i << 1] = (random.nextLong() >>> 3) | (1L << 61);
+            } else {
+                final int prefix = random.nextInt(index.prefixCount());
+                ret[i << 1] = index.getPrefixAddressHigh(prefix) | (random.nextLong() & ~ipv6MaskHigh(index.getPrefixLength(prefix)));
+            }
+            ret[(i << 1) | 1] = random.nextLong();
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,119 @@
+package ca.spottedleaf.ipastools.benchmark;
+
+import ca.spottedleaf.ipastools.astools.ASFeedParser;
+import ca.spottedleaf.ipastools.astools.ASLookupCache;
+import ca.spottedleaf.ipastools.astools.ASNameTable;
+import ca.spottedleaf.ipastools.astools.IPv4PrefixIndex;
+import ca.spottedleaf.ipastools.astools.IPv6PrefixIndex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Table build times. {@link #parseFeeds} is the work of {@code ASLookup.forceUpdateCache} after the download, with
+ * the feeds read from local files, and {@link #readCache} is the work of {@code ASLookup.loadFromCache}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class TableLoadBenchmark {
+
+    private File directory;
+    private File ipv4Feed;
+    private File ipv6Feed;
+    private File namesFeed;
+    private File cacheFile;
+    private File writeFile;
+
+    private IPv4PrefixIndex ipv4;
+    private IPv6PrefixIndex ipv6;
+    private ASNameTable names;
+
+    @Setup
+    public void setup() throws IOException {
+        this.directory = Files.createTempDirectory("ipastools-bench").toFile();
+        this.ipv4Feed = new File(this.directory, "data-raw-table");
+        this.ipv6Feed = new File(this.directory, "ipv6-raw-table");
+        this.namesFeed = new File(this.directory, "data-used-autnums");
+        this.cacheFile = new File(this.directory, "aslookup.cache");
+        this.writeFile = new File(this.directory, "aslookup-write.cache");
+
+        SyntheticTables.writeIPv4Feed(this.ipv4Feed, 1L, SyntheticTables.IPV4_PREFIXES);
+        SyntheticTables.writeIPv6Feed(this.ipv6Feed, 2L, SyntheticTables.IPV6_PREFIXES);
+        SyntheticTables.writeNamesFeed(this.namesFeed);
+
+        this.ipv4 = SyntheticTables.ipv4(1L, SyntheticTables.IPV4_PREFIXES).build();
+        this.ipv6 = SyntheticTables.ipv6(2L, SyntheticTables.IPV6_PREFIXES).build();
+        this.names = SyntheticTables.names().build();
+
+        ASLookupCache.write(this.cacheFile, 0L, this.ipv4, this.ipv6, this.names);
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (final File file : this.directory.listFiles()) {
+            file.delete();
+        }
+        this.directory.delete();
+    }
+
+    @Benchmark
+    public Object parseFeeds() throws IOException {
+        final ASNameTable.Builder names = new ASNameTable.Builder();
+        final IPv4PrefixIndex.Builder builder = new IPv4PrefixIndex.Builder();
+        final IPv6PrefixIndex.Builder builder6 = new IPv6PrefixIndex.Builder();
+
+        try (final InputStream in = Files.newInputStream(this.namesFeed.toPath())) {
+            ASFeedParser.parseUsedAutnums(in, names);
+        }
+        try (final InputStream in = Files.newInputStream(this.ipv4Feed.toPath())) {
+            ASFeedParser.parseRawTable(in, builder);
+        }
+        try (final InputStream in = Files.newInputStream(this.ipv6Feed.toPath())) {
+            ASFeedParser.parseRawTable6(in, builder6);
+        }
+
+        return new Object[] { names.build(), builder.build(), builder6.build() };
+    }
+
+    @Benchmark
+    public Object parseFeedsUnchanged() throws IOException {
+        // a daily refresh where the feeds match the current tables, which are reused
+        final IPv4PrefixIndex.Builder builder = new IPv4PrefixIndex.Builder();
+        try (final InputStream in = Files.newInputStream(this.ipv4Feed.toPath())) {
+            ASFeedParser.parseRawTable(in, builder);
+        }
+        return builder.build(this.ipv4.getEngine(), this.ipv4);
+    }
+
+    @Benchmark
+    public Object buildIPv4() {
+        return SyntheticTables.ipv4(1L, SyntheticTables.IPV4_PREFIXES).build();
+    }
+
+    @Benchmark
+    public Object readCache() throws IOException {
+        return ASLookupCache.read(this.cacheFile, IPv4PrefixIndex.Engine.SORTED_RANGES);
+    }
+
+    @Benchmark
+    public void writeCache() throws IOException {
+        ASLookupCache.write(this.writeFile, 0L, this.ipv4, this.ipv6, this.names);
+    }
+}
@@ -1,11 +1,23 @@
 package ca.spottedleaf.ipastools;
 
+import ca.spottedleaf.ipastools.astools.ASAltIndex;
 import ca.spottedleaf.ipastools.astools.ASBans;
 import ca.spottedleaf.ipastools.astools.ASLookup;
+import ca.spottedleaf.ipastools.astools.ASMetrics;
+import ca.spottedleaf.ipastools.astools.ASMetricsEndpoint;
 import ca.spottedleaf.ipastools.astools.ASPlayerState;
+import ca.spottedleaf.ipastools.astools.ASRaidDetector;
+import ca.spottedleaf.ipastools.astools.LoginAuditLog;
+import ca.spottedleaf.ipastools.astools.LoginSegmentStore;
+import ca.spottedleaf.ipastools.astools.UserDataCache;
+import ca.spottedleaf.ipastools.astools.UserDataSaveQueue;
 import ca.spottedleaf.ipastools.command.ASCommand;
 import ca.spottedleaf.ipastools.config.ASConfig;
 import ca.spottedleaf.ipastools.listener.PlayerConnectionListener;
+import ca.spottedleaf.ipastools.storage.JsonFileUserDataStorage;
+import ca.spottedleaf.ipastools.storage.LogUserDataStorage;
+import ca.spottedleaf.ipastools.storage.UserDataStorage;
+import ca.spottedleaf.ipastools.util.MeteredExecutor;
 import org.bukkit.Bukkit;
 import org.bukkit.command.PluginCommand;
 import org.bukkit.configuration.file.YamlConfiguration;
@@ -14,9 +26,13 @@ import org.bukkit.plugin.java.JavaPlugin;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetSocketAddress;
 import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -56,17 +72,30 @@ public final class IPASTools extends JavaPlugin {
         };
     }
 
-    public static final ExecutorService PROFILE_LOOKUP_EXECUTOR = Executors.newSingleThreadExecutor(backgroundExecutor("IPASTools Profile lookup executor"));
-    public static final ExecutorService GENERIC_IO_EXECUTOR = Executors.newSingleThreadExecutor(backgroundExecutor("IPASTools Generic IO executor"));
+    public static final ExecutorService PROFILE_LOOKUP_EXECUTOR = new MeteredExecutor(1, backgroundExecutor("IPASTools Profile lookup executor"));
+    public static final ExecutorService GENERIC_IO_EXECUTOR = new MeteredExecutor(1, backgroundExecutor("IPASTools Generic IO executor"));
 
-    private final ExecutorService cacheUpdater = Executors.newSingleThreadExecutor(backgroundExecutor("IPASTools I/O executor"));
+    private final ExecutorService userDataLoader = Executors.newFixedThreadPool(2, backgroundExecutor("IPASTools User data loader"));
+    private final ScheduledExecutorService userDataWriter = Executors.newSingleThreadScheduledExecutor(backgroundExecutor("IPASTools User data writer"));
+    private final ExecutorService altIndexWriter = Executors.newSingleThreadExecutor(backgroundExecutor("IPASTools Alt index writer"));
+    private final MeteredExecutor cacheUpdater = new MeteredExecutor(1, backgroundExecutor("IPASTools I/O executor"));
+    private final MeteredExecutor historyQueries = new MeteredExecutor(1, backgroundExecutor("IPASTools Login history query executor"));
+    private final ScheduledExecutorService metricsWriter = Executors.newSingleThreadScheduledExecutor(backgroundExecutor("IPASTools Metrics writer"));
     private ASLookup lookup;
     // only care about the opaque property of volatile here
     private volatile ASConfig config;
     private ASBans bans;
+    private volatile ASRaidDetector raidDetector;
+    private ASMetricsEndpoint metricsEndpoint;
+    private volatile LoginAuditLog loginLog;
+    private volatile LoginSegmentStore loginSegments;
 
     public IPASTools() {
         instance = this;
+        ASMetrics.registerExecutor("profile_lookup", (MeteredExecutor)PROFILE_LOOKUP_EXECUTOR);
+        ASMetrics.registerExecutor("generic_io", (MeteredExecutor)GENERIC_IO_EXECUTOR);
+        ASMetrics.registerExecutor("lookup_updater", this.cacheUpdater);
+        ASMetrics.registerExecutor("history_query", this.historyQueries);
     }
 
     public static IPASTools getInstance() {
@@ -85,6 +114,20 @@ public final class IPASTools extends JavaPlugin {
         return this.bans;
     }
 
+    // null if disabled
+    public LoginAuditLog getLoginLog() {
+        return this.loginLog;
+    }
+
+    // null if the login log is disabled
+    public LoginSegmentStore getLoginSegments() {
+        return this.loginSegments;
+    }
+
+    public ASRaidDetector getRaidDetector() {
+        return this.raidDetector;
+    }
+
     private File getConfigFile(final String name) {
         return new File(this.getDataFolder(), name);
     }
@@ -118,23 +161,134 @@ public final class IPASTools extends JavaPlugin {
             return false;
         }
 
+        final ASLookup lookup = this.lookup;
+        if (lookup != null) {
+            lookup.setEngine(this.config.lookupEngine);
+        }
+
+        this.updateRaidDetector();
+
         return true;
     }
 
+    private void updateRaidDetector() {
+        final ASConfig config = this.config;
+        final ASRaidDetector current = this.raidDetector;
+        // keep the current join counts unless the detection settings changed
+        if (current == null || current.getThreshold() != config.raidThreshold
+                || current.getWindowNanos() != TimeUnit.SECONDS.toNanos(config.raidWindowSeconds)) {
+            this.raidDetector = new ASRaidDetector(config.raidThreshold, TimeUnit.SECONDS.toNanos(config.raidWindowSeconds));
+        }
+    }
+
+    private UserDataStorage openUserDataStorage() throws IOException {
+        final JsonFileUserDataStorage jsonFiles = new JsonFileUserDataStorage(new File(this.getDataFolder(), "userdata"));
+        if (this.config.userDataStorage == UserDataStorage.Type.JSON_FILES) {
+            return jsonFiles;
+        }
+
+        final LogUserDataStorage log = new LogUserDataStorage(new File(this.getDataFolder(), "userdata.log"), this.config.userDataSyncIntervalMillis, this.getLogger());
+        if (jsonFiles.getDirectory().isDirectory()) {
+            this.getLogger().info("Importing user data from " + jsonFiles.getDirectory() + " into user data log");
+            try {
+                final int imported = log.importFrom(jsonFiles);
+                this.getLogger().info("Imported user data for " + imported + " players");
+            } catch (final IOException ex) {
+                log.close();
+                throw ex;
+            }
+        }
+        return log;
+    }
+
     @Override
     public void onLoad() {
-        this.reloadASConfig();
+        if (!this.reloadASConfig()) {
+            this.getLogger().warning("Using default config values");
+            this.config = new ASConfig(new YamlConfiguration());
+            this.updateRaidDetector();
+        }
+
+        try {
+            ASPlayerState.setStorage(this.openUserDataStorage());
+        } catch (final IOException ex) {
+            // refuse to continue rather than start with empty user data, which would overwrite the existing data
+            throw new IllegalStateException("Failed to open user data storage", ex);
+        }
+        ASPlayerState.setCache(new UserDataCache(this.config.userDataCacheMaxWeight));
+        ASPlayerState.setLoadExecutor(this.userDataLoader);
+        ASPlayerState.setSaveQueue(new UserDataSaveQueue(this.userDataWriter, this.config.userDataSaveIntervalMillis, this.config.userDataSaveBatchSize));
+        try {
+            ASPlayerState.setAltIndex(new ASAltIndex(new File(this.getDataFolder(), "altindex.dat"), this.config.userDataSyncIntervalMillis, ASPlayerState.getStorage(), this.altIndexWriter));
+        } catch (final IOException ex) {
+            // only needed for alt lookups, so keep going without it
+            this.getLogger().log(Level.SEVERE, "Failed to open alt index, alt lookups will be unavailable", ex);
+        }
 
         this.getLogger().info("Loading AS lookup from cache, or from source if cache does not exist");
-        this.lookup = new ASLookup(new File(this.getDataFolder(), "aslookup.cache"), this.cacheUpdater);
+        this.lookup = new ASLookup(new File(this.getDataFolder(), "aslookup.cache"), this.cacheUpdater, this.config.lookupEngine);
         this.getLogger().info("Finished setting up AS lookup");
         this.getLogger().info("Loading bans from disk");
         this.bans = new ASBans(new File(this.getDataFolder(), "bans.json"));
         this.getLogger().info("Loaded bans from disk");
+
+        if (this.config.loginLogEnabled) {
+            final File loginLogDirectory = new File(this.getDataFolder(), "logins");
+            try {
+                this.loginSegments = new LoginSegmentStore(
+                        new File(loginLogDirectory, "segments"), this.config.loginHistoryRetentionMillis, this.historyQueries, this.getLogger()
+                );
+            } catch (final IOException ex) {
+                // only needed for history queries, so keep going without it
+                this.getLogger().log(Level.SEVERE, "Failed to open login history, /as history and /as top will be unavailable", ex);
+            }
+            this.loginLog = new LoginAuditLog(
+                    loginLogDirectory, this.config.loginLogBufferSize, this.config.loginLogMaxFileBytes,
+                    this.config.loginLogMaxFiles, this.config.loginLogCompress, this.config.loginLogSummaryIntervalMillis,
+                    this.config.loginLogConsoleSample, this.loginSegments, this.getLogger(), backgroundExecutor("IPASTools Login log writer")
+            );
+        }
+
+        final long metricsInterval = this.config.metricsFileIntervalSeconds;
+        if (metricsInterval > 0L) {
+            final File metricsFile = new File(this.getDataFolder(), "metrics.prom");
+            this.metricsWriter.scheduleWithFixedDelay(() -> {
+                ASMetrics.writeToFile(metricsFile);
+            }, metricsInterval, metricsInterval, TimeUnit.SECONDS);
+        }
+        if (this.config.metricsHttpPort != 0) {
+            this.startMetricsEndpoint(this.config.metricsHttpHost, this.config.metricsHttpPort);
+        }
+    }
+
+    private void startMetricsEndpoint(final String host, final int port) {
+        final InetSocketAddress address = new InetSocketAddress(host, port);
+        if (address.isUnresolved()) {
+            this.getLogger().warning("Unable to resolve metrics http-host '" + host + "', not serving metrics");
+            return;
+        }
+        if (!address.getAddress().isLoopbackAddress()) {
+            this.getLogger().warning("Serving metrics on non-loopback address " + address + ", which anyone who can reach it may read");
+        }
+        final ExecutorService executor = Executors.newSingleThreadExecutor(backgroundExecutor("IPASTools Metrics endpoint"));
+        try {
+            this.metricsEndpoint = new ASMetricsEndpoint(address, executor);
+            this.getLogger().info("Serving metrics at http://" + address.getHostString() + ":" + port + "/metrics");
+        } catch (final IOException ex) {
+            executor.shutdown();
+            this.getLogger().log(Level.SEVERE, "Failed to start metrics endpoint on " + address, ex);
+        }
     }
 
     @Override
     public void onEnable() {
+        if (ASPlayerState.getStorage() == null) {
+            // onLoad failed to open it, and the listeners and commands all need it
+            this.getLogger().severe("User data storage is not available, disabling");
+            Bukkit.getPluginManager().disablePlugin(this);
+            return;
+        }
+
         final PluginCommand asCMD = this.getCommand("as");
         if (asCMD != null) {
             asCMD.setExecutor(new ASCommand(this));
@@ -147,35 +301,119 @@ public final class IPASTools extends JavaPlugin {
         manager.registerEvents(new PlayerConnectionListener(this), this);
     }
 
-    private void shutdownExecutor(final ExecutorService service, final String name) {
-        this.getLogger().info("Shutting down " + name);
-        service.shutdown();
-        try {
-            service.awaitTermination(1L, TimeUnit.MINUTES);
-        } catch (final InterruptedException ex) {
-            this.getLogger().warning("Interrupted while waiting for " + name + " to shut down");
-        }
-        if (!service.isTerminated()) {
-            this.getLogger().warning(name + " is not terminated after waiting for shutdown, skipping");
-        } else {
-            this.getLogger().info(name + " terminated normally");
-        }
-    }
-
     @Override
     public void onDisable() {
-        this.getLogger().info("Saving user data...");
-        ASPlayerState.saveAllUserData();
-        this.getLogger().info("Saved user data");
+        final ASConfig config = this.config;
+        if (config == null) {
+            // onLoad failed before anything was opened, so there is nothing to save or close
+            return;
+        }
+        final ShutdownCoordinator shutdown = new ShutdownCoordinator(
+                this.getLogger(), TimeUnit.SECONDS.toNanos(config.shutdownTimeoutSeconds)
+        );
+
+        // a scrape during shutdown would only race the executors being drained
+        final ASMetricsEndpoint metricsEndpoint = this.metricsEndpoint;
+        if (metricsEndpoint != null) {
+            shutdown.run("stop metrics endpoint", metricsEndpoint::stop);
+        }
 
-        this.shutdownExecutor(PROFILE_LOOKUP_EXECUTOR, "Profile lookup executor");
-        this.shutdownExecutor(GENERIC_IO_EXECUTOR, "Generic I/O executor");
-        this.shutdownExecutor(this.cacheUpdater, "ASLookup I/O executor");
+        // logins are no longer coming in, so only the queued records remain
+        final LoginAuditLog loginLog = this.loginLog;
+        if (loginLog != null) {
+            this.loginLog = null;
+            shutdown.run("close login log", () -> {
+                if (!loginLog.close(shutdown.getRemainingNanos())) {
+                    this.getLogger().warning("Login log writer did not finish before the shutdown deadline");
+                }
+            });
+        }
 
-        if (this.bans != null) {
+        // persist first, so that nothing is lost if the rest takes too long
+        final ASBans bans = this.bans;
+        if (bans != null) {
             this.getLogger().info("Saving AS ban list");
-            this.bans.saveToFile();
+            shutdown.run("save AS ban list", bans::saveToFile);
             this.getLogger().info("Saved AS ban list");
         }
+
+        final UserDataStorage storage = ASPlayerState.getStorage();
+        boolean savedAllUserData = true;
+        if (storage != null) {
+            this.getLogger().info("Saving user data...");
+            final ExecutorService savers = Executors.newFixedThreadPool(config.userDataShutdownSaveThreads, backgroundExecutor("IPASTools User data saver"));
+            final ASPlayerState.SaveAllResult result = ASPlayerState.saveAllUserData(
+                    savers, config.userDataShutdownSaveThreads,
+                    Math.min(TimeUnit.SECONDS.toNanos(config.userDataShutdownSaveTimeoutSeconds), shutdown.getRemainingNanos())
+            );
+            // workers stop at the deadline, so this only waits for the saves in progress
+            shutdown.drain(Map.of("User data savers", savers), false);
+            this.getLogger().info(
+                    "Saved user data in " + TimeUnit.NANOSECONDS.toMillis(result.elapsedNanos()) + "ms: " + result.saved() + " saved, "
+                            + result.unchanged() + " unchanged, " + result.unsaveable() + " not saveable, " + result.skipped() + " skipped, "
+                            + result.failed() + " failed"
+            );
+            // states which must not be saved were never going to be, so only a missed deadline or failed writes stop the queue flush
+            if (result.skipped() != 0) {
+                savedAllUserData = false;
+                this.getLogger().warning("Did not save user data of " + result.skipped() + " players before the deadline, their changes are lost");
+            }
+            if (result.failed() != 0) {
+                savedAllUserData = false;
+            }
+        }
+
+        // a refresh may be stuck downloading, which would otherwise hold up draining the lookup executor
+        final ASLookup lookup = this.lookup;
+        if (lookup != null) {
+            shutdown.run("cancel ASLookup refresh", lookup::cancelRefresh);
+        }
+
+        // network tasks may be interrupted, but user data tasks must not be, as that closes the storage
+        final Map<String, ExecutorService> network = new LinkedHashMap<>();
+        network.put("Profile lookup executor", PROFILE_LOOKUP_EXECUTOR);
+        network.put("ASLookup I/O executor", this.cacheUpdater);
+        network.put("Metrics writer", this.metricsWriter);
+        network.put("Login history query executor", this.historyQueries);
+        final Map<String, ExecutorService> io = new LinkedHashMap<>();
+        io.put("Generic I/O executor", GENERIC_IO_EXECUTOR);
+        io.put("User data loader", this.userDataLoader);
+        for (final ExecutorService executor : io.values()) {
+            // start draining these while waiting on the network executors
+            executor.shutdown();
+        }
+        shutdown.drain(network, true);
+        shutdown.drain(io, false);
+
+        // close only once the executors are done, as they may still be releasing user data
+        if (storage != null) {
+            if (savedAllUserData && !shutdown.isExpired()) {
+                shutdown.run("flush user data save queue", ASPlayerState.getSaveQueue()::flush);
+            }
+            shutdown.drain(Map.of("User data writer", this.userDataWriter), false);
+            try {
+                storage.close();
+            } catch (final IOException ex) {
+                this.getLogger().log(Level.SEVERE, "Failed to close user data storage", ex);
+            }
+        }
+
+        // the logins are all in, so only the queued alt index records remain
+        final boolean drainedAltIndex = shutdown.drain(Map.of("Alt index writer", this.altIndexWriter), false);
+        final ASAltIndex altIndex = ASPlayerState.getAltIndex();
+        if (altIndex != null && drainedAltIndex) {
+            try {
+                altIndex.close();
+            } catch (final IOException ex) {
+                this.getLogger().log(Level.SEVERE, "Failed to close alt index", ex);
+            }
+        }
+
+        // again, in case the drained executors changed it
+        if (bans != null) {
+            shutdown.run("save AS ban list", bans::saveToFile);
+        }
+
+        this.getLogger().info("Shut down in " + shutdown.getElapsedMillis() + "ms");
     }
 }
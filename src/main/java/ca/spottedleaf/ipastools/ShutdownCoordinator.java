@@ -0,0 +1,92 @@
+package ca.spottedleaf.ipastools;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the plugin shutdown against a single deadline, rather than giving every step its own timeout.
+ * <p>
+ * Steps run in order and a failing step does not stop the ones after it. Executors are drained together: all of them
+ * are shut down first and then awaited against the shared deadline, and whichever have not terminated by then are
+ * interrupted if allowed.
+ * </p>
+ */
+final class ShutdownCoordinator {
+
+    private final Logger logger;
+    private final long start;
+    private final long deadline;
+
+    ShutdownCoordinator(final Logger logger, final long timeoutNanos) {
+        this.logger = logger;
+        this.start = System.nanoTime();
+        this.deadline = this.start + timeoutNanos;
+    }
+
+    long getRemainingNanos() {
+        return Math.max(0L, this.deadline - System.nanoTime());
+    }
+
+    boolean isExpired() {
+        return this.deadline - System.nanoTime() <= 0L;
+    }
+
+    long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - this.start);
+    }
+
+    void run(final String name, final Runnable step) {
+        try {
+            step.run();
+        } catch (final Throwable thr) {
+            this.logger.log(Level.SEVERE, "Failed to " + name + " on shutdown", thr);
+        }
+    }
+
+    /**
+     * Shuts down the specified executors, keyed by name, and waits for them to terminate until the deadline.
+     * @param interrupt Whether to interrupt the executors still running at the deadline. Must be false for executors
+     *                  doing file channel I/O, as an interrupt closes the channel.
+     * @return Whether all the executors terminated in time.
+     */
+    boolean drain(final Map<String, ExecutorService> executors, final boolean interrupt) {
+        for (final ExecutorService executor : executors.values()) {
+            executor.shutdown();
+        }
+
+        final List<String> stragglers = new ArrayList<>();
+        boolean interrupted = false;
+        for (final Map.Entry<String, ExecutorService> entry : executors.entrySet()) {
+            final ExecutorService executor = entry.getValue();
+            try {
+                if (!interrupted && executor.awaitTermination(this.getRemainingNanos(), TimeUnit.NANOSECONDS)) {
+                    continue;
+                }
+            } catch (final InterruptedException ex) {
+                interrupted = true;
+            }
+            if (!executor.isTerminated()) {
+                stragglers.add(entry.getKey());
+                if (interrupt) {
+                    executor.shutdownNow();
+                }
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (!stragglers.isEmpty()) {
+            this.logger.warning((interrupt ? "Interrupted " : "Abandoned ") + String.join(", ", stragglers) + " as they did not finish before the shutdown deadline");
+            return false;
+        }
+        this.logger.info("Drained " + String.join(", ", executors.keySet()) + " in " + this.getElapsedMillis() + "ms");
+        return true;
+    }
+}
@@ -0,0 +1,447 @@
+package ca.spottedleaf.ipastools.astools;
+
+import ca.spottedleaf.ipastools.IPASTools;
+import ca.spottedleaf.ipastools.storage.UserDataStorage;
+import ca.spottedleaf.ipastools.util.Util;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent reverse index from AS numbers and addresses to the players which have logged in with them.
+ * <p>
+ * Players and addresses are interned to dense ordinals, and each AS number, address and player maps to a sorted
+ * {@code int[]} posting list of ordinals. Addresses are kept ordered, so that every address in a prefix or range can
+ * be found without scanning the others. Every new (player, AS number, address) triple is appended to the index file as
+ * a small checksummed record, so the file never needs rewriting and is replayed on load. Logins only update the
+ * postings in memory, the records are appended and synced on the writer executor. If the file does not exist,
+ * it is built from the login history in the user data storage into a temporary file, which only replaces the index
+ * once complete, so an interrupted build is started over rather than leaving a partial index.
+ * </p>
+ */
+public final class ASAltIndex {
+
+    // "IPASALTS"
+    private static final long MAGIC = 0x49504153414C5453L;
+    // increment when breaking changes are made to the format
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8 + 4;
+    // uuid, AS number, address, crc of the preceding fields
+    private static final int RECORD_SIZE = 8 + 8 + 4 + 8 + 8 + 4;
+
+    private final File file;
+    private final long syncIntervalNanos;
+    private final Executor writer;
+
+    // only accessed by the writer, or by the constructor before anything is handed to it
+    private FileChannel channel;
+    private long end;
+    private long lastSync = System.nanoTime();
+    private boolean unsynced;
+
+    // all below guarded by this
+    private final Map<UUID, Integer> playerOrdinals = new HashMap<>();
+    private final List<UUID> players = new ArrayList<>();
+    private final List<Postings> playerAddresses = new ArrayList<>();
+
+    private final TreeMap<Address, Integer> addressOrdinals = new TreeMap<>();
+    private final List<Postings> addressPlayers = new ArrayList<>();
+
+    private final Map<Integer, Postings> ASPlayers = new HashMap<>();
+
+    /**
+     * Opens the index at the specified file, building it from the specified storage if it does not exist. New records
+     * are written on the specified executor, which must run tasks one at a time and must have finished before
+     * {@link #close()}.
+     */
+    public ASAltIndex(final File file, final long syncIntervalMillis, final UserDataStorage buildFrom, final Executor writer) throws IOException {
+        this.file = file.getAbsoluteFile();
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+        this.writer = writer;
+
+        if (this.file.exists()) {
+            this.open(this.file);
+        } else {
+            this.buildFile(buildFrom);
+        }
+    }
+
+    private static record Address(long high, long low) implements Comparable<Address> {
+
+        @Override
+        public int compareTo(final Address other) {
+            final int cmp = Long.compareUnsigned(this.high, other.high);
+            return cmp != 0 ? cmp : Long.compareUnsigned(this.low, other.low);
+        }
+    }
+
+    // sorted set of ordinals
+    private static final class Postings {
+
+        private int[] values = new int[2];
+        private int size;
+
+        // returns whether the value was not present
+        boolean add(final int value) {
+            // ordinals are allocated in increasing order, so most adds append
+            int idx;
+            if (this.size == 0 || this.values[this.size - 1] < value) {
+                idx = this.size;
+            } else {
+                idx = Arrays.binarySearch(this.values, 0, this.size, value);
+                if (idx >= 0) {
+                    return false;
+                }
+                idx = -(idx + 1);
+            }
+
+            if (this.size == this.values.length) {
+                this.values = Arrays.copyOf(this.values, this.size << 1);
+            }
+            System.arraycopy(this.values, idx, this.values, idx + 1, this.size - idx);
+            this.values[idx] = value;
+            ++this.size;
+            return true;
+        }
+
+        boolean contains(final int value) {
+            return Arrays.binarySearch(this.values, 0, this.size, value) >= 0;
+        }
+    }
+
+    private static int checksum(final ByteBuffer record) {
+        final CRC32 crc = new CRC32();
+        crc.update(record.duplicate().position(0).limit(RECORD_SIZE - 4));
+        return (int)crc.getValue();
+    }
+
+    private static Address toAddress(final InetAddress address) {
+        if (address instanceof Inet4Address ipv4) {
+            return new Address(0L, ASBans.RangeBanEntry.IPV4_MAPPED | ((long)Util.toIPInt(ipv4) & 0xFFFFFFFFL));
+        }
+        if (address instanceof Inet6Address ipv6) {
+            final byte[] addr = ipv6.getAddress();
+            return new Address(Util.getIPv6High(addr), Util.getIPv6Low(addr));
+        }
+        return null;
+    }
+
+    private void open(final File file) throws IOException {
+        file.getParentFile().mkdirs();
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+        final long size = this.channel.size();
+        if (size == 0L) {
+            final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.BIG_ENDIAN)
+                    .putLong(0, MAGIC).putInt(8, VERSION);
+            while (header.hasRemaining()) {
+                this.channel.write(header, header.position());
+            }
+            this.channel.force(true);
+            this.end = FILE_HEADER_SIZE;
+            return;
+        }
+
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(this.channel.position(0L)), 1 << 16));
+        if (size < FILE_HEADER_SIZE || in.readLong() != MAGIC) {
+            throw new IOException("Not an alt index: " + file);
+        }
+        final int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported alt index version " + version + ": " + file);
+        }
+
+        long position = FILE_HEADER_SIZE;
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.BIG_ENDIAN);
+        try {
+            while (position + RECORD_SIZE <= size) {
+                in.readFully(record.array());
+                if (checksum(record) != record.getInt(RECORD_SIZE - 4)) {
+                    break;
+                }
+                this.index(new UUID(record.getLong(0), record.getLong(8)), record.getInt(16), new Address(record.getLong(20), record.getLong(28)));
+                position += RECORD_SIZE;
+            }
+        } catch (final EOFException ex) {
+            // torn record, the checks above should have caught it
+        }
+
+        if (position != size) {
+            IPASTools.getInstance().getLogger().warning(
+                    "Alt index '" + file + "' has " + (size - position) + " trailing bytes of incomplete records, truncating"
+            );
+            this.channel.truncate(position);
+            this.channel.force(true);
+        }
+        this.channel.position(0L);
+        this.end = position;
+    }
+
+    private void buildFile(final UserDataStorage from) throws IOException {
+        final File temp = new File(this.file.getPath() + ".tmp");
+        // left over from an interrupted build
+        Files.deleteIfExists(temp.toPath());
+
+        this.open(temp);
+        this.build(from);
+        this.channel.force(true);
+        this.channel.close();
+
+        Files.move(temp.toPath(), this.file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        // the records are already indexed, so only the end of the file is needed
+        this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private void build(final UserDataStorage from) throws IOException {
+        IPASTools.getInstance().getLogger().info("Building alt index from user data");
+        final long start = System.nanoTime();
+        final int[] players = new int[1];
+
+        from.forEach((final UUID userId, final byte[] data) -> {
+            final ASPlayerState state;
+            try {
+                state = ASPlayerState.deserialize(userId, data);
+            } catch (final IOException ex) {
+                IPASTools.getInstance().getLogger().warning("Skipping unreadable user data for " + userId + " while building alt index");
+                return;
+            }
+            for (final ASPlayerState.ASLoginEntry entry : state.getLoginHistory()) {
+                final Address address = new Address(entry.ipHigh(), entry.ipLow());
+                if (!this.indexIfNew(userId, entry.ASNumber(), address)) {
+                    continue;
+                }
+                try {
+                    this.append(encode(userId, entry.ASNumber(), address));
+                } catch (final IOException ex) {
+                    Util.sneakyThrow(ex);
+                }
+            }
+            ++players[0];
+        });
+        this.flush();
+
+        IPASTools.getInstance().getLogger().info(
+                "Built alt index for " + players[0] + " players in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms"
+        );
+    }
+
+    // must hold lock on this, returns whether the triple is new
+    private boolean index(final UUID userId, final int ASNumber, final Address address) {
+        Integer player = this.playerOrdinals.get(userId);
+        if (player == null) {
+            player = Integer.valueOf(this.players.size());
+            this.playerOrdinals.put(userId, player);
+            this.players.add(userId);
+            this.playerAddresses.add(new Postings());
+        }
+
+        Integer addressOrdinal = this.addressOrdinals.get(address);
+        if (addressOrdinal == null) {
+            addressOrdinal = Integer.valueOf(this.addressPlayers.size());
+            this.addressOrdinals.put(address, addressOrdinal);
+            this.addressPlayers.add(new Postings());
+        }
+
+        final boolean newAS = this.ASPlayers.computeIfAbsent(Integer.valueOf(ASNumber), (final Integer key) -> new Postings())
+                .add(player.intValue());
+        final boolean newAddress = this.addressPlayers.get(addressOrdinal.intValue()).add(player.intValue());
+        this.playerAddresses.get(player.intValue()).add(addressOrdinal.intValue());
+
+        return newAS || newAddress;
+    }
+
+    // returns whether the triple is new, and if so indexes it
+    private synchronized boolean indexIfNew(final UUID userId, final int ASNumber, final Address address) {
+        // cheap check for the common case of a player logging in the same way again
+        final Integer player = this.playerOrdinals.get(userId);
+        final Integer addressOrdinal = this.addressOrdinals.get(address);
+        final Postings ASPostings = this.ASPlayers.get(Integer.valueOf(ASNumber));
+        if (player != null && addressOrdinal != null && ASPostings != null && ASPostings.contains(player.intValue())
+                && this.addressPlayers.get(addressOrdinal.intValue()).contains(player.intValue())) {
+            return false;
+        }
+
+        return this.index(userId, ASNumber, address);
+    }
+
+    private static ByteBuffer encode(final UUID userId, final int ASNumber, final Address address) {
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.BIG_ENDIAN);
+        record.putLong(0, userId.getMostSignificantBits());
+        record.putLong(8, userId.getLeastSignificantBits());
+        record.putInt(16, ASNumber);
+        record.putLong(20, address.high());
+        record.putLong(28, address.low());
+        record.putInt(RECORD_SIZE - 4, checksum(record));
+        return record;
+    }
+
+    /**
+     * Records the AS number and address of a login, if the player has not used both before. The lookups see the login
+     * immediately, while its record is written to the file later by the writer executor.
+     */
+    public void add(final UUID userId, final ASPlayerState.ASLoginEntry entry) {
+        final Address address = new Address(entry.ipHigh(), entry.ipLow());
+        if (!this.indexIfNew(userId, entry.ASNumber(), address)) {
+            return;
+        }
+
+        final ByteBuffer record = encode(userId, entry.ASNumber(), address);
+        try {
+            this.writer.execute(() -> {
+                try {
+                    this.append(record);
+                } catch (final IOException ex) {
+                    IPASTools.getInstance().getLogger().log(Level.SEVERE, "Failed to write login of " + userId + " to alt index", ex);
+                }
+            });
+        } catch (final RejectedExecutionException ex) {
+            // shutting down, the login is kept in the user data but not in the index file
+            IPASTools.getInstance().getLogger().warning("Alt index is closed, login of " + userId + " is only kept in memory");
+        }
+    }
+
+    // only called by the writer, or by the constructor
+    private void append(final ByteBuffer record) throws IOException {
+        long offset = this.end;
+        while (record.hasRemaining()) {
+            offset += this.channel.write(record, offset);
+        }
+        this.end = offset;
+        this.unsynced = true;
+
+        if (System.nanoTime() - this.lastSync >= this.syncIntervalNanos) {
+            this.flush();
+        }
+    }
+
+    private void flush() throws IOException {
+        this.lastSync = System.nanoTime();
+        if (this.unsynced) {
+            this.unsynced = false;
+            this.channel.force(false);
+        }
+    }
+
+    /**
+     * Syncs and closes the index file. The writer executor must have finished all the records handed to it.
+     */
+    public void close() throws IOException {
+        if (!this.channel.isOpen()) {
+            return;
+        }
+        this.flush();
+        this.channel.close();
+    }
+
+    // must hold lock on this
+    private List<UUID> toPlayers(final Postings postings) {
+        if (postings == null) {
+            return new ArrayList<>();
+        }
+        final List<UUID> ret = new ArrayList<>(postings.size);
+        for (int i = 0; i < postings.size; ++i) {
+            ret.add(this.players.get(postings.values[i]));
+        }
+        return ret;
+    }
+
+    /**
+     * Returns every player which has logged in from the specified AS number.
+     */
+    public synchronized List<UUID> getPlayersByAS(final int ASNumber) {
+        return this.toPlayers(this.ASPlayers.get(Integer.valueOf(ASNumber)));
+    }
+
+    /**
+     * Returns every player which has logged in from an address in the specified inclusive range, with IPv4 addresses
+     * mapped into {@code ::ffff:0:0/96}.
+     */
+    public synchronized List<UUID> getPlayersInRange(final long startHigh, final long startLow, final long endHigh, final long endLow) {
+        final BitSet merged = new BitSet();
+        for (final Integer addressOrdinal : this.addressOrdinals.subMap(new Address(startHigh, startLow), true, new Address(endHigh, endLow), true).values()) {
+            final Postings postings = this.addressPlayers.get(addressOrdinal.intValue());
+            for (int i = 0; i < postings.size; ++i) {
+                merged.set(postings.values[i]);
+            }
+        }
+
+        final List<UUID> ret = new ArrayList<>(merged.cardinality());
+        for (int player = merged.nextSetBit(0); player >= 0; player = merged.nextSetBit(player + 1)) {
+            ret.add(this.players.get(player));
+        }
+        return ret;
+    }
+
+    public List<UUID> getPlayersByAddress(final InetAddress address) {
+        final Address key = toAddress(address);
+        if (key == null) {
+            return new ArrayList<>();
+        }
+        return this.getPlayersInRange(key.high(), key.low(), key.high(), key.low());
+    }
+
+    public static record Alt(UUID userId, int sharedAddresses) {}
+
+    /**
+     * Returns every other player which has logged in from an address the specified player has logged in from, ordered
+     * by the number of addresses shared, most first.
+     */
+    public synchronized List<Alt> getAlts(final UUID userId) {
+        final Integer player = this.playerOrdinals.get(userId);
+        if (player == null) {
+            return new ArrayList<>();
+        }
+
+        final Map<Integer, int[]> shared = new HashMap<>();
+        final Postings addresses = this.playerAddresses.get(player.intValue());
+        for (int i = 0; i < addresses.size; ++i) {
+            final Postings postings = this.addressPlayers.get(addresses.values[i]);
+            for (int k = 0; k < postings.size; ++k) {
+                final int other = postings.values[k];
+                if (other != player.intValue()) {
+                    ++shared.computeIfAbsent(Integer.valueOf(other), (final Integer key) -> new int[1])[0];
+                }
+            }
+        }
+
+        final List<Alt> ret = new ArrayList<>(shared.size());
+        for (final Map.Entry<Integer, int[]> entry : shared.entrySet()) {
+            ret.add(new Alt(this.players.get(entry.getKey().intValue()), entry.getValue()[0]));
+        }
+        ret.sort((final Alt a1, final Alt a2) -> Integer.compare(a2.sharedAddresses(), a1.sharedAddresses()));
+        return ret;
+    }
+
+    public synchronized int playerCount() {
+        return this.players.size();
+    }
+
+    public synchronized int addressCount() {
+        return this.addressPlayers.size();
+    }
+}
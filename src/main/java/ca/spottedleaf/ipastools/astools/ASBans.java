@@ -1,38 +1,192 @@
 package ca.spottedleaf.ipastools.astools;
 
 import ca.spottedleaf.ipastools.IPASTools;
+import ca.spottedleaf.ipastools.util.TimestampCodec;
 import ca.spottedleaf.ipastools.util.Util;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import java.io.File;
 import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 
+/**
+ * AS and address range ban list.
+ * <p>
+ * Bans are held in an immutable table of AS numbers sorted in a primitive array together with a {@link RangeBanIndex},
+ * which is replaced as a whole on modification. Login checks are thus a lock-free, allocation-free binary search in
+ * each. Expired bans are ignored by the check and are removed in the background, ordered by a heap on their expire time.
+ * </p>
+ */
 public final class ASBans {
 
     private final File file;
-    private final LinkedHashMap<Integer, ASBanEntry> entries = new LinkedHashMap<>();
+
+    // only modified while synchronized on this
+    private volatile Table table = Table.EMPTY;
+    private final PriorityQueue<ASBanEntry> expiryQueue = new PriorityQueue<>(
+            (final ASBanEntry e1, final ASBanEntry e2) -> Long.compare(e1.expireMillis(), e2.expireMillis())
+    );
+    private final PriorityQueue<RangeBanEntry> rangeExpiryQueue = new PriorityQueue<>(
+            (final RangeBanEntry e1, final RangeBanEntry e2) -> Long.compare(e1.expireMillis(), e2.expireMillis())
+    );
+    // Long.MAX_VALUE if nothing expires or a sweep is already scheduled
+    private final AtomicLong nextExpiry = new AtomicLong(Long.MAX_VALUE);
 
     public ASBans(final File file) {
         this.file = file;
         this.loadFromFile();
     }
 
-    public String getKickReason(final int ASNumber) {
-        final Date now = new Date();
-        synchronized (this) {
-            final ASBanEntry entry = this.entries.get(Integer.valueOf(ASNumber));
+    private static final class Table {
 
-            if (entry != null && entry.hasExpired(now)) {
-                this.entries.remove(Integer.valueOf(ASNumber));
-                return null;
+        private static final Table EMPTY = new Table(new int[0], new ASBanEntry[0], RangeBanIndex.EMPTY);
+
+        // sorted
+        private final int[] ASNumbers;
+        private final long[] expires;
+        private final ASBanEntry[] entries;
+        private final RangeBanIndex ranges;
+
+        private Table(final int[] ASNumbers, final ASBanEntry[] entries, final RangeBanIndex ranges) {
+            this.ASNumbers = ASNumbers;
+            this.entries = entries;
+            this.ranges = ranges;
+            this.expires = new long[entries.length];
+            for (int i = 0; i < entries.length; ++i) {
+                this.expires[i] = entries[i].expireMillis();
             }
+        }
 
-            return entry == null ? null : entry.kickReason();
+        private ASBanEntry get(final int ASNumber) {
+            final int idx = Arrays.binarySearch(this.ASNumbers, ASNumber);
+            return idx < 0 ? null : this.entries[idx];
         }
+
+        private String getKickReason(final int ASNumber, final long now) {
+            final int idx = Arrays.binarySearch(this.ASNumbers, ASNumber);
+            return idx < 0 || this.expires[idx] < now ? null : this.entries[idx].kickReason();
+        }
+
+        private Table withRanges(final RangeBanIndex ranges) {
+            return new Table(this.ASNumbers, this.entries, ranges);
+        }
+
+        private Table with(final ASBanEntry entry) {
+            final int idx = Arrays.binarySearch(this.ASNumbers, entry.ASNumber());
+            if (idx >= 0) {
+                final ASBanEntry[] entries = this.entries.clone();
+                entries[idx] = entry;
+                return new Table(this.ASNumbers, entries, this.ranges);
+            }
+
+            final int insert = -(idx + 1);
+            final int size = this.ASNumbers.length;
+
+            final int[] ASNumbers = new int[size + 1];
+            final ASBanEntry[] entries = new ASBanEntry[size + 1];
+            System.arraycopy(this.ASNumbers, 0, ASNumbers, 0, insert);
+            System.arraycopy(this.entries, 0, entries, 0, insert);
+            ASNumbers[insert] = entry.ASNumber();
+            entries[insert] = entry;
+            System.arraycopy(this.ASNumbers, insert, ASNumbers, insert + 1, size - insert);
+            System.arraycopy(this.entries, insert, entries, insert + 1, size - insert);
+
+            return new Table(ASNumbers, entries, this.ranges);
+        }
+
+        private Table without(final int ASNumber) {
+            final int idx = Arrays.binarySearch(this.ASNumbers, ASNumber);
+            if (idx < 0) {
+                return this;
+            }
+
+            final int size = this.ASNumbers.length;
+
+            final int[] ASNumbers = new int[size - 1];
+            final ASBanEntry[] entries = new ASBanEntry[size - 1];
+            System.arraycopy(this.ASNumbers, 0, ASNumbers, 0, idx);
+            System.arraycopy(this.entries, 0, entries, 0, idx);
+            System.arraycopy(this.ASNumbers, idx + 1, ASNumbers, idx, size - idx - 1);
+            System.arraycopy(this.entries, idx + 1, entries, idx, size - idx - 1);
+
+            return new Table(ASNumbers, entries, this.ranges);
+        }
+    }
+
+    public String getKickReason(final int ASNumber) {
+        final long start = System.nanoTime();
+        final long now = System.currentTimeMillis();
+        this.sweepIfNeeded(now);
+        final String ret = this.table.getKickReason(ASNumber, now);
+        ASMetrics.KICK_REASON.recordSince(start);
+        if (ret != null) {
+            ASMetrics.AS_BAN_HITS.increment();
+        }
+        return ret;
+    }
+
+    // lock-free
+    public int getASBanCount() {
+        return this.table.ASNumbers.length;
+    }
+
+    // lock-free
+    public int getRangeBanCount() {
+        return this.table.ranges.size();
+    }
+
+    /**
+     * Returns the kick reason for a connection from the specified IPv4 address in the specified AS, checking both the
+     * range bans and the AS bans. A range ban takes precedence.
+     */
+    public String getKickReason(final int ASNumber, final int ipv4) {
+        return this.getKickReason(ASNumber, 0L, RangeBanEntry.IPV4_MAPPED | ((long)ipv4 & 0xFFFFFFFFL));
+    }
+
+    /**
+     * Returns the kick reason for a connection from the specified IPv6 address in the specified AS, checking both the
+     * range bans and the AS bans. A range ban takes precedence.
+     */
+    public String getKickReason(final int ASNumber, final long high, final long low) {
+        final long start = System.nanoTime();
+        final long now = System.currentTimeMillis();
+        this.sweepIfNeeded(now);
+
+        final Table table = this.table;
+        final String rangeReason = table.ranges.getKickReason(high, low, now);
+        final String ret = rangeReason != null ? rangeReason : table.getKickReason(ASNumber, now);
+        ASMetrics.KICK_REASON.recordSince(start);
+        if (rangeReason != null) {
+            ASMetrics.RANGE_BAN_HITS.increment();
+        } else if (ret != null) {
+            ASMetrics.AS_BAN_HITS.increment();
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the kick reason for a connection from the specified address in the specified AS, use -1 for the AS
+     * number if it is not known.
+     */
+    public String getKickReason(final int ASNumber, final InetAddress address) {
+        if (address instanceof Inet4Address ipv4) {
+            return this.getKickReason(ASNumber, Util.toIPInt(ipv4));
+        }
+        if (address instanceof Inet6Address ipv6) {
+            final byte[] addr = ipv6.getAddress();
+            return this.getKickReason(ASNumber, Util.getIPv6High(addr), Util.getIPv6Low(addr));
+        }
+        return this.getKickReason(ASNumber);
     }
 
     public void addBanEntry(final int ASNumber, final String kickReason, final Date expire) {
@@ -40,14 +194,106 @@ public final class ASBans {
             throw new NullPointerException();
         }
 
+        final ASBanEntry entry = new ASBanEntry(ASNumber, kickReason, expire);
         synchronized (this) {
-            this.entries.put(Integer.valueOf(ASNumber), new ASBanEntry(ASNumber, kickReason, expire));
+            this.table = this.table.with(entry);
+            if (expire != null) {
+                this.expiryQueue.add(entry);
+                this.updateNextExpiry();
+            }
         }
     }
 
     public boolean removeBanEntry(final int ASNumber) {
         synchronized (this) {
-            return this.entries.remove(Integer.valueOf(ASNumber)) != null;
+            final Table table = this.table;
+            final ASBanEntry entry = table.get(ASNumber);
+            if (entry == null) {
+                return false;
+            }
+            // the entry is left in the expiry queue, and is skipped when it is polled
+            this.table = table.without(ASNumber);
+            return !entry.hasExpired(System.currentTimeMillis());
+        }
+    }
+
+    public void addRangeBanEntry(final RangeBanEntry entry) {
+        synchronized (this) {
+            this.table = this.table.withRanges(this.table.ranges.with(entry));
+            if (entry.expire() != null) {
+                this.rangeExpiryQueue.add(entry);
+                this.updateNextExpiry();
+            }
+        }
+    }
+
+    /**
+     * Removes the range ban with the specified target, which must be normalised as by {@link RangeBanEntry#parse}.
+     * Returns the removed entry, which may have expired, or null if there was no range ban for the target.
+     */
+    public RangeBanEntry removeRangeBanEntry(final String target) {
+        synchronized (this) {
+            final Table table = this.table;
+            final RangeBanEntry entry = table.ranges.get(target);
+            if (entry == null) {
+                return null;
+            }
+            // the entry is left in the expiry queue, and is skipped when it is polled
+            this.table = table.withRanges(table.ranges.without(target));
+            return entry;
+        }
+    }
+
+    public RangeBanEntry[] getRangeBanEntries() {
+        return this.table.ranges.getEntries();
+    }
+
+    // must hold lock on this
+    private void updateNextExpiry() {
+        final ASBanEntry next = this.expiryQueue.peek();
+        final RangeBanEntry nextRange = this.rangeExpiryQueue.peek();
+        this.nextExpiry.set(Math.min(
+                next == null ? Long.MAX_VALUE : next.expireMillis(),
+                nextRange == null ? Long.MAX_VALUE : nextRange.expireMillis()
+        ));
+    }
+
+    private void sweepIfNeeded(final long now) {
+        final long next = this.nextExpiry.get();
+        if (now <= next || !this.nextExpiry.compareAndSet(next, Long.MAX_VALUE)) {
+            return;
+        }
+        IPASTools.GENERIC_IO_EXECUTOR.execute(this::sweepExpired);
+    }
+
+    private void sweepExpired() {
+        final long now = System.currentTimeMillis();
+        int removed = 0;
+        synchronized (this) {
+            Table table = this.table;
+            ASBanEntry entry;
+            while ((entry = this.expiryQueue.peek()) != null && entry.hasExpired(now)) {
+                this.expiryQueue.poll();
+                // the ban may have been replaced or removed since it was queued
+                if (table.get(entry.ASNumber()) == entry) {
+                    table = table.without(entry.ASNumber());
+                    ++removed;
+                }
+            }
+            RangeBanEntry rangeEntry;
+            while ((rangeEntry = this.rangeExpiryQueue.peek()) != null && rangeEntry.hasExpired(now)) {
+                this.rangeExpiryQueue.poll();
+                if (table.ranges.get(rangeEntry.target()) == rangeEntry) {
+                    table = table.withRanges(table.ranges.without(rangeEntry.target()));
+                    ++removed;
+                }
+            }
+            this.table = table;
+            this.updateNextExpiry();
+        }
+
+        if (removed != 0) {
+            this.saveToFile();
         }
     }
 
@@ -86,17 +332,45 @@ public final class ASBans {
 
     private void loadFromJson(final JsonObject json) {
         Exception ex = null;
-        final Date now = new Date();
+        final long now = System.currentTimeMillis();
         synchronized (this) {
             try {
-                final LinkedHashMap<Integer, ASBanEntry> newEntries = new LinkedHashMap<>();
+                Table newTable = Table.EMPTY;
+                final List<ASBanEntry> expiring = new ArrayList<>();
                 for (final JsonElement elem : json.getAsJsonArray("bans")) {
                     final ASBanEntry entry = ASBanEntry.parse(elem.getAsJsonObject());
                     if (entry.hasExpired(now)) {
                         continue;
                     }
-                    newEntries.put(Integer.valueOf(entry.ASNumber()), entry);
+                    newTable = newTable.with(entry);
+                    if (entry.expire() != null) {
+                        expiring.add(entry);
+                    }
                 }
+
+                final List<RangeBanEntry> expiringRanges = new ArrayList<>();
+                final JsonArray rangeBans = json.getAsJsonArray("rangeBans");
+                if (rangeBans != null) {
+                    final List<RangeBanEntry> ranges = new ArrayList<>();
+                    for (final JsonElement elem : rangeBans) {
+                        final RangeBanEntry entry = RangeBanEntry.parse(elem.getAsJsonObject());
+                        if (entry.hasExpired(now)) {
+                            continue;
+                        }
+                        ranges.add(entry);
+                        if (entry.expire() != null) {
+                            expiringRanges.add(entry);
+                        }
+                    }
+                    newTable = newTable.withRanges(RangeBanIndex.of(ranges));
+                }
+
+                this.table = newTable;
+                this.expiryQueue.clear();
+                this.expiryQueue.addAll(expiring);
+                this.rangeExpiryQueue.clear();
+                this.rangeExpiryQueue.addAll(expiringRanges);
+                this.updateNextExpiry();
             } catch (final Exception e) {
                 ex = e;
             }
@@ -112,15 +386,23 @@ public final class ASBans {
         final JsonArray bans = new JsonArray();
         ret.add("bans", bans);
 
-        final Date now = new Date();
+        final JsonArray rangeBans = new JsonArray();
+        ret.add("rangeBans", rangeBans);
 
-        synchronized (this) {
-            for (final ASBanEntry entry : this.entries.values()) {
-                if (entry.hasExpired(now)) {
-                    continue;
-                }
-                bans.add(entry.toJson());
+        final long now = System.currentTimeMillis();
+        final Table table = this.table;
+
+        for (final ASBanEntry entry : table.entries) {
+            if (entry.hasExpired(now)) {
+                continue;
+            }
+            bans.add(entry.toJson());
+        }
+        for (final RangeBanEntry entry : table.ranges.getEntries()) {
+            if (entry.hasExpired(now)) {
+                continue;
             }
+            rangeBans.add(entry.toJson());
         }
 
         return ret;
@@ -133,15 +415,19 @@ public final class ASBans {
                 return new ASBanEntry(
                         json.getAsJsonPrimitive("ASNumber").getAsInt(),
                         json.getAsJsonPrimitive("kickReason").getAsString(),
-                        !json.has("expire") ? null : Util.DATE_FORMAT.parse(json.getAsJsonPrimitive("expire").getAsString())
+                        !json.has("expire") ? null : TimestampCodec.parseDate(json.getAsJsonPrimitive("expire").getAsString())
                 );
             } catch (final Exception ex) {
                 throw new RuntimeException(ex);
             }
         }
 
-        public boolean hasExpired(final Date date) {
-            return this.expire != null && date.after(this.expire);
+        public long expireMillis() {
+            return this.expire == null ? Long.MAX_VALUE : this.expire.getTime();
+        }
+
+        public boolean hasExpired(final long now) {
+            return now > this.expireMillis();
         }
 
         public JsonObject toJson() {
@@ -150,7 +436,152 @@ public final class ASBans {
             ret.addProperty("ASNumber", Integer.valueOf(this.ASNumber));
             ret.addProperty("kickReason", this.kickReason);
             if (this.expire != null) {
-                ret.addProperty("expire", Util.DATE_FORMAT.format(this.expire));
+                ret.addProperty("expire", TimestampCodec.format(this.expire));
+            }
+
+            return ret;
+        }
+    }
+
+    /**
+     * A ban of an inclusive address range, either given as a CIDR prefix or as two addresses. IPv4 addresses are
+     * mapped into {@code ::ffff:0:0/96}.
+     */
+    public static final record RangeBanEntry(String target, long startHigh, long startLow, long endHigh, long endLow,
+                                             String kickReason, Date expire) {
+
+        static final long IPV4_MAPPED = 0xFFFFL << 32;
+
+        /**
+         * Returns whether the specified command target denotes an address range rather than a single address, AS
+         * number or player.
+         */
+        public static boolean isRangeTarget(final String target) {
+            if (target.indexOf('/') != -1) {
+                return true;
+            }
+            final int dash = target.indexOf('-');
+            return dash != -1 && dash == target.lastIndexOf('-') && (target.indexOf('.') != -1 || target.indexOf(':') != -1);
+        }
+
+        /**
+         * Parses a target of the form {@code address/length} or {@code start-end}, where both addresses are of the
+         * same family. The target of the returned entry is normalised.
+         * @throws IllegalArgumentException If the target is malformed.
+         */
+        public static RangeBanEntry parse(final String target, final String kickReason, final Date expire) {
+            if (kickReason == null) {
+                throw new NullPointerException();
+            }
+
+            final int slash = target.indexOf('/');
+            if (slash != -1) {
+                final String addressStr = target.substring(0, slash).trim();
+                final int length = Integer.parseInt(target.substring(slash + 1).trim());
+                final boolean ipv6 = addressStr.indexOf(':') != -1;
+                if (length < 0 || length > (ipv6 ? 128 : 32)) {
+                    throw new IllegalArgumentException("Invalid prefix length: " + length);
+                }
+
+                final long[] address = parseAddress(addressStr);
+                final int mappedLength = ipv6 ? length : length + 96;
+                final long maskHigh = mappedLength == 0 ? 0L : (mappedLength >= 64 ? -1L : (-1L << (64 - mappedLength)));
+                final long maskLow = mappedLength <= 64 ? 0L : (mappedLength == 128 ? -1L : (-1L << (128 - mappedLength)));
+
+                final long startHigh = address[0] & maskHigh;
+                final long startLow = address[1] & maskLow;
+                return new RangeBanEntry(
+                        toString(startHigh, startLow, ipv6) + "/" + length,
+                        startHigh, startLow, startHigh | ~maskHigh, startLow | ~maskLow,
+                        kickReason, expire
+                );
+            }
+
+            final int dash = target.indexOf('-');
+            if (dash == -1) {
+                throw new IllegalArgumentException("Not an address range: " + target);
+            }
+
+            final String startStr = target.substring(0, dash).trim();
+            final String endStr = target.substring(dash + 1).trim();
+            final boolean ipv6 = startStr.indexOf(':') != -1;
+            if (ipv6 != (endStr.indexOf(':') != -1)) {
+                throw new IllegalArgumentException("Address range must not mix IPv4 and IPv6: " + target);
+            }
+
+            final long[] start = parseAddress(startStr);
+            final long[] end = parseAddress(endStr);
+            final int cmp = Long.compareUnsigned(start[0], end[0]);
+            if (cmp > 0 || (cmp == 0 && Long.compareUnsigned(start[1], end[1]) > 0)) {
+                throw new IllegalArgumentException("Address range start is after its end: " + target);
+            }
+
+            return new RangeBanEntry(
+                    toString(start[0], start[1], ipv6) + "-" + toString(end[0], end[1], ipv6),
+                    start[0], start[1], end[0], end[1],
+                    kickReason, expire
+            );
+        }
+
+        private static long[] parseAddress(final String address) {
+            if (address.indexOf(':') != -1) {
+                final byte[] ipv6 = Util.getIPv6Address(address);
+                return new long[] { Util.getIPv6High(ipv6), Util.getIPv6Low(ipv6) };
+            }
+            return new long[] { 0L, IPV4_MAPPED | ((long)Util.getAddress(address) & 0xFFFFFFFFL) };
+        }
+
+        private static String toString(final long high, final long low, final boolean ipv6) {
+            return ipv6 ? Util.toIPv6String(high, low) : Util.toIPv4String((int)low);
+        }
+
+        public static RangeBanEntry parse(final JsonObject json) {
+            try {
+                return parse(
+                        json.getAsJsonPrimitive("target").getAsString(),
+                        json.getAsJsonPrimitive("kickReason").getAsString(),
+                        !json.has("expire") ? null : TimestampCodec.parseDate(json.getAsJsonPrimitive("expire").getAsString())
+                );
+            } catch (final Exception ex) {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        public boolean contains(final long high, final long low) {
+            final int startCmp = Long.compareUnsigned(high, this.startHigh);
+            if (startCmp < 0 || (startCmp == 0 && Long.compareUnsigned(low, this.startLow) < 0)) {
+                return false;
+            }
+            final int endCmp = Long.compareUnsigned(high, this.endHigh);
+            return endCmp < 0 || (endCmp == 0 && Long.compareUnsigned(low, this.endLow) <= 0);
+        }
+
+        public boolean contains(final InetAddress address) {
+            if (address instanceof Inet4Address ipv4) {
+                return this.contains(0L, IPV4_MAPPED | ((long)Util.toIPInt(ipv4) & 0xFFFFFFFFL));
+            }
+            if (address instanceof Inet6Address ipv6) {
+                final byte[] addr = ipv6.getAddress();
+                return this.contains(Util.getIPv6High(addr), Util.getIPv6Low(addr));
+            }
+            return false;
+        }
+
+        public long expireMillis() {
+            return this.expire == null ? Long.MAX_VALUE : this.expire.getTime();
+        }
+
+        public boolean hasExpired(final long now) {
+            return now > this.expireMillis();
+        }
+
+        public JsonObject toJson() {
+            final JsonObject ret = new JsonObject();
+
+            ret.addProperty("target", this.target);
+            ret.addProperty("kickReason", this.kickReason);
+            if (this.expire != null) {
+                ret.addProperty("expire", TimestampCodec.format(this.expire));
             }
 
             return ret;
@@ -0,0 +1,289 @@
+package ca.spottedleaf.ipastools.astools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming parsers for the APNIC feeds used by {@link ASLookup}.
+ * <p>
+ * Input is consumed incrementally in fixed size chunks and parsed at the byte level directly into the primitive
+ * builders, so no per-line objects are created. The only objects created are the AS names themselves.
+ * </p>
+ */
+public final class ASFeedParser {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int MAX_LINE_LENGTH = 1 << 12;
+    // AS numbers are unsigned 32-bit, and are stored in an int as is
+    private static final long MAX_AS_NUMBER = 0xFFFFFFFFL;
+
+    private ASFeedParser() {}
+
+    private static interface LineConsumer {
+
+        public void accept(final byte[] line, final int length, final long lineNumber) throws IOException;
+
+    }
+
+    private static void forEachLine(final InputStream in, final LineConsumer consumer) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        final byte[] line = new byte[MAX_LINE_LENGTH];
+        int lineLength = 0;
+        long lineNumber = 1L;
+
+        for (int read; (read = in.read(buffer)) >= 0;) {
+            for (int i = 0; i < read; ++i) {
+                final byte b = buffer[i];
+                if (b == '\n') {
+                    consumer.accept(line, lineLength, lineNumber++);
+                    lineLength = 0;
+                    continue;
+                }
+                if (lineLength == MAX_LINE_LENGTH) {
+                    throw new IOException("Line " + lineNumber + " is too long");
+                }
+                line[lineLength++] = b;
+            }
+        }
+
+        if (lineLength != 0) {
+            consumer.accept(line, lineLength, lineNumber);
+        }
+    }
+
+    private static boolean isWhitespace(final byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+    }
+
+    private static int skipWhitespace(final byte[] line, int i, final int length) {
+        while (i < length && isWhitespace(line[i])) {
+            ++i;
+        }
+        return i;
+    }
+
+    private static int hexValue(final byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        }
+        if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private static IOException malformed(final long lineNumber, final String feed) {
+        return new IOException("Malformed line " + lineNumber + " in " + feed);
+    }
+
+    // parses a non-negative decimal number from [from, to), or returns -1
+    private static long parseDecimal(final byte[] line, final int from, final int to, final long max) {
+        if (from >= to) {
+            return -1L;
+        }
+        long ret = 0L;
+        for (int i = from; i < to; ++i) {
+            final int digit = line[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return -1L;
+            }
+            ret = ret * 10L + digit;
+            if (ret > max) {
+                return -1L;
+            }
+        }
+        return ret;
+    }
+
+    // returns the index of the first whitespace at or after i, or length
+    private static int tokenEnd(final byte[] line, int i, final int length) {
+        while (i < length && !isWhitespace(line[i])) {
+            ++i;
+        }
+        return i;
+    }
+
+    // parses the trailing "<whitespace> ASNumber [whitespace]" of a raw table line
+    private static int parseTrailingASNumber(final byte[] line, final int from, final int length, final long lineNumber,
+                                             final String feed) throws IOException {
+        final int start = skipWhitespace(line, from, length);
+        if (start == from) {
+            throw malformed(lineNumber, feed);
+        }
+        final int end = tokenEnd(line, start, length);
+        if (skipWhitespace(line, end, length) != length) {
+            throw malformed(lineNumber, feed);
+        }
+        final long ASNumber = parseDecimal(line, start, end, MAX_AS_NUMBER);
+        if (ASNumber < 0L) {
+            throw malformed(lineNumber, feed);
+        }
+        return (int)ASNumber;
+    }
+
+    /**
+     * Parses the {@code data-used-autnums} feed, lines of the form {@code <whitespace> ASNumber <whitespace> ASName}.
+     */
+    public static void parseUsedAutnums(final InputStream in, final ASNameTable.Builder into) throws IOException {
+        forEachLine(in, (final byte[] line, final int length, final long lineNumber) -> {
+            final int numberStart = skipWhitespace(line, 0, length);
+            if (numberStart == length) {
+                // blank
+                return;
+            }
+            final int numberEnd = tokenEnd(line, numberStart, length);
+            final int nameStart = skipWhitespace(line, numberEnd, length);
+
+            int nameEnd = length;
+            while (nameEnd > nameStart && isWhitespace(line[nameEnd - 1])) {
+                --nameEnd;
+            }
+
+            final long ASNumber = parseDecimal(line, numberStart, numberEnd, MAX_AS_NUMBER);
+            if (ASNumber < 0L) {
+                throw malformed(lineNumber, "data-used-autnums");
+            }
+
+            into.addName((int)ASNumber, new String(line, nameStart, nameEnd - nameStart, StandardCharsets.UTF_8));
+        });
+    }
+
+    /**
+     * Parses the IPv4 {@code data-raw-table} feed, lines of the form {@code a.b.c.d/n <whitespace> ASNumber}.
+     */
+    public static void parseRawTable(final InputStream in, final IPv4PrefixIndex.Builder into) throws IOException {
+        forEachLine(in, (final byte[] line, final int length, final long lineNumber) -> {
+            if (skipWhitespace(line, 0, length) == length) {
+                // blank
+                return;
+            }
+
+            int address = 0;
+            int octets = 0;
+            int i = 0;
+            for (;;) {
+                final int octetStart = i;
+                while (i < length && line[i] >= '0' && line[i] <= '9') {
+                    ++i;
+                }
+                final long octet = parseDecimal(line, octetStart, i, 255L);
+                if (octet < 0L || ++octets > 4) {
+                    throw malformed(lineNumber, "data-raw-table");
+                }
+                address = (address << 8) | (int)octet;
+
+                if (i < length && line[i] == '.') {
+                    ++i;
+                    continue;
+                }
+                break;
+            }
+
+            if (octets != 4 || i >= length || line[i] != '/') {
+                throw malformed(lineNumber, "data-raw-table");
+            }
+
+            final int lengthEnd = tokenEnd(line, ++i, length);
+            final long prefixLength = parseDecimal(line, i, lengthEnd, 32L);
+            if (prefixLength < 0L) {
+                throw malformed(lineNumber, "data-raw-table");
+            }
+
+            into.addPrefix(address, (int)prefixLength, parseTrailingASNumber(line, lengthEnd, length, lineNumber, "data-raw-table"));
+        });
+    }
+
+    /**
+     * Parses the {@code ipv6-raw-table} feed, lines of the form {@code address/n <whitespace> ASNumber}.
+     */
+    public static void parseRawTable6(final InputStream in, final IPv6PrefixIndex.Builder into) throws IOException {
+        final int[] groups = new int[8];
+        forEachLine(in, (final byte[] line, final int length, final long lineNumber) -> {
+            if (skipWhitespace(line, 0, length) == length) {
+                // blank
+                return;
+            }
+
+            final int slash = parseIPv6(line, length, groups);
+            if (slash < 0 || slash >= length || line[slash] != '/') {
+                throw malformed(lineNumber, "ipv6-raw-table");
+            }
+
+            final int lengthEnd = tokenEnd(line, slash + 1, length);
+            final long prefixLength = parseDecimal(line, slash + 1, lengthEnd, 128L);
+            if (prefixLength < 0L) {
+                throw malformed(lineNumber, "ipv6-raw-table");
+            }
+
+            final long high = ((long)groups[0] << 48) | ((long)groups[1] << 32) | ((long)groups[2] << 16) | (long)groups[3];
+            final long low = ((long)groups[4] << 48) | ((long)groups[5] << 32) | ((long)groups[6] << 16) | (long)groups[7];
+
+            into.addPrefix(high, low, (int)prefixLength, parseTrailingASNumber(line, lengthEnd, length, lineNumber, "ipv6-raw-table"));
+        });
+    }
+
+    // parses the IPv6 address at the start of the line into 8 groups, returns the index after the address or -1
+    private static int parseIPv6(final byte[] line, final int length, final int[] groups) {
+        int count = 0;
+        int compressAt = -1;
+        int i = 0;
+
+        if (length >= 2 && line[0] == ':' && line[1] == ':') {
+            compressAt = 0;
+            i = 2;
+        }
+
+        while (i < length && hexValue(line[i]) >= 0) {
+            int value = 0;
+            int digits = 0;
+            for (int hex; i < length && (hex = hexValue(line[i])) >= 0; ++i) {
+                if (++digits > 4) {
+                    return -1;
+                }
+                value = (value << 4) | hex;
+            }
+            if (count == 8) {
+                return -1;
+            }
+            groups[count++] = value;
+
+            if (i >= length || line[i] != ':') {
+                break;
+            }
+            if (i + 1 < length && line[i + 1] == ':') {
+                if (compressAt != -1) {
+                    return -1;
+                }
+                compressAt = count;
+                i += 2;
+            } else {
+                ++i;
+                if (i >= length || hexValue(line[i]) < 0) {
+                    // trailing single ':'
+                    return -1;
+                }
+            }
+        }
+
+        if (compressAt == -1) {
+            return count == 8 ? i : -1;
+        }
+        if (count == 8) {
+            // '::' must replace at least one group
+            return -1;
+        }
+
+        // shift the groups after '::' to the end, and zero the compressed groups
+        final int tail = count - compressAt;
+        System.arraycopy(groups, compressAt, groups, 8 - tail, tail);
+        for (int k = compressAt; k < 8 - tail; ++k) {
+            groups[k] = 0;
+        }
+
+        return i;
+    }
+}
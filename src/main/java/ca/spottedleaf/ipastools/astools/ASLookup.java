@@ -1,59 +1,123 @@
 package ca.spottedleaf.ipastools.astools;
 
 import ca.spottedleaf.ipastools.IPASTools;
+import ca.spottedleaf.ipastools.config.ASConfig;
+import ca.spottedleaf.ipastools.util.TimestampCodec;
 import ca.spottedleaf.ipastools.util.Util;
-import java.io.BufferedOutputStream;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
 
 public final class ASLookup {
 
-    public static final ASEntry NO_MATCH = new ASEntry(0L, 0, 0, "Unknown");
-    private static final Comparator<ASEntry> ENTRY_COMPARATOR = (final ASEntry e1, final ASEntry e2) -> {
-        return Long.compare(e1.address, e2.address);
-    };
+    public static final ASEntry NO_MATCH = new ASEntry(null, 0, 0, "Unknown");
 
     private static final Logger LOGGER = IPASTools.getInstance().getLogger();
 
+    // when set, every newly built index is cross-checked against a scan of its prefix table
+    private static final boolean VERIFY_INDEX = Boolean.getBoolean("ipastools.verifyLookupIndex");
+
     private final File cacheFile;
+    private final File changelogFile;
     private final Executor updateScheduler;
     private final AtomicReference<Date> invalidateTime = new AtomicReference<>();
-    private volatile ASEntry[] entries;
+    private volatile IPv4PrefixIndex.Engine engine;
+    private volatile Tables tables;
+    private volatile FetchCancellation refresh;
+    private volatile boolean closed;
+
+    public static record Tables(IPv4PrefixIndex ipv4, IPv6PrefixIndex ipv6, ASNameTable names, SourceChecksums checksums) {}
+
+    // CRC32 of each feed the tables were parsed from, UNKNOWN_CHECKSUM if they were not fetched
+    public static record SourceChecksums(long autnums, long ipv4RawTable, long ipv6RawTable) {
 
-    public ASLookup(final File cacheFile, final Executor updateScheduler) {
+        public static final long UNKNOWN_CHECKSUM = -1L;
+        public static final SourceChecksums UNKNOWN = new SourceChecksums(UNKNOWN_CHECKSUM, UNKNOWN_CHECKSUM, UNKNOWN_CHECKSUM);
+    }
+
+    public ASLookup(final File cacheFile, final Executor updateScheduler, final IPv4PrefixIndex.Engine engine) {
         this.cacheFile = cacheFile.getAbsoluteFile();
+        this.changelogFile = new File(this.cacheFile.getParentFile(), "aslookup-changes.log");
         this.updateScheduler = updateScheduler;
+        this.engine = engine;
         this.loadFromCache();
     }
 
+    // null if no tables are loaded
+    public Tables getTables() {
+        return this.tables;
+    }
+
+    // epoch millis, after which the tables are refreshed on the next lookup
+    public long getInvalidateTime() {
+        final Date time = this.invalidateTime.get();
+        return time == null ? 0L : time.getTime();
+    }
+
+    public IPv4PrefixIndex.Engine getEngine() {
+        return this.engine;
+    }
+
+    public void setEngine(final IPv4PrefixIndex.Engine engine) {
+        if (this.engine == engine) {
+            return;
+        }
+        this.engine = engine;
+        this.updateScheduler.execute(() -> {
+            final Tables tables = ASLookup.this.tables;
+            if (tables == null) {
+                // will be built with the new engine once loaded
+                return;
+            }
+            final long start = System.nanoTime();
+            final IPv4PrefixIndex rebuilt = tables.ipv4().withEngine(engine);
+            final long end = System.nanoTime();
+            ASLookup.this.tables = new Tables(rebuilt, tables.ipv6(), tables.names(), tables.checksums());
+            logIndex(rebuilt, end - start);
+        });
+    }
+
     private void updateCacheIfNeeded() {
+        if (this.closed) {
+            return;
+        }
         final Date time = this.invalidateTime.get();
         final Instant now = Instant.now();
         if (Date.from(now).after(time)) {
@@ -66,30 +130,15 @@ public final class ASLookup {
 
     private void forceSaveCache() {
         final Date invalidateOn = this.invalidateTime.get();
-        final ASEntry[] entries = this.entries;
+        final Tables tables = this.tables;
 
         final File temp = new File(this.cacheFile.getParentFile(), this.cacheFile.getName() + ".tmp" + new Random().nextDouble());
         try {
             temp.getParentFile().mkdirs();
             temp.createNewFile();
 
-            final PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(temp)));
-
-            out.println(Util.DATE_FORMAT.format(invalidateOn));
+            ASLookupCache.write(temp, invalidateOn.getTime(), tables.ipv4(), tables.ipv6(), tables.names());
 
-            final Set<String> seenASName = new HashSet<>();
-            for (final ASEntry entry : entries) {
-                out.print(Util.toIPv4String((int)entry.address));
-                out.print(' '); out.print(entry.subnet);
-                out.print(' '); out.print(entry.ASNumber);
-                if (seenASName.add(entry.ASName)) {
-                    out.print(' '); out.println(entry.ASName);
-                } else {
-                    out.println();
-                }
-            }
-
-            out.close();
             Files.move(temp.toPath(), this.cacheFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
         } catch (final IOException ex) {
             LOGGER.log(Level.SEVERE, "Failed to save ASLookup cache to: " + temp.getAbsolutePath(), ex);
@@ -99,131 +148,461 @@ public final class ASLookup {
 
     }
 
-    public void forceUpdateCache() {
-        try {
-            final HttpClient client = HttpClient.newHttpClient();
-            HttpRequest asNumReq = HttpRequest.newBuilder(new URI("https://thyme.apnic.net/current/data-used-autnums")).GET().build();
-            HttpRequest rawTableReq = HttpRequest.newBuilder(new URI("https://thyme.apnic.net/current/data-raw-table")).GET().build();
-
-            final CompletableFuture<String> asNumRes = client.sendAsync(asNumReq, HttpResponse.BodyHandlers.ofString()).thenApply(HttpResponse::body);
-            final CompletableFuture<String> rawTableRes = client.sendAsync(rawTableReq, HttpResponse.BodyHandlers.ofString()).thenApply(HttpResponse::body);
+    /**
+     * Aborts the downloads of a {@link #fetchTables(ASConfig.LookupSources, IPv4PrefixIndex.Engine, Tables, FetchCancellation)}
+     * from another thread, including requests waiting on a response and responses being read.
+     */
+    public static final class FetchCancellation {
 
-            final List<String> asNum = asNumRes.join().lines().toList();
-            final List<String> rawTable = rawTableRes.join().lines().toList();
+        private final Set<Object> inFlight = ConcurrentHashMap.newKeySet();
+        private volatile boolean cancelled;
 
-            final Map<Integer, String> asLookup = new HashMap<>();
+        public boolean isCancelled() {
+            return this.cancelled;
+        }
 
-            for (final String entry : asNum) {
-                int start = 0;
-                int end;
-                for (char c;(c = entry.charAt(start)) == ' ' || c == '\t' || Character.isWhitespace(c); ++start);
-                end = start + 1;
-                for (char c;!((c = entry.charAt(end)) == ' ' || c == '\t' || Character.isWhitespace(c)); ++end);
-                int start2 = end;
-                for (char c;(c = entry.charAt(start2)) == ' ' || c == '\t' || Character.isWhitespace(c); ++start2);
+        public void cancel() {
+            this.cancelled = true;
+            for (final Object value : this.inFlight) {
+                abort(value);
+            }
+        }
 
-                final int number = Integer.parseInt(entry.substring(start, end));
-                final String name = entry.substring(start2);
+        private static void abort(final Object value) {
+            if (value instanceof CompletableFuture<?> future) {
+                future.cancel(true);
+            } else if (value instanceof Closeable closeable) {
+                try {
+                    closeable.close();
+                } catch (final IOException ex) {
+                    // already failing
+                }
+            }
+        }
 
-                asLookup.put(Integer.valueOf(number), name);
+        private <T> T track(final T value) throws IOException {
+            this.inFlight.add(value);
+            // re-check after adding, so that a concurrent cancel() cannot miss it
+            if (this.cancelled) {
+                abort(value);
+                throw new IOException("Cancelled");
             }
+            return value;
+        }
+    }
 
-            final List<ASEntry> entries = new ArrayList<>();
+    private static InputStream openSource(final HttpClient client, final URI source, final FetchCancellation cancellation)
+            throws IOException, InterruptedException {
+        if ("file".equalsIgnoreCase(source.getScheme())) {
+            return new BufferedInputStream(Files.newInputStream(Path.of(source)));
+        }
 
-            for (final String entry : rawTable) {
-                int end = 0;
-                for (char c;!((c = entry.charAt(end)) == ' ' || c == '\t' || Character.isWhitespace(c)); ++end);
-                int start2 = end;
-                for (char c;(c = entry.charAt(start2)) == ' ' || c == '\t' || Character.isWhitespace(c); ++start2);
+        final CompletableFuture<HttpResponse<InputStream>> request = cancellation.track(client.sendAsync(
+                HttpRequest.newBuilder(source).GET().build(), HttpResponse.BodyHandlers.ofInputStream()
+        ));
+        final HttpResponse<InputStream> response;
+        try {
+            response = request.get();
+        } catch (final CancellationException ex) {
+            throw new IOException("Cancelled");
+        } catch (final ExecutionException ex) {
+            throw new IOException("Failed to request " + source, ex.getCause());
+        }
+        // closing the body aborts the download
+        final InputStream body = cancellation.track(response.body());
+        if (response.statusCode() != 200) {
+            body.close();
+            throw new IOException("Unexpected response code " + response.statusCode() + " from " + source);
+        }
+        return body;
+    }
 
-                final String ipAndSubnet = entry.substring(0, end);
-                final int num = Integer.parseInt(entry.substring(start2));
+    /**
+     * Downloads and parses the configured feeds into new index builders, without modifying this lookup.
+     */
+    public static Tables fetchTables(final ASConfig.LookupSources sources, final IPv4PrefixIndex.Engine engine) throws IOException, InterruptedException {
+        return fetchTables(sources, engine, null, new FetchCancellation());
+    }
 
-                final String name = asLookup.get(Integer.valueOf(num));
+    /**
+     * Downloads and parses the configured feeds into new index builders, without modifying this lookup. Each part of the
+     * specified previous tables whose feed has the same checksum as before is reused as is, and any other part is reused
+     * only if the rebuilt contents are unchanged.
+     */
+    public static Tables fetchTables(final ASConfig.LookupSources sources, final IPv4PrefixIndex.Engine engine,
+                                     final Tables previous, final FetchCancellation cancellation) throws IOException, InterruptedException {
+        final HttpClient client = HttpClient.newHttpClient();
+
+        final ASNameTable.Builder names = new ASNameTable.Builder();
+        final IPv4PrefixIndex.Builder builder = new IPv4PrefixIndex.Builder();
+        final IPv6PrefixIndex.Builder builder6 = new IPv6PrefixIndex.Builder();
+
+        final long autnums;
+        try (final CheckedInputStream in = new CheckedInputStream(openSource(client, sources.autnums(), cancellation), new CRC32())) {
+            ASFeedParser.parseUsedAutnums(in, names);
+            autnums = finishChecksum(in);
+        }
+        final long ipv4RawTable;
+        try (final CheckedInputStream in = new CheckedInputStream(openSource(client, sources.ipv4RawTable(), cancellation), new CRC32())) {
+            ASFeedParser.parseRawTable(in, builder);
+            ipv4RawTable = finishChecksum(in);
+        }
+        final long ipv6RawTable;
+        try (final CheckedInputStream in = new CheckedInputStream(openSource(client, sources.ipv6RawTable(), cancellation), new CRC32())) {
+            ASFeedParser.parseRawTable6(in, builder6);
+            ipv6RawTable = finishChecksum(in);
+        }
 
-                final String[] split = Util.split(ipAndSubnet, '/');
-                final long ip = 0xFFFFFFFFL & Util.getAddress(split[0]);
-                final int subnet = Integer.parseInt(split[1]);
+        return buildTables(builder, builder6, names, engine, previous, new SourceChecksums(autnums, ipv4RawTable, ipv6RawTable));
+    }
 
-                entries.add(new ASEntry(ip, subnet, num, name));
-            }
+    private static long finishChecksum(final CheckedInputStream in) throws IOException {
+        // the checksum must cover the whole feed, even if the parser stopped early
+        in.transferTo(OutputStream.nullOutputStream());
+        return in.getChecksum().getValue();
+    }
 
-            final ASEntry[] entriesArray = entries.toArray(new ASEntry[0]);
-            Arrays.sort(entriesArray, ENTRY_COMPARATOR);
+    private static boolean isSourceUnchanged(final long previous, final long current) {
+        return previous != SourceChecksums.UNKNOWN_CHECKSUM && previous == current;
+    }
+
+    /**
+     * Aborts any refresh in progress and stops scheduling new ones. The lookup keeps answering from its current tables.
+     */
+    public void cancelRefresh() {
+        this.closed = true;
+        final FetchCancellation refresh = this.refresh;
+        if (refresh != null) {
+            refresh.cancel();
+        }
+    }
+
+    public void forceUpdateCache() {
+        final FetchCancellation cancellation = new FetchCancellation();
+        this.refresh = cancellation;
+        if (this.closed) {
+            return;
+        }
+        try {
+            final Tables previous = this.tables;
+            final Tables tables = fetchTables(IPASTools.getInstance().getASConfig().lookupSources, this.engine, previous, cancellation);
+
+            final ASLookupDelta delta = previous == null ? null : ASLookupDelta.compute(previous, tables);
 
             this.invalidateTime.set(Date.from(Instant.now().plus(1L, ChronoUnit.DAYS)));
-            this.entries = entriesArray;
+            this.tables = tables;
+
+            if (delta == null) {
+                this.forceSaveCache();
+                return;
+            }
+
+            LOGGER.info("ASLookup refresh: " + delta.summary());
+            if (!delta.hasChanges()) {
+                this.saveInvalidateTime();
+                return;
+            }
 
             this.forceSaveCache();
+            this.appendChangelog(delta);
+            logPlayerReassignments(previous, tables);
         } catch (final Exception ex) {
+            if (cancellation.isCancelled()) {
+                LOGGER.info("Cancelled ASLookup refresh");
+                return;
+            }
             // assume I/O issue
             this.invalidateTime.set(Date.from(Instant.now().plus(1L, ChronoUnit.HOURS)));
             LOGGER.log(Level.SEVERE, "Failed to load ASLookup data from remote", ex);
+        } finally {
+            this.refresh = null;
+        }
+    }
+
+    private void saveInvalidateTime() {
+        try {
+            ASLookupCache.updateInvalidateTime(this.cacheFile, this.invalidateTime.get().getTime());
+        } catch (final IOException ex) {
+            LOGGER.log(Level.WARNING, "Failed to update ASLookup cache invalidate time, rewriting cache", ex);
+            this.forceSaveCache();
+        }
+    }
+
+    private void appendChangelog(final ASLookupDelta delta) {
+        final String time = Instant.now().toString();
+        final StringBuilder log = new StringBuilder();
+        for (final ASLookupDelta.Change change : delta.getChanges()) {
+            log.append(time).append(' ').append(change.description()).append('\n');
+        }
+        if (delta.getChanges().size() < delta.prefixChanges()) {
+            log.append(time).append(" ... ").append(delta.prefixChanges() - delta.getChanges().size()).append(" more changes\n");
+        }
+
+        try {
+            Files.writeString(
+                    this.changelogFile.toPath(), log, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE
+            );
+        } catch (final IOException ex) {
+            LOGGER.log(Level.WARNING, "Failed to write ASLookup changelog to: " + this.changelogFile.getAbsolutePath(), ex);
+        }
+    }
+
+    private static void logPlayerReassignments(final Tables previous, final Tables tables) {
+        // called from the refresh thread, the online players may only be read on the server
+        Bukkit.getGlobalRegionScheduler().execute(IPASTools.getInstance(), () -> {
+            logPlayerReassignmentsNow(previous, tables);
+        });
+    }
+
+    private static void logPlayerReassignmentsNow(final Tables previous, final Tables tables) {
+        for (final Player player : new ArrayList<>(Bukkit.getOnlinePlayers())) {
+            final InetSocketAddress socketAddress = player.getAddress();
+            if (socketAddress == null) {
+                continue;
+            }
+
+            final InetAddress address = socketAddress.getAddress();
+            final int oldASNumber;
+            final int newASNumber;
+            if (address instanceof Inet4Address ipv4) {
+                final int ip = Util.toIPInt(ipv4);
+                oldASNumber = previous.ipv4().lookupASNumber(ip);
+                newASNumber = tables.ipv4().lookupASNumber(ip);
+            } else if (address instanceof Inet6Address ipv6) {
+                final byte[] ip = ipv6.getAddress();
+                oldASNumber = previous.ipv6().lookupASNumber(Util.getIPv6High(ip), Util.getIPv6Low(ip));
+                newASNumber = tables.ipv6().lookupASNumber(Util.getIPv6High(ip), Util.getIPv6Low(ip));
+            } else {
+                continue;
+            }
+
+            if (oldASNumber != newASNumber) {
+                LOGGER.info(
+                        "AS of player " + player.getName() + " (" + Util.toIPString(address) + ") changed from "
+                                + oldASNumber + " to " + newASNumber
+                );
+            }
         }
     }
 
+    // returns null if the address is neither IPv4 nor IPv6
+    public ASEntry lookup(final InetAddress ip) {
+        if (ip instanceof Inet4Address ipv4) {
+            return this.lookup(ipv4);
+        }
+        if (ip instanceof Inet6Address ipv6) {
+            return this.lookup(ipv6);
+        }
+        return null;
+    }
+
     public ASEntry lookup(final Inet4Address ip) {
         return this.lookup(Util.toIPInt(ip));
     }
 
+    public ASEntry lookup(final Inet6Address ip) {
+        final byte[] addr = ip.getAddress();
+        return this.lookup(Util.getIPv6High(addr), Util.getIPv6Low(addr));
+    }
+
     public ASEntry lookup(final byte[] ip) {
+        if (ip.length == 16) {
+            return this.lookup(Util.getIPv6High(ip), Util.getIPv6Low(ip));
+        }
         return this.lookup(Util.toIPInt(ip));
     }
 
     public ASEntry lookup(final int ip) {
-        final long ipMasked = ip & 0xFFFFFFFFL;
+        final long start = System.nanoTime();
+        this.updateCacheIfNeeded();
+
+        final Tables tables = this.tables;
+        if (tables == null) {
+            // failed to load, no cache to fall back on
+            return null;
+        }
+
+        final IPv4PrefixIndex index = tables.ipv4();
+        final int prefix = index.findPrefix(ip);
+        final ASEntry ret = prefix == IPv4PrefixIndex.NO_MATCH ? NO_MATCH : index.getEntry(prefix, tables.names());
+        recordLookup(start, ret);
+        return ret;
+    }
 
+    public ASEntry lookup(final long high, final long low) {
+        final long start = System.nanoTime();
         this.updateCacheIfNeeded();
 
-        final ASEntry[] entries = this.entries;
-        if (entries == null) {
+        final Tables tables = this.tables;
+        if (tables == null) {
             // failed to load, no cache to fall back on
             return null;
         }
-        final ASEntry probe = new ASEntry(ipMasked, 32, 0, null);
-        int idx = Arrays.binarySearch(entries, probe, ENTRY_COMPARATOR);
 
-        if (idx < 0) {
-            idx = (-idx - 1) - 1;
+        final IPv6PrefixIndex index = tables.ipv6();
+        final int prefix = index.findPrefix(high, low);
+        final ASEntry ret = prefix == IPv6PrefixIndex.NO_MATCH ? NO_MATCH : index.getEntry(prefix, tables.names());
+        recordLookup(start, ret);
+        return ret;
+    }
 
-            if (idx < 0 || idx >= entries.length) {
-                return NO_MATCH;
-            }
+    private static void recordLookup(final long start, final ASEntry result) {
+        ASMetrics.LOOKUP.recordSince(start);
+        if (result == NO_MATCH) {
+            ASMetrics.LOOKUP_NO_MATCH.increment();
         }
+    }
 
-        while (idx >= 0) {
-            final ASEntry closest = entries[idx--];
+    /**
+     * Looks up only the AS number of the address, without creating an {@link ASEntry}. Returns 0 if there is no matching
+     * entry, or -1 if there is no index loaded or the address is neither IPv4 nor IPv6.
+     */
+    public int lookupASNumber(final InetAddress ip) {
+        final long start = System.nanoTime();
+        final int ret;
+        if (ip instanceof Inet4Address ipv4) {
+            ret = this.lookupASNumber(Util.toIPInt(ipv4));
+        } else if (ip instanceof Inet6Address ipv6) {
+            final byte[] addr = ipv6.getAddress();
+            ret = this.lookupASNumber(Util.getIPv6High(addr), Util.getIPv6Low(addr));
+        } else {
+            return -1;
+        }
 
-            if (closest.address > ipMasked) {
-                break;
+        if (ret != -1) {
+            ASMetrics.LOOKUP.recordSince(start);
+            if (ret == 0) {
+                ASMetrics.LOOKUP_NO_MATCH.increment();
             }
+        }
+        return ret;
+    }
+
+    // returns 0 if there is no matching entry, or -1 if there is no index loaded
+    public int lookupASNumber(final int ip) {
+        this.updateCacheIfNeeded();
+
+        final Tables tables = this.tables;
+        if (tables == null) {
+            return -1;
+        }
 
-            if (closest.matches(ipMasked)) {
-                return closest;
+        return tables.ipv4().lookupASNumber(ip);
+    }
+
+    /**
+     * Looks up the AS numbers of many IPv4 addresses at once, see {@link IPv4PrefixIndex#lookupASNumbers(int[], int[])}.
+     * Each output is 0 if there is no matching entry, or -1 if there is no index loaded.
+     */
+    public void lookupBatch(final int[] ips, final int[] outASNumbers) {
+        this.updateCacheIfNeeded();
+
+        final Tables tables = this.tables;
+        if (tables == null) {
+            if (outASNumbers.length < ips.length) {
+                throw new IllegalArgumentException("Output length " + outASNumbers.length + " < input length " + ips.length);
             }
+            Arrays.fill(outASNumbers, 0, ips.length, -1);
+            return;
         }
 
-        return NO_MATCH;
+        tables.ipv4().lookupASNumbers(ips, outASNumbers);
+    }
+
+    // returns 0 if there is no matching entry, or -1 if there is no index loaded
+    public int lookupASNumber(final long high, final long low) {
+        this.updateCacheIfNeeded();
+
+        final Tables tables = this.tables;
+        if (tables == null) {
+            return -1;
+        }
+
+        return tables.ipv6().lookupASNumber(high, low);
     }
 
     public String lookupASName(final int number) {
-        final ASEntry[] entries = this.entries;
-        if (entries == null) {
+        final Tables tables = this.tables;
+        if (tables == null) {
             return null;
         }
 
-        // Yes, this is slow. No, I don't care.
-        for (final ASEntry entry : entries) {
-            if (entry.ASNumber == number) {
-                return entry.ASName;
-            }
+        return tables.names().getName(number);
+    }
+
+    private static void logIndex(final IPv4PrefixIndex index, final long buildTime) {
+        LOGGER.info(
+                "Built ASLookup IPv4 index using " + index.getEngine() + " with " + index.prefixCount() + " prefixes and "
+                        + index.rangeCount() + " ranges in " + TimeUnit.NANOSECONDS.toMillis(buildTime) + "ms, using ~"
+                        + (index.memoryUsage() >> 10) + "KiB"
+        );
+    }
+
+    private static Tables buildTables(final IPv4PrefixIndex.Builder builder, final IPv6PrefixIndex.Builder builder6,
+                                      final ASNameTable.Builder names, final IPv4PrefixIndex.Engine engine,
+                                      final Tables previous, final SourceChecksums checksums) {
+        final SourceChecksums previousChecksums = previous == null ? SourceChecksums.UNKNOWN : previous.checksums();
+
+        final IPv4PrefixIndex ipv4;
+        if (isSourceUnchanged(previousChecksums.ipv4RawTable(), checksums.ipv4RawTable()) && previous.ipv4().getEngine() == engine) {
+            LOGGER.info("ASLookup IPv4 feed is unchanged, reusing the current index");
+            ipv4 = previous.ipv4();
+        } else {
+            ipv4 = buildIndex(builder, engine, previous == null ? null : previous.ipv4());
         }
 
-        return null;
+        final IPv6PrefixIndex ipv6;
+        if (isSourceUnchanged(previousChecksums.ipv6RawTable(), checksums.ipv6RawTable())) {
+            LOGGER.info("ASLookup IPv6 feed is unchanged, reusing the current index");
+            ipv6 = previous.ipv6();
+        } else {
+            final long start = System.nanoTime();
+            ipv6 = builder6.build(previous == null ? null : previous.ipv6());
+            final long end = System.nanoTime();
+
+            LOGGER.info(
+                    "Built ASLookup IPv6 index with " + ipv6.prefixCount() + " prefixes and " + ipv6.rangeCount()
+                            + " ranges in " + TimeUnit.NANOSECONDS.toMillis(end - start) + "ms, using ~"
+                            + (ipv6.memoryUsage() >> 10) + "KiB"
+            );
+        }
+
+        final ASNameTable nameTable;
+        if (isSourceUnchanged(previousChecksums.autnums(), checksums.autnums())) {
+            nameTable = previous.names();
+        } else {
+            nameTable = names.build(previous == null ? null : previous.names());
+        }
+
+        return new Tables(ipv4, ipv6, nameTable, checksums);
     }
 
-    // Format: address subnet ASNumber [ASName]
-    // Note: ASName is absent if it has been listed already
+    private static IPv4PrefixIndex buildIndex(final IPv4PrefixIndex.Builder builder, final IPv4PrefixIndex.Engine engine,
+                                              final IPv4PrefixIndex previous) {
+        final long start = System.nanoTime();
+        final IPv4PrefixIndex index = builder.build(engine, previous);
+        final long end = System.nanoTime();
+
+        logIndex(index, end - start);
+
+        if (VERIFY_INDEX) {
+            verifyIndex(index);
+        }
+
+        return index;
+    }
+
+    private static void verifyIndex(final IPv4PrefixIndex index) {
+        final long start = System.nanoTime();
+        final long mismatches = index.verify();
+        final long end = System.nanoTime();
+        if (mismatches != 0L) {
+            LOGGER.severe("ASLookup index verification failed with " + mismatches + " mismatching addresses");
+        } else {
+            LOGGER.info("ASLookup index verified " + index.rangeCount() + " ranges in " + TimeUnit.NANOSECONDS.toMillis(end - start) + "ms");
+        }
+    }
 
     private void loadFromCache() {
         if (!this.cacheFile.isFile()) {
@@ -233,36 +612,28 @@ public final class ASLookup {
         }
 
         try {
-            final List<String> input = Files.readAllLines(this.cacheFile.toPath(), StandardCharsets.UTF_8);
-
-            final int headerLines = 1;
-            final Date invalidateTime = Util.DATE_FORMAT.parse(input.get(0));
-
-            final Map<Integer, String> asLookup = new HashMap<>();
-            final ASEntry[] entries = new ASEntry[input.size() - headerLines];
-
-            for (int i = 0; i < entries.length; ++i) {
-                final String line = input.get(headerLines + i);
-                final String[] split = Util.split(line, ' ');
-
-                final long address = Util.getAddress(split[0]) & 0xFFFFFFFFL;
-                final int subnet = Integer.parseInt(split[1]);
-                final int number = Integer.parseInt(split[2]);
-                String name = split.length > 3 ? String.join(" ", Arrays.copyOfRange(split, 3, split.length)) : null;
+            if (!ASLookupCache.isBinaryCache(this.cacheFile)) {
+                LOGGER.info("Migrating ASLookup cache from text format");
+                this.loadFromTextCache();
+                this.forceSaveCache();
+                return;
+            }
 
-                if (name != null) {
-                    asLookup.put(Integer.valueOf(number), name);
-                } else {
-                    name = asLookup.get(Integer.valueOf(number));
-                }
+            final long start = System.nanoTime();
+            final ASLookupCache.Contents contents = ASLookupCache.read(this.cacheFile, this.engine);
+            final long end = System.nanoTime();
 
-                entries[i] = new ASEntry(address, subnet, number, name);
+            if (VERIFY_INDEX) {
+                verifyIndex(contents.ipv4());
             }
 
-            Arrays.sort(entries, ENTRY_COMPARATOR);
+            this.tables = new Tables(contents.ipv4(), contents.ipv6(), contents.names(), SourceChecksums.UNKNOWN);
+            this.invalidateTime.set(new Date(contents.invalidateTime()));
 
-            this.entries = entries;
-            this.invalidateTime.set(invalidateTime);
+            LOGGER.info(
+                    "Loaded ASLookup cache with " + contents.ipv4().prefixCount() + " IPv4 prefixes and "
+                            + contents.ipv6().prefixCount() + " IPv6 prefixes in " + TimeUnit.NANOSECONDS.toMillis(end - start) + "ms"
+            );
         } catch (final Exception ex) {
             LOGGER.log(Level.SEVERE, "Failed to load ASLookup up cache from file: '" + this.cacheFile.getAbsolutePath() + "', attempting to load from source", ex);
             this.forceUpdateCache();
@@ -270,15 +641,52 @@ public final class ASLookup {
         }
     }
 
-    public static record ASEntry(long address, int subnet, int ASNumber, String ASName) {
+    // Legacy text format: address subnet ASNumber [ASName]
+    // Note: address is either an IPv4 or IPv6 address
+    // Note: ASName is absent if it has been listed already
+
+    private void loadFromTextCache() throws Exception {
+        final List<String> input = Files.readAllLines(this.cacheFile.toPath(), StandardCharsets.UTF_8);
+
+        final int headerLines = 1;
+        final Date invalidateTime = TimestampCodec.parseDate(input.get(0));
+
+        final ASNameTable.Builder names = new ASNameTable.Builder();
+        final IPv4PrefixIndex.Builder builder = new IPv4PrefixIndex.Builder();
+        final IPv6PrefixIndex.Builder builder6 = new IPv6PrefixIndex.Builder();
 
-        public boolean matches(final long ip) {
-            final long mask = ((1L << this.subnet) - 1L) << (32 - this.subnet);
-            return (mask & address) == (mask & ip);
+        for (int i = headerLines, len = input.size(); i < len; ++i) {
+            final String line = input.get(i);
+            final String[] split = Util.split(line, ' ');
+
+            final int subnet = Integer.parseInt(split[1]);
+            final int number = Integer.parseInt(split[2]);
+            final String name = split.length > 3 ? String.join(" ", Arrays.copyOfRange(split, 3, split.length)) : null;
+
+            if (split[0].indexOf(':') != -1) {
+                final byte[] address = Util.getIPv6Address(split[0]);
+                builder6.addPrefix(Util.getIPv6High(address), Util.getIPv6Low(address), subnet, number);
+            } else {
+                builder.addPrefix(Util.getAddress(split[0]), subnet, number);
+            }
+            names.addName(number, name);
+        }
+
+        this.tables = buildTables(builder, builder6, names, this.engine, null, SourceChecksums.UNKNOWN);
+        this.invalidateTime.set(invalidateTime);
+
+        if (builder6.size() == 0) {
+            // cache was written before IPv6 prefixes were tracked
+            LOGGER.info("ASLookup cache has no IPv6 prefixes, updating from source");
+            this.invalidateTime.set(Date.from(Instant.now().plus(1L, ChronoUnit.DAYS)));
+            this.updateScheduler.execute(this::forceUpdateCache);
         }
+    }
+
+    public static record ASEntry(InetAddress address, int subnet, int ASNumber, String ASName) {
 
         public String addressStr() {
-            return Util.toIPv4String((int)this.address);
+            return this.address == null ? "unknown" : Util.toIPString(this.address);
         }
 
         public String description() {
@@ -0,0 +1,282 @@
+package ca.spottedleaf.ipastools.astools;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Binary on-disk format of the ASLookup cache.
+ * <p>
+ * The prefix tables are stored column by column in the order the indexes keep them in, so loading is a bulk copy of
+ * each column with no parsing and no sort. AS names are interned into a string table, so each distinct name is
+ * decoded once. The invalidate time is excluded from the checksum, so that it can be updated in place when a refresh
+ * finds no changes.
+ * </p>
+ */
+public final class ASLookupCache {
+
+    // "IPASCACH"
+    private static final long MAGIC = 0x4950415343414348L;
+
+    // increment when breaking changes are made to the format
+    private static final int VERSION = 1;
+
+    // magic, version, invalidate time, ipv4 count, ipv6 count, name count, string count, string bytes
+    private static final int HEADER_SIZE = 8 + 4 + 8 + 4 + 4 + 4 + 4 + 4;
+    private static final int INVALIDATE_TIME_OFFSET = 8 + 4;
+
+    private ASLookupCache() {}
+
+    public static record Contents(long invalidateTime, IPv4PrefixIndex ipv4, IPv6PrefixIndex ipv6, ASNameTable names) {}
+
+    /**
+     * Returns whether the specified file starts with the binary cache header, as opposed to the legacy text format.
+     */
+    public static boolean isBinaryCache(final File file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer magic = ByteBuffer.allocate(8).order(ByteOrder.BIG_ENDIAN);
+            while (magic.hasRemaining()) {
+                if (channel.read(magic) < 0) {
+                    return false;
+                }
+            }
+            return magic.getLong(0) == MAGIC;
+        }
+    }
+
+    public static Contents read(final File file, final IPv4PrefixIndex.Engine engine) throws IOException {
+        final ByteBuffer buffer;
+        // read rather than map the file, as a live mapping prevents the cache from being replaced on some platforms
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size < HEADER_SIZE + 4 || size > Integer.MAX_VALUE) {
+                throw new IOException("Invalid cache file size: " + size);
+            }
+            buffer = ByteBuffer.allocateDirect((int)size).order(ByteOrder.BIG_ENDIAN);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Unexpected end of file");
+                }
+            }
+            buffer.flip();
+        }
+
+        final CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().limit(INVALIDATE_TIME_OFFSET));
+        crc.update(new byte[8]);
+        crc.update(buffer.duplicate().position(INVALIDATE_TIME_OFFSET + 8).limit(buffer.limit() - 4));
+        if ((int)crc.getValue() != buffer.getInt(buffer.limit() - 4)) {
+            throw new IOException("Cache checksum mismatch");
+        }
+
+        if (buffer.getLong() != MAGIC) {
+            throw new IOException("Not a binary cache file");
+        }
+        final int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported cache version: " + version);
+        }
+
+        final long invalidateTime = buffer.getLong();
+        final int ipv4Count = buffer.getInt();
+        final int ipv6Count = buffer.getInt();
+        final int nameCount = buffer.getInt();
+        final int stringCount = buffer.getInt();
+        final int stringBytes = buffer.getInt();
+
+        final long expectedSize = (long)HEADER_SIZE
+                + 9L * (long)ipv4Count
+                + 21L * (long)ipv6Count
+                + 8L * (long)nameCount
+                + 4L * ((long)stringCount + 1L) + (long)stringBytes
+                + 4L;
+        if (ipv4Count < 0 || ipv6Count < 0 || nameCount < 0 || stringCount < 0 || stringBytes < 0 || expectedSize != buffer.limit()) {
+            throw new IOException("Corrupt cache header");
+        }
+
+        final int[] ipv4Addresses = new int[ipv4Count];
+        final byte[] ipv4Lengths = new byte[ipv4Count];
+        final int[] ipv4ASNumbers = new int[ipv4Count];
+        getInts(buffer, ipv4Addresses);
+        buffer.get(ipv4Lengths);
+        getInts(buffer, ipv4ASNumbers);
+
+        final long[] ipv6Addresses = new long[ipv6Count << 1];
+        final byte[] ipv6Lengths = new byte[ipv6Count];
+        final int[] ipv6ASNumbers = new int[ipv6Count];
+        getLongs(buffer, ipv6Addresses);
+        buffer.get(ipv6Lengths);
+        getInts(buffer, ipv6ASNumbers);
+
+        final int[] nameASNumbers = new int[nameCount];
+        final int[] nameStrings = new int[nameCount];
+        getInts(buffer, nameASNumbers);
+        getInts(buffer, nameStrings);
+
+        final int[] stringOffsets = new int[stringCount + 1];
+        getInts(buffer, stringOffsets);
+        final byte[] stringData = new byte[stringBytes];
+        buffer.get(stringData);
+
+        final String[] strings = new String[stringCount];
+        for (int i = 0; i < stringCount; ++i) {
+            final int from = stringOffsets[i];
+            final int to = stringOffsets[i + 1];
+            if (from < 0 || to < from || to > stringBytes) {
+                throw new IOException("Corrupt string table");
+            }
+            strings[i] = new String(stringData, from, to - from, StandardCharsets.UTF_8);
+        }
+
+        final String[] names = new String[nameCount];
+        for (int i = 0; i < nameCount; ++i) {
+            final int idx = nameStrings[i];
+            if (idx < 0 || idx >= stringCount) {
+                throw new IOException("Corrupt name table");
+            }
+            names[i] = strings[idx];
+        }
+
+        try {
+            return new Contents(
+                    invalidateTime,
+                    IPv4PrefixIndex.fromSorted(ipv4Addresses, ipv4Lengths, ipv4ASNumbers, engine),
+                    IPv6PrefixIndex.fromSorted(ipv6Addresses, ipv6Lengths, ipv6ASNumbers),
+                    ASNameTable.fromSorted(nameASNumbers, names)
+            );
+        } catch (final IllegalArgumentException ex) {
+            throw new IOException("Corrupt prefix table", ex);
+        }
+    }
+
+    /**
+     * Overwrites the invalidate time of an existing binary cache file.
+     */
+    public static void updateInvalidateTime(final File file, final long invalidateTime) throws IOException {
+        if (!isBinaryCache(file)) {
+            throw new IOException("Not a binary cache file");
+        }
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            final ByteBuffer time = ByteBuffer.allocate(8).order(ByteOrder.BIG_ENDIAN).putLong(0, invalidateTime);
+            while (time.hasRemaining()) {
+                channel.write(time, INVALIDATE_TIME_OFFSET + time.position());
+            }
+            channel.force(false);
+        }
+    }
+
+    private static void getInts(final ByteBuffer buffer, final int[] into) {
+        buffer.asIntBuffer().get(into);
+        buffer.position(buffer.position() + (into.length << 2));
+    }
+
+    private static void getLongs(final ByteBuffer buffer, final long[] into) {
+        buffer.asLongBuffer().get(into);
+        buffer.position(buffer.position() + (into.length << 3));
+    }
+
+    public static void write(final File file, final long invalidateTime, final IPv4PrefixIndex ipv4,
+                             final IPv6PrefixIndex ipv6, final ASNameTable names) throws IOException {
+        // intern names
+        final Map<String, Integer> stringIds = new HashMap<>();
+        final int[] nameStrings = new int[names.size()];
+        final ByteBuffer stringOffsets;
+        final byte[][] strings;
+        {
+            int stringCount = 0;
+            for (int i = 0; i < nameStrings.length; ++i) {
+                final String name = names.getNameAt(i);
+                Integer id = stringIds.get(name);
+                if (id == null) {
+                    stringIds.put(name, id = Integer.valueOf(stringCount++));
+                }
+                nameStrings[i] = id.intValue();
+            }
+
+            strings = new byte[stringCount][];
+            for (final Map.Entry<String, Integer> entry : stringIds.entrySet()) {
+                strings[entry.getValue().intValue()] = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            }
+
+            stringOffsets = ByteBuffer.allocate(4 * (stringCount + 1)).order(ByteOrder.BIG_ENDIAN);
+            int offset = 0;
+            for (final byte[] string : strings) {
+                stringOffsets.putInt(offset);
+                offset += string.length;
+            }
+            stringOffsets.putInt(offset);
+        }
+
+        final CRC32 crc = new CRC32();
+        try (final FileOutputStream fileOut = new FileOutputStream(file)) {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new CheckedOutputStream(fileOut, crc), 1 << 16));
+
+            final int ipv4Count = ipv4.prefixCount();
+            final int ipv6Count = ipv6.prefixCount();
+
+            out.writeLong(MAGIC);
+            out.writeInt(VERSION);
+            // written as zero so that the checksum excludes it, filled in below
+            out.writeLong(0L);
+            out.writeInt(ipv4Count);
+            out.writeInt(ipv6Count);
+            out.writeInt(nameStrings.length);
+            out.writeInt(strings.length);
+            out.writeInt(stringOffsets.getInt(stringOffsets.limit() - 4));
+
+            for (int i = 0; i < ipv4Count; ++i) {
+                out.writeInt(ipv4.getPrefixAddress(i));
+            }
+            for (int i = 0; i < ipv4Count; ++i) {
+                out.writeByte(ipv4.getPrefixLength(i));
+            }
+            for (int i = 0; i < ipv4Count; ++i) {
+                out.writeInt(ipv4.getPrefixASNumber(i));
+            }
+
+            for (int i = 0; i < ipv6Count; ++i) {
+                out.writeLong(ipv6.getPrefixAddressHigh(i));
+                out.writeLong(ipv6.getPrefixAddressLow(i));
+            }
+            for (int i = 0; i < ipv6Count; ++i) {
+                out.writeByte(ipv6.getPrefixLength(i));
+            }
+            for (int i = 0; i < ipv6Count; ++i) {
+                out.writeInt(ipv6.getPrefixASNumber(i));
+            }
+
+            for (int i = 0; i < nameStrings.length; ++i) {
+                out.writeInt(names.getASNumberAt(i));
+            }
+            for (final int nameString : nameStrings) {
+                out.writeInt(nameString);
+            }
+
+            out.write(stringOffsets.array());
+            for (final byte[] string : strings) {
+                out.write(string);
+            }
+
+            out.flush();
+            // the checksum itself is not part of the checksummed data
+            final DataOutputStream trailer = new DataOutputStream(fileOut);
+            trailer.writeInt((int)crc.getValue());
+            trailer.flush();
+
+            fileOut.getChannel().write(
+                    ByteBuffer.allocate(8).order(ByteOrder.BIG_ENDIAN).putLong(0, invalidateTime), INVALIDATE_TIME_OFFSET
+            );
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package ca.spottedleaf.ipastools.astools;
+
+import ca.spottedleaf.ipastools.util.Util;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Differences between two {@link ASLookup.Tables} snapshots, computed by a single merge walk over their sorted prefix
+ * tables. Tables which are shared between the snapshots are skipped entirely.
+ */
+public final class ASLookupDelta {
+
+    // only the first changes are retained, so that replacing the whole table does not retain a copy of it
+    private static final int MAX_RECORDED_CHANGES = 1 << 16;
+
+    public static enum ChangeType {
+        ADDED, REMOVED, REASSIGNED;
+    }
+
+    // the AS number is -1 for the side which does not contain the prefix
+    public static record Change(ChangeType type, String prefix, int oldASNumber, int newASNumber) {
+
+        public String description() {
+            return switch (this.type) {
+                case ADDED -> "ADDED " + this.prefix + " AS" + this.newASNumber;
+                case REMOVED -> "REMOVED " + this.prefix + " AS" + this.oldASNumber;
+                case REASSIGNED -> "REASSIGNED " + this.prefix + " AS" + this.oldASNumber + " -> AS" + this.newASNumber;
+            };
+        }
+    }
+
+    private final List<Change> changes = new ArrayList<>();
+    private int ipv4Added;
+    private int ipv4Removed;
+    private int ipv4Reassigned;
+    private int ipv6Added;
+    private int ipv6Removed;
+    private int ipv6Reassigned;
+    private int namesChanged;
+
+    private ASLookupDelta() {}
+
+    public static ASLookupDelta compute(final ASLookup.Tables from, final ASLookup.Tables to) {
+        final ASLookupDelta ret = new ASLookupDelta();
+
+        if (!from.ipv4().sharesPrefixTable(to.ipv4())) {
+            ret.diffIPv4(from.ipv4(), to.ipv4());
+        }
+        if (from.ipv6() != to.ipv6()) {
+            ret.diffIPv6(from.ipv6(), to.ipv6());
+        }
+        if (from.names() != to.names()) {
+            ret.diffNames(from.names(), to.names());
+        }
+
+        return ret;
+    }
+
+    private void record(final ChangeType type, final String prefix, final int oldASNumber, final int newASNumber) {
+        if (this.changes.size() < MAX_RECORDED_CHANGES) {
+            this.changes.add(new Change(type, prefix, oldASNumber, newASNumber));
+        }
+    }
+
+    private static String ipv4Prefix(final IPv4PrefixIndex index, final int prefix) {
+        return Util.toIPv4String(index.getPrefixAddress(prefix)) + "/" + index.getPrefixLength(prefix);
+    }
+
+    private static String ipv6Prefix(final IPv6PrefixIndex index, final int prefix) {
+        return Util.toIPv6String(index.getPrefixAddressHigh(prefix), index.getPrefixAddressLow(prefix)) + "/" + index.getPrefixLength(prefix);
+    }
+
+    private void diffIPv4(final IPv4PrefixIndex from, final IPv4PrefixIndex to) {
+        final int fromCount = from.prefixCount();
+        final int toCount = to.prefixCount();
+        int i = 0;
+        int j = 0;
+        while (i < fromCount || j < toCount) {
+            final int cmp;
+            if (i == fromCount) {
+                cmp = 1;
+            } else if (j == toCount) {
+                cmp = -1;
+            } else {
+                final int addressCmp = Integer.compareUnsigned(from.getPrefixAddress(i), to.getPrefixAddress(j));
+                cmp = addressCmp != 0 ? addressCmp : Integer.compare(from.getPrefixLength(i), to.getPrefixLength(j));
+            }
+
+            if (cmp < 0) {
+                ++this.ipv4Removed;
+                this.record(ChangeType.REMOVED, ipv4Prefix(from, i), from.getPrefixASNumber(i), -1);
+                ++i;
+            } else if (cmp > 0) {
+                ++this.ipv4Added;
+                this.record(ChangeType.ADDED, ipv4Prefix(to, j), -1, to.getPrefixASNumber(j));
+                ++j;
+            } else {
+                if (from.getPrefixASNumber(i) != to.getPrefixASNumber(j)) {
+                    ++this.ipv4Reassigned;
+                    this.record(ChangeType.REASSIGNED, ipv4Prefix(to, j), from.getPrefixASNumber(i), to.getPrefixASNumber(j));
+                }
+                ++i;
+                ++j;
+            }
+        }
+    }
+
+    private void diffIPv6(final IPv6PrefixIndex from, final IPv6PrefixIndex to) {
+        final int fromCount = from.prefixCount();
+        final int toCount = to.prefixCount();
+        int i = 0;
+        int j = 0;
+        while (i < fromCount || j < toCount) {
+            final int cmp;
+            if (i == fromCount) {
+                cmp = 1;
+            } else if (j == toCount) {
+                cmp = -1;
+            } else {
+                int addressCmp = Long.compareUnsigned(from.getPrefixAddressHigh(i), to.getPrefixAddressHigh(j));
+                if (addressCmp == 0) {
+                    addressCmp = Long.compareUnsigned(from.getPrefixAddressLow(i), to.getPrefixAddressLow(j));
+                }
+                cmp = addressCmp != 0 ? addressCmp : Integer.compare(from.getPrefixLength(i), to.getPrefixLength(j));
+            }
+
+            if (cmp < 0) {
+                ++this.ipv6Removed;
+                this.record(ChangeType.REMOVED, ipv6Prefix(from, i), from.getPrefixASNumber(i), -1);
+                ++i;
+            } else if (cmp > 0) {
+                ++this.ipv6Added;
+                this.record(ChangeType.ADDED, ipv6Prefix(to, j), -1, to.getPrefixASNumber(j));
+                ++j;
+            } else {
+                if (from.getPrefixASNumber(i) != to.getPrefixASNumber(j)) {
+                    ++this.ipv6Reassigned;
+                    this.record(ChangeType.REASSIGNED, ipv6Prefix(to, j), from.getPrefixASNumber(i), to.getPrefixASNumber(j));
+                }
+                ++i;
+                ++j;
+            }
+        }
+    }
+
+    private void diffNames(final ASNameTable from, final ASNameTable to) {
+        final int fromCount = from.size();
+        final int toCount = to.size();
+        int i = 0;
+        int j = 0;
+        while (i < fromCount || j < toCount) {
+            final int cmp;
+            if (i == fromCount) {
+                cmp = 1;
+            } else if (j == toCount) {
+                cmp = -1;
+            } else {
+                cmp = Integer.compare(from.getASNumberAt(i), to.getASNumberAt(j));
+            }
+
+            if (cmp != 0 || !Objects.equals(from.getNameAt(i), to.getNameAt(j))) {
+                ++this.namesChanged;
+            }
+            if (cmp <= 0) {
+                ++i;
+            }
+            if (cmp >= 0) {
+                ++j;
+            }
+        }
+    }
+
+    public boolean hasChanges() {
+        return this.prefixChanges() != 0 || this.namesChanged != 0;
+    }
+
+    public int prefixChanges() {
+        return this.ipv4Added + this.ipv4Removed + this.ipv4Reassigned + this.ipv6Added + this.ipv6Removed + this.ipv6Reassigned;
+    }
+
+    /**
+     * Returns the recorded prefix changes, in address order with IPv4 first. At most {@link #MAX_RECORDED_CHANGES}
+     * are recorded, the counts always cover all changes.
+     */
+    public List<Change> getChanges() {
+        return Collections.unmodifiableList(this.changes);
+    }
+
+    public String summary() {
+        return "IPv4 +" + this.ipv4Added + " -" + this.ipv4Removed + " ~" + this.ipv4Reassigned
+                + ", IPv6 +" + this.ipv6Added + " -" + this.ipv6Removed + " ~" + this.ipv6Reassigned
+                + ", " + this.namesChanged + " AS names changed";
+    }
+}
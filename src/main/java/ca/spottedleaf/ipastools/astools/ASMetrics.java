@@ -0,0 +1,303 @@
+package ca.spottedleaf.ipastools.astools;
+
+import ca.spottedleaf.ipastools.IPASTools;
+import ca.spottedleaf.ipastools.util.LatencyHistogram;
+import ca.spottedleaf.ipastools.util.MeteredExecutor;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+/**
+ * Instrumentation of the login path and the background executors.
+ * <p>
+ * Recording into any of the instruments is lock-free and does not allocate, so they are always on. The instruments
+ * can be read as text lines for {@code /as stats}, or in the Prometheus text format for scrapers. Rendering only reads
+ * volatile state and never takes the locks of {@link ASBans} or {@link ASPlayerState}, so scraping cannot stall logins.
+ * </p>
+ */
+public final class ASMetrics {
+
+    public static final LatencyHistogram LOGIN = new LatencyHistogram();
+    public static final LatencyHistogram LOOKUP = new LatencyHistogram();
+    public static final LongAdder LOOKUP_NO_MATCH = new LongAdder();
+    public static final LatencyHistogram KICK_REASON = new LatencyHistogram();
+    public static final LatencyHistogram USER_DATA_LOAD = new LatencyHistogram();
+    public static final LongAdder AS_BAN_HITS = new LongAdder();
+    public static final LongAdder RANGE_BAN_HITS = new LongAdder();
+    public static final LongAdder RAID_BANS = new LongAdder();
+    public static final JoinCounter JOINS = new JoinCounter();
+
+    private static final Map<String, MeteredExecutor> EXECUTORS = new ConcurrentSkipListMap<>();
+
+    private static final String[] BUCKET_BOUNDS = new String[LatencyHistogram.BUCKETS];
+    static {
+        for (int i = 0; i < LatencyHistogram.BUCKETS - 1; ++i) {
+            BUCKET_BOUNDS[i] = Double.toString((double)LatencyHistogram.upperBound(i) / 1.0E9);
+        }
+        BUCKET_BOUNDS[LatencyHistogram.BUCKETS - 1] = "+Inf";
+    }
+
+    private ASMetrics() {}
+
+    /**
+     * Counts joins per AS number in a fixed size open addressed table, so that recording is lock-free and does not
+     * allocate. Slots are never freed, so once the table is three quarters full joins from AS numbers not yet in it are
+     * only counted in total.
+     */
+    public static final class JoinCounter {
+
+        private static final int CAPACITY = 4096;
+        private static final int MAX_SIZE = CAPACITY / 4 * 3;
+
+        // 0 marks an empty slot, which is fine as AS 0 is reserved
+        private final AtomicIntegerArray keys = new AtomicIntegerArray(CAPACITY);
+        private final AtomicLongArray counts = new AtomicLongArray(CAPACITY);
+        private final AtomicInteger size = new AtomicInteger();
+        private final LongAdder other = new LongAdder();
+
+        private JoinCounter() {}
+
+        private static int hash(final int ASNumber) {
+            final int hash = ASNumber * 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+
+        // MT-Safe
+        public void record(final int ASNumber) {
+            if (ASNumber != 0) {
+                for (int i = hash(ASNumber) & (CAPACITY - 1), probes = 0; probes < CAPACITY; i = (i + 1) & (CAPACITY - 1), ++probes) {
+                    int key = this.keys.get(i);
+                    if (key == 0) {
+                        if (this.size.get() >= MAX_SIZE) {
+                            // an AS is always inserted into the first empty slot it probes, so it is not in the table
+                            break;
+                        }
+                        if (this.keys.compareAndSet(i, 0, ASNumber)) {
+                            this.size.getAndIncrement();
+                            key = ASNumber;
+                        } else {
+                            key = this.keys.get(i);
+                        }
+                    }
+                    if (key == ASNumber) {
+                        this.counts.getAndIncrement(i);
+                        return;
+                    }
+                }
+            }
+            this.other.increment();
+        }
+
+        public long getOther() {
+            return this.other.sum();
+        }
+
+        private void write(final Appendable out, final String name) throws IOException {
+            for (int i = 0; i < CAPACITY; ++i) {
+                final int key = this.keys.get(i);
+                final long count = this.counts.get(i);
+                if (key != 0 && count != 0L) {
+                    out.append(name).append("{as=\"").append(Integer.toUnsignedString(key)).append("\"} ").append(Long.toString(count)).append('\n');
+                }
+            }
+            out.append(name).append("{as=\"other\"} ").append(Long.toString(this.other.sum())).append('\n');
+        }
+    }
+
+    public static void registerExecutor(final String name, final MeteredExecutor executor) {
+        EXECUTORS.put(name, executor);
+    }
+
+    private static String formatMillis(final double nanos) {
+        return String.format(Locale.ROOT, "%.3fms", nanos / 1.0E6);
+    }
+
+    private static String describe(final String name, final LatencyHistogram histogram) {
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        return name + ": " + snapshot.count() + ", mean " + formatMillis(snapshot.meanNanos())
+                + ", p50 " + formatMillis((double)snapshot.quantileNanos(0.50))
+                + ", p99 " + formatMillis((double)snapshot.quantileNanos(0.99))
+                + ", max " + formatMillis((double)snapshot.maxNanos());
+    }
+
+    /**
+     * Returns a human-readable summary, one line per instrument.
+     */
+    public static List<String> describe() {
+        final List<String> ret = new ArrayList<>();
+
+        ret.add(describe("Logins", LOGIN));
+        final long lookups = LOOKUP.snapshot().count();
+        final long noMatch = LOOKUP_NO_MATCH.sum();
+        ret.add(describe("AS lookups", LOOKUP) + String.format(Locale.ROOT, ", %.2f%% no match", lookups == 0L ? 0.0 : 100.0 * (double)noMatch / (double)lookups));
+        ret.add(describe("Ban checks", KICK_REASON) + ", " + AS_BAN_HITS.sum() + " AS bans hit, " + RANGE_BAN_HITS.sum() + " range bans hit, " + RAID_BANS.sum() + " raid bans");
+        ret.add(describe("User data loads", USER_DATA_LOAD));
+
+        for (final Map.Entry<String, MeteredExecutor> entry : EXECUTORS.entrySet()) {
+            final MeteredExecutor executor = entry.getValue();
+            ret.add(entry.getKey() + ": queue depth " + executor.getQueueDepth());
+            ret.add(" " + describe("queued", executor.getQueueTime()));
+            ret.add(" " + describe("ran", executor.getRunTime()));
+        }
+
+        final UserDataSaveQueue saveQueue = ASPlayerState.getSaveQueue();
+        if (saveQueue != null) {
+            final UserDataSaveQueue.Stats stats = saveQueue.getStats();
+            ret.add(
+                    "User data save queue: depth " + stats.queueDepth() + ", " + stats.flushes() + " flushes, "
+                            + stats.statesWritten() + " written, " + stats.failures() + " failed, last flush "
+                            + formatMillis((double)stats.lastFlushNanos()) + ", max flush " + formatMillis((double)stats.maxFlushNanos())
+            );
+        }
+
+        final UserDataCache cache = ASPlayerState.getCache();
+        if (cache != null) {
+            final UserDataCache.Stats stats = cache.getStats();
+            ret.add(
+                    "User data cache: " + stats.size() + " players, weight " + stats.weight() + "/" + stats.maxWeight() + ", "
+                            + stats.hits() + " hits, " + stats.misses() + " misses, " + stats.evictions() + " evictions"
+                            + String.format(Locale.ROOT, ", %.2f%% hit rate", 100.0 * stats.hitRate())
+            );
+        }
+
+        return ret;
+    }
+
+    private static void writeHistogram(final Appendable out, final String name, final String labels, final LatencyHistogram histogram) throws IOException {
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        final String labelPrefix = labels.isEmpty() ? "{" : "{" + labels + ",";
+        long cumulative = 0L;
+        for (int i = 0; i < LatencyHistogram.BUCKETS; ++i) {
+            cumulative += snapshot.buckets()[i];
+            out.append(name).append("_bucket").append(labelPrefix).append("le=\"").append(BUCKET_BOUNDS[i]).append("\"} ").append(Long.toString(cumulative)).append('\n');
+        }
+        final String labelSet = labels.isEmpty() ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(labelSet).append(' ').append(Double.toString((double)snapshot.sumNanos() / 1.0E9)).append('\n');
+        out.append(name).append("_count").append(labelSet).append(' ').append(Long.toString(snapshot.count())).append('\n');
+    }
+
+    private static void writeType(final Appendable out, final String name, final String type, final String help) throws IOException {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void writeValue(final Appendable out, final String name, final String type, final String help, final long value) throws IOException {
+        writeType(out, name, type, help);
+        out.append(name).append(' ').append(Long.toString(value)).append('\n');
+    }
+
+    private static void writeValue(final Appendable out, final String name, final String type, final String help, final double value) throws IOException {
+        writeType(out, name, type, help);
+        out.append(name).append(' ').append(Double.toString(value)).append('\n');
+    }
+
+    private static String escapeLabel(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    /**
+     * Writes every instrument in the Prometheus text exposition format, one metric family at a time, so that the output
+     * can be streamed without being buffered whole.
+     */
+    public static void writePrometheus(final Appendable out) throws IOException {
+        writeType(out, "ipastools_login_duration_seconds", "histogram", "Time spent handling a pre login");
+        writeHistogram(out, "ipastools_login_duration_seconds", "", LOGIN);
+        writeType(out, "ipastools_joins_total", "counter", "Pre logins by AS number, joins from AS numbers beyond the tracked limit are counted as other");
+        JOINS.write(out, "ipastools_joins_total");
+
+        writeType(out, "ipastools_lookup_duration_seconds", "histogram", "Time spent looking up the AS of an address");
+        writeHistogram(out, "ipastools_lookup_duration_seconds", "", LOOKUP);
+        writeValue(out, "ipastools_lookup_no_match_total", "counter", "AS lookups which matched no prefix", LOOKUP_NO_MATCH.sum());
+
+        final IPASTools plugin = IPASTools.getInstance();
+        final ASLookup lookup = plugin == null ? null : plugin.getLookup();
+        final ASLookup.Tables tables = lookup == null ? null : lookup.getTables();
+        if (tables != null) {
+            writeType(out, "ipastools_lookup_prefixes", "gauge", "Prefixes in the loaded lookup tables");
+            out.append("ipastools_lookup_prefixes{family=\"ipv4\"} ").append(Integer.toString(tables.ipv4().prefixCount())).append('\n');
+            out.append("ipastools_lookup_prefixes{family=\"ipv6\"} ").append(Integer.toString(tables.ipv6().prefixCount())).append('\n');
+            writeValue(out, "ipastools_lookup_as_names", "gauge", "AS names in the loaded lookup tables", (long)tables.names().size());
+        }
+        if (lookup != null) {
+            writeValue(out, "ipastools_lookup_invalidate_timestamp_seconds", "gauge", "When the lookup tables are next refreshed", (double)lookup.getInvalidateTime() / 1.0E3);
+        }
+
+        writeType(out, "ipastools_ban_check_duration_seconds", "histogram", "Time spent checking the bans of an address");
+        writeHistogram(out, "ipastools_ban_check_duration_seconds", "", KICK_REASON);
+        writeType(out, "ipastools_ban_hits_total", "counter", "Ban checks which found a ban");
+        out.append("ipastools_ban_hits_total{type=\"as\"} ").append(Long.toString(AS_BAN_HITS.sum())).append('\n');
+        out.append("ipastools_ban_hits_total{type=\"range\"} ").append(Long.toString(RANGE_BAN_HITS.sum())).append('\n');
+        writeValue(out, "ipastools_raid_bans_total", "counter", "AS numbers banned for exceeding the raid threshold", RAID_BANS.sum());
+        final ASBans bans = plugin == null ? null : plugin.getBans();
+        if (bans != null) {
+            writeType(out, "ipastools_bans", "gauge", "Active bans");
+            out.append("ipastools_bans{type=\"as\"} ").append(Integer.toString(bans.getASBanCount())).append('\n');
+            out.append("ipastools_bans{type=\"range\"} ").append(Integer.toString(bans.getRangeBanCount())).append('\n');
+        }
+
+        writeType(out, "ipastools_user_data_load_duration_seconds", "histogram", "Time spent reading user data from storage");
+        writeHistogram(out, "ipastools_user_data_load_duration_seconds", "", USER_DATA_LOAD);
+
+        writeType(out, "ipastools_executor_queue_depth", "gauge", "Tasks waiting to run on an executor");
+        for (final Map.Entry<String, MeteredExecutor> entry : EXECUTORS.entrySet()) {
+            out.append("ipastools_executor_queue_depth{executor=\"").append(escapeLabel(entry.getKey())).append("\"} ")
+                    .append(Integer.toString(entry.getValue().getQueueDepth())).append('\n');
+        }
+        writeType(out, "ipastools_executor_queue_duration_seconds", "histogram", "Time tasks waited to run on an executor");
+        for (final Map.Entry<String, MeteredExecutor> entry : EXECUTORS.entrySet()) {
+            writeHistogram(out, "ipastools_executor_queue_duration_seconds", "executor=\"" + escapeLabel(entry.getKey()) + "\"", entry.getValue().getQueueTime());
+        }
+        writeType(out, "ipastools_executor_run_duration_seconds", "histogram", "Time tasks took to run on an executor");
+        for (final Map.Entry<String, MeteredExecutor> entry : EXECUTORS.entrySet()) {
+            writeHistogram(out, "ipastools_executor_run_duration_seconds", "executor=\"" + escapeLabel(entry.getKey()) + "\"", entry.getValue().getRunTime());
+        }
+
+        final UserDataSaveQueue saveQueue = ASPlayerState.getSaveQueue();
+        if (saveQueue != null) {
+            final UserDataSaveQueue.Stats stats = saveQueue.getStats();
+            writeValue(out, "ipastools_user_data_save_queue_depth", "gauge", "Released user data waiting to be saved", (long)stats.queueDepth());
+            writeValue(out, "ipastools_user_data_save_flushes_total", "counter", "Save queue flushes", stats.flushes());
+            writeValue(out, "ipastools_user_data_saved_total", "counter", "User data written by the save queue", stats.statesWritten());
+            writeValue(out, "ipastools_user_data_save_failures_total", "counter", "User data the save queue failed to write", stats.failures());
+        }
+
+        final UserDataCache cache = ASPlayerState.getCache();
+        if (cache != null) {
+            final UserDataCache.Stats stats = cache.getStats();
+            writeValue(out, "ipastools_user_data_cache_hits_total", "counter", "User data found in the cache", stats.hits());
+            writeValue(out, "ipastools_user_data_cache_misses_total", "counter", "User data not found in the cache", stats.misses());
+            writeValue(out, "ipastools_user_data_cache_hit_ratio", "gauge", "Fraction of user data lookups found in the cache", stats.hitRate());
+            writeValue(out, "ipastools_user_data_cache_evictions_total", "counter", "User data evicted from the cache", stats.evictions());
+            writeValue(out, "ipastools_user_data_cache_weight", "gauge", "Total weight of the cached user data", stats.weight());
+        }
+    }
+
+    /**
+     * Writes {@link #writePrometheus(Appendable)} to the specified file, replacing it atomically so that readers never
+     * see a partial file.
+     */
+    public static void writeToFile(final File file) {
+        final File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            try (final Writer writer = Files.newBufferedWriter(temp.toPath(), StandardCharsets.UTF_8)) {
+                writePrometheus(writer);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (final IOException ex) {
+            IPASTools.getInstance().getLogger().log(Level.WARNING, "Failed to write metrics to '" + file.getAbsolutePath() + "'", ex);
+        }
+    }
+}
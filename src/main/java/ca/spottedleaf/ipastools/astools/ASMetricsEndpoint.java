@@ -0,0 +1,76 @@
+package ca.spottedleaf.ipastools.astools;
+
+import ca.spottedleaf.ipastools.IPASTools;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.logging.Level;
+
+/**
+ * Serves {@link ASMetrics} in the Prometheus text format at {@code /metrics}.
+ * <p>
+ * Requests are handled one at a time on the specified executor, and the response is streamed with chunked encoding as
+ * it is rendered, so a scrape never buffers the whole output.
+ * </p>
+ */
+public final class ASMetricsEndpoint {
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public ASMetricsEndpoint(final InetSocketAddress address, final ExecutorService executor) throws IOException {
+        this.executor = executor;
+        this.server = HttpServer.create(address, 0);
+        this.server.createContext("/metrics", this::handle);
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    public InetSocketAddress getAddress() {
+        return this.server.getAddress();
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try {
+            final String method = exchange.getRequestMethod();
+            if (!"GET".equals(method) && !"HEAD".equals(method)) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1L);
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            if ("HEAD".equals(method)) {
+                exchange.sendResponseHeaders(200, -1L);
+                return;
+            }
+
+            // length 0 selects chunked encoding
+            exchange.sendResponseHeaders(200, 0L);
+            try (final Writer writer = new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)) {
+                ASMetrics.writePrometheus(writer);
+            }
+        } catch (final RuntimeException ex) {
+            // an IOException is usually just the scraper disconnecting, so only log these
+            IPASTools.getInstance().getLogger().log(Level.WARNING, "Failed to render metrics", ex);
+            throw ex;
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Stops accepting requests and closes open connections, then shuts down the executor.
+     */
+    public void stop() {
+        this.server.stop(0);
+        this.executor.shutdown();
+    }
+}
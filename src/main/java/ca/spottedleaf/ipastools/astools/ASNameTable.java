@@ -0,0 +1,126 @@
+package ca.spottedleaf.ipastools.astools;
+
+import java.util.Arrays;
+
+/**
+ * Immutable AS number to AS name table, shared by the IPv4 and IPv6 prefix indexes.
+ */
+public final class ASNameTable {
+
+    public static final ASNameTable EMPTY = new ASNameTable(new int[0], new String[0]);
+
+    // sorted
+    private final int[] ASNumbers;
+    private final String[] names;
+
+    private ASNameTable(final int[] ASNumbers, final String[] names) {
+        this.ASNumbers = ASNumbers;
+        this.names = names;
+    }
+
+    /**
+     * Creates a table directly from AS numbers which are already sorted, without duplicates. The arrays are retained
+     * by the table.
+     * @throws IllegalArgumentException If the AS numbers are not sorted, or a name is missing.
+     */
+    public static ASNameTable fromSorted(final int[] ASNumbers, final String[] names) {
+        if (ASNumbers.length != names.length) {
+            throw new IllegalArgumentException("Name table columns differ in length");
+        }
+        for (int i = 0; i < ASNumbers.length; ++i) {
+            if (names[i] == null || (i != 0 && ASNumbers[i - 1] >= ASNumbers[i])) {
+                throw new IllegalArgumentException("Name table is not sorted at " + i);
+            }
+        }
+
+        return new ASNameTable(ASNumbers, names);
+    }
+
+    public String getName(final int ASNumber) {
+        final int idx = Arrays.binarySearch(this.ASNumbers, ASNumber);
+        return idx < 0 ? null : this.names[idx];
+    }
+
+    public int size() {
+        return this.ASNumbers.length;
+    }
+
+    public int getASNumberAt(final int idx) {
+        return this.ASNumbers[idx];
+    }
+
+    public String getNameAt(final int idx) {
+        return this.names[idx];
+    }
+
+    public long memoryUsage() {
+        return 4L * (long)this.ASNumbers.length;
+    }
+
+    public static final class Builder {
+
+        private int[] ASNumbers = new int[1024];
+        private String[] names = new String[1024];
+        private int size;
+
+        public Builder addName(final int ASNumber, final String name) {
+            if (name == null) {
+                return this;
+            }
+            if (this.size == this.ASNumbers.length) {
+                final int newCapacity = this.size * 2;
+                this.ASNumbers = Arrays.copyOf(this.ASNumbers, newCapacity);
+                this.names = Arrays.copyOf(this.names, newCapacity);
+            }
+            this.ASNumbers[this.size] = ASNumber;
+            this.names[this.size] = name;
+            ++this.size;
+            return this;
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        public ASNameTable build() {
+            return this.build(null);
+        }
+
+        /**
+         * Builds the table, returning the specified previous table instead if it holds the same names.
+         */
+        public ASNameTable build(final ASNameTable previous) {
+            final int size = this.size;
+
+            // sort by (AS number, insertion order) using packed keys
+            final long[] keys = new long[size];
+            for (int i = 0; i < size; ++i) {
+                keys[i] = ((long)this.ASNumbers[i] << 32) | (long)i;
+            }
+            Arrays.sort(keys);
+
+            final int[] ASNumbers = new int[size];
+            final String[] names = new String[size];
+            int count = 0;
+            for (int i = 0; i < size; ++i) {
+                final int ASNumber = (int)(keys[i] >> 32);
+                final String name = this.names[(int)keys[i]];
+                if (count != 0 && ASNumbers[count - 1] == ASNumber) {
+                    // duplicate, the last one added wins
+                    names[count - 1] = name;
+                    continue;
+                }
+                ASNumbers[count] = ASNumber;
+                names[count] = name;
+                ++count;
+            }
+
+            if (previous != null && Arrays.equals(previous.ASNumbers, 0, previous.ASNumbers.length, ASNumbers, 0, count)
+                    && Arrays.equals(previous.names, 0, previous.names.length, names, 0, count)) {
+                return previous;
+            }
+
+            return new ASNameTable(Arrays.copyOf(ASNumbers, count), Arrays.copyOf(names, count));
+        }
+    }
+}
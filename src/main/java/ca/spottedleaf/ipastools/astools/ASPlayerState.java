@@ -1,20 +1,36 @@
 package ca.spottedleaf.ipastools.astools;
 
 import ca.spottedleaf.ipastools.IPASTools;
+import ca.spottedleaf.ipastools.config.ASConfig;
+import ca.spottedleaf.ipastools.storage.UserDataStorage;
+import ca.spottedleaf.ipastools.util.TimestampCodec;
 import ca.spottedleaf.ipastools.util.Util;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import java.io.File;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 public final class ASPlayerState {
@@ -25,7 +41,7 @@ public final class ASPlayerState {
     private final Object stateLock = new Object();
     private boolean dirty;
 
-    private final List<ASLoginEntry> loginHistory = new ArrayList<>();
+    private final LoginHistory loginHistory = new LoginHistory();
 
     ASPlayerState(final UUID userUniqueId) {
         this.userUniqueId = userUniqueId;
@@ -34,20 +50,69 @@ public final class ASPlayerState {
 
     ASPlayerState(final UUID userUniqueId, final JsonObject json) {
         this(userUniqueId);
-        final int version = json.get("version").getAsInt();
-
-        if (version > VERSION) {
-            IPASTools.getInstance().getLogger().warning("Refusing to load user data for player " + userUniqueId.toString() + " since it was created with a newer version of the plugin");
-            IPASTools.getInstance().getLogger().warning("New data for " + userUniqueId.toString() + " will not be saved");
-            this.canSave = false;
+        if (!this.checkVersion(json.get("version").getAsInt())) {
             return;
         }
 
         final JsonArray loginHistory = json.getAsJsonArray("loginHistory");
         if (loginHistory != null) {
+            final List<ASLoginEntry> entries = new ArrayList<>(loginHistory.size());
             for (final JsonElement element : loginHistory) {
-                this.loginHistory.add(ASLoginEntry.parse(element.getAsJsonObject()));
+                entries.add(ASLoginEntry.parse(element.getAsJsonObject()));
             }
+            this.loadLoginHistory(entries);
+        }
+    }
+
+    ASPlayerState(final UUID userUniqueId, final DataInputStream in) throws IOException {
+        this(userUniqueId);
+        if (!this.checkVersion(in.readInt())) {
+            return;
+        }
+
+        final int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Corrupt login history length: " + count);
+        }
+        final List<ASLoginEntry> entries = new ArrayList<>(Math.min(count, 1024));
+        for (int i = 0; i < count; ++i) {
+            entries.add(ASLoginEntry.read(in));
+        }
+        this.loadLoginHistory(entries);
+    }
+
+    private boolean checkVersion(final int version) {
+        if (version > VERSION) {
+            IPASTools.getInstance().getLogger().warning("Refusing to load user data for player " + this.userUniqueId.toString() + " since it was created with a newer version of the plugin");
+            IPASTools.getInstance().getLogger().warning("New data for " + this.userUniqueId.toString() + " will not be saved");
+            this.canSave = false;
+            return false;
+        }
+        return true;
+    }
+
+    private void loadLoginHistory(final List<ASLoginEntry> entries) {
+        final ASConfig config = IPASTools.getInstance().getASConfig();
+        this.loginHistory.load(entries, config.loginHistoryMaxEntries, config.loginHistoryMaxAgeMillis);
+        // entries evicted here are dropped from disk on the next save
+    }
+
+    /**
+     * Decodes user data in either the binary or the JSON format.
+     */
+    static ASPlayerState deserialize(final UUID userUniqueId, final byte[] data) throws IOException {
+        if (data.length >= 4 && ByteBuffer.wrap(data).getInt(0) == BINARY_MAGIC) {
+            return new ASPlayerState(userUniqueId, new DataInputStream(new ByteArrayInputStream(data, 4, data.length - 4)));
+        }
+
+        final JsonElement json = Util.parseJson(data);
+        if (!(json instanceof JsonObject object)) {
+            throw new IOException("User data is not a JSON object");
+        }
+        try {
+            return new ASPlayerState(userUniqueId, object);
+        } catch (final RuntimeException ex) {
+            throw new IOException("Invalid JSON user data", ex);
         }
     }
 
@@ -56,40 +121,67 @@ public final class ASPlayerState {
         return this.dirty;
     }
 
-    public ASLoginEntry getLastLoginEntry() {
+    boolean isDirty() {
         synchronized (this.stateLock) {
-            if (this.loginHistory.isEmpty()) {
-                return null;
-            }
-            return this.loginHistory.get(0);
+            return this.dirty;
         }
     }
 
-    public void addLoginHistory(final ASLoginEntry history) {
+    public ASLoginEntry getLastLoginEntry() {
         synchronized (this.stateLock) {
-            // purge duplicates
-            for (final Iterator<ASLoginEntry> iterator = this.loginHistory.iterator(); iterator.hasNext();) {
-                final ASLoginEntry entry = iterator.next();
-                if (entry.ASNumber == history.ASNumber && entry.ip.equals(history.ip)) {
-                    iterator.remove();
-                }
-            }
+            return this.loginHistory.getNewest();
+        }
+    }
 
-            // add entry
-            this.loginHistory.add(history);
+    int getLoginHistorySize() {
+        synchronized (this.stateLock) {
+            return this.loginHistory.size();
+        }
+    }
 
-            // sort so that order is maintained
-            this.loginHistory.sort((final ASLoginEntry e1, final ASLoginEntry e2) -> {
-                return e1.lastUsed.compareTo(e2.lastUsed);
-            });
+    public List<ASLoginEntry> getLoginHistory() {
+        synchronized (this.stateLock) {
+            return this.loginHistory.toList();
+        }
+    }
 
+    public void addLoginHistory(final ASLoginEntry history) {
+        final ASConfig config = IPASTools.getInstance().getASConfig();
+        synchronized (this.stateLock) {
+            this.loginHistory.add(history, config.loginHistoryMaxEntries, config.loginHistoryMaxAgeMillis);
             this.dirty = true;
         }
+
+        final ASAltIndex altIndex = ASPlayerState.altIndex;
+        if (altIndex != null) {
+            altIndex.add(this.userUniqueId, history);
+        }
     }
 
     // just in case
     // increment when breaking changes are made to the format (and then correctly convert older versions)
-    private static final int VERSION = 0;
+    // 0: JSON only
+    // 1: binary format, the JSON format is unchanged and kept for storages which are meant to be human-readable
+    private static final int VERSION = 1;
+
+    // 0xA5 can not start a JSON document, so this tells binary data apart from JSON data
+    private static final int BINARY_MAGIC = 0xA5415350;
+
+    // holds state lock
+    byte[] writeToBinary() throws IOException {
+        final List<ASLoginEntry> entries = this.loginHistory.toList();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(4 + 4 + 4 + entries.size() * ASLoginEntry.MAX_BINARY_SIZE);
+        final DataOutputStream out = new DataOutputStream(bytes);
+
+        out.writeInt(BINARY_MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(entries.size());
+        for (final ASLoginEntry entry : entries) {
+            entry.write(out);
+        }
+
+        return bytes.toByteArray();
+    }
 
     // holds state lock
     JsonObject writeToJson() {
@@ -99,7 +191,7 @@ public final class ASPlayerState {
             final JsonArray loginHistory = new JsonArray();
             ret.add("loginHistory", loginHistory);
 
-            for (final ASLoginEntry entry : this.loginHistory) {
+            for (final ASLoginEntry entry : this.loginHistory.toList()) {
                 loginHistory.add(entry.toJson());
             }
         }
@@ -110,24 +202,23 @@ public final class ASPlayerState {
     }
 
     private static final ConcurrentHashMap<UUID, ASPlayerState> USER_DATA = new ConcurrentHashMap<>(2048, 0.25f);
-    private static final int MAX_USER_DATA_CACHE = 256;
-    private static final LinkedHashMap<UUID, ASPlayerState> USER_DATA_CACHE = new LinkedHashMap<>() {
-        @Override
-        protected boolean removeEldestEntry(final Map.Entry<UUID, ASPlayerState> eldest) {
-            return this.size() >= MAX_USER_DATA_CACHE;
-        }
-    };
+    private static volatile UserDataCache cache;
+
+    public static UserDataCache getCache() {
+        return cache;
+    }
+
+    // must be set before any user data is loaded
+    public static void setCache(final UserDataCache cache) {
+        ASPlayerState.cache = cache;
+    }
 
     private static void cacheEntry(final UUID uniqueId, final ASPlayerState userData) {
-        synchronized (USER_DATA_CACHE) {
-            USER_DATA_CACHE.put(uniqueId, userData);
-        }
+        cache.put(uniqueId, userData);
     }
 
     private static ASPlayerState getAndRemoveEntryFromCache(final UUID uniqueId) {
-        synchronized (USER_DATA_CACHE) {
-            return USER_DATA_CACHE.remove(uniqueId);
-        }
+        return cache.remove(uniqueId);
     }
 
     private int referenceCount;
@@ -137,62 +228,239 @@ public final class ASPlayerState {
         return USER_DATA.get(userId);
     }
 
-    private static File getDataFileFor(final UUID userId) {
-        final File dataFolder = IPASTools.getInstance().getDataFolder();
-        return new File(new File(dataFolder, "userdata"), userId.toString().concat(".json"));
+    private static volatile UserDataStorage storage;
+
+    public static UserDataStorage getStorage() {
+        return storage;
+    }
+
+    // must be set before any user data is loaded
+    public static void setStorage(final UserDataStorage storage) {
+        ASPlayerState.storage = storage;
+    }
+
+    private static volatile ASAltIndex altIndex;
+
+    public static ASAltIndex getAltIndex() {
+        return altIndex;
+    }
+
+    public static void setAltIndex(final ASAltIndex altIndex) {
+        ASPlayerState.altIndex = altIndex;
+    }
+
+    private static volatile UserDataSaveQueue saveQueue;
+
+    public static UserDataSaveQueue getSaveQueue() {
+        return saveQueue;
     }
 
+    // must be set before any user data is loaded
+    public static void setSaveQueue(final UserDataSaveQueue saveQueue) {
+        ASPlayerState.saveQueue = saveQueue;
+    }
+
+    private static volatile Executor loadExecutor;
+
+    // must be set before any user data is loaded
+    public static void setLoadExecutor(final Executor loadExecutor) {
+        ASPlayerState.loadExecutor = loadExecutor;
+    }
+
+    // a read from storage in progress, only accessed while holding the USER_DATA bin of its user
+    private static final class PendingLoad {
+
+        private final CompletableFuture<ASPlayerState> future = new CompletableFuture<>();
+        // acquirers waiting on the load which have not released yet
+        private int references;
+        // whether anything acquired the user while the load was pending, false if only prefetched
+        private boolean acquired;
+        private boolean create;
+    }
+
+    private static final ConcurrentHashMap<UUID, PendingLoad> PENDING_LOADS = new ConcurrentHashMap<>();
+
+    // holds the USER_DATA bin of the user, so does no I/O
+    private static ASPlayerState getLoaded(final UUID userUniqueId, final ASPlayerState inMap) {
+        if (inMap != null) {
+            return inMap;
+        }
+        final ASPlayerState cached = getAndRemoveEntryFromCache(userUniqueId);
+        if (cached != null) {
+            return cached;
+        }
+        // may have been evicted from the cache before it was written
+        return saveQueue.getPending(userUniqueId);
+    }
+
+    /**
+     * Acquires the user data of the specified user, reading it from storage on the load executor if it is not in memory.
+     * Concurrent loads of the same user share a single read, and no I/O is done while the user data map is locked.
+     * The returned future completes with {@code null} if the user has no data and {@code create} is false, otherwise
+     * the caller must release the user data once done with it.
+     */
     // MT-Safe
-    public static ASPlayerState acquireAndLoadUserData(final UUID userUniqueId, final boolean create) {
+    public static CompletableFuture<ASPlayerState> acquireAndLoadUserDataAsync(final UUID userUniqueId, final boolean create) {
+        final ASPlayerState[] acquired = new ASPlayerState[1];
+        final PendingLoad[] load = new PendingLoad[1];
+        final boolean[] started = new boolean[1];
+
         // note: this will not block get() calls
-        return USER_DATA.compute(userUniqueId, (final UUID keyInMap, ASPlayerState userData) -> {
-            if (userData == null) {
-                // try cached
-                userData = getAndRemoveEntryFromCache(keyInMap);
-            }
+        USER_DATA.compute(userUniqueId, (final UUID keyInMap, final ASPlayerState inMap) -> {
+            final ASPlayerState userData = getLoaded(keyInMap, inMap);
             if (userData != null) {
                 ++userData.referenceCount;
-                return userData;
+                return acquired[0] = userData;
             }
 
-            final File targetFile = getDataFileFor(keyInMap);
+            PendingLoad pending = PENDING_LOADS.get(keyInMap);
+            if (pending == null) {
+                PENDING_LOADS.put(keyInMap, pending = new PendingLoad());
+                started[0] = true;
+            }
+            ++pending.references;
+            pending.acquired = true;
+            pending.create |= create;
+            load[0] = pending;
+            return null;
+        });
 
-            if (!targetFile.exists()) {
-                if (!create) {
-                    return null;
-                }
-                // create new
-                final ASPlayerState ret = new ASPlayerState(keyInMap);
-                ret.referenceCount = 1;
-                return ret;
+        if (acquired[0] != null) {
+            return CompletableFuture.completedFuture(acquired[0]);
+        }
+        if (started[0]) {
+            startLoad(userUniqueId, load[0]);
+        }
+        return load[0].future;
+    }
+
+    /**
+     * Acquires the user data of the specified user, blocking while it is read from storage.
+     * @see #acquireAndLoadUserDataAsync(UUID, boolean)
+     */
+    // MT-Safe
+    public static ASPlayerState acquireAndLoadUserData(final UUID userUniqueId, final boolean create) {
+        return acquireAndLoadUserDataAsync(userUniqueId, create).join();
+    }
+
+    /**
+     * Starts reading the user data of the specified user into the cache if it is not in memory, so that a later
+     * acquire waits less or not at all on storage. An acquire while the read is pending joins it. Does not acquire the
+     * user data.
+     */
+    // MT-Safe
+    public static void prefetchUserData(final UUID userUniqueId) {
+        if (USER_DATA.containsKey(userUniqueId) || PENDING_LOADS.containsKey(userUniqueId)) {
+            return;
+        }
+
+        final PendingLoad[] load = new PendingLoad[1];
+        USER_DATA.compute(userUniqueId, (final UUID keyInMap, final ASPlayerState inMap) -> {
+            if (inMap != null || PENDING_LOADS.containsKey(keyInMap)) {
+                return inMap;
+            }
+            if (cache.contains(keyInMap) || saveQueue.getPending(keyInMap) != null) {
+                return null;
             }
+            PENDING_LOADS.put(keyInMap, load[0] = new PendingLoad());
+            return null;
+        });
+
+        if (load[0] != null) {
+            startLoad(userUniqueId, load[0]);
+        }
+    }
 
+    private static void startLoad(final UUID userUniqueId, final PendingLoad load) {
+        final Runnable task = () -> {
             try {
-                final JsonElement json = Util.parseJson(targetFile);
-                final ASPlayerState ret;
-
-                if (json instanceof JsonObject) {
-                    ret = new ASPlayerState(keyInMap, (JsonObject)json);
-                } else {
-                    IPASTools.getInstance().getLogger().log(Level.WARNING, "Invalid user data for " + keyInMap.toString() + ", overwriting data");
-                    ret = new ASPlayerState(keyInMap);
+                finishLoad(userUniqueId, load, readUserData(userUniqueId));
+            } catch (final Throwable throwable) {
+                failLoad(userUniqueId, load, throwable);
+            }
+        };
+        try {
+            loadExecutor.execute(task);
+        } catch (final RejectedExecutionException ex) {
+            // shutting down
+            task.run();
+        }
+    }
+
+    // the acquirers see the failure through the future, and a later acquire starts a new load
+    private static void failLoad(final UUID userUniqueId, final PendingLoad load, final Throwable throwable) {
+        USER_DATA.compute(userUniqueId, (final UUID keyInMap, final ASPlayerState inMap) -> {
+            PENDING_LOADS.remove(keyInMap, load);
+            return inMap;
+        });
+        load.future.completeExceptionally(throwable);
+    }
+
+    private static final ASPlayerState NOT_FOUND = new ASPlayerState(new UUID(0L, 0L));
+
+    // returns NOT_FOUND if the user has no data
+    private static ASPlayerState readUserData(final UUID userUniqueId) {
+        final long start = System.nanoTime();
+        try {
+            final byte[] data = storage.read(userUniqueId);
+            return data == null ? NOT_FOUND : deserialize(userUniqueId, data);
+        } catch (final IOException ex) {
+            IPASTools.getInstance().getLogger().log(Level.SEVERE, "Failed to read user data for " + userUniqueId.toString() + ", overwriting data", ex);
+            return new ASPlayerState(userUniqueId);
+        } finally {
+            ASMetrics.USER_DATA_LOAD.recordSince(start);
+        }
+    }
+
+    private static void finishLoad(final UUID userUniqueId, final PendingLoad load, final ASPlayerState read) {
+        final ASPlayerState[] result = new ASPlayerState[1];
+
+        USER_DATA.compute(userUniqueId, (final UUID keyInMap, final ASPlayerState inMap) -> {
+            // nothing else can load the user while the load is pending
+            PENDING_LOADS.remove(keyInMap);
+
+            ASPlayerState userData = read;
+            if (userData == NOT_FOUND) {
+                if (!load.create) {
+                    return inMap;
                 }
+                // create new
+                userData = new ASPlayerState(keyInMap);
+            }
 
-                ret.referenceCount = 1;
-                return ret;
-            } catch (final IOException ex) {
-                IPASTools.getInstance().getLogger().log(Level.SEVERE, "Failed to read user data for " + keyInMap.toString() + ", overwriting data", ex);
-                final ASPlayerState ret = new ASPlayerState(keyInMap);
-                ret.referenceCount = 1;
-                return ret;
+            if (!load.acquired) {
+                // prefetched only
+                cache.putPrefetched(keyInMap, userData);
+                return inMap;
             }
+
+            // the load holds a reference until the waiters have run, as every acquirer may have released already
+            userData.referenceCount = load.references + 1;
+            return result[0] = userData;
         });
+
+        load.future.complete(result[0]);
+        if (result[0] != null) {
+            releaseUserData(userUniqueId);
+        }
     }
 
     // MT-Safe
     public static void releaseUserData(final UUID userUniqueId) {
-        USER_DATA.computeIfPresent(userUniqueId, (final UUID keyInMap, final ASPlayerState userData) -> {
-            if (--userData.referenceCount <= 0 && userData.save()) { // if it doesn't save properly, we can't unload it
+        USER_DATA.compute(userUniqueId, (final UUID keyInMap, final ASPlayerState userData) -> {
+            if (userData == null) {
+                // released before its load finished
+                final PendingLoad pending = PENDING_LOADS.get(keyInMap);
+                if (pending != null && pending.references > 0) {
+                    --pending.references;
+                }
+                return null;
+            }
+            if (--userData.referenceCount <= 0 && userData.canSave) { // if it can't be saved, we can't unload it
+                if (userData.isDirty()) {
+                    // written later, the queue keeps it alive until then
+                    saveQueue.schedule(userData);
+                }
                 cacheEntry(keyInMap, userData);
                 return null;
             }
@@ -210,40 +478,175 @@ public final class ASPlayerState {
 
         // don't allow concurrent writes
         synchronized (this.saveLock) {
-            final JsonObject serialized;
-            synchronized (this.stateLock) {
-                if (!this.needsSaving()) {
-                    return true;
-                }
-                this.dirty = false;
-                serialized = this.writeToJson();
-            }
             try {
-                Util.writeJsonToFile(getDataFileFor(this.userUniqueId), serialized);
+                final byte[] serialized;
+                synchronized (this.stateLock) {
+                    if (!this.needsSaving()) {
+                        return true;
+                    }
+                    serialized = storage.storesJson() ? Util.writeJsonToBytes(this.writeToJson()) : this.writeToBinary();
+                    this.dirty = false;
+                }
+                storage.write(this.userUniqueId, serialized);
                 return true;
             } catch (final IOException ex) {
                 IPASTools.getInstance().getLogger().log(Level.SEVERE, "Failed to save data for " + this.userUniqueId + ", data will be kept in memory", ex);
+                synchronized (this.stateLock) {
+                    this.dirty = true;
+                }
                 return false;
             }
         }
     }
 
-    public static void saveAllUserData() {
-        // items in cache are already saved, do not save them
-        for (final ASPlayerState userData : USER_DATA.values()) {
-            userData.save();
+    /**
+     * Counts of a {@link #saveAllUserData(Executor, int, long)}.
+     * @param saved States which were written.
+     * @param unchanged States which had nothing to write.
+     * @param unsaveable States which must not be saved, as they were created by a newer version of the plugin.
+     * @param skipped States which were not written, because the deadline passed first.
+     * @param failed States which failed to write.
+     */
+    public static record SaveAllResult(int saved, int unchanged, int unsaveable, int skipped, int failed, long elapsedNanos) {}
+
+    /**
+     * Saves every loaded and queued state, split into {@code parallelism} shards saved on the executor, then flushes
+     * the storage. States not saved within the timeout are skipped, and the storage is flushed regardless.
+     */
+    public static SaveAllResult saveAllUserData(final Executor executor, final int parallelism, final long timeoutNanos) {
+        final long start = System.nanoTime();
+        final long deadline = start + timeoutNanos;
+
+        // unsaved items in cache are in the save queue, the rest are already saved
+        final Set<ASPlayerState> unique = Collections.newSetFromMap(new IdentityHashMap<>());
+        unique.addAll(USER_DATA.values());
+        unique.addAll(saveQueue.getPendingStates());
+        final ASPlayerState[] states = unique.toArray(new ASPlayerState[0]);
+
+        final AtomicInteger saved = new AtomicInteger();
+        final AtomicInteger unchanged = new AtomicInteger();
+        final AtomicInteger unsaveable = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+
+        final int shards = Math.max(1, Math.min(parallelism, states.length));
+        final CompletableFuture<?>[] futures = new CompletableFuture<?>[shards];
+        for (int i = 0; i < shards; ++i) {
+            final int shard = i;
+            futures[i] = CompletableFuture.runAsync(() -> {
+                for (int k = shard; k < states.length && System.nanoTime() - deadline < 0L; k += shards) {
+                    final ASPlayerState state = states[k];
+                    if (!state.canSave) {
+                        unsaveable.getAndIncrement();
+                    } else if (!state.isDirty()) {
+                        unchanged.getAndIncrement();
+                    } else if (state.save()) {
+                        saved.getAndIncrement();
+                    } else {
+                        failed.getAndIncrement();
+                    }
+                }
+            }, executor);
+        }
+
+        boolean timedOut = false;
+        try {
+            CompletableFuture.allOf(futures).get(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (final TimeoutException ex) {
+            timedOut = true;
+        } catch (final InterruptedException ex) {
+            timedOut = true;
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException ex) {
+            IPASTools.getInstance().getLogger().log(Level.SEVERE, "Failed to save user data", ex.getCause());
         }
+
+        if (!timedOut) {
+            // removes the states just saved from the queue, anything left is retried
+            saveQueue.flush();
+        }
+        try {
+            storage.flush();
+        } catch (final IOException ex) {
+            IPASTools.getInstance().getLogger().log(Level.SEVERE, "Failed to flush user data storage", ex);
+        }
+
+        // states still being saved when the deadline passed count as skipped
+        final int savedCount = saved.get();
+        final int unchangedCount = unchanged.get();
+        final int unsaveableCount = unsaveable.get();
+        final int failedCount = failed.get();
+        return new SaveAllResult(
+                savedCount, unchangedCount, unsaveableCount, states.length - savedCount - unchangedCount - unsaveableCount - failedCount,
+                failedCount, System.nanoTime() - start
+        );
     }
 
-    public static final record ASLoginEntry(String ip, int ASNumber, String ASName, Date lastUsed) {
+    // all logins from the same ip and AS number, uses is the number of logins
+    // the ip is stored as 128 bits, with IPv4 addresses mapped into ::ffff:0:0/96, and times are in epoch millis
+    public static final record ASLoginEntry(long ipHigh, long ipLow, int ASNumber, long firstUsed, long lastUsed, int uses) {
+
+        private static final int FLAG_IPV4 = 1 << 0;
+        // flags, ip, AS number, times, uses
+        static final int MAX_BINARY_SIZE = 1 + 16 + 4 + 8 + 8 + 4;
+
+        // a single login
+        public ASLoginEntry(final long ipHigh, final long ipLow, final int ASNumber, final long used) {
+            this(ipHigh, ipLow, ASNumber, used, used, 1);
+        }
+
+        public static ASLoginEntry of(final InetAddress address, final int ASNumber, final long firstUsed, final long lastUsed, final int uses) {
+            if (address instanceof Inet4Address ipv4) {
+                return new ASLoginEntry(0L, ASBans.RangeBanEntry.IPV4_MAPPED | ((long)Util.toIPInt(ipv4) & 0xFFFFFFFFL), ASNumber, firstUsed, lastUsed, uses);
+            }
+            if (address instanceof Inet6Address ipv6) {
+                final byte[] addr = ipv6.getAddress();
+                return new ASLoginEntry(Util.getIPv6High(addr), Util.getIPv6Low(addr), ASNumber, firstUsed, lastUsed, uses);
+            }
+            throw new IllegalArgumentException("Unknown address type: " + address);
+        }
+
+        // a single login
+        public static ASLoginEntry of(final InetAddress address, final int ASNumber, final long used) {
+            return of(address, ASNumber, used, used, 1);
+        }
+
+        public boolean isIPv4() {
+            return this.ipHigh == 0L && (this.ipLow >>> 32) == 0xFFFFL;
+        }
+
+        public String ip() {
+            return this.isIPv4() ? Util.toIPv4String((int)this.ipLow) : Util.toIPv6String(this.ipHigh, this.ipLow);
+        }
+
+        // resolved through the lookup rather than stored, so that every entry shares the name of the AS name table
+        public String ASName() {
+            final IPASTools plugin = IPASTools.getInstance();
+            final ASLookup lookup = plugin == null ? null : plugin.getLookup();
+            return lookup == null ? null : lookup.lookupASName(this.ASNumber);
+        }
+
+        /**
+         * Returns this entry combined with the specified later entry for the same ip and AS number.
+         */
+        public ASLoginEntry foldWith(final ASLoginEntry later) {
+            return new ASLoginEntry(
+                    this.ipHigh, this.ipLow, this.ASNumber,
+                    Math.min(this.firstUsed, later.firstUsed),
+                    Math.max(this.lastUsed, later.lastUsed),
+                    (int)Math.min((long)Integer.MAX_VALUE, (long)this.uses + (long)later.uses)
+            );
+        }
 
         public static ASLoginEntry parse(final JsonObject from) {
             try {
-                return new ASLoginEntry(
-                        from.getAsJsonPrimitive("ip").getAsString(),
+                final long lastUsed = TimestampCodec.parse(from.getAsJsonPrimitive("lastUsed").getAsString());
+                return of(
+                        Util.parseIP(from.getAsJsonPrimitive("ip").getAsString()),
                         from.getAsJsonPrimitive("ASNumber").getAsInt(),
-                        from.getAsJsonPrimitive("ASName").getAsString(),
-                        Util.DATE_FORMAT.parse(from.getAsJsonPrimitive("lastUsed").getAsString())
+                        // absent in data written before entries were folded
+                        from.has("firstUsed") ? TimestampCodec.parse(from.getAsJsonPrimitive("firstUsed").getAsString()) : lastUsed,
+                        lastUsed,
+                        from.has("uses") ? from.getAsJsonPrimitive("uses").getAsInt() : 1
                 );
             } catch (final Exception ex) {
                 throw new RuntimeException(ex);
@@ -253,12 +656,49 @@ public final class ASPlayerState {
         public JsonObject toJson() {
             final JsonObject ret = new JsonObject();
 
-            ret.addProperty("ip", this.ip);
+            ret.addProperty("ip", this.ip());
             ret.addProperty("ASNumber", Integer.valueOf(this.ASNumber));
-            ret.addProperty("ASName", this.ASName);
-            ret.addProperty("lastUsed", Util.DATE_FORMAT.format(this.lastUsed));
+            // only informational, not read back
+            ret.addProperty("ASName", this.ASName());
+            ret.addProperty("firstUsed", TimestampCodec.format(this.firstUsed));
+            ret.addProperty("lastUsed", TimestampCodec.format(this.lastUsed));
+            ret.addProperty("uses", Integer.valueOf(this.uses));
 
             return ret;
         }
+
+        static ASLoginEntry read(final DataInputStream in) throws IOException {
+            final int flags = in.readUnsignedByte();
+            if ((flags & ~FLAG_IPV4) != 0) {
+                throw new IOException("Corrupt login entry flags: " + flags);
+            }
+
+            final long ipHigh;
+            final long ipLow;
+            if ((flags & FLAG_IPV4) != 0) {
+                ipHigh = 0L;
+                ipLow = ASBans.RangeBanEntry.IPV4_MAPPED | ((long)in.readInt() & 0xFFFFFFFFL);
+            } else {
+                ipHigh = in.readLong();
+                ipLow = in.readLong();
+            }
+
+            return new ASLoginEntry(ipHigh, ipLow, in.readInt(), in.readLong(), in.readLong(), in.readInt());
+        }
+
+        void write(final DataOutputStream out) throws IOException {
+            if (this.isIPv4()) {
+                out.writeByte(FLAG_IPV4);
+                out.writeInt((int)this.ipLow);
+            } else {
+                out.writeByte(0);
+                out.writeLong(this.ipHigh);
+                out.writeLong(this.ipLow);
+            }
+            out.writeInt(this.ASNumber);
+            out.writeLong(this.firstUsed);
+            out.writeLong(this.lastUsed);
+            out.writeInt(this.uses);
+        }
     }
 }
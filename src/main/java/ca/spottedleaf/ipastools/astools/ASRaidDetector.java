@@ -0,0 +1,220 @@
+package ca.spottedleaf.ipastools.astools;
+
+import ca.spottedleaf.ipastools.util.IntervalledCounter;
+
+/**
+ * Tracks the join rate of each AS number over a sliding window, to detect join floods (raids) coming from one AS.
+ * <p>
+ * Counters are kept in open addressed tables keyed by AS number, split into independently locked stripes so that
+ * concurrent pre-login threads only contend when their AS numbers hash to the same stripe. Counters which have seen no
+ * joins for a whole window are evicted before a stripe grows, so memory is bounded by the number of ASes active in
+ * the last window.
+ * </p>
+ */
+public final class ASRaidDetector {
+
+    private static final int STRIPES = 64;
+    private static final int INITIAL_STRIPE_CAPACITY = 16;
+
+    private final double threshold;
+    private final long windowNanos;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /**
+     * @param threshold The join rate, in joins per second, above which an AS is considered to be raiding. Detection is
+     *                  disabled if it is not positive.
+     * @param windowNanos The length of the window the join rate is averaged over.
+     */
+    public ASRaidDetector(final double threshold, final long windowNanos) {
+        if (windowNanos <= 0L) {
+            throw new IllegalArgumentException("Window must be positive: " + windowNanos);
+        }
+        this.threshold = threshold;
+        this.windowNanos = windowNanos;
+        for (int i = 0; i < STRIPES; ++i) {
+            this.stripes[i] = new Stripe();
+        }
+    }
+
+    public double getThreshold() {
+        return this.threshold;
+    }
+
+    public long getWindowNanos() {
+        return this.windowNanos;
+    }
+
+    public boolean isEnabled() {
+        return this.threshold > 0.0;
+    }
+
+    private static int hash(final int ASNumber) {
+        // murmur3 finaliser
+        int h = ASNumber;
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * Records a join from the specified AS number, and returns whether the AS has just exceeded the threshold. Only the
+     * first join over the threshold returns {@code true}, until the rate of the AS has dropped back under it.
+     */
+    public boolean recordJoin(final int ASNumber) {
+        return this.recordJoin(ASNumber, System.nanoTime());
+    }
+
+    boolean recordJoin(final int ASNumber, final long now) {
+        if (!this.isEnabled()) {
+            return false;
+        }
+
+        final int hash = hash(ASNumber);
+        final Stripe stripe = this.stripes[hash & (STRIPES - 1)];
+
+        synchronized (stripe) {
+            final int slot = stripe.getOrCreate(ASNumber, hash >>> 6, now, this.windowNanos);
+            final IntervalledCounter counter = stripe.counters[slot];
+
+            counter.updateAndAdd(1L, now);
+            stripe.lastJoin[slot] = now;
+
+            final boolean raiding = counter.getRate() > this.threshold;
+            final boolean tripped = raiding && !stripe.tripped[slot];
+            stripe.tripped[slot] = raiding;
+            return tripped;
+        }
+    }
+
+    /**
+     * Returns the current join rate of the specified AS number, in joins per second.
+     */
+    public double getRate(final int ASNumber) {
+        return this.getRate(ASNumber, System.nanoTime());
+    }
+
+    double getRate(final int ASNumber, final long now) {
+        final int hash = hash(ASNumber);
+        final Stripe stripe = this.stripes[hash & (STRIPES - 1)];
+
+        synchronized (stripe) {
+            final int slot = stripe.find(ASNumber, hash >>> 6);
+            if (slot < 0) {
+                return 0.0;
+            }
+            final IntervalledCounter counter = stripe.counters[slot];
+            counter.updateCurrentTime(now);
+            return counter.getRate();
+        }
+    }
+
+    /**
+     * Returns the number of AS numbers currently tracked.
+     */
+    public int size() {
+        int ret = 0;
+        for (final Stripe stripe : this.stripes) {
+            synchronized (stripe) {
+                ret += stripe.size;
+            }
+        }
+        return ret;
+    }
+
+    private static final class Stripe {
+
+        // linear probing, a null counter marks an empty slot
+        private int[] keys = new int[INITIAL_STRIPE_CAPACITY];
+        private IntervalledCounter[] counters = new IntervalledCounter[INITIAL_STRIPE_CAPACITY];
+        private long[] lastJoin = new long[INITIAL_STRIPE_CAPACITY];
+        private boolean[] tripped = new boolean[INITIAL_STRIPE_CAPACITY];
+        private int size;
+
+        private int find(final int key, final int hash) {
+            final int mask = this.keys.length - 1;
+            for (int i = hash & mask;; i = (i + 1) & mask) {
+                if (this.counters[i] == null) {
+                    return -1;
+                }
+                if (this.keys[i] == key) {
+                    return i;
+                }
+            }
+        }
+
+        private int getOrCreate(final int key, final int hash, final long now, final long windowNanos) {
+            final int existing = this.find(key, hash);
+            if (existing >= 0) {
+                return existing;
+            }
+
+            if ((this.size + 1) * 4 > this.keys.length * 3) {
+                // evict idle counters first, and only grow if the stripe is still too full
+                final int live = this.countLive(now, windowNanos);
+                final int capacity = (live + 1) * 2 > this.keys.length ? this.keys.length << 1 : this.keys.length;
+                this.rehash(capacity, now, windowNanos);
+            }
+
+            final int mask = this.keys.length - 1;
+            int i = hash & mask;
+            while (this.counters[i] != null) {
+                i = (i + 1) & mask;
+            }
+
+            this.keys[i] = key;
+            this.counters[i] = new IntervalledCounter(windowNanos);
+            this.lastJoin[i] = now;
+            this.tripped[i] = false;
+            ++this.size;
+
+            return i;
+        }
+
+        private static boolean isIdle(final long lastJoin, final long now, final long windowNanos) {
+            // guard against overflow by using subtraction
+            return now - lastJoin > windowNanos;
+        }
+
+        private int countLive(final long now, final long windowNanos) {
+            int ret = 0;
+            for (int i = 0; i < this.counters.length; ++i) {
+                if (this.counters[i] != null && !isIdle(this.lastJoin[i], now, windowNanos)) {
+                    ++ret;
+                }
+            }
+            return ret;
+        }
+
+        private void rehash(final int capacity, final long now, final long windowNanos) {
+            final int[] oldKeys = this.keys;
+            final IntervalledCounter[] oldCounters = this.counters;
+            final long[] oldLastJoin = this.lastJoin;
+            final boolean[] oldTripped = this.tripped;
+
+            this.keys = new int[capacity];
+            this.counters = new IntervalledCounter[capacity];
+            this.lastJoin = new long[capacity];
+            this.tripped = new boolean[capacity];
+            this.size = 0;
+
+            final int mask = capacity - 1;
+            for (int k = 0; k < oldCounters.length; ++k) {
+                if (oldCounters[k] == null || isIdle(oldLastJoin[k], now, windowNanos)) {
+                    continue;
+                }
+                int i = (hash(oldKeys[k]) >>> 6) & mask;
+                while (this.counters[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                this.keys[i] = oldKeys[k];
+                this.counters[i] = oldCounters[k];
+                this.lastJoin[i] = oldLastJoin[k];
+                this.tripped[i] = oldTripped[k];
+                ++this.size;
+            }
+        }
+    }
+}
@@ -0,0 +1,560 @@
+package ca.spottedleaf.ipastools.astools;
+
+import ca.spottedleaf.ipastools.util.Util;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Immutable IPv4 prefix to AS number index.
+ * <p>
+ * The prefix table is kept sorted by (address, length) in parallel primitive arrays. From it, the nested prefixes are
+ * flattened into non-overlapping address ranges, each of which maps to the most specific prefix covering it. A lookup
+ * is then a single allocation-free binary search over the range starts, or with {@link Engine#STRIDE_TRIE} at most
+ * three table reads.
+ * </p>
+ */
+public final class IPv4PrefixIndex {
+
+    public static final int NO_MATCH = -1;
+
+    public static enum Engine {
+        SORTED_RANGES, STRIDE_TRIE;
+
+        public static Engine parse(final String name) {
+            for (final Engine engine : values()) {
+                if (engine.name().replace('_', '-').equalsIgnoreCase(name)) {
+                    return engine;
+                }
+            }
+            throw new IllegalArgumentException("Unknown lookup engine: " + name);
+        }
+    }
+
+    // prefix table, sorted by (address unsigned, length)
+    private final int[] prefixAddresses;
+    private final byte[] prefixLengths;
+    private final int[] prefixASNumbers;
+
+    // flattened ranges, addresses are stored with the sign bit flipped so that signed comparison orders them correctly
+    private final int[] rangeStarts;
+    private final int[] rangeEnds; // inclusive
+    private final int[] rangeASNumbers;
+    private final int[] rangePrefixes;
+
+    private final Engine engine;
+    // only present for Engine.STRIDE_TRIE
+    private final IPv4StrideTrie trie;
+
+    private IPv4PrefixIndex(final int[] prefixAddresses, final byte[] prefixLengths, final int[] prefixASNumbers,
+                            final Engine engine) {
+        this.prefixAddresses = prefixAddresses;
+        this.prefixLengths = prefixLengths;
+        this.prefixASNumbers = prefixASNumbers;
+
+        final RangeBuilder ranges = new RangeBuilder(prefixAddresses.length + (prefixAddresses.length >>> 2));
+        flatten(prefixAddresses, prefixLengths, ranges);
+
+        this.rangeStarts = Arrays.copyOf(ranges.starts, ranges.size);
+        this.rangeEnds = Arrays.copyOf(ranges.ends, ranges.size);
+        this.rangePrefixes = Arrays.copyOf(ranges.prefixes, ranges.size);
+        this.rangeASNumbers = new int[ranges.size];
+        for (int i = 0; i < ranges.size; ++i) {
+            this.rangeASNumbers[i] = prefixASNumbers[this.rangePrefixes[i]];
+        }
+
+        this.engine = engine;
+        this.trie = engine == Engine.STRIDE_TRIE ? new IPv4StrideTrie(this.rangeStarts, this.rangeEnds, this.rangePrefixes) : null;
+    }
+
+    private IPv4PrefixIndex(final IPv4PrefixIndex from, final Engine engine) {
+        this.prefixAddresses = from.prefixAddresses;
+        this.prefixLengths = from.prefixLengths;
+        this.prefixASNumbers = from.prefixASNumbers;
+        this.rangeStarts = from.rangeStarts;
+        this.rangeEnds = from.rangeEnds;
+        this.rangeASNumbers = from.rangeASNumbers;
+        this.rangePrefixes = from.rangePrefixes;
+
+        this.engine = engine;
+        this.trie = engine == Engine.STRIDE_TRIE ? new IPv4StrideTrie(this.rangeStarts, this.rangeEnds, this.rangePrefixes) : null;
+    }
+
+    // same prefixes as from, only the AS numbers differ, so the ranges and trie can be shared
+    private IPv4PrefixIndex(final IPv4PrefixIndex from, final int[] prefixASNumbers) {
+        this.prefixAddresses = from.prefixAddresses;
+        this.prefixLengths = from.prefixLengths;
+        this.prefixASNumbers = prefixASNumbers;
+        this.rangeStarts = from.rangeStarts;
+        this.rangeEnds = from.rangeEnds;
+        this.rangePrefixes = from.rangePrefixes;
+        this.rangeASNumbers = new int[this.rangePrefixes.length];
+        for (int i = 0; i < this.rangePrefixes.length; ++i) {
+            this.rangeASNumbers[i] = prefixASNumbers[this.rangePrefixes[i]];
+        }
+
+        this.engine = from.engine;
+        this.trie = from.trie;
+    }
+
+    /**
+     * Creates an index directly from a prefix table which is already sorted by (address, length), without duplicates.
+     * The arrays are retained by the index.
+     * @throws IllegalArgumentException If the prefix table is not sorted, or is otherwise malformed.
+     */
+    public static IPv4PrefixIndex fromSorted(final int[] addresses, final byte[] lengths, final int[] ASNumbers, final Engine engine) {
+        if (addresses.length != lengths.length || addresses.length != ASNumbers.length) {
+            throw new IllegalArgumentException("Prefix table columns differ in length");
+        }
+        for (int i = 0; i < addresses.length; ++i) {
+            final int length = lengths[i];
+            if (length < 0 || length > 32 || (length != 32 && (addresses[i] & (-1 >>> length)) != 0)) {
+                throw new IllegalArgumentException("Malformed prefix at " + i);
+            }
+            if (i != 0) {
+                final int cmp = Integer.compareUnsigned(addresses[i - 1], addresses[i]);
+                if (cmp > 0 || (cmp == 0 && lengths[i - 1] >= length)) {
+                    throw new IllegalArgumentException("Prefix table is not sorted at " + i);
+                }
+            }
+        }
+
+        return new IPv4PrefixIndex(addresses, lengths, ASNumbers, engine);
+    }
+
+    /**
+     * Returns an index over the same prefixes that answers lookups with the specified engine.
+     */
+    public IPv4PrefixIndex withEngine(final Engine engine) {
+        return engine == this.engine ? this : new IPv4PrefixIndex(this, engine);
+    }
+
+    public Engine getEngine() {
+        return this.engine;
+    }
+
+    /**
+     * Returns whether the specified index holds the same prefix table as this index, possibly with a different engine.
+     */
+    public boolean sharesPrefixTable(final IPv4PrefixIndex other) {
+        return this.prefixAddresses == other.prefixAddresses && this.prefixASNumbers == other.prefixASNumbers;
+    }
+
+    /**
+     * Returns an estimate of the number of bytes retained by the lookup structures of this index.
+     */
+    public long memoryUsage() {
+        long ret = 9L * (long)this.prefixAddresses.length + 16L * (long)this.rangeStarts.length;
+        if (this.trie != null) {
+            ret += this.trie.memoryUsage();
+        }
+        return ret;
+    }
+
+    private static long prefixEnd(final int address, final int length) {
+        return (address & 0xFFFFFFFFL) + (1L << (32 - length)) - 1L;
+    }
+
+    // prefixes must be sorted by (address, length) and contain no duplicates
+    private static void flatten(final int[] addresses, final byte[] lengths, final RangeBuilder ranges) {
+        // prefixes can only nest or be disjoint, so the open prefixes always form a stack
+        final int[] stack = new int[33];
+        int stackSize = 0;
+        // next address that has not been assigned to a range
+        long cursor = 0L;
+
+        for (int i = 0; i < addresses.length; ++i) {
+            final long start = addresses[i] & 0xFFFFFFFFL;
+
+            // close every open prefix that ends before this one starts
+            while (stackSize > 0) {
+                final int top = stack[stackSize - 1];
+                final long topEnd = prefixEnd(addresses[top], lengths[top]);
+                if (topEnd >= start) {
+                    break;
+                }
+                if (cursor <= topEnd) {
+                    ranges.add(cursor, topEnd, top);
+                    cursor = topEnd + 1L;
+                }
+                --stackSize;
+            }
+
+            // the enclosing prefix (if any) owns the gap up to this prefix
+            if (stackSize > 0 && cursor < start) {
+                ranges.add(cursor, start - 1L, stack[stackSize - 1]);
+            }
+            cursor = start;
+
+            stack[stackSize++] = i;
+        }
+
+        while (stackSize > 0) {
+            final int top = stack[--stackSize];
+            final long topEnd = prefixEnd(addresses[top], lengths[top]);
+            if (cursor <= topEnd) {
+                ranges.add(cursor, topEnd, top);
+                cursor = topEnd + 1L;
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the flattened range containing the specified address, or {@link #NO_MATCH}.
+     */
+    public int findRange(final int ip) {
+        final int key = ip ^ Integer.MIN_VALUE;
+        final int[] starts = this.rangeStarts;
+
+        int idx = Arrays.binarySearch(starts, key);
+        if (idx < 0) {
+            idx = -idx - 2;
+            if (idx < 0 || this.rangeEnds[idx] < key) {
+                return NO_MATCH;
+            }
+        }
+
+        return idx;
+    }
+
+    /**
+     * Returns the index of the most specific prefix containing the specified address, or {@link #NO_MATCH}.
+     */
+    public int findPrefix(final int ip) {
+        final IPv4StrideTrie trie = this.trie;
+        if (trie != null) {
+            return trie.findPrefix(ip);
+        }
+        final int range = this.findRange(ip);
+        return range == NO_MATCH ? NO_MATCH : this.rangePrefixes[range];
+    }
+
+    /**
+     * Returns the AS number for the specified address, or {@code 0} if no prefix contains the address.
+     */
+    public int lookupASNumber(final int ip) {
+        final IPv4StrideTrie trie = this.trie;
+        if (trie != null) {
+            final int prefix = trie.findPrefix(ip);
+            return prefix == NO_MATCH ? 0 : this.prefixASNumbers[prefix];
+        }
+        final int range = this.findRange(ip);
+        return range == NO_MATCH ? 0 : this.rangeASNumbers[range];
+    }
+
+    // below this, a batch is looked up on the calling thread
+    private static final int PARALLEL_BATCH_THRESHOLD = 1 << 16;
+
+    /**
+     * Looks up the AS number of every address, as by {@link #lookupASNumber(int)}, storing it at the same index of
+     * {@code outASNumbers}.
+     * <p>
+     * The addresses are sorted, and the sorted addresses are then walked alongside the flattened ranges, so that
+     * consecutive lookups touch neighbouring ranges rather than each doing a full binary search. Batches of at least
+     * {@value #PARALLEL_BATCH_THRESHOLD} addresses are sorted and walked in parallel on the common fork-join pool.
+     * </p>
+     */
+    public void lookupASNumbers(final int[] ips, final int[] outASNumbers) {
+        if (outASNumbers.length < ips.length) {
+            throw new IllegalArgumentException("Output length " + outASNumbers.length + " < input length " + ips.length);
+        }
+
+        // sign-flipped address in the upper half to match the range order, input index in the lower half
+        final long[] keys = new long[ips.length];
+        for (int i = 0; i < ips.length; ++i) {
+            keys[i] = ((long)(ips[i] ^ Integer.MIN_VALUE) << 32) | (long)i;
+        }
+
+        if (keys.length < PARALLEL_BATCH_THRESHOLD) {
+            Arrays.sort(keys);
+            this.walkSorted(keys, 0, keys.length, outASNumbers);
+        } else {
+            Arrays.parallelSort(keys);
+            ForkJoinPool.commonPool().invoke(new BatchLookupTask(this, keys, 0, keys.length, outASNumbers));
+        }
+    }
+
+    private static final class BatchLookupTask extends RecursiveAction {
+
+        private final IPv4PrefixIndex index;
+        private final long[] keys;
+        private final int from;
+        private final int to;
+        private final int[] out;
+
+        private BatchLookupTask(final IPv4PrefixIndex index, final long[] keys, final int from, final int to, final int[] out) {
+            this.index = index;
+            this.keys = keys;
+            this.from = from;
+            this.to = to;
+            this.out = out;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= PARALLEL_BATCH_THRESHOLD) {
+                this.index.walkSorted(this.keys, this.from, this.to, this.out);
+                return;
+            }
+            final int mid = (this.from + this.to) >>> 1;
+            invokeAll(
+                    new BatchLookupTask(this.index, this.keys, this.from, mid, this.out),
+                    new BatchLookupTask(this.index, this.keys, mid, this.to, this.out)
+            );
+        }
+    }
+
+    // keys[from, to) must be sorted
+    private void walkSorted(final long[] keys, final int from, final int to, final int[] out) {
+        final int[] starts = this.rangeStarts;
+        final int[] ends = this.rangeEnds;
+        final int[] ASNumbers = this.rangeASNumbers;
+        final int ranges = starts.length;
+        if (ranges == 0) {
+            for (int i = from; i < to; ++i) {
+                out[(int)keys[i]] = 0;
+            }
+            return;
+        }
+
+        // index of the last range starting at or before the current address, -1 if none
+        int range = -1;
+        for (int i = from; i < to; ++i) {
+            final long key = keys[i];
+            final int address = (int)(key >> 32);
+
+            if (range + 1 < ranges && starts[range + 1] <= address) {
+                // gallop forward, then binary search the last step, so that sparse batches skip ranges quickly
+                int step = 1;
+                int low = range + 1;
+                while (low + step < ranges && starts[low + step] <= address) {
+                    low += step;
+                    step <<= 1;
+                }
+                final int idx = Arrays.binarySearch(starts, low, Math.min(ranges, low + step), address);
+                range = idx >= 0 ? idx : -idx - 2;
+            }
+
+            out[(int)key] = range >= 0 && ends[range] >= address ? ASNumbers[range] : 0;
+        }
+    }
+
+    public int prefixCount() {
+        return this.prefixAddresses.length;
+    }
+
+    public int rangeCount() {
+        return this.rangeStarts.length;
+    }
+
+    public int getPrefixAddress(final int prefix) {
+        return this.prefixAddresses[prefix];
+    }
+
+    public int getPrefixLength(final int prefix) {
+        return this.prefixLengths[prefix];
+    }
+
+    public int getPrefixASNumber(final int prefix) {
+        return this.prefixASNumbers[prefix];
+    }
+
+    public ASLookup.ASEntry getEntry(final int prefix, final ASNameTable names) {
+        final int ASNumber = this.prefixASNumbers[prefix];
+        return new ASLookup.ASEntry(
+                Util.toInetAddress(this.prefixAddresses[prefix]), this.prefixLengths[prefix], ASNumber, names.getName(ASNumber)
+        );
+    }
+
+    // the prefix scan used by ASLookup before this index existed, retained to cross-check the flattened ranges
+    private int scanPrefixes(final int ip) {
+        final long ipMasked = ip & 0xFFFFFFFFL;
+        final int[] addresses = this.prefixAddresses;
+
+        int lo = 0;
+        int hi = addresses.length - 1;
+        int idx = -1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            if ((addresses[mid] & 0xFFFFFFFFL) <= ipMasked) {
+                idx = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        for (; idx >= 0; --idx) {
+            final int length = this.prefixLengths[idx];
+            final long mask = ((1L << length) - 1L) << (32 - length);
+            if ((mask & addresses[idx]) == (mask & ipMasked)) {
+                return idx;
+            }
+        }
+
+        return NO_MATCH;
+    }
+
+    /**
+     * Cross-checks the flattened ranges against a backwards scan of the prefix table over the whole IPv4 space.
+     * <p>
+     * Both lookups are constant between consecutive range boundaries, and every prefix boundary is a range boundary,
+     * so checking the first and last address of every range and of every gap between ranges covers every address.
+     * </p>
+     * @return The number of mismatching addresses found.
+     */
+    public long verify() {
+        long mismatches = 0L;
+        long cursor = 0L;
+
+        for (int i = 0, len = this.rangeStarts.length; i <= len; ++i) {
+            final long start = i == len ? (1L << 32) : (this.rangeStarts[i] ^ Integer.MIN_VALUE) & 0xFFFFFFFFL;
+            if (cursor < start) {
+                // gap
+                mismatches += this.checkAddress((int)cursor) ? 0L : 1L;
+                mismatches += this.checkAddress((int)(start - 1L)) ? 0L : 1L;
+            }
+            if (i == len) {
+                break;
+            }
+
+            final long end = (this.rangeEnds[i] ^ Integer.MIN_VALUE) & 0xFFFFFFFFL;
+            mismatches += this.checkAddress((int)start) ? 0L : 1L;
+            mismatches += this.checkAddress((int)end) ? 0L : 1L;
+            cursor = end + 1L;
+        }
+
+        return mismatches;
+    }
+
+    private boolean checkAddress(final int ip) {
+        return this.findPrefix(ip) == this.scanPrefixes(ip);
+    }
+
+    private static final class RangeBuilder {
+
+        private int[] starts;
+        private int[] ends;
+        private int[] prefixes;
+        private int size;
+
+        private RangeBuilder(final int capacity) {
+            this.starts = new int[Math.max(16, capacity)];
+            this.ends = new int[this.starts.length];
+            this.prefixes = new int[this.starts.length];
+        }
+
+        private void add(final long start, final long end, final int prefix) {
+            if (this.size == this.starts.length) {
+                final int newCapacity = this.size * 2;
+                this.starts = Arrays.copyOf(this.starts, newCapacity);
+                this.ends = Arrays.copyOf(this.ends, newCapacity);
+                this.prefixes = Arrays.copyOf(this.prefixes, newCapacity);
+            }
+            this.starts[this.size] = (int)start ^ Integer.MIN_VALUE;
+            this.ends[this.size] = (int)end ^ Integer.MIN_VALUE;
+            this.prefixes[this.size] = prefix;
+            ++this.size;
+        }
+    }
+
+    public static final class Builder {
+
+        private static final int MAX_PREFIXES = 1 << 26;
+
+        private int[] addresses = new int[1024];
+        private byte[] lengths = new byte[1024];
+        private int[] ASNumbers = new int[1024];
+        private int size;
+
+        public Builder addPrefix(final int address, final int length, final int ASNumber) {
+            if (length < 0 || length > 32) {
+                throw new IllegalArgumentException("Invalid prefix length: " + length);
+            }
+            if (this.size == MAX_PREFIXES) {
+                throw new IllegalStateException("Too many prefixes");
+            }
+            if (this.size == this.addresses.length) {
+                final int newCapacity = this.size * 2;
+                this.addresses = Arrays.copyOf(this.addresses, newCapacity);
+                this.lengths = Arrays.copyOf(this.lengths, newCapacity);
+                this.ASNumbers = Arrays.copyOf(this.ASNumbers, newCapacity);
+            }
+
+            // normalise host bits, so that the prefix table is well-formed
+            final int mask = length == 0 ? 0 : (-1 << (32 - length));
+
+            this.addresses[this.size] = address & mask;
+            this.lengths[this.size] = (byte)length;
+            this.ASNumbers[this.size] = ASNumber;
+            ++this.size;
+
+            return this;
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        public IPv4PrefixIndex build() {
+            return this.build(Engine.SORTED_RANGES);
+        }
+
+        public IPv4PrefixIndex build(final Engine engine) {
+            return this.build(engine, null);
+        }
+
+        /**
+         * Builds the index, reusing as much of the specified previous index as possible: if the prefix table is
+         * unchanged the previous index is returned, and if only AS numbers changed its ranges are shared.
+         */
+        public IPv4PrefixIndex build(final Engine engine, final IPv4PrefixIndex previous) {
+            final int size = this.size;
+
+            // sort by (address unsigned, length, insertion order) using packed keys:
+            // [63, 32] address with flipped sign, [31, 26] length, [25, 0] insertion index
+            final long[] keys = new long[size];
+            for (int i = 0; i < size; ++i) {
+                keys[i] = ((long)(this.addresses[i] ^ Integer.MIN_VALUE) << 32) | ((long)this.lengths[i] << 26) | (long)i;
+            }
+            Arrays.sort(keys);
+
+            final int[] addresses = new int[size];
+            final byte[] lengths = new byte[size];
+            final int[] ASNumbers = new int[size];
+            int count = 0;
+
+            for (int i = 0; i < size; ++i) {
+                final long key = keys[i];
+                final int from = (int)(key & ((1L << 26) - 1L));
+                final int address = (int)(key >>> 32) ^ Integer.MIN_VALUE;
+                final byte length = (byte)((key >>> 26) & 63L);
+
+                if (count != 0 && addresses[count - 1] == address && lengths[count - 1] == length) {
+                    // duplicate prefix, the last one added wins
+                    ASNumbers[count - 1] = this.ASNumbers[from];
+                    continue;
+                }
+
+                addresses[count] = address;
+                lengths[count] = length;
+                ASNumbers[count] = this.ASNumbers[from];
+                ++count;
+            }
+
+            if (previous != null && Arrays.equals(previous.prefixAddresses, 0, previous.prefixAddresses.length, addresses, 0, count)
+                    && Arrays.equals(previous.prefixLengths, 0, previous.prefixLengths.length, lengths, 0, count)) {
+                final IPv4PrefixIndex reuse = previous.withEngine(engine);
+                if (Arrays.equals(previous.prefixASNumbers, 0, previous.prefixASNumbers.length, ASNumbers, 0, count)) {
+                    return reuse;
+                }
+                return new IPv4PrefixIndex(reuse, Arrays.copyOf(ASNumbers, count));
+            }
+
+            return new IPv4PrefixIndex(
+                    Arrays.copyOf(addresses, count), Arrays.copyOf(lengths, count), Arrays.copyOf(ASNumbers, count),
+                    engine
+            );
+        }
+    }
+}
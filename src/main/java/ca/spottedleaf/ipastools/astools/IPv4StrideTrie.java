@@ -0,0 +1,122 @@
+package ca.spottedleaf.ipastools.astools;
+
+import java.util.Arrays;
+
+/**
+ * 16-8-8 multibit trie over the flattened ranges of an {@link IPv4PrefixIndex}.
+ * <p>
+ * Every table entry is either a prefix index ({@code >= 0}), {@link IPv4PrefixIndex#NO_MATCH}, or a reference to a
+ * 256 entry chunk in the next level encoded as {@code -(chunk + 2)}. A lookup touches at most three entries.
+ * </p>
+ */
+final class IPv4StrideTrie {
+
+    private static final int SPLIT = Integer.MIN_VALUE;
+
+    private final int[] level0 = new int[1 << 16];
+    private int[] level1 = new int[256 * 64];
+    private int level1Chunks;
+    private int[] level2 = new int[256 * 16];
+    private int level2Chunks;
+
+    // range addresses are stored with the sign bit flipped, see IPv4PrefixIndex
+    IPv4StrideTrie(final int[] rangeStarts, final int[] rangeEnds, final int[] rangePrefixes) {
+        final int ranges = rangeStarts.length;
+        int r = 0;
+
+        for (int b = 0; b < (1 << 16); ++b) {
+            final long blockStart = (long)b << 16;
+            r = advance(rangeEnds, r, blockStart);
+
+            final int value0 = uniform(rangeStarts, rangeEnds, rangePrefixes, r, blockStart, blockStart + 0xFFFFL);
+            if (value0 != SPLIT) {
+                this.level0[b] = value0;
+                continue;
+            }
+
+            final int chunk1 = this.allocateLevel1();
+            this.level0[b] = -(chunk1 + 2);
+
+            for (int c = 0; c < 256; ++c) {
+                final long subStart = blockStart | ((long)c << 8);
+                r = advance(rangeEnds, r, subStart);
+
+                final int value1 = uniform(rangeStarts, rangeEnds, rangePrefixes, r, subStart, subStart + 0xFFL);
+                if (value1 != SPLIT) {
+                    this.level1[(chunk1 << 8) | c] = value1;
+                    continue;
+                }
+
+                final int chunk2 = this.allocateLevel2();
+                this.level1[(chunk1 << 8) | c] = -(chunk2 + 2);
+
+                for (int d = 0; d < 256; ++d) {
+                    final long address = subStart | (long)d;
+                    r = advance(rangeEnds, r, address);
+
+                    this.level2[(chunk2 << 8) | d] = r < ranges && unflip(rangeStarts[r]) <= address ? rangePrefixes[r] : IPv4PrefixIndex.NO_MATCH;
+                }
+            }
+        }
+
+        this.level1 = Arrays.copyOf(this.level1, this.level1Chunks << 8);
+        this.level2 = Arrays.copyOf(this.level2, this.level2Chunks << 8);
+    }
+
+    private static long unflip(final int address) {
+        return (address ^ Integer.MIN_VALUE) & 0xFFFFFFFFL;
+    }
+
+    // returns the first range at or after r which ends at or after the address
+    private static int advance(final int[] rangeEnds, int r, final long address) {
+        while (r < rangeEnds.length && unflip(rangeEnds[r]) < address) {
+            ++r;
+        }
+        return r;
+    }
+
+    // returns the value shared by every address in [start, end], or SPLIT if there is no such value
+    private static int uniform(final int[] rangeStarts, final int[] rangeEnds, final int[] rangePrefixes, final int r,
+                               final long start, final long end) {
+        if (r >= rangeStarts.length || unflip(rangeStarts[r]) > end) {
+            return IPv4PrefixIndex.NO_MATCH;
+        }
+        if (unflip(rangeStarts[r]) <= start && unflip(rangeEnds[r]) >= end) {
+            return rangePrefixes[r];
+        }
+        // adjacent ranges never belong to the same prefix, so the block must be split
+        return SPLIT;
+    }
+
+    private int allocateLevel1() {
+        if ((this.level1Chunks << 8) == this.level1.length) {
+            this.level1 = Arrays.copyOf(this.level1, this.level1.length * 2);
+        }
+        return this.level1Chunks++;
+    }
+
+    private int allocateLevel2() {
+        if ((this.level2Chunks << 8) == this.level2.length) {
+            this.level2 = Arrays.copyOf(this.level2, this.level2.length * 2);
+        }
+        return this.level2Chunks++;
+    }
+
+    int findPrefix(final int ip) {
+        final int entry0 = this.level0[ip >>> 16];
+        if (entry0 >= IPv4PrefixIndex.NO_MATCH) {
+            return entry0;
+        }
+
+        final int entry1 = this.level1[((-entry0 - 2) << 8) | ((ip >>> 8) & 0xFF)];
+        if (entry1 >= IPv4PrefixIndex.NO_MATCH) {
+            return entry1;
+        }
+
+        return this.level2[((-entry1 - 2) << 8) | (ip & 0xFF)];
+    }
+
+    long memoryUsage() {
+        return 4L * ((long)this.level0.length + (long)this.level1.length + (long)this.level2.length);
+    }
+}
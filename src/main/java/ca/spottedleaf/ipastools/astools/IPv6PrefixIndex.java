@@ -0,0 +1,412 @@
+package ca.spottedleaf.ipastools.astools;
+
+import ca.spottedleaf.ipastools.util.Util;
+import java.util.Arrays;
+
+/**
+ * Immutable IPv6 prefix to AS number index.
+ * <p>
+ * This is the 128-bit counterpart of {@link IPv4PrefixIndex}: addresses are held as two longs per prefix and per
+ * range, the nested prefixes are flattened into non-overlapping ranges mapping to their most specific prefix, and a
+ * lookup is a single allocation-free binary search over the range starts.
+ * </p>
+ */
+public final class IPv6PrefixIndex {
+
+    public static final int NO_MATCH = -1;
+
+    public static final IPv6PrefixIndex EMPTY = new Builder().build();
+
+    // prefix table, sorted by (address unsigned, length), addresses are stored as [high, low] pairs
+    // lengths are unsigned bytes
+    private final long[] prefixAddresses;
+    private final byte[] prefixLengths;
+    private final int[] prefixASNumbers;
+
+    // flattened ranges, stored as [high, low] pairs with the sign bits flipped so that signed comparison orders them correctly
+    private final long[] rangeStarts;
+    private final long[] rangeEnds; // inclusive
+    private final int[] rangeASNumbers;
+    private final int[] rangePrefixes;
+
+    private IPv6PrefixIndex(final long[] prefixAddresses, final byte[] prefixLengths, final int[] prefixASNumbers) {
+        this.prefixAddresses = prefixAddresses;
+        this.prefixLengths = prefixLengths;
+        this.prefixASNumbers = prefixASNumbers;
+
+        final RangeBuilder ranges = new RangeBuilder(prefixLengths.length + (prefixLengths.length >>> 2));
+        flatten(prefixAddresses, prefixLengths, ranges);
+
+        this.rangeStarts = Arrays.copyOf(ranges.starts, ranges.size << 1);
+        this.rangeEnds = Arrays.copyOf(ranges.ends, ranges.size << 1);
+        this.rangePrefixes = Arrays.copyOf(ranges.prefixes, ranges.size);
+        this.rangeASNumbers = new int[ranges.size];
+        for (int i = 0; i < ranges.size; ++i) {
+            this.rangeASNumbers[i] = prefixASNumbers[this.rangePrefixes[i]];
+        }
+    }
+
+    // same prefixes as from, only the AS numbers differ, so the ranges can be shared
+    private IPv6PrefixIndex(final IPv6PrefixIndex from, final int[] prefixASNumbers) {
+        this.prefixAddresses = from.prefixAddresses;
+        this.prefixLengths = from.prefixLengths;
+        this.prefixASNumbers = prefixASNumbers;
+        this.rangeStarts = from.rangeStarts;
+        this.rangeEnds = from.rangeEnds;
+        this.rangePrefixes = from.rangePrefixes;
+        this.rangeASNumbers = new int[this.rangePrefixes.length];
+        for (int i = 0; i < this.rangePrefixes.length; ++i) {
+            this.rangeASNumbers[i] = prefixASNumbers[this.rangePrefixes[i]];
+        }
+    }
+
+    /**
+     * Creates an index directly from a prefix table which is already sorted by (address, length), without duplicates.
+     * The arrays are retained by the index.
+     * @throws IllegalArgumentException If the prefix table is not sorted, or is otherwise malformed.
+     */
+    public static IPv6PrefixIndex fromSorted(final long[] addresses, final byte[] lengths, final int[] ASNumbers) {
+        if (addresses.length != (lengths.length << 1) || lengths.length != ASNumbers.length) {
+            throw new IllegalArgumentException("Prefix table columns differ in length");
+        }
+        for (int i = 0; i < lengths.length; ++i) {
+            final int length = lengths[i] & 0xFF;
+            final long high = addresses[i << 1];
+            final long low = addresses[(i << 1) | 1];
+            if (length > 128 || (high & ~maskHigh(length)) != 0L || (low & ~maskLow(length)) != 0L) {
+                throw new IllegalArgumentException("Malformed prefix at " + i);
+            }
+            if (i != 0) {
+                final int cmp = compare(addresses[(i - 1) << 1], addresses[((i - 1) << 1) | 1], high, low);
+                if (cmp > 0 || (cmp == 0 && (lengths[i - 1] & 0xFF) >= length)) {
+                    throw new IllegalArgumentException("Prefix table is not sorted at " + i);
+                }
+            }
+        }
+
+        return new IPv6PrefixIndex(addresses, lengths, ASNumbers);
+    }
+
+    private static long maskHigh(final int length) {
+        return length == 0 ? 0L : (length >= 64 ? -1L : (-1L << (64 - length)));
+    }
+
+    private static long maskLow(final int length) {
+        return length <= 64 ? 0L : (length == 128 ? -1L : (-1L << (128 - length)));
+    }
+
+    private static int compare(final long high1, final long low1, final long high2, final long low2) {
+        final int cmp = Long.compareUnsigned(high1, high2);
+        return cmp != 0 ? cmp : Long.compareUnsigned(low1, low2);
+    }
+
+    // prefixes must be sorted by (address, length) and contain no duplicates
+    private static void flatten(final long[] addresses, final byte[] lengths, final RangeBuilder ranges) {
+        // prefixes can only nest or be disjoint, so the open prefixes always form a stack
+        final int[] stack = new int[129];
+        int stackSize = 0;
+        // next address that has not been assigned to a range, exhausted once the end of the address space is assigned
+        long cursorHigh = 0L;
+        long cursorLow = 0L;
+        boolean exhausted = false;
+
+        for (int i = 0, len = lengths.length; i <= len; ++i) {
+            final long startHigh = i == len ? 0L : addresses[i << 1];
+            final long startLow = i == len ? 0L : addresses[(i << 1) | 1];
+
+            // close every open prefix that ends before this one starts, or all of them once every prefix is processed
+            while (stackSize > 0) {
+                final int top = stack[stackSize - 1];
+                final long endHigh = addresses[top << 1] | ~maskHigh(lengths[top] & 0xFF);
+                final long endLow = addresses[(top << 1) | 1] | ~maskLow(lengths[top] & 0xFF);
+                if (i != len && compare(endHigh, endLow, startHigh, startLow) >= 0) {
+                    break;
+                }
+                if (!exhausted && compare(cursorHigh, cursorLow, endHigh, endLow) <= 0) {
+                    ranges.add(cursorHigh, cursorLow, endHigh, endLow, top);
+                    cursorLow = endLow + 1L;
+                    cursorHigh = cursorLow == 0L ? endHigh + 1L : endHigh;
+                    exhausted = endHigh == -1L && endLow == -1L;
+                }
+                --stackSize;
+            }
+
+            if (i == len) {
+                break;
+            }
+
+            // the enclosing prefix (if any) owns the gap up to this prefix
+            if (stackSize > 0 && compare(cursorHigh, cursorLow, startHigh, startLow) < 0) {
+                final long endLow = startLow - 1L;
+                final long endHigh = startLow == 0L ? startHigh - 1L : startHigh;
+                ranges.add(cursorHigh, cursorLow, endHigh, endLow, stack[stackSize - 1]);
+            }
+            cursorHigh = startHigh;
+            cursorLow = startLow;
+
+            stack[stackSize++] = i;
+        }
+    }
+
+    /**
+     * Returns the index of the flattened range containing the specified address, or {@link #NO_MATCH}.
+     */
+    public int findRange(final long high, final long low) {
+        final long keyHigh = high ^ Long.MIN_VALUE;
+        final long keyLow = low ^ Long.MIN_VALUE;
+        final long[] starts = this.rangeStarts;
+
+        // find the last range starting at or before the key
+        int lo = 0;
+        int hi = (starts.length >>> 1) - 1;
+        int idx = -1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            final long midHigh = starts[mid << 1];
+            if (midHigh < keyHigh || (midHigh == keyHigh && starts[(mid << 1) | 1] <= keyLow)) {
+                idx = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        if (idx < 0) {
+            return NO_MATCH;
+        }
+
+        final long endHigh = this.rangeEnds[idx << 1];
+        if (endHigh < keyHigh || (endHigh == keyHigh && this.rangeEnds[(idx << 1) | 1] < keyLow)) {
+            return NO_MATCH;
+        }
+
+        return idx;
+    }
+
+    /**
+     * Returns the index of the most specific prefix containing the specified address, or {@link #NO_MATCH}.
+     */
+    public int findPrefix(final long high, final long low) {
+        final int range = this.findRange(high, low);
+        return range == NO_MATCH ? NO_MATCH : this.rangePrefixes[range];
+    }
+
+    /**
+     * Returns the AS number for the specified address, or {@code 0} if no prefix contains the address.
+     */
+    public int lookupASNumber(final long high, final long low) {
+        final int range = this.findRange(high, low);
+        return range == NO_MATCH ? 0 : this.rangeASNumbers[range];
+    }
+
+    public int prefixCount() {
+        return this.prefixLengths.length;
+    }
+
+    public int rangeCount() {
+        return this.rangePrefixes.length;
+    }
+
+    public long getPrefixAddressHigh(final int prefix) {
+        return this.prefixAddresses[prefix << 1];
+    }
+
+    public long getPrefixAddressLow(final int prefix) {
+        return this.prefixAddresses[(prefix << 1) | 1];
+    }
+
+    public int getPrefixLength(final int prefix) {
+        return this.prefixLengths[prefix] & 0xFF;
+    }
+
+    public int getPrefixASNumber(final int prefix) {
+        return this.prefixASNumbers[prefix];
+    }
+
+    /**
+     * Returns an estimate of the number of bytes retained by the lookup structures of this index.
+     */
+    public long memoryUsage() {
+        return 21L * (long)this.prefixLengths.length + 40L * (long)this.rangePrefixes.length;
+    }
+
+    public ASLookup.ASEntry getEntry(final int prefix, final ASNameTable names) {
+        final int ASNumber = this.prefixASNumbers[prefix];
+        return new ASLookup.ASEntry(
+                Util.toInetAddress(this.prefixAddresses[prefix << 1], this.prefixAddresses[(prefix << 1) | 1]),
+                this.prefixLengths[prefix] & 0xFF, ASNumber, names.getName(ASNumber)
+        );
+    }
+
+    private static final class RangeBuilder {
+
+        private long[] starts;
+        private long[] ends;
+        private int[] prefixes;
+        private int size;
+
+        private RangeBuilder(final int capacity) {
+            this.prefixes = new int[Math.max(16, capacity)];
+            this.starts = new long[this.prefixes.length << 1];
+            this.ends = new long[this.prefixes.length << 1];
+        }
+
+        private void add(final long startHigh, final long startLow, final long endHigh, final long endLow, final int prefix) {
+            if (this.size == this.prefixes.length) {
+                final int newCapacity = this.size * 2;
+                this.starts = Arrays.copyOf(this.starts, newCapacity << 1);
+                this.ends = Arrays.copyOf(this.ends, newCapacity << 1);
+                this.prefixes = Arrays.copyOf(this.prefixes, newCapacity);
+            }
+            this.starts[this.size << 1] = startHigh ^ Long.MIN_VALUE;
+            this.starts[(this.size << 1) | 1] = startLow ^ Long.MIN_VALUE;
+            this.ends[this.size << 1] = endHigh ^ Long.MIN_VALUE;
+            this.ends[(this.size << 1) | 1] = endLow ^ Long.MIN_VALUE;
+            this.prefixes[this.size] = prefix;
+            ++this.size;
+        }
+    }
+
+    public static final class Builder {
+
+        private long[] addresses = new long[2 * 256];
+        private byte[] lengths = new byte[256];
+        private int[] ASNumbers = new int[256];
+        private int size;
+
+        public Builder addPrefix(final long high, final long low, final int length, final int ASNumber) {
+            if (length < 0 || length > 128) {
+                throw new IllegalArgumentException("Invalid prefix length: " + length);
+            }
+            if (this.size == this.lengths.length) {
+                final int newCapacity = this.size * 2;
+                this.addresses = Arrays.copyOf(this.addresses, newCapacity << 1);
+                this.lengths = Arrays.copyOf(this.lengths, newCapacity);
+                this.ASNumbers = Arrays.copyOf(this.ASNumbers, newCapacity);
+            }
+
+            // normalise host bits, so that the prefix table is well-formed
+            this.addresses[this.size << 1] = high & maskHigh(length);
+            this.addresses[(this.size << 1) | 1] = low & maskLow(length);
+            this.lengths[this.size] = (byte)length;
+            this.ASNumbers[this.size] = ASNumber;
+            ++this.size;
+
+            return this;
+        }
+
+        public int size() {
+            return this.size;
+        }
+
+        public IPv6PrefixIndex build() {
+            return this.build(null);
+        }
+
+        /**
+         * Builds the index, reusing as much of the specified previous index as possible: if the prefix table is
+         * unchanged the previous index is returned, and if only AS numbers changed its ranges are shared.
+         */
+        public IPv6PrefixIndex build(final IPv6PrefixIndex previous) {
+            final int size = this.size;
+
+            // sort by (address unsigned, length, insertion order)
+            final int[] order = new int[size];
+            for (int i = 0; i < size; ++i) {
+                order[i] = i;
+            }
+            this.sort(order);
+
+            final long[] addresses = new long[size << 1];
+            final byte[] lengths = new byte[size];
+            final int[] ASNumbers = new int[size];
+            int count = 0;
+
+            for (int i = 0; i < size; ++i) {
+                final int from = order[i];
+                final long high = this.addresses[from << 1];
+                final long low = this.addresses[(from << 1) | 1];
+                final byte length = this.lengths[from];
+
+                if (count != 0 && addresses[(count - 1) << 1] == high && addresses[((count - 1) << 1) | 1] == low
+                        && lengths[count - 1] == length) {
+                    // duplicate prefix, the last one added wins
+                    ASNumbers[count - 1] = this.ASNumbers[from];
+                    continue;
+                }
+
+                addresses[count << 1] = high;
+                addresses[(count << 1) | 1] = low;
+                lengths[count] = length;
+                ASNumbers[count] = this.ASNumbers[from];
+                ++count;
+            }
+
+            if (previous != null && Arrays.equals(previous.prefixAddresses, 0, previous.prefixAddresses.length, addresses, 0, count << 1)
+                    && Arrays.equals(previous.prefixLengths, 0, previous.prefixLengths.length, lengths, 0, count)) {
+                if (Arrays.equals(previous.prefixASNumbers, 0, previous.prefixASNumbers.length, ASNumbers, 0, count)) {
+                    return previous;
+                }
+                return new IPv6PrefixIndex(previous, Arrays.copyOf(ASNumbers, count));
+            }
+
+            return new IPv6PrefixIndex(
+                    Arrays.copyOf(addresses, count << 1), Arrays.copyOf(lengths, count), Arrays.copyOf(ASNumbers, count)
+            );
+        }
+
+        private int compareEntries(final int i1, final int i2) {
+            final int cmp = compare(
+                    this.addresses[i1 << 1], this.addresses[(i1 << 1) | 1],
+                    this.addresses[i2 << 1], this.addresses[(i2 << 1) | 1]
+            );
+            if (cmp != 0) {
+                return cmp;
+            }
+            final int lengthCmp = Integer.compare(this.lengths[i1] & 0xFF, this.lengths[i2] & 0xFF);
+            return lengthCmp != 0 ? lengthCmp : Integer.compare(i1, i2);
+        }
+
+        // bottom-up merge sort over entry indices, avoiding boxed comparators
+        private void sort(final int[] order) {
+            final int size = order.length;
+
+            // the feeds are usually already sorted
+            boolean sorted = true;
+            for (int i = 1; i < size && sorted; ++i) {
+                sorted = this.compareEntries(order[i - 1], order[i]) < 0;
+            }
+            if (sorted) {
+                return;
+            }
+
+            int[] from = order;
+            int[] to = new int[size];
+            for (int width = 1; width < size; width <<= 1) {
+                for (int lo = 0; lo < size; lo += (width << 1)) {
+                    final int mid = Math.min(lo + width, size);
+                    final int hi = Math.min(lo + (width << 1), size);
+                    int i = lo;
+                    int j = mid;
+                    int k = lo;
+                    while (i < mid && j < hi) {
+                        to[k++] = this.compareEntries(from[i], from[j]) <= 0 ? from[i++] : from[j++];
+                    }
+                    while (i < mid) {
+                        to[k++] = from[i++];
+                    }
+                    while (j < hi) {
+                        to[k++] = from[j++];
+                    }
+                }
+                final int[] swap = from;
+                from = to;
+                to = swap;
+            }
+
+            if (from != order) {
+                System.arraycopy(from, 0, order, 0, size);
+            }
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package ca.spottedleaf.ipastools.astools;
+
+import ca.spottedleaf.ipastools.util.TimestampCodec;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Audit log of login decisions, written as JSON lines by a dedicated thread.
+ * <p>
+ * Login threads hand records over through a bounded lock-free ring buffer of preallocated slots, so recording never
+ * blocks and does not allocate. When the buffer is full the record is dropped and counted instead. The writer thread
+ * drains the buffer in batches, flushing once per batch, and rotates the file when it grows past the size limit or the
+ * UTC day changes. Rotated files are optionally gzipped, and the oldest are deleted beyond the file limit.
+ * </p>
+ * <p>
+ * Each line has the fields {@code time}, {@code uuid}, {@code name}, {@code ip}, {@code as} (null if unknown) and
+ * {@code decision}. The writer thread also logs a periodic summary of the decisions to the console, and adds every
+ * record to the {@link LoginSegmentStore} if there is one.
+ * </p>
+ */
+public final class LoginAuditLog {
+
+    public static enum Decision {
+        ALLOWED("allowed"),
+        BANNED("banned"),
+        RAID_BANNED("raid_banned");
+
+        private final String name;
+
+        private Decision(final String name) {
+            this.name = name;
+        }
+    }
+
+    private static final String CURRENT_NAME = "logins.jsonl";
+    private static final String ROTATED_PREFIX = "logins-";
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1L);
+    private static final DateTimeFormatter ROTATED_NAME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss", Locale.ROOT).withZone(ZoneOffset.UTC);
+    // how long the writer sleeps when the buffer is empty, which bounds the delay before a record is written
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(50L);
+    // bounds the logins of the current hour a crash loses from the segment store
+    private static final long SEGMENT_CHECKPOINT_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1L);
+
+    private static final class Slot {
+
+        // == position when free for the producer of that position, position + 1 once published
+        private volatile long sequence;
+
+        private long time;
+        private long uuidMost;
+        private long uuidLeast;
+        private String name;
+        private String ip;
+        private int ASNumber;
+        private Decision decision;
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    // only accessed by the writer thread
+    private long head;
+
+    private final File directory;
+    private final long maxFileBytes;
+    private final int maxFiles;
+    private final boolean compress;
+    private final long summaryIntervalMillis;
+    private final int consoleSample;
+    private final Logger logger;
+    private final LoginSegmentStore segments;
+
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicLong consoleCounter = new AtomicLong();
+
+    private final Thread writerThread;
+    private volatile boolean closed;
+
+    // writer thread state
+    private Writer writer;
+    private long fileBytes;
+    private long fileDay;
+    private long lastSummary;
+    private long lastDropped;
+    private long lastCheckpoint;
+    private final long[] decisionCounts = new long[Decision.values().length];
+
+    /**
+     * @param capacity Number of records the ring buffer holds, rounded up to a power of two.
+     * @param consoleSample Every n-th login is also logged to the console in full, or none if 0.
+     * @param segments Store to also add the records to, may be null.
+     */
+    public LoginAuditLog(final File directory, final int capacity, final long maxFileBytes, final int maxFiles,
+                         final boolean compress, final long summaryIntervalMillis, final int consoleSample,
+                         final LoginSegmentStore segments, final Logger logger, final ThreadFactory threadFactory) {
+        final int size = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1);
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; ++i) {
+            final Slot slot = new Slot();
+            slot.sequence = (long)i;
+            this.slots[i] = slot;
+        }
+        this.mask = size - 1;
+
+        this.directory = directory;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFiles = maxFiles;
+        this.compress = compress;
+        this.summaryIntervalMillis = summaryIntervalMillis;
+        this.consoleSample = consoleSample;
+        this.logger = logger;
+        this.segments = segments;
+        this.lastSummary = System.currentTimeMillis();
+        this.lastCheckpoint = this.lastSummary;
+
+        this.writerThread = threadFactory.newThread(this::runWriter);
+        this.writerThread.start();
+    }
+
+    /**
+     * Returns whether the caller should also log the login to the console, sampling every n-th login as configured.
+     */
+    // MT-Safe
+    public boolean sampleConsole() {
+        return this.consoleSample > 0 && this.consoleCounter.getAndIncrement() % (long)this.consoleSample == 0L;
+    }
+
+    public long getDropped() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * Queues a login record for the writer thread.
+     * @param ASNumber The AS number, or -1 if unknown.
+     * @return Whether the record was queued, false if the buffer is full or the log is closed.
+     */
+    // MT-Safe
+    public boolean record(final long time, final UUID uuid, final String name, final String ip, final int ASNumber,
+                          final Decision decision) {
+        if (this.closed) {
+            this.dropped.increment();
+            return false;
+        }
+
+        long position = this.tail.get();
+        Slot slot;
+        for (;;) {
+            slot = this.slots[(int)position & this.mask];
+            final long diff = slot.sequence - position;
+            if (diff == 0L) {
+                if (this.tail.compareAndSet(position, position + 1L)) {
+                    break;
+                }
+                position = this.tail.get();
+            } else if (diff < 0L) {
+                // the writer has not yet consumed the slot from the previous lap
+                this.dropped.increment();
+                return false;
+            } else {
+                position = this.tail.get();
+            }
+        }
+
+        slot.time = time;
+        slot.uuidMost = uuid.getMostSignificantBits();
+        slot.uuidLeast = uuid.getLeastSignificantBits();
+        slot.name = name;
+        slot.ip = ip;
+        slot.ASNumber = ASNumber;
+        slot.decision = decision;
+        // publish
+        slot.sequence = position + 1L;
+        if ((position & (long)(this.mask >>> 1)) == 0L) {
+            // wake the writer every half buffer, rather than leaving bursts to its idle interval
+            LockSupport.unpark(this.writerThread);
+        }
+        return true;
+    }
+
+    /**
+     * Stops accepting records and waits until the writer has written the queued ones and closed the file.
+     * @return Whether the writer finished in time.
+     */
+    public boolean close(final long timeoutNanos) {
+        this.closed = true;
+        LockSupport.unpark(this.writerThread);
+        try {
+            this.writerThread.join(Math.max(1L, TimeUnit.NANOSECONDS.toMillis(timeoutNanos)));
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return !this.writerThread.isAlive();
+    }
+
+    private void runWriter() {
+        try {
+            Files.createDirectories(this.directory.toPath());
+            this.rotateStale();
+        } catch (final IOException ex) {
+            this.logger.log(Level.SEVERE, "Failed to prepare login log directory '" + this.directory.getAbsolutePath() + "'", ex);
+        }
+
+        for (;;) {
+            // read before draining, so that records queued before close are always written
+            final boolean closed = this.closed;
+            final int written = this.drain();
+            this.logSummary(false);
+            this.checkpointSegments();
+            if (closed) {
+                break;
+            }
+            if (written == 0) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+
+        this.logSummary(true);
+        this.closeWriter();
+        if (this.segments != null) {
+            this.segments.seal();
+        }
+    }
+
+    private int drain() {
+        int written = 0;
+        for (;;) {
+            final Slot slot = this.slots[(int)this.head & this.mask];
+            if (slot.sequence != this.head + 1L) {
+                break;
+            }
+
+            final long time = slot.time;
+            final UUID uuid = new UUID(slot.uuidMost, slot.uuidLeast);
+            final String name = slot.name;
+            final String ip = slot.ip;
+            final int ASNumber = slot.ASNumber;
+            final Decision decision = slot.decision;
+            slot.name = null;
+            slot.ip = null;
+            slot.decision = null;
+            // free for the producer of the next lap
+            slot.sequence = this.head + (long)this.slots.length;
+            ++this.head;
+
+            ++this.decisionCounts[decision.ordinal()];
+            this.write(time, uuid, name, ip, ASNumber, decision);
+            if (this.segments != null) {
+                this.segments.append(time, uuid, name, ASNumber, decision);
+            }
+            ++written;
+        }
+
+        if (written != 0 && this.writer != null) {
+            try {
+                this.writer.flush();
+            } catch (final IOException ex) {
+                this.logger.log(Level.WARNING, "Failed to flush login log", ex);
+                this.closeWriter();
+            }
+        }
+        return written;
+    }
+
+    private void write(final long time, final UUID uuid, final String name, final String ip, final int ASNumber,
+                       final Decision decision) {
+        final StringBuilder line = new StringBuilder(160);
+        line.append("{\"time\":\"").append(TimestampCodec.format(time))
+                .append("\",\"uuid\":\"").append(uuid)
+                .append("\",\"name\":\"");
+        appendEscaped(line, name);
+        line.append("\",\"ip\":\"");
+        appendEscaped(line, ip);
+        line.append("\",\"as\":");
+        if (ASNumber == -1) {
+            line.append("null");
+        } else {
+            line.append(Integer.toUnsignedString(ASNumber));
+        }
+        line.append(",\"decision\":\"").append(decision.name).append("\"}\n");
+
+        try {
+            final long day = Math.floorDiv(time, DAY_MILLIS);
+            if (this.writer != null && (this.fileBytes >= this.maxFileBytes || day != this.fileDay)) {
+                this.closeWriter();
+                this.rotate(new File(this.directory, CURRENT_NAME));
+            }
+            if (this.writer == null) {
+                this.openWriter(day);
+            }
+            this.writer.write(line.toString());
+            // close enough, names and addresses are almost always ASCII
+            this.fileBytes += (long)line.length();
+        } catch (final IOException ex) {
+            this.logger.log(Level.WARNING, "Failed to write login log", ex);
+            this.closeWriter();
+        }
+    }
+
+    private static void appendEscaped(final StringBuilder out, final String value) {
+        for (int i = 0, len = value.length(); i < len; ++i) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format(Locale.ROOT, "\\u%04x", (int)c));
+            } else {
+                out.append(c);
+            }
+        }
+    }
+
+    private void openWriter(final long day) throws IOException {
+        final File file = new File(this.directory, CURRENT_NAME);
+        this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8), 65536);
+        this.fileBytes = file.length();
+        this.fileDay = day;
+    }
+
+    private void closeWriter() {
+        final Writer writer = this.writer;
+        if (writer == null) {
+            return;
+        }
+        this.writer = null;
+        try {
+            writer.close();
+        } catch (final IOException ex) {
+            this.logger.log(Level.WARNING, "Failed to close login log", ex);
+        }
+    }
+
+    // a file left over from a previous day should not receive today's records
+    private void rotateStale() throws IOException {
+        final File current = new File(this.directory, CURRENT_NAME);
+        if (current.isFile() && Math.floorDiv(current.lastModified(), DAY_MILLIS) != Math.floorDiv(System.currentTimeMillis(), DAY_MILLIS)) {
+            this.rotate(current);
+        }
+    }
+
+    private void rotate(final File current) throws IOException {
+        if (!current.isFile() || current.length() == 0L) {
+            return;
+        }
+
+        final String stamp = ROTATED_NAME_FORMAT.format(Instant.ofEpochMilli(current.lastModified()));
+        File rotated = new File(this.directory, ROTATED_PREFIX + stamp + ".jsonl");
+        for (int i = 1; rotated.exists() || new File(rotated.getPath() + ".gz").exists(); ++i) {
+            rotated = new File(this.directory, ROTATED_PREFIX + stamp + "-" + i + ".jsonl");
+        }
+        Files.move(current.toPath(), rotated.toPath());
+
+        if (this.compress) {
+            final File compressed = new File(rotated.getPath() + ".gz");
+            try (final InputStream in = new FileInputStream(rotated);
+                 final OutputStream out = new GZIPOutputStream(new FileOutputStream(compressed), 65536)) {
+                in.transferTo(out);
+            } catch (final IOException ex) {
+                // keep the uncompressed file
+                compressed.delete();
+                throw ex;
+            }
+            Files.delete(rotated.toPath());
+        }
+
+        this.deleteOldest();
+    }
+
+    private void deleteOldest() {
+        final File[] files = this.directory.listFiles((final File dir, final String name) -> {
+            return name.startsWith(ROTATED_PREFIX) && (name.endsWith(".jsonl") || name.endsWith(".jsonl.gz"));
+        });
+        if (files == null || files.length <= this.maxFiles) {
+            return;
+        }
+        // the names sort by time
+        Arrays.sort(files);
+        for (int i = 0, toDelete = files.length - this.maxFiles; i < toDelete; ++i) {
+            if (!files[i].delete()) {
+                this.logger.warning("Failed to delete old login log '" + files[i].getAbsolutePath() + "'");
+            }
+        }
+    }
+
+    private void checkpointSegments() {
+        if (this.segments == null) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        if (now - this.lastCheckpoint < SEGMENT_CHECKPOINT_INTERVAL_MILLIS) {
+            return;
+        }
+        this.lastCheckpoint = now;
+        this.segments.checkpoint();
+    }
+
+    private void logSummary(final boolean force) {
+        if (this.summaryIntervalMillis <= 0L) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        if (!force && now - this.lastSummary < this.summaryIntervalMillis) {
+            return;
+        }
+
+        long total = 0L;
+        for (final long count : this.decisionCounts) {
+            total += count;
+        }
+        final long dropped = this.dropped.sum();
+        final long newlyDropped = dropped - this.lastDropped;
+        if (total != 0L || newlyDropped != 0L) {
+            final List<String> parts = new ArrayList<>();
+            for (final Decision decision : Decision.values()) {
+                parts.add(this.decisionCounts[decision.ordinal()] + " " + decision.name.replace('_', ' '));
+            }
+            this.logger.info(
+                    total + " logins in the last " + TimeUnit.MILLISECONDS.toSeconds(now - this.lastSummary) + "s: " + String.join(", ", parts)
+                            + (newlyDropped == 0L ? "" : ", " + newlyDropped + " not logged as the login log buffer was full")
+            );
+        }
+
+        Arrays.fill(this.decisionCounts, 0L);
+        this.lastDropped = dropped;
+        this.lastSummary = now;
+    }
+}
@@ -0,0 +1,98 @@
+package ca.spottedleaf.ipastools.astools;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Login history of a single player, bounded by entry count and age.
+ * <p>
+ * Entries are keyed by (ip, AS number) and kept in order of last use, oldest first. A login from a known key folds into
+ * its existing entry and moves it to the end, so inserting and deduplicating are constant time and the oldest entries
+ * are always the first to be evicted. Not thread-safe.
+ * </p>
+ */
+final class LoginHistory {
+
+    private static record Key(long ipHigh, long ipLow, int ASNumber) {}
+
+    private final LinkedHashMap<Key, ASPlayerState.ASLoginEntry> entries = new LinkedHashMap<>();
+    private ASPlayerState.ASLoginEntry newest;
+
+    /**
+     * Records the specified login, folding it into the existing entry for its ip and AS number, then evicts entries
+     * over the limits.
+     * @param maxEntries The maximum number of entries to keep.
+     * @param maxAgeMillis The maximum time since an entry was last used, or {@code 0} to keep entries of any age.
+     */
+    void add(final ASPlayerState.ASLoginEntry login, final int maxEntries, final long maxAgeMillis) {
+        final long now = System.currentTimeMillis();
+        if (maxAgeMillis > 0L && now - login.lastUsed() > maxAgeMillis) {
+            // would be evicted right away
+            return;
+        }
+
+        final Key key = new Key(login.ipHigh(), login.ipLow(), login.ASNumber());
+        final ASPlayerState.ASLoginEntry previous = this.entries.remove(key);
+        final ASPlayerState.ASLoginEntry entry = previous == null ? login : previous.foldWith(login);
+
+        this.entries.put(key, entry);
+        this.newest = entry;
+
+        this.evict(maxEntries, maxAgeMillis, now);
+    }
+
+    /**
+     * Replaces the history with the specified entries, in any order.
+     */
+    void load(final List<ASPlayerState.ASLoginEntry> entries, final int maxEntries, final long maxAgeMillis) {
+        final List<ASPlayerState.ASLoginEntry> sorted = new ArrayList<>(entries);
+        sorted.sort((final ASPlayerState.ASLoginEntry e1, final ASPlayerState.ASLoginEntry e2) -> {
+            return Long.compare(e1.lastUsed(), e2.lastUsed());
+        });
+
+        this.entries.clear();
+        this.newest = null;
+        for (final ASPlayerState.ASLoginEntry entry : sorted) {
+            final Key key = new Key(entry.ipHigh(), entry.ipLow(), entry.ASNumber());
+            final ASPlayerState.ASLoginEntry previous = this.entries.remove(key);
+            final ASPlayerState.ASLoginEntry merged = previous == null ? entry : previous.foldWith(entry);
+            this.entries.put(key, merged);
+            this.newest = merged;
+        }
+
+        this.evict(maxEntries, maxAgeMillis, System.currentTimeMillis());
+    }
+
+    private void evict(final int maxEntries, final long maxAgeMillis, final long now) {
+        for (final Iterator<ASPlayerState.ASLoginEntry> iterator = this.entries.values().iterator(); iterator.hasNext();) {
+            final ASPlayerState.ASLoginEntry oldest = iterator.next();
+            if (this.entries.size() <= maxEntries && (maxAgeMillis <= 0L || now - oldest.lastUsed() <= maxAgeMillis)) {
+                break;
+            }
+            iterator.remove();
+        }
+
+        if (this.entries.isEmpty()) {
+            this.newest = null;
+        }
+    }
+
+    ASPlayerState.ASLoginEntry getNewest() {
+        return this.newest;
+    }
+
+    boolean isEmpty() {
+        return this.entries.isEmpty();
+    }
+
+    int size() {
+        return this.entries.size();
+    }
+
+    // oldest first
+    List<ASPlayerState.ASLoginEntry> toList() {
+        return new ArrayList<>(this.entries.values());
+    }
+}
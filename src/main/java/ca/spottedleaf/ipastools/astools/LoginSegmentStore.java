@@ -0,0 +1,512 @@
+package ca.spottedleaf.ipastools.astools;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Columnar store of the logins recorded by {@link LoginAuditLog}, partitioned into hourly segment files.
+ * <p>
+ * Each segment file starts with a header holding the row count, the minimum and maximum login time, and a bitmap of
+ * the hashed AS numbers it contains, followed by one column each for time, uuid, AS number, decision and name. Only the
+ * headers are kept in memory, so queries skip segments outside their time window or without the AS they look for, and
+ * read only the columns they need of the rest.
+ * </p>
+ * <p>
+ * The logins of the current hour are kept in memory by the login log writer thread and written out once the hour is
+ * over or on close. Until then they are periodically checkpointed to the segment file of the hour, so that a crash only
+ * loses the logins since the last checkpoint. Queries run on the query executor and complete their future there, never
+ * on the caller.
+ * </p>
+ */
+public final class LoginSegmentStore {
+
+    private static final int MAGIC = 0x49504C53; // IPLS
+    private static final int VERSION = 1;
+    private static final int BITMAP_LONGS = 256;
+    private static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 8 + BITMAP_LONGS * 8;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final long HOUR_MILLIS = TimeUnit.HOURS.toMillis(1L);
+    // bounds the hourly counts a history query allocates, a leap year
+    private static final long MAX_HISTORY_HOURS = 366L * 24L;
+    private static final DateTimeFormatter SEGMENT_NAME_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd-HH", Locale.ROOT).withZone(ZoneOffset.UTC);
+
+    public static record ASCount(int ASNumber, int players, long joins) {}
+
+    public static record NewAccount(UUID userId, String name, long firstSeen) {}
+
+    /**
+     * @param hourlyJoins Logins per hour, starting with the hour containing the start of the queried window.
+     */
+    public static record ASHistory(int ASNumber, long firstHour, long[] hourlyJoins, long joins, long denied, int players,
+                                   List<NewAccount> newAccounts) {}
+
+    private static record SegmentInfo(File file, int count, long minTime, long maxTime, long[] bitmap) {
+
+        private boolean overlaps(final long from, final long to) {
+            return this.minTime < to && this.maxTime >= from;
+        }
+
+        private boolean mayContain(final int ASNumber) {
+            final int bit = bitmapIndex(ASNumber);
+            return (this.bitmap[bit >>> 6] & (1L << bit)) != 0L;
+        }
+    }
+
+    private static record Columns(int count, long[] times, long[] uuidMost, long[] uuidLeast, int[] ASNumbers,
+                                  byte[] decisions, String[] names) {}
+
+    private final File directory;
+    private final long retentionMillis;
+    private final Executor queryExecutor;
+    private final Logger logger;
+
+    // immutable, replaced by the writer thread
+    private volatile List<SegmentInfo> segments;
+
+    // current hour, guarded by this
+    private long currentHour = Long.MIN_VALUE;
+    private int size;
+    private long[] times = new long[1024];
+    private long[] uuidMost = new long[1024];
+    private long[] uuidLeast = new long[1024];
+    private int[] ASNumbers = new int[1024];
+    private byte[] decisions = new byte[1024];
+    private String[] names = new String[1024];
+    // segment file of the current hour once checkpointed, and the logins written to it
+    private File currentFile;
+    private int checkpointed;
+
+    public LoginSegmentStore(final File directory, final long retentionMillis, final Executor queryExecutor,
+                             final Logger logger) throws IOException {
+        this.directory = directory;
+        this.retentionMillis = retentionMillis;
+        this.queryExecutor = queryExecutor;
+        this.logger = logger;
+
+        Files.createDirectories(directory.toPath());
+        final List<SegmentInfo> segments = new ArrayList<>();
+        final File[] files = directory.listFiles((final File dir, final String name) -> {
+            return name.endsWith(SEGMENT_SUFFIX);
+        });
+        if (files != null) {
+            for (final File file : files) {
+                try {
+                    segments.add(readHeader(file));
+                } catch (final IOException ex) {
+                    logger.log(Level.WARNING, "Skipping unreadable login segment '" + file.getAbsolutePath() + "'", ex);
+                }
+            }
+        }
+        segments.sort(Comparator.comparingLong(SegmentInfo::minTime));
+        this.segments = List.copyOf(segments);
+        this.deleteExpired(System.currentTimeMillis());
+    }
+
+    private static int bitmapIndex(final int ASNumber) {
+        final int hash = ASNumber * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & (BITMAP_LONGS * 64 - 1);
+    }
+
+    private static int hashUUID(final long most, final long least) {
+        final long hash = (most ^ (least * 0x9E3779B97F4A7C15L)) * 0xBF58476D1CE4E5B9L;
+        return (int)(hash ^ (hash >>> 32));
+    }
+
+    /**
+     * Adds a login to the current hour, writing out the previous hour first if it is over.
+     */
+    // called by the login log writer thread
+    synchronized void append(final long time, final UUID userId, final String name, final int ASNumber,
+                             final LoginAuditLog.Decision decision) {
+        final long hour = Math.floorDiv(time, HOUR_MILLIS);
+        if (hour != this.currentHour) {
+            this.seal();
+            this.currentHour = hour;
+        }
+
+        if (this.size == this.times.length) {
+            final int newCapacity = this.size * 2;
+            this.times = Arrays.copyOf(this.times, newCapacity);
+            this.uuidMost = Arrays.copyOf(this.uuidMost, newCapacity);
+            this.uuidLeast = Arrays.copyOf(this.uuidLeast, newCapacity);
+            this.ASNumbers = Arrays.copyOf(this.ASNumbers, newCapacity);
+            this.decisions = Arrays.copyOf(this.decisions, newCapacity);
+            this.names = Arrays.copyOf(this.names, newCapacity);
+        }
+
+        final int idx = this.size++;
+        this.times[idx] = time;
+        this.uuidMost[idx] = userId.getMostSignificantBits();
+        this.uuidLeast[idx] = userId.getLeastSignificantBits();
+        this.ASNumbers[idx] = ASNumber;
+        this.decisions[idx] = (byte)decision.ordinal();
+        this.names[idx] = name;
+    }
+
+    /**
+     * Writes out the logins of the current hour, if any.
+     */
+    synchronized void seal() {
+        if (this.size == 0) {
+            return;
+        }
+        final Columns columns = this.snapshot();
+        final File file = this.currentFile;
+        this.size = 0;
+        this.currentFile = null;
+        this.checkpointed = 0;
+        Arrays.fill(this.names, null);
+
+        try {
+            final SegmentInfo segment = this.writeSegment(columns, file);
+            final List<SegmentInfo> segments = new ArrayList<>(this.segments);
+            segments.add(segment);
+            this.segments = List.copyOf(segments);
+        } catch (final IOException ex) {
+            this.logger.log(Level.SEVERE, "Failed to write login segment, " + columns.count() + " logins will be missing from the login history", ex);
+        }
+        this.deleteExpired(System.currentTimeMillis());
+    }
+
+    /**
+     * Writes the logins of the current hour so far to its segment file, without ending the hour. The file is only
+     * searched as a segment after the next start, until then queries read these logins from memory.
+     */
+    // called by the login log writer thread
+    synchronized void checkpoint() {
+        if (this.size == this.checkpointed) {
+            return;
+        }
+        final Columns columns = this.snapshot();
+        try {
+            this.currentFile = this.writeSegment(columns, this.currentFile).file();
+            this.checkpointed = columns.count();
+        } catch (final IOException ex) {
+            this.logger.log(Level.WARNING, "Failed to checkpoint login segment", ex);
+        }
+    }
+
+    private Columns snapshot() {
+        final int size = this.size;
+        return new Columns(
+                size, Arrays.copyOf(this.times, size), Arrays.copyOf(this.uuidMost, size), Arrays.copyOf(this.uuidLeast, size),
+                Arrays.copyOf(this.ASNumbers, size), Arrays.copyOf(this.decisions, size), Arrays.copyOf(this.names, size)
+        );
+    }
+
+    private synchronized Columns snapshotCurrent() {
+        return this.snapshot();
+    }
+
+    /**
+     * Writes the columns to the specified segment file, replacing it, or to a new file if it is null.
+     */
+    private SegmentInfo writeSegment(final Columns columns, final File target) throws IOException {
+        final int count = columns.count();
+        long minTime = Long.MAX_VALUE;
+        long maxTime = Long.MIN_VALUE;
+        final long[] bitmap = new long[BITMAP_LONGS];
+        for (int i = 0; i < count; ++i) {
+            minTime = Math.min(minTime, columns.times()[i]);
+            maxTime = Math.max(maxTime, columns.times()[i]);
+            final int bit = bitmapIndex(columns.ASNumbers()[i]);
+            bitmap[bit >>> 6] |= 1L << bit;
+        }
+
+        File file = target;
+        if (file == null) {
+            final String stamp = SEGMENT_NAME_FORMAT.format(Instant.ofEpochMilli(minTime));
+            file = new File(this.directory, stamp + SEGMENT_SUFFIX);
+            // an hour split by a restart gets several segments
+            for (int i = 1; file.exists(); ++i) {
+                file = new File(this.directory, stamp + "-" + i + SEGMENT_SUFFIX);
+            }
+        }
+
+        final File temp = new File(this.directory, file.getName() + ".tmp");
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 65536))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+            out.writeLong(minTime);
+            out.writeLong(maxTime);
+            for (final long word : bitmap) {
+                out.writeLong(word);
+            }
+            for (int i = 0; i < count; ++i) {
+                out.writeLong(columns.times()[i]);
+            }
+            for (int i = 0; i < count; ++i) {
+                out.writeLong(columns.uuidMost()[i]);
+            }
+            for (int i = 0; i < count; ++i) {
+                out.writeLong(columns.uuidLeast()[i]);
+            }
+            for (int i = 0; i < count; ++i) {
+                out.writeInt(columns.ASNumbers()[i]);
+            }
+            out.write(columns.decisions(), 0, count);
+            for (int i = 0; i < count; ++i) {
+                final String name = columns.names()[i];
+                out.writeUTF(name == null ? "" : name);
+            }
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        return new SegmentInfo(file, count, minTime, maxTime, bitmap);
+    }
+
+    private void deleteExpired(final long now) {
+        if (this.retentionMillis <= 0L) {
+            return;
+        }
+        final long cutoff = now - this.retentionMillis;
+        final List<SegmentInfo> keep = new ArrayList<>();
+        for (final SegmentInfo segment : this.segments) {
+            if (segment.maxTime() >= cutoff) {
+                keep.add(segment);
+            } else if (!segment.file().delete() && segment.file().exists()) {
+                this.logger.warning("Failed to delete expired login segment '" + segment.file().getAbsolutePath() + "'");
+            }
+        }
+        if (keep.size() != this.segments.size()) {
+            this.segments = List.copyOf(keep);
+        }
+    }
+
+    private static SegmentInfo readHeader(final File file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            final ByteBuffer header = readFully(channel, 0L, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a login segment");
+            }
+            final int count = header.getInt();
+            final long minTime = header.getLong();
+            final long maxTime = header.getLong();
+            final long[] bitmap = new long[BITMAP_LONGS];
+            header.asLongBuffer().get(bitmap);
+            return new SegmentInfo(file, count, minTime, maxTime, bitmap);
+        }
+    }
+
+    private static ByteBuffer readFully(final FileChannel channel, final long position, final int length) throws IOException {
+        final ByteBuffer ret = ByteBuffer.allocate(length);
+        while (ret.hasRemaining()) {
+            if (channel.read(ret, position + (long)ret.position()) < 0) {
+                throw new IOException("Truncated login segment");
+            }
+        }
+        return ret.flip();
+    }
+
+    /**
+     * Reads the time, uuid and AS number columns of the segment, and the decision and name columns if requested.
+     */
+    private static Columns readColumns(final SegmentInfo segment, final boolean decisionsAndNames) throws IOException {
+        final int count = segment.count();
+        try (final FileChannel channel = FileChannel.open(segment.file().toPath(), StandardOpenOption.READ)) {
+            long position = (long)HEADER_SIZE;
+            final long[] times = new long[count];
+            readFully(channel, position, count * 8).asLongBuffer().get(times);
+            position += (long)count * 8L;
+            final long[] most = new long[count];
+            readFully(channel, position, count * 8).asLongBuffer().get(most);
+            position += (long)count * 8L;
+            final long[] least = new long[count];
+            readFully(channel, position, count * 8).asLongBuffer().get(least);
+            position += (long)count * 8L;
+            final int[] ASNumbers = new int[count];
+            readFully(channel, position, count * 4).asIntBuffer().get(ASNumbers);
+            position += (long)count * 4L;
+
+            if (!decisionsAndNames) {
+                return new Columns(count, times, most, least, ASNumbers, null, null);
+            }
+
+            final byte[] decisions = new byte[count];
+            readFully(channel, position, count).get(decisions);
+            position += (long)count;
+            final ByteBuffer nameColumn = readFully(channel, position, (int)(channel.size() - position));
+            final String[] names = new String[count];
+            for (int i = 0; i < count; ++i) {
+                // writeUTF is modified UTF-8, which only differs for NUL and supplementary characters
+                final int length = nameColumn.getShort() & 0xFFFF;
+                names[i] = new String(nameColumn.array(), nameColumn.position(), length, StandardCharsets.UTF_8);
+                nameColumn.position(nameColumn.position() + length);
+            }
+            return new Columns(count, times, most, least, ASNumbers, decisions, names);
+        }
+    }
+
+    /**
+     * Reads the columns of every segment overlapping the window which may contain the AS number, or of every
+     * overlapping segment if {@code ASNumber} is null, plus the current hour.
+     */
+    private List<Columns> scan(final long from, final long to, final Integer ASNumber, final boolean decisionsAndNames) {
+        final List<Columns> ret = new ArrayList<>();
+        for (final SegmentInfo segment : this.segments) {
+            if (!segment.overlaps(from, to) || (ASNumber != null && !segment.mayContain(ASNumber.intValue()))) {
+                continue;
+            }
+            try {
+                ret.add(readColumns(segment, decisionsAndNames));
+            } catch (final IOException ex) {
+                // may have been deleted by retention in the meantime
+                this.logger.log(Level.WARNING, "Failed to read login segment '" + segment.file().getAbsolutePath() + "'", ex);
+            }
+        }
+        ret.add(this.snapshotCurrent());
+        return ret;
+    }
+
+    /**
+     * Returns the AS numbers with the most distinct players logging in within the window, including denied logins.
+     * Logins from an unknown AS are not counted. Players are told apart by a 32-bit hash of their uuid, so the counts
+     * may be very slightly low.
+     */
+    public CompletableFuture<List<ASCount>> topASes(final long from, final long to, final int limit) {
+        return CompletableFuture.supplyAsync(() -> {
+            // (AS number, uuid hash) pairs, sorted so that each AS number is a run and each player a run within it
+            long[] keys = new long[4096];
+            int size = 0;
+            for (final Columns columns : this.scan(from, to, null, false)) {
+                for (int i = 0; i < columns.count(); ++i) {
+                    final long time = columns.times()[i];
+                    final int ASNumber = columns.ASNumbers()[i];
+                    // -1 if the lookup was unavailable, 0 if no prefix matched
+                    if (time < from || time >= to || ASNumber == -1 || ASNumber == 0) {
+                        continue;
+                    }
+                    if (size == keys.length) {
+                        keys = Arrays.copyOf(keys, size * 2);
+                    }
+                    keys[size++] = ((long)ASNumber << 32) | ((long)hashUUID(columns.uuidMost()[i], columns.uuidLeast()[i]) & 0xFFFFFFFFL);
+                }
+            }
+            Arrays.sort(keys, 0, size);
+
+            final List<ASCount> ret = new ArrayList<>();
+            for (int i = 0; i < size;) {
+                final int ASNumber = (int)(keys[i] >>> 32);
+                int players = 0;
+                int end = i;
+                for (; end < size && (int)(keys[end] >>> 32) == ASNumber; ++end) {
+                    if (end == i || keys[end] != keys[end - 1]) {
+                        ++players;
+                    }
+                }
+                ret.add(new ASCount(ASNumber, players, (long)(end - i)));
+                i = end;
+            }
+
+            ret.sort(Comparator.comparingInt(ASCount::players).thenComparingLong(ASCount::joins).reversed());
+            return ret.size() > limit ? new ArrayList<>(ret.subList(0, limit)) : ret;
+        }, this.queryExecutor);
+    }
+
+    /**
+     * Returns the longest window {@link #history(int, long, long)} accepts, which is the retention if there is one.
+     */
+    public long getMaxHistoryWindowMillis() {
+        final long max = MAX_HISTORY_HOURS * HOUR_MILLIS;
+        return this.retentionMillis > 0L ? Math.min(this.retentionMillis, max) : max;
+    }
+
+    /**
+     * Returns the hourly logins of the AS number within the window, and the players whose first recorded login was
+     * from it within the window. Since only the retained segments are searched, players whose earlier logins have
+     * expired count as new.
+     * @throws IllegalArgumentException If the window is longer than {@link #getMaxHistoryWindowMillis()}.
+     */
+    public CompletableFuture<ASHistory> history(final int ASNumber, final long from, final long to) {
+        if (to < from || to - from > this.getMaxHistoryWindowMillis()) {
+            throw new IllegalArgumentException("History window of " + (to - from) + "ms exceeds " + this.getMaxHistoryWindowMillis() + "ms");
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            final long firstHour = Math.floorDiv(from, HOUR_MILLIS);
+            final long[] hourlyJoins = new long[(int)Math.max(1L, Math.floorDiv(to - 1L, HOUR_MILLIS) - firstHour + 1L)];
+            long joins = 0L;
+            long denied = 0L;
+            final Set<UUID> players = new HashSet<>();
+            // earliest login from the AS within the window, by player
+            final Map<UUID, NewAccount> candidates = new HashMap<>();
+
+            for (final Columns columns : this.scan(from, to, Integer.valueOf(ASNumber), true)) {
+                for (int i = 0; i < columns.count(); ++i) {
+                    final long time = columns.times()[i];
+                    if (columns.ASNumbers()[i] != ASNumber || time < from || time >= to) {
+                        continue;
+                    }
+                    ++hourlyJoins[(int)(Math.floorDiv(time, HOUR_MILLIS) - firstHour)];
+                    if (columns.decisions()[i] == (byte)LoginAuditLog.Decision.ALLOWED.ordinal()) {
+                        ++joins;
+                    } else {
+                        ++denied;
+                    }
+                    final UUID userId = new UUID(columns.uuidMost()[i], columns.uuidLeast()[i]);
+                    players.add(userId);
+                    final NewAccount existing = candidates.get(userId);
+                    if (existing == null || existing.firstSeen() > time) {
+                        candidates.put(userId, new NewAccount(userId, columns.names()[i], time));
+                    }
+                }
+            }
+
+            if (!candidates.isEmpty()) {
+                // drop the players with an earlier login from anywhere, checking the cheap uuid column filter first
+                final long[] candidateMost = new long[candidates.size()];
+                int idx = 0;
+                long latest = Long.MIN_VALUE;
+                for (final NewAccount candidate : candidates.values()) {
+                    candidateMost[idx++] = candidate.userId().getMostSignificantBits();
+                    latest = Math.max(latest, candidate.firstSeen());
+                }
+                Arrays.sort(candidateMost);
+
+                for (final Columns columns : this.scan(Long.MIN_VALUE, latest, null, false)) {
+                    for (int i = 0; i < columns.count(); ++i) {
+                        if (Arrays.binarySearch(candidateMost, columns.uuidMost()[i]) < 0) {
+                            continue;
+                        }
+                        final UUID userId = new UUID(columns.uuidMost()[i], columns.uuidLeast()[i]);
+                        final NewAccount candidate = candidates.get(userId);
+                        if (candidate != null && columns.times()[i] < candidate.firstSeen()) {
+                            candidates.remove(userId);
+                        }
+                    }
+                }
+            }
+
+            final List<NewAccount> newAccounts = new ArrayList<>(candidates.values());
+            newAccounts.sort(Comparator.comparingLong(NewAccount::firstSeen));
+            return new ASHistory(ASNumber, firstHour * HOUR_MILLIS, hourlyJoins, joins, denied, players.size(), newAccounts);
+        }, this.queryExecutor);
+    }
+}
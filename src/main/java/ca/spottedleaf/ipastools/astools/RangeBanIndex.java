@@ -0,0 +1,306 @@
+package ca.spottedleaf.ipastools.astools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Immutable index over the address range bans of {@link ASBans}.
+ * <p>
+ * Addresses are 128-bit, with IPv4 addresses mapped into {@code ::ffff:0:0/96}. The ranges may overlap, so they are
+ * flattened into non-overlapping segments each mapping to the smallest range covering it. A lookup is then a single
+ * allocation-free binary search, independent of how the ranges nest.
+ * </p>
+ * <p>
+ * Expired ranges stay in the index until {@link ASBans} sweeps them, so each segment also keeps the larger ranges
+ * enclosing it. Once the smallest range has expired, the lookup falls back to the smallest of those still active.
+ * </p>
+ */
+final class RangeBanIndex {
+
+    private static final ASBans.RangeBanEntry[] NO_ENTRIES = new ASBans.RangeBanEntry[0];
+
+    static final RangeBanIndex EMPTY = new RangeBanIndex(NO_ENTRIES);
+
+    // in insertion order
+    private final ASBans.RangeBanEntry[] entries;
+
+    // segments, stored as [high, low] pairs with the sign bits flipped so that signed comparison orders them correctly
+    private final long[] segmentStarts;
+    private final long[] segmentEnds; // inclusive
+    private final long[] segmentExpires;
+    private final ASBans.RangeBanEntry[] segmentEntries;
+    // the other ranges covering each segment, smallest first, up to the first which never expires
+    private final ASBans.RangeBanEntry[][] segmentEnclosing;
+
+    int size() {
+        return this.entries.length;
+    }
+
+    private RangeBanIndex(final ASBans.RangeBanEntry[] entries) {
+        this.entries = entries;
+
+        // every segment boundary is either a range start or the address after a range end
+        final long[] boundaries = new long[entries.length << 2];
+        int boundaryCount = 0;
+        for (final ASBans.RangeBanEntry entry : entries) {
+            boundaries[boundaryCount << 1] = entry.startHigh();
+            boundaries[(boundaryCount << 1) | 1] = entry.startLow();
+            ++boundaryCount;
+            if (entry.endHigh() != -1L || entry.endLow() != -1L) {
+                final long endLow = entry.endLow() + 1L;
+                boundaries[boundaryCount << 1] = endLow == 0L ? entry.endHigh() + 1L : entry.endHigh();
+                boundaries[(boundaryCount << 1) | 1] = endLow;
+                ++boundaryCount;
+            }
+        }
+        final int uniqueBoundaries = sortUnique(boundaries, boundaryCount);
+
+        final long[] starts = new long[uniqueBoundaries << 1];
+        final long[] ends = new long[uniqueBoundaries << 1];
+        final ASBans.RangeBanEntry[] segmentEntries = new ASBans.RangeBanEntry[uniqueBoundaries];
+        final ASBans.RangeBanEntry[][] segmentEnclosing = new ASBans.RangeBanEntry[uniqueBoundaries][];
+        int segments = 0;
+
+        // sweep the boundaries in order, keeping the ranges started so far in a heap ordered by size, where ties
+        // are won by the range added last
+        final Integer[] byStart = new Integer[entries.length];
+        for (int i = 0; i < entries.length; ++i) {
+            byStart[i] = Integer.valueOf(i);
+        }
+        Arrays.sort(byStart, (final Integer i1, final Integer i2) -> {
+            final ASBans.RangeBanEntry e1 = entries[i1.intValue()];
+            final ASBans.RangeBanEntry e2 = entries[i2.intValue()];
+            return compare(e1.startHigh(), e1.startLow(), e2.startHigh(), e2.startLow());
+        });
+        final Comparator<Integer> bySize = (final Integer i1, final Integer i2) -> {
+            final int cmp = compareSize(entries[i1.intValue()], entries[i2.intValue()]);
+            return cmp != 0 ? cmp : Integer.compare(i2.intValue(), i1.intValue());
+        };
+        final PriorityQueue<Integer> started = new PriorityQueue<>(bySize);
+        int nextStart = 0;
+
+        for (int i = 0; i < uniqueBoundaries; ++i) {
+            final long startHigh = boundaries[i << 1];
+            final long startLow = boundaries[(i << 1) | 1];
+
+            while (nextStart < byStart.length) {
+                final ASBans.RangeBanEntry entry = entries[byStart[nextStart].intValue()];
+                if (compare(entry.startHigh(), entry.startLow(), startHigh, startLow) > 0) {
+                    break;
+                }
+                started.add(byStart[nextStart++]);
+            }
+            // only the smallest range is used, so ranges which have ended are left in the queue until they are the smallest
+            while (!started.isEmpty()) {
+                final ASBans.RangeBanEntry entry = entries[started.peek().intValue()];
+                if (compare(entry.endHigh(), entry.endLow(), startHigh, startLow) >= 0) {
+                    break;
+                }
+                started.poll();
+            }
+
+            // ranges are never split inside a segment, so any range covering its start covers all of it
+            if (started.isEmpty()) {
+                continue;
+            }
+            final ASBans.RangeBanEntry smallest = entries[started.peek().intValue()];
+            final ASBans.RangeBanEntry[] enclosing = smallest.expire() == null
+                    ? NO_ENTRIES : collectEnclosing(entries, started, bySize, startHigh, startLow);
+
+            final long endHigh;
+            final long endLow;
+            if (i + 1 < uniqueBoundaries) {
+                final long nextHigh = boundaries[(i + 1) << 1];
+                final long nextLow = boundaries[((i + 1) << 1) | 1];
+                endLow = nextLow - 1L;
+                endHigh = nextLow == 0L ? nextHigh - 1L : nextHigh;
+            } else {
+                endHigh = -1L;
+                endLow = -1L;
+            }
+
+            if (segments != 0 && segmentEntries[segments - 1] == smallest && Arrays.equals(segmentEnclosing[segments - 1], enclosing)) {
+                // adjacent, as the boundaries are contiguous
+                ends[(segments - 1) << 1] = endHigh ^ Long.MIN_VALUE;
+                ends[((segments - 1) << 1) | 1] = endLow ^ Long.MIN_VALUE;
+                continue;
+            }
+
+            starts[segments << 1] = startHigh ^ Long.MIN_VALUE;
+            starts[(segments << 1) | 1] = startLow ^ Long.MIN_VALUE;
+            ends[segments << 1] = endHigh ^ Long.MIN_VALUE;
+            ends[(segments << 1) | 1] = endLow ^ Long.MIN_VALUE;
+            segmentEntries[segments] = smallest;
+            segmentEnclosing[segments] = enclosing;
+            ++segments;
+        }
+
+        this.segmentStarts = Arrays.copyOf(starts, segments << 1);
+        this.segmentEnds = Arrays.copyOf(ends, segments << 1);
+        this.segmentEntries = Arrays.copyOf(segmentEntries, segments);
+        this.segmentEnclosing = Arrays.copyOf(segmentEnclosing, segments);
+        this.segmentExpires = new long[segments];
+        for (int i = 0; i < segments; ++i) {
+            this.segmentExpires[i] = this.segmentEntries[i].expireMillis();
+        }
+    }
+
+    // returns the ranges in the heap which cover the address other than the smallest, smallest first, up to the first
+    // which never expires as no range after it can be used
+    private static ASBans.RangeBanEntry[] collectEnclosing(final ASBans.RangeBanEntry[] entries, final PriorityQueue<Integer> started,
+                                                           final Comparator<Integer> bySize, final long high, final long low) {
+        final Integer[] covering = started.toArray(new Integer[0]);
+        Arrays.sort(covering, bySize);
+
+        final List<ASBans.RangeBanEntry> ret = new ArrayList<>();
+        // the first is the smallest, which the heap guarantees has not ended
+        for (int i = 1; i < covering.length; ++i) {
+            final ASBans.RangeBanEntry entry = entries[covering[i].intValue()];
+            if (compare(entry.endHigh(), entry.endLow(), high, low) < 0) {
+                // ended, but not yet removed from the heap
+                continue;
+            }
+            ret.add(entry);
+            if (entry.expire() == null) {
+                break;
+            }
+        }
+
+        return ret.isEmpty() ? NO_ENTRIES : ret.toArray(NO_ENTRIES);
+    }
+
+    private static int compare(final long high1, final long low1, final long high2, final long low2) {
+        final int cmp = Long.compareUnsigned(high1, high2);
+        return cmp != 0 ? cmp : Long.compareUnsigned(low1, low2);
+    }
+
+    // compares the number of addresses covered by the ranges, minus one
+    private static int compareSize(final ASBans.RangeBanEntry e1, final ASBans.RangeBanEntry e2) {
+        final long low1 = e1.endLow() - e1.startLow();
+        final long high1 = e1.endHigh() - e1.startHigh() - (Long.compareUnsigned(e1.endLow(), e1.startLow()) < 0 ? 1L : 0L);
+        final long low2 = e2.endLow() - e2.startLow();
+        final long high2 = e2.endHigh() - e2.startHigh() - (Long.compareUnsigned(e2.endLow(), e2.startLow()) < 0 ? 1L : 0L);
+        return compare(high1, low1, high2, low2);
+    }
+
+    // sorts the [high, low] pairs in [0, count) and removes duplicates, returns the new count
+    private static int sortUnique(final long[] pairs, final int count) {
+        final Integer[] order = new Integer[count];
+        for (int i = 0; i < count; ++i) {
+            order[i] = Integer.valueOf(i);
+        }
+        Arrays.sort(order, (final Integer i1, final Integer i2) -> {
+            final int k1 = i1.intValue();
+            final int k2 = i2.intValue();
+            return compare(pairs[k1 << 1], pairs[(k1 << 1) | 1], pairs[k2 << 1], pairs[(k2 << 1) | 1]);
+        });
+
+        final long[] sorted = new long[count << 1];
+        int unique = 0;
+        for (int i = 0; i < count; ++i) {
+            final int k = order[i].intValue();
+            final long high = pairs[k << 1];
+            final long low = pairs[(k << 1) | 1];
+            if (unique != 0 && sorted[(unique - 1) << 1] == high && sorted[((unique - 1) << 1) | 1] == low) {
+                continue;
+            }
+            sorted[unique << 1] = high;
+            sorted[(unique << 1) | 1] = low;
+            ++unique;
+        }
+        System.arraycopy(sorted, 0, pairs, 0, unique << 1);
+        return unique;
+    }
+
+    /**
+     * Returns the kick reason of the most specific range containing the address which has not expired, or {@code null}
+     * if there is none.
+     */
+    String getKickReason(final long high, final long low, final long now) {
+        final long flippedHigh = high ^ Long.MIN_VALUE;
+        final long flippedLow = low ^ Long.MIN_VALUE;
+
+        // find the last segment with start <= address
+        int lo = 0;
+        int hi = this.segmentEntries.length - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            final long startHigh = this.segmentStarts[mid << 1];
+            if (startHigh < flippedHigh || (startHigh == flippedHigh && this.segmentStarts[(mid << 1) | 1] <= flippedLow)) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        if (hi < 0) {
+            return null;
+        }
+
+        final long endHigh = this.segmentEnds[hi << 1];
+        if (endHigh < flippedHigh || (endHigh == flippedHigh && this.segmentEnds[(hi << 1) | 1] < flippedLow)) {
+            return null;
+        }
+
+        if (this.segmentExpires[hi] >= now) {
+            return this.segmentEntries[hi].kickReason();
+        }
+
+        // the smallest range has expired but has not been swept yet
+        for (final ASBans.RangeBanEntry entry : this.segmentEnclosing[hi]) {
+            if (!entry.hasExpired(now)) {
+                return entry.kickReason();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates an index over the specified entries, where a later entry replaces an earlier one with the same target.
+     */
+    static RangeBanIndex of(final List<ASBans.RangeBanEntry> entries) {
+        final Map<String, ASBans.RangeBanEntry> byTarget = new LinkedHashMap<>();
+        for (final ASBans.RangeBanEntry entry : entries) {
+            byTarget.remove(entry.target());
+            byTarget.put(entry.target(), entry);
+        }
+        return new RangeBanIndex(byTarget.values().toArray(new ASBans.RangeBanEntry[0]));
+    }
+
+    ASBans.RangeBanEntry get(final String target) {
+        for (final ASBans.RangeBanEntry entry : this.entries) {
+            if (entry.target().equals(target)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    ASBans.RangeBanEntry[] getEntries() {
+        return this.entries.clone();
+    }
+
+    RangeBanIndex with(final ASBans.RangeBanEntry entry) {
+        final RangeBanIndex without = this.without(entry.target());
+        final ASBans.RangeBanEntry[] entries = Arrays.copyOf(without.entries, without.entries.length + 1);
+        entries[entries.length - 1] = entry;
+        return new RangeBanIndex(entries);
+    }
+
+    RangeBanIndex without(final String target) {
+        for (int i = 0; i < this.entries.length; ++i) {
+            if (this.entries[i].target().equals(target)) {
+                final ASBans.RangeBanEntry[] entries = new ASBans.RangeBanEntry[this.entries.length - 1];
+                System.arraycopy(this.entries, 0, entries, 0, i);
+                System.arraycopy(this.entries, i + 1, entries, i, entries.length - i);
+                return new RangeBanIndex(entries);
+            }
+        }
+        return this;
+    }
+}
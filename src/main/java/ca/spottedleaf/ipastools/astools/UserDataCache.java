@@ -0,0 +1,296 @@
+package ca.spottedleaf.ipastools.astools;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cache of released {@link ASPlayerState}s, so that reconnecting players do not have to be read from storage.
+ * <p>
+ * The cache is bounded by weight, where the weight of a state is one plus its number of login history entries. It is
+ * split into independently locked stripes by user id. Each stripe follows W-TinyLFU: released states enter a small
+ * window, and a state leaving the window only replaces the oldest state of the main area if it has been looked up more
+ * often recently, as estimated by a count-min sketch of lookups. A burst of one-off logins can then only flush the
+ * window, not the players who reconnect often.
+ * </p>
+ * <p>
+ * States leave the cache when looked up, since they are then acquired again.
+ * </p>
+ */
+public final class UserDataCache {
+
+    private static final int MAX_STRIPES = 16;
+    // stripes should be large enough that admission still has a choice of victims
+    private static final long MIN_STRIPE_WEIGHT = 1024L;
+
+    private final Stripe[] stripes;
+    private final long maxWeight;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public UserDataCache(final long maxWeight) {
+        this.maxWeight = Math.max(1L, maxWeight);
+
+        final int stripes = Integer.highestOneBit((int)Math.max(1L, Math.min((long)MAX_STRIPES, this.maxWeight / MIN_STRIPE_WEIGHT)));
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; ++i) {
+            this.stripes[i] = new Stripe(Math.max(1L, this.maxWeight / stripes));
+        }
+    }
+
+    public static record Stats(long hits, long misses, long evictions, int size, long weight, long maxWeight) {
+
+        public double hitRate() {
+            final long lookups = this.hits + this.misses;
+            return lookups == 0L ? 0.0 : (double)this.hits / (double)lookups;
+        }
+    }
+
+    private static int hash(final UUID userId) {
+        // murmur3 finalizer, uuid hashCode is only an xor of its halves
+        long h = userId.getMostSignificantBits() ^ Long.rotateLeft(userId.getLeastSignificantBits(), 32);
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return (int)h;
+    }
+
+    private Stripe getStripe(final int hash) {
+        // the sketch uses the low bits
+        return this.stripes[(hash >>> 24) & (this.stripes.length - 1)];
+    }
+
+    // MT-Safe
+    void put(final UUID userId, final ASPlayerState state) {
+        this.put(userId, state, false);
+    }
+
+    /**
+     * Caches a state read ahead of being acquired. The read counts as a lookup, as the acquire is expected shortly, so
+     * that admission does not reject the state as never looked up.
+     */
+    // MT-Safe
+    void putPrefetched(final UUID userId, final ASPlayerState state) {
+        this.put(userId, state, true);
+    }
+
+    private void put(final UUID userId, final ASPlayerState state, final boolean prefetched) {
+        final int hash = hash(userId);
+        final int weight = 1 + state.getLoginHistorySize();
+        final Stripe stripe = this.getStripe(hash);
+        final int evicted;
+        synchronized (stripe) {
+            if (prefetched) {
+                stripe.sketch.increment(hash);
+            }
+            evicted = stripe.put(userId, hash, state, weight);
+        }
+        if (evicted != 0) {
+            this.evictions.add((long)evicted);
+        }
+    }
+
+    /**
+     * Removes and returns the cached state of the specified user, or {@code null} if it is not cached.
+     */
+    // MT-Safe
+    ASPlayerState remove(final UUID userId) {
+        final int hash = hash(userId);
+        final Stripe stripe = this.getStripe(hash);
+        final ASPlayerState ret;
+        synchronized (stripe) {
+            ret = stripe.remove(userId, hash);
+        }
+        (ret == null ? this.misses : this.hits).increment();
+        return ret;
+    }
+
+    // MT-Safe, does not count as a lookup
+    boolean contains(final UUID userId) {
+        final Stripe stripe = this.getStripe(hash(userId));
+        synchronized (stripe) {
+            return stripe.window.containsKey(userId) || stripe.main.containsKey(userId);
+        }
+    }
+
+    // lock-free, so the values may be slightly inconsistent
+    public Stats getStats() {
+        int size = 0;
+        long weight = 0L;
+        for (final Stripe stripe : this.stripes) {
+            size += stripe.size;
+            weight += stripe.weight;
+        }
+        return new Stats(this.hits.sum(), this.misses.sum(), this.evictions.sum(), size, weight, this.maxWeight);
+    }
+
+    private static record Node(ASPlayerState state, int hash, int weight) {}
+
+    // all access synchronised on the stripe
+    private static final class Stripe {
+
+        // oldest first
+        private final LinkedHashMap<UUID, Node> window = new LinkedHashMap<>();
+        private final LinkedHashMap<UUID, Node> main = new LinkedHashMap<>();
+        private final long maxWindowWeight;
+        private final long maxMainWeight;
+        private long windowWeight;
+        private long mainWeight;
+        // copies for stats, only written while synchronised
+        private volatile int size;
+        private volatile long weight;
+
+        private final FrequencySketch sketch;
+
+        private Stripe(final long maxWeight) {
+            // 1% window, as W-TinyLFU suggests
+            this.maxWindowWeight = Math.max(1L, maxWeight / 100L);
+            this.maxMainWeight = Math.max(1L, maxWeight - this.maxWindowWeight);
+            this.sketch = new FrequencySketch(maxWeight);
+        }
+
+        private ASPlayerState remove(final UUID userId, final int hash) {
+            this.sketch.increment(hash);
+            final ASPlayerState ret = this.removeNode(userId);
+            if (ret != null) {
+                this.updateStats();
+            }
+            return ret;
+        }
+
+        private void updateStats() {
+            this.size = this.window.size() + this.main.size();
+            this.weight = this.windowWeight + this.mainWeight;
+        }
+
+        private ASPlayerState removeNode(final UUID userId) {
+            Node node = this.window.remove(userId);
+            if (node != null) {
+                this.windowWeight -= node.weight;
+                return node.state;
+            }
+            node = this.main.remove(userId);
+            if (node != null) {
+                this.mainWeight -= node.weight;
+                return node.state;
+            }
+            return null;
+        }
+
+        // returns the number of states evicted
+        private int put(final UUID userId, final int hash, final ASPlayerState state, final int weight) {
+            // states are removed when acquired, so any previous state is stale
+            this.removeNode(userId);
+
+            this.window.put(userId, new Node(state, hash, weight));
+            this.windowWeight += weight;
+
+            int evicted = 0;
+            while (this.windowWeight > this.maxWindowWeight) {
+                final Iterator<Map.Entry<UUID, Node>> iterator = this.window.entrySet().iterator();
+                final Map.Entry<UUID, Node> oldest = iterator.next();
+                iterator.remove();
+                final Node candidate = oldest.getValue();
+                this.windowWeight -= candidate.weight;
+
+                evicted += this.admit(oldest.getKey(), candidate);
+            }
+            this.updateStats();
+            return evicted;
+        }
+
+        // returns the number of states evicted
+        private int admit(final UUID userId, final Node candidate) {
+            if (candidate.weight > this.maxMainWeight) {
+                return 1;
+            }
+
+            final int candidateFrequency = this.sketch.frequency(candidate.hash);
+
+            // find the victims which make room, oldest first
+            long freed = this.maxMainWeight - this.mainWeight;
+            int victims = 0;
+            for (final Iterator<Node> iterator = this.main.values().iterator(); freed < candidate.weight && iterator.hasNext();) {
+                final Node victim = iterator.next();
+                if (this.sketch.frequency(victim.hash) >= candidateFrequency) {
+                    // keep the main area, the candidate is not accessed often enough
+                    return 1;
+                }
+                freed += victim.weight;
+                ++victims;
+            }
+
+            final Iterator<Node> iterator = this.main.values().iterator();
+            for (int i = 0; i < victims; ++i) {
+                this.mainWeight -= iterator.next().weight;
+                iterator.remove();
+            }
+
+            this.main.put(userId, candidate);
+            this.mainWeight += candidate.weight;
+            return victims;
+        }
+    }
+
+    // count-min sketch of 4 rows of saturating byte counters, all halved periodically so that old lookups fade
+    private static final class FrequencySketch {
+
+        private static final int MAX_FREQUENCY = 15;
+        private static final int MAX_WIDTH = 1 << 18;
+        private static final int WIDTH_MULTIPLIER = 4;
+        private static final int[] SEEDS = new int[] { 0x97CB3127, 0xB7D9A3E5, 0x2C1B3C6D, 0x6F3B5A2D };
+
+        private final byte[][] rows;
+        private final int mask;
+        private final int sampleSize;
+        private int samples;
+
+        private FrequencySketch(final long expectedEntries) {
+            final int entries = (int)Math.max(1L, Math.min((long)MAX_WIDTH, expectedEntries));
+            // most keys seen in a sample period are one-off, so the rows need to be wider than the entry count
+            final int width = Math.min(MAX_WIDTH, Integer.highestOneBit(entries * WIDTH_MULTIPLIER * 2 - 1));
+            this.rows = new byte[SEEDS.length][width];
+            this.mask = width - 1;
+            this.sampleSize = 10 * entries;
+        }
+
+        private int index(final int hash, final int row) {
+            final int h = (hash ^ SEEDS[row]) * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & this.mask;
+        }
+
+        private void increment(final int hash) {
+            boolean added = false;
+            for (int row = 0; row < this.rows.length; ++row) {
+                final int index = this.index(hash, row);
+                if (this.rows[row][index] < MAX_FREQUENCY) {
+                    ++this.rows[row][index];
+                    added = true;
+                }
+            }
+
+            if (added && ++this.samples >= this.sampleSize) {
+                this.samples /= 2;
+                for (final byte[] counters : this.rows) {
+                    for (int i = 0; i < counters.length; ++i) {
+                        counters[i] >>>= 1;
+                    }
+                }
+            }
+        }
+
+        private int frequency(final int hash) {
+            int ret = MAX_FREQUENCY;
+            for (int row = 0; row < this.rows.length; ++row) {
+                ret = Math.min(ret, this.rows[row][this.index(hash, row)]);
+            }
+            return ret;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package ca.spottedleaf.ipastools.astools;
+
+import ca.spottedleaf.ipastools.IPASTools;
+import ca.spottedleaf.ipastools.storage.UserDataStorage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * Write-behind queue for released {@link ASPlayerState}s.
+ * <p>
+ * Releasing dirty user data only queues it, so that no I/O happens while the user data map is locked. The queue is
+ * written out in batches, once per interval or as soon as it holds a batch worth of states, and every batch is made
+ * durable with a single {@link UserDataStorage#flush()}. A state released again before its batch is written is only
+ * written once.
+ * </p>
+ */
+public final class UserDataSaveQueue {
+
+    private final ScheduledExecutorService executor;
+    private final int batchSize;
+
+    private final ConcurrentHashMap<UUID, ASPlayerState> pending = new ConcurrentHashMap<>();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final Object flushLock = new Object();
+
+    // all below only written while holding flushLock
+    private volatile long flushes;
+    private volatile long statesWritten;
+    private volatile long failures;
+    private volatile long lastFlushNanos;
+    private volatile long maxFlushNanos;
+
+    /**
+     * @param executor The executor batches are written on, which the queue schedules its periodic flush on.
+     * @param intervalMillis The maximum time a released state stays queued.
+     * @param batchSize The number of queued states which triggers a flush before the interval has elapsed.
+     */
+    public UserDataSaveQueue(final ScheduledExecutorService executor, final long intervalMillis, final int batchSize) {
+        this.executor = executor;
+        this.batchSize = Math.max(1, batchSize);
+        this.executor.scheduleWithFixedDelay(this::flush, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static record Stats(int queueDepth, long flushes, long statesWritten, long failures, long lastFlushNanos, long maxFlushNanos) {}
+
+    // MT-Safe, does no I/O
+    void schedule(final ASPlayerState state) {
+        this.pending.put(state.userUniqueId, state);
+        if (this.pending.size() >= this.batchSize && !this.flushRequested.getAndSet(true)) {
+            this.executor.execute(this::flush);
+        }
+    }
+
+    // MT-Safe
+    ASPlayerState getPending(final UUID userId) {
+        return this.pending.get(userId);
+    }
+
+    // MT-Safe
+    List<ASPlayerState> getPendingStates() {
+        return new ArrayList<>(this.pending.values());
+    }
+
+    public int getQueueDepth() {
+        return this.pending.size();
+    }
+
+    /**
+     * Writes every queued state and flushes the storage.
+     */
+    public void flush() {
+        this.flushRequested.set(false);
+        synchronized (this.flushLock) {
+            if (this.pending.isEmpty()) {
+                return;
+            }
+
+            final long start = System.nanoTime();
+            int written = 0;
+            int failed = 0;
+            // states queued during the flush are left for the next one, so that a flush is bounded
+            final ASPlayerState[] batch = this.pending.values().toArray(new ASPlayerState[0]);
+            for (final ASPlayerState state : batch) {
+                if (!state.save()) {
+                    // retried next flush
+                    ++failed;
+                    continue;
+                }
+                ++written;
+                // a state dirtied again after saving must have been acquired since, so it will be queued again on its
+                // next release if this removes it
+                this.pending.computeIfPresent(state.userUniqueId, (final UUID keyInMap, final ASPlayerState queued) -> {
+                    return queued == state && !state.isDirty() ? null : queued;
+                });
+            }
+
+            try {
+                ASPlayerState.getStorage().flush();
+            } catch (final IOException ex) {
+                IPASTools.getInstance().getLogger().log(Level.SEVERE, "Failed to flush user data storage", ex);
+            }
+
+            final long elapsed = System.nanoTime() - start;
+            ++this.flushes;
+            this.statesWritten += written;
+            this.failures += failed;
+            this.lastFlushNanos = elapsed;
+            this.maxFlushNanos = Math.max(this.maxFlushNanos, elapsed);
+
+            if (failed != 0) {
+                IPASTools.getInstance().getLogger().warning("Failed to save user data for " + failed + " players, retrying next flush");
+            }
+        }
+    }
+
+    // does not block on a flush in progress, so the values may be from different flushes
+    public Stats getStats() {
+        return new Stats(this.pending.size(), this.flushes, this.statesWritten, this.failures, this.lastFlushNanos, this.maxFlushNanos);
+    }
+}
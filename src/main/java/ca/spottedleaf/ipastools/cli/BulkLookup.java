@@ -0,0 +1,169 @@
+package ca.spottedleaf.ipastools.cli;
+
+import ca.spottedleaf.ipastools.astools.ASLookupCache;
+import ca.spottedleaf.ipastools.astools.ASNameTable;
+import ca.spottedleaf.ipastools.astools.IPv4PrefixIndex;
+import ca.spottedleaf.ipastools.astools.IPv6PrefixIndex;
+import ca.spottedleaf.ipastools.util.Util;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Command line entry point of the plugin jar, which annotates addresses with their AS using an {@code aslookup.cache}
+ * written by the plugin, without starting a server.
+ * <p>
+ * Lines are read in batches. The IPv4 addresses of a batch go through {@link IPv4PrefixIndex#lookupASNumbers(int[], int[])}
+ * and IPv6 addresses are looked up one by one. Every input line is written back followed by a tab, the AS number and
+ * another tab and the AS name. The AS number is 0 if no prefix matched, or {@code -} if the line has no address.
+ * </p>
+ */
+public final class BulkLookup {
+
+    private static final int BATCH_SIZE = 1 << 16;
+
+    private static final String USAGE = """
+            Usage: java -jar IPASTools.jar [--cache <aslookup.cache>] [input file]
+              Reads lines from the input file, or stdin if it is absent or '-', and writes each line followed by
+              <tab><AS number><tab><AS name> to stdout. The address is the first field of the line, up to the first
+              whitespace or comma. The cache defaults to aslookup.cache in the working directory""";
+
+    private final IPv4PrefixIndex ipv4;
+    private final IPv6PrefixIndex ipv6;
+    private final ASNameTable names;
+
+    private final String[] lines = new String[BATCH_SIZE];
+    private final int[] ASNumbers = new int[BATCH_SIZE];
+    private final int[] ipv4Addresses = new int[BATCH_SIZE];
+    private final int[] ipv4Lines = new int[BATCH_SIZE];
+    private final int[] ipv4ASNumbers = new int[BATCH_SIZE];
+
+    private BulkLookup(final ASLookupCache.Contents contents) {
+        this.ipv4 = contents.ipv4();
+        this.ipv6 = contents.ipv6();
+        this.names = contents.names();
+    }
+
+    public static void main(final String[] args) throws IOException {
+        File cacheFile = new File("aslookup.cache");
+        String input = "-";
+        for (int i = 0; i < args.length; ++i) {
+            final String arg = args[i];
+            if (arg.equals("--help") || arg.equals("-h")) {
+                System.out.println(USAGE);
+                return;
+            } else if (arg.equals("--cache") && i + 1 < args.length) {
+                cacheFile = new File(args[++i]);
+            } else if (arg.startsWith("-") && !arg.equals("-")) {
+                System.err.println("Unknown option: " + arg);
+                System.err.println(USAGE);
+                System.exit(2);
+                return;
+            } else {
+                input = arg;
+            }
+        }
+
+        if (!cacheFile.isFile() || !ASLookupCache.isBinaryCache(cacheFile)) {
+            System.err.println("No AS lookup cache at '" + cacheFile.getAbsolutePath() + "', start the plugin once to create it");
+            System.err.println(USAGE);
+            System.exit(1);
+            return;
+        }
+
+        final ASLookupCache.Contents contents = ASLookupCache.read(cacheFile, IPv4PrefixIndex.Engine.SORTED_RANGES);
+        if (contents.invalidateTime() < System.currentTimeMillis()) {
+            System.err.println("Warning: the AS lookup cache is out of date, results may be stale");
+        }
+
+        final InputStream in = input.equals("-") ? System.in : new FileInputStream(input);
+        try (final BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 65536);
+             final Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 65536)) {
+            new BulkLookup(contents).run(reader, writer);
+        }
+    }
+
+    private void run(final BufferedReader reader, final Writer writer) throws IOException {
+        for (;;) {
+            int count = 0;
+            for (String line; count < BATCH_SIZE && (line = reader.readLine()) != null;) {
+                this.lines[count++] = line;
+            }
+            if (count == 0) {
+                return;
+            }
+            this.lookupBatch(count);
+            this.writeBatch(count, writer);
+        }
+    }
+
+    private static String addressField(final String line) {
+        int end = 0;
+        while (end < line.length()) {
+            final char c = line.charAt(end);
+            if (c == ',' || Character.isWhitespace(c)) {
+                break;
+            }
+            ++end;
+        }
+        return line.substring(0, end);
+    }
+
+    private void lookupBatch(final int count) {
+        int ipv4Count = 0;
+        for (int i = 0; i < count; ++i) {
+            final String address = addressField(this.lines[i]);
+            int ASNumber = -1;
+            try {
+                if (address.indexOf(':') != -1) {
+                    final byte[] ip = Util.getIPv6Address(address);
+                    ASNumber = this.ipv6.lookupASNumber(Util.getIPv6High(ip), Util.getIPv6Low(ip));
+                } else if (!address.isEmpty()) {
+                    this.ipv4Addresses[ipv4Count] = Util.getAddress(address);
+                    this.ipv4Lines[ipv4Count++] = i;
+                }
+            } catch (final IllegalArgumentException ex) {
+                // not an address, left as -1
+            }
+            this.ASNumbers[i] = ASNumber;
+        }
+
+        if (ipv4Count == this.ipv4Addresses.length) {
+            this.ipv4.lookupASNumbers(this.ipv4Addresses, this.ipv4ASNumbers);
+        } else {
+            final int[] addresses = Arrays.copyOf(this.ipv4Addresses, ipv4Count);
+            this.ipv4.lookupASNumbers(addresses, this.ipv4ASNumbers);
+        }
+        for (int i = 0; i < ipv4Count; ++i) {
+            this.ASNumbers[this.ipv4Lines[i]] = this.ipv4ASNumbers[i];
+        }
+    }
+
+    private void writeBatch(final int count, final Writer writer) throws IOException {
+        for (int i = 0; i < count; ++i) {
+            final int ASNumber = this.ASNumbers[i];
+            writer.write(this.lines[i]);
+            writer.write('\t');
+            if (ASNumber == -1) {
+                writer.write("-\t");
+            } else {
+                writer.write(Integer.toUnsignedString(ASNumber));
+                writer.write('\t');
+                final String name = ASNumber == 0 ? null : this.names.getName(ASNumber);
+                if (name != null) {
+                    writer.write(name);
+                }
+            }
+            writer.write('\n');
+            this.lines[i] = null;
+        }
+    }
+}
@@ -39,7 +39,11 @@ public final class ASCommand implements TabExecutor {
                 "reload", new ASCommandReload(plugin),
                 "lookup", new ASCommandLookup(plugin),
                 "ban", new ASCommandBan(plugin),
-                "unban", new ASCommandUnBan(plugin)
+                "unban", new ASCommandUnBan(plugin),
+                "alts", new ASCommandAlts(plugin),
+                "stats", new ASCommandStats(),
+                "history", new ASCommandHistory(plugin),
+                "top", new ASCommandTop(plugin)
         );
     }
 
@@ -0,0 +1,219 @@
+package ca.spottedleaf.ipastools.command;
+
+import ca.spottedleaf.ipastools.IPASTools;
+import ca.spottedleaf.ipastools.astools.ASAltIndex;
+import ca.spottedleaf.ipastools.astools.ASBans;
+import ca.spottedleaf.ipastools.astools.ASPlayerState;
+import ca.spottedleaf.ipastools.util.Util;
+import net.kyori.adventure.text.Component;
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Entity;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+
+import static ca.spottedleaf.ipastools.command.ASCommand.*;
+
+public final class ASCommandAlts implements ASCommand.ASSubCommand {
+
+    private static final int MAX_LISTED = 50;
+
+    private final IPASTools plugin;
+
+    public ASCommandAlts(final IPASTools plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public Component getHelp() {
+        return Component.text()
+                .append(Component.text().content("Arguments: ").color(HELP_DESCRIPTION_COLOUR))
+                .append(
+                        Component.text().content("<target: one of uuid, player name, ip address, AS number, or address range>").color(REQUIRED_ARG_COLOUR)
+                                .hoverEvent(
+                                        Component.text()
+                                                .content(
+                                                        """
+                                                                The alt lookup target, required argument.
+                                                                Example: /as alts 853c80ef-3c37-49fd-aa49-938b674adae6 - Lists players sharing an address with the player
+                                                                Example: /as alts jeb_ - Lists players sharing an address with the player
+                                                                Example: /as alts 1.1.1.1 - Lists players who have used the IP
+                                                                Example: /as alts 2606:4700:4700::1111 - Lists players who have used the IP
+                                                                Example: /as alts 13335 - Lists players who have used the AS number
+                                                                Example: /as alts 1.1.1.0/24 - Lists players who have used an address in the CIDR prefix
+                                                                Example: /as alts 1.1.1.0-1.1.1.127 - Lists players who have used an address in the inclusive range
+                                                                """
+                                                )
+                                                .color(HELP_DESCRIPTION_COLOUR)
+                                                .build()
+                                )
+                )
+                .append(
+                        Component.text().content(" - Lists the players which have logged in from the same addresses or AS.")
+                                .color(HELP_DESCRIPTION_COLOUR)
+                )
+                .build();
+    }
+
+    private static String describe(final UUID playerId) {
+        final OfflinePlayer player = Bukkit.getOfflinePlayer(playerId);
+        final String name = player == null ? null : player.getName();
+        return name == null ? playerId.toString() : name + " (" + playerId + ")";
+    }
+
+    private static List<Component> describePlayers(final String input, final List<UUID> players) {
+        final List<Component> ret = new ArrayList<>();
+        if (players.isEmpty()) {
+            ret.add(Component.text().content("No players have logged in from '" + input + "'").color(COMMAND_ERROR_COLOUR).build());
+            return ret;
+        }
+
+        ret.add(Component.text().content(players.size() + " players have logged in from '" + input + "':").color(COMMAND_SUCCESS_COLOUR).build());
+        for (int i = 0, len = Math.min(players.size(), MAX_LISTED); i < len; ++i) {
+            ret.add(Component.text().content(" " + describe(players.get(i))).color(COMMAND_SUCCESS_COLOUR).build());
+        }
+        if (players.size() > MAX_LISTED) {
+            ret.add(Component.text().content(" and " + (players.size() - MAX_LISTED) + " more").color(COMMAND_SUCCESS_COLOUR).build());
+        }
+        return ret;
+    }
+
+    private static List<Component> describeAlts(final String input, final List<ASAltIndex.Alt> alts) {
+        final List<Component> ret = new ArrayList<>();
+        if (alts.isEmpty()) {
+            ret.add(Component.text().content("No players share an address with '" + input + "'").color(COMMAND_ERROR_COLOUR).build());
+            return ret;
+        }
+
+        ret.add(Component.text().content(alts.size() + " players share an address with '" + input + "':").color(COMMAND_SUCCESS_COLOUR).build());
+        for (int i = 0, len = Math.min(alts.size(), MAX_LISTED); i < len; ++i) {
+            final ASAltIndex.Alt alt = alts.get(i);
+            ret.add(
+                    Component.text()
+                            .content(" " + describe(alt.userId()) + " - " + alt.sharedAddresses() + " shared addresses")
+                            .color(COMMAND_SUCCESS_COLOUR)
+                            .build()
+            );
+        }
+        if (alts.size() > MAX_LISTED) {
+            ret.add(Component.text().content(" and " + (alts.size() - MAX_LISTED) + " more").color(COMMAND_SUCCESS_COLOUR).build());
+        }
+        return ret;
+    }
+
+    private void reply(final CommandSender sender, final List<Component> messages) {
+        final Runnable send = () -> {
+            for (final Component message : messages) {
+                sender.sendMessage(message);
+            }
+        };
+        if (sender instanceof Entity entity) {
+            entity.getScheduler().execute(this.plugin, send, null, 1L);
+        } else {
+            Bukkit.getGlobalRegionScheduler().execute(this.plugin, send);
+        }
+    }
+
+    // the index scans and the player name lookups are too slow for the command thread
+    private void query(final CommandSender sender, final CompletableFuture<List<Component>> result) {
+        result.thenAccept((final List<Component> messages) -> {
+            ASCommandAlts.this.reply(sender, messages);
+        }).exceptionally((final Throwable throwable) -> {
+            ASCommandAlts.this.plugin.getLogger().log(Level.WARNING, "Alt lookup failed", throwable);
+            ASCommandAlts.this.reply(
+                    sender, List.of(Component.text().content("Alt lookup failed, check the server log").color(COMMAND_ERROR_COLOUR).build())
+            );
+            return null;
+        });
+    }
+
+    @Override
+    public boolean onCommand(@NotNull final CommandSender sender, @NotNull final Command command, @NotNull final String label,
+                             @NotNull final String[] args) {
+        if (args.length == 0) {
+            sender.sendMessage(
+                    Component.text()
+                            .content("Must provide target: by uuid, player name, ip address, AS number, or address range")
+                            .color(COMMAND_ERROR_COLOUR)
+                            .build()
+            );
+            return true;
+        }
+
+        final ASAltIndex index = ASPlayerState.getAltIndex();
+        if (index == null) {
+            sender.sendMessage(Component.text().content("The alt index is not available, check the server log").color(COMMAND_ERROR_COLOUR).build());
+            return true;
+        }
+
+        final String input = args[0];
+
+        try {
+            final int ASNumber = Integer.parseInt(input);
+            this.query(sender, CompletableFuture.supplyAsync(() -> {
+                return describePlayers(input, index.getPlayersByAS(ASNumber));
+            }, IPASTools.GENERIC_IO_EXECUTOR));
+            return true;
+        } catch (final NumberFormatException ex) {
+            // not an AS number
+        }
+
+        if (ASBans.RangeBanEntry.isRangeTarget(input)) {
+            final ASBans.RangeBanEntry range;
+            try {
+                range = ASBans.RangeBanEntry.parse(input, "", null);
+            } catch (final IllegalArgumentException ex) {
+                sender.sendMessage(
+                        Component.text().content("Invalid address range '" + input + "': " + ex.getMessage()).color(COMMAND_ERROR_COLOUR).build()
+                );
+                return true;
+            }
+            this.query(sender, CompletableFuture.supplyAsync(() -> {
+                return describePlayers(range.target(), index.getPlayersInRange(range.startHigh(), range.startLow(), range.endHigh(), range.endLow()));
+            }, IPASTools.GENERIC_IO_EXECUTOR));
+            return true;
+        }
+
+        if (input.indexOf('.') != -1 || input.indexOf(':') != -1) {
+            final InetAddress address;
+            try {
+                address = Util.parseIP(input);
+            } catch (final IllegalArgumentException ex) {
+                sender.sendMessage(Component.text().content("Invalid ip address: " + input).color(COMMAND_ERROR_COLOUR).build());
+                return true;
+            }
+            this.query(sender, CompletableFuture.supplyAsync(() -> {
+                return describePlayers(input, index.getPlayersByAddress(address));
+            }, IPASTools.GENERIC_IO_EXECUTOR));
+            return true;
+        }
+
+        this.query(sender, ASCommandLookup.lookupPlayerId(input).thenApplyAsync((final UUID playerId) -> {
+            if (playerId == null) {
+                return List.of(Component.text().content("No player with name: " + input).color(COMMAND_ERROR_COLOUR).build());
+            }
+            return describeAlts(input, index.getAlts(playerId));
+        }, IPASTools.GENERIC_IO_EXECUTOR));
+        return true;
+    }
+
+    @Override
+    public @Nullable List<String> onTabComplete(@NotNull final CommandSender sender, @NotNull final Command command,
+                                                @NotNull final String label, @NotNull final String[] args) {
+        if (args.length == 0) {
+            return Util.getAllPlayerNames();
+        } else if (args.length == 1) {
+            return Util.getAllSorted(args[0], Util.getAllPlayerNames());
+        }
+        return Collections.emptyList();
+    }
+}
@@ -1,6 +1,7 @@
 package ca.spottedleaf.ipastools.command;
 
 import ca.spottedleaf.ipastools.IPASTools;
+import ca.spottedleaf.ipastools.astools.ASBans;
 import ca.spottedleaf.ipastools.astools.ASPlayerState;
 import ca.spottedleaf.ipastools.util.Util;
 import net.kyori.adventure.text.Component;
@@ -11,6 +12,7 @@ import org.bukkit.entity.Player;
 import org.bukkit.event.player.PlayerKickEvent;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -30,7 +32,7 @@ public final class ASCommandBan implements ASCommand.ASSubCommand {
         return Component.text()
                 .append(Component.text().content("Arguments: ").color(HELP_DESCRIPTION_COLOUR))
                 .append(
-                        Component.text().content("<target: one of uuid, player name, ipv4, or AS number>").color(REQUIRED_ARG_COLOUR)
+                        Component.text().content("<target: one of uuid, player name, ip address, AS number, or address range>").color(REQUIRED_ARG_COLOUR)
                                 .hoverEvent(
                                         Component.text()
                                                 .content(
@@ -40,7 +42,11 @@ public final class ASCommandBan implements ASCommand.ASSubCommand {
                                                                 Example: /as ban 853c80ef3c3749fdaa49938b674adae6 - Bans the AS number last used by player
                                                                 Example: /as ban jeb_ - Bans the AS number last used by player
                                                                 Example: /as ban 1.1.1.1 - Bans the AS number associated with the IP
+                                                                Example: /as ban 2606:4700:4700::1111 - Bans the AS number associated with the IP
                                                                 Example: /as ban 13335 - Bans the AS number provided
+                                                                Example: /as ban 1.1.1.0/24 - Bans the addresses in the CIDR prefix
+                                                                Example: /as ban 2606:4700::/32 - Bans the addresses in the CIDR prefix
+                                                                Example: /as ban 1.1.1.0-1.1.1.127 - Bans the addresses in the inclusive range
                                                                 """
                                                 )
                                                 .color(HELP_DESCRIPTION_COLOUR)
@@ -48,7 +54,7 @@ public final class ASCommandBan implements ASCommand.ASSubCommand {
                                 )
                 )
                 .append(
-                        Component.text().content(" - Bans an AS number.")
+                        Component.text().content(" - Bans an AS number or address range.")
                                 .color(HELP_DESCRIPTION_COLOUR)
                 )
                 .build();
@@ -60,7 +66,7 @@ public final class ASCommandBan implements ASCommand.ASSubCommand {
         if (args.length == 0) {
             sender.sendMessage(
                     Component.text()
-                            .content("Must provide target: by uuid, player name, ipv4, or AS number")
+                            .content("Must provide target: by uuid, player name, ip address, AS number, or address range")
                             .color(COMMAND_ERROR_COLOUR)
                             .build()
             );
@@ -69,6 +75,11 @@ public final class ASCommandBan implements ASCommand.ASSubCommand {
 
         final String reason = args.length == 1 ? "Banned" : String.join(" ", Util.trim(args, 1));
 
+        if (ASBans.RangeBanEntry.isRangeTarget(args[0])) {
+            this.banRange(sender, args[0], reason);
+            return true;
+        }
+
         ASCommandLookup.handleErrors(sender, args[0], ASCommandLookup.lookupAS(args[0]))
                 .thenAccept((final Integer res) -> {
                             if (res == null) {
@@ -121,6 +132,55 @@ public final class ASCommandBan implements ASCommand.ASSubCommand {
         return true;
     }
 
+    private void banRange(final CommandSender sender, final String target, final String reason) {
+        final ASBans.RangeBanEntry entry;
+        try {
+            entry = ASBans.RangeBanEntry.parse(target, reason, null);
+        } catch (final IllegalArgumentException ex) {
+            sender.sendMessage(
+                    Component.text()
+                            .content("Invalid address range '" + target + "': " + ex.getMessage())
+                            .color(COMMAND_ERROR_COLOUR)
+                            .build()
+            );
+            return;
+        }
+
+        this.plugin.getBans().addRangeBanEntry(entry);
+        this.plugin.getBans().saveToFileAsync();
+
+        sender.sendMessage(
+                Component.text()
+                        .content("Banned address range " + entry.target() + " with reason '" + reason + "'")
+                        .color(COMMAND_SUCCESS_COLOUR)
+                        .build()
+        );
+
+        for (final Player player : new ArrayList<>(Bukkit.getOnlinePlayers())) {
+            final InetSocketAddress address = player.getAddress();
+            if (address == null || !entry.contains(address.getAddress())) {
+                // no match
+                continue;
+            }
+
+            sender.sendMessage(
+                    Component.text()
+                            .content("Kicking player " + player.getName())
+                            .color(COMMAND_SUCCESS_COLOUR)
+                            .build()
+            );
+
+            // match
+            player.getScheduler().execute(
+                    this.plugin,
+                    () -> {
+                        player.kick(Component.text().content(reason).build(), PlayerKickEvent.Cause.BANNED);
+                    },
+                    null, 1L
+            );
+        }
+    }
+
     @Override
     public @Nullable List<String> onTabComplete(@NotNull final CommandSender sender, @NotNull final Command command,
                                                 @NotNull final String label, @NotNull final String[] args) {
@@ -0,0 +1,229 @@
+package ca.spottedleaf.ipastools.command;
+
+import ca.spottedleaf.ipastools.IPASTools;
+import ca.spottedleaf.ipastools.astools.LoginSegmentStore;
+import ca.spottedleaf.ipastools.util.Util;
+import net.kyori.adventure.text.Component;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import static ca.spottedleaf.ipastools.command.ASCommand.*;
+
+public final class ASCommandHistory implements ASCommand.ASSubCommand {
+
+    private static final int MAX_LISTED = 20;
+    // windows longer than this are shown per day rather than per hour
+    private static final int MAX_HOURLY_ROWS = 48;
+    private static final String DEFAULT_WINDOW = "24h";
+    private static final DateTimeFormatter HOUR_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:00", Locale.ROOT).withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter DAY_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd", Locale.ROOT).withZone(ZoneOffset.UTC);
+
+    private final IPASTools plugin;
+
+    public ASCommandHistory(final IPASTools plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public Component getHelp() {
+        return Component.text()
+                .append(Component.text().content("Arguments: ").color(HELP_DESCRIPTION_COLOUR))
+                .append(
+                        Component.text().content("<target: one of uuid, player name, ip address, or AS number>").color(REQUIRED_ARG_COLOUR)
+                                .hoverEvent(
+                                        Component.text()
+                                                .content(
+                                                        """
+                                                                The AS to show the login history of, required argument.
+                                                                Example: /as history 13335 - Shows the logins from AS 13335 in the last 24 hours
+                                                                Example: /as history 1.1.1.1 - Shows the logins from the AS of the IP
+                                                                Example: /as history jeb_ - Shows the logins from the AS the player last logged in from
+                                                                """
+                                                )
+                                                .color(HELP_DESCRIPTION_COLOUR)
+                                                .build()
+                                )
+                )
+                .append(Component.text().content(" "))
+                .append(
+                        Component.text().content("[window]").color(OPTIONAL_ARG_COLOUR)
+                                .hoverEvent(
+                                        Component.text()
+                                                .content(
+                                                        """
+                                                                How far back to look, defaults to 24h.
+                                                                Example: /as history 13335 6h - Shows the last 6 hours
+                                                                Example: /as history 13335 7d - Shows the last week, per day
+                                                                """
+                                                )
+                                                .color(HELP_DESCRIPTION_COLOUR)
+                                                .build()
+                                )
+                )
+                .append(
+                        Component.text().content(" - Shows the logins per hour and the new accounts from an AS.")
+                                .color(HELP_DESCRIPTION_COLOUR)
+                )
+                .build();
+    }
+
+    static LoginSegmentStore getStore(final IPASTools plugin, final CommandSender sender) {
+        final LoginSegmentStore store = plugin.getLoginSegments();
+        if (store == null) {
+            sender.sendMessage(
+                    Component.text().content("Login history is not available, login-log must be enabled").color(COMMAND_ERROR_COLOUR).build()
+            );
+        }
+        return store;
+    }
+
+    static long parseWindow(final CommandSender sender, final String input) {
+        try {
+            return Util.parseDurationMillis(input);
+        } catch (final IllegalArgumentException ex) {
+            sender.sendMessage(
+                    Component.text().content("Invalid window '" + input + "', expected e.g. 90m, 24h, 7d or 2w").color(COMMAND_ERROR_COLOUR).build()
+            );
+            return -1L;
+        }
+    }
+
+    static Void handleQueryFailure(final CommandSender sender, final Throwable throwable) {
+        IPASTools.getInstance().getLogger().log(Level.WARNING, "Login history query failed", throwable);
+        sender.sendMessage(Component.text().content("Login history query failed, check the server log").color(COMMAND_ERROR_COLOUR).build());
+        return null;
+    }
+
+    private void sendHistory(final CommandSender sender, final String window, final LoginSegmentStore.ASHistory history) {
+        final String ASName = this.plugin.getLookup().lookupASName(history.ASNumber());
+        sender.sendMessage(
+                Component.text()
+                        .content(
+                                "AS " + history.ASNumber() + " (" + (ASName == null ? "Unknown AS Number" : ASName) + ") in the last " + window + ": "
+                                        + history.joins() + " logins, " + history.denied() + " denied, " + history.players() + " players, "
+                                        + history.newAccounts().size() + " new accounts"
+                        )
+                        .color(COMMAND_SUCCESS_COLOUR)
+                        .build()
+        );
+        if (history.joins() + history.denied() == 0L) {
+            return;
+        }
+
+        final long[] hourly = history.hourlyJoins();
+        final boolean daily = hourly.length > MAX_HOURLY_ROWS;
+        final DateTimeFormatter format = daily ? DAY_FORMAT : HOUR_FORMAT;
+        sender.sendMessage(Component.text().content(daily ? "Logins per day (UTC):" : "Logins per hour (UTC):").color(COMMAND_SUCCESS_COLOUR).build());
+
+        final long rowMillis = TimeUnit.HOURS.toMillis(daily ? 24L : 1L);
+        long rowStart = Long.MIN_VALUE;
+        long rowCount = 0L;
+        for (int i = 0; i <= hourly.length; ++i) {
+            final long hourStart = history.firstHour() + TimeUnit.HOURS.toMillis((long)i);
+            final long bucket = Math.floorDiv(hourStart, rowMillis) * rowMillis;
+            if (i == hourly.length || bucket != rowStart) {
+                if (rowCount != 0L) {
+                    sender.sendMessage(Component.text().content(" " + format.format(Instant.ofEpochMilli(rowStart)) + ": " + rowCount).color(COMMAND_SUCCESS_COLOUR).build());
+                }
+                if (i == hourly.length) {
+                    break;
+                }
+                rowStart = bucket;
+                rowCount = 0L;
+            }
+            rowCount += hourly[i];
+        }
+
+        final List<LoginSegmentStore.NewAccount> newAccounts = history.newAccounts();
+        if (!newAccounts.isEmpty()) {
+            sender.sendMessage(Component.text().content("New accounts:").color(COMMAND_SUCCESS_COLOUR).build());
+            for (int i = 0, len = Math.min(newAccounts.size(), MAX_LISTED); i < len; ++i) {
+                final LoginSegmentStore.NewAccount account = newAccounts.get(i);
+                sender.sendMessage(
+                        Component.text()
+                                .content(" " + account.name() + " (" + account.userId() + "), first seen " + format.format(Instant.ofEpochMilli(account.firstSeen())))
+                                .color(COMMAND_SUCCESS_COLOUR)
+                                .build()
+                );
+            }
+            if (newAccounts.size() > MAX_LISTED) {
+                sender.sendMessage(Component.text().content(" and " + (newAccounts.size() - MAX_LISTED) + " more").color(COMMAND_SUCCESS_COLOUR).build());
+            }
+        }
+    }
+
+    @Override
+    public boolean onCommand(@NotNull final CommandSender sender, @NotNull final Command command, @NotNull final String label,
+                             @NotNull final String[] args) {
+        if (args.length == 0) {
+            sender.sendMessage(
+                    Component.text()
+                            .content("Must provide target: by uuid, player name, ip address, or AS number")
+                            .color(COMMAND_ERROR_COLOUR)
+                            .build()
+            );
+            return true;
+        }
+
+        final LoginSegmentStore store = getStore(this.plugin, sender);
+        if (store == null) {
+            return true;
+        }
+
+        final String window = args.length >= 2 ? args[1] : DEFAULT_WINDOW;
+        final long windowMillis = parseWindow(sender, window);
+        if (windowMillis < 0L) {
+            return true;
+        }
+        final long maxWindowMillis = store.getMaxHistoryWindowMillis();
+        if (windowMillis > maxWindowMillis) {
+            sender.sendMessage(
+                    Component.text()
+                            .content("Window '" + window + "' is longer than the login history kept, at most " + TimeUnit.MILLISECONDS.toHours(maxWindowMillis) + "h")
+                            .color(COMMAND_ERROR_COLOUR)
+                            .build()
+            );
+            return true;
+        }
+
+        final String input = args[0];
+        ASCommandLookup.handleErrors(sender, input, ASCommandLookup.lookupAS(input))
+                .thenCompose((final Integer res) -> {
+                    if (res == null) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    final long now = System.currentTimeMillis();
+                    return store.history(res.intValue(), now - windowMillis, now).thenAccept((final LoginSegmentStore.ASHistory history) -> {
+                        ASCommandHistory.this.sendHistory(sender, window, history);
+                    });
+                })
+                .exceptionally((final Throwable throwable) -> {
+                    return handleQueryFailure(sender, throwable);
+                });
+        return true;
+    }
+
+    @Override
+    public @Nullable List<String> onTabComplete(@NotNull final CommandSender sender, @NotNull final Command command,
+                                                @NotNull final String label, @NotNull final String[] args) {
+        if (args.length == 0) {
+            return Util.getAllPlayerNames();
+        } else if (args.length == 1) {
+            return Util.getAllSorted(args[0], Util.getAllPlayerNames());
+        } else if (args.length == 2) {
+            return Util.getAllSorted(args[1], List.of("6h", "24h", "7d", "30d"));
+        }
+        return Collections.emptyList();
+    }
+}
@@ -32,7 +32,7 @@ public final class ASCommandLookup implements ASCommand.ASSubCommand {
         return Component.text()
                 .append(Component.text().content("Arguments: ").color(HELP_DESCRIPTION_COLOUR))
                 .append(
-                        Component.text().content("<target: one of uuid, online player, ipv4, or AS number>").color(REQUIRED_ARG_COLOUR)
+                        Component.text().content("<target: one of uuid, online player, ip address, or AS number>").color(REQUIRED_ARG_COLOUR)
                                 .hoverEvent(
                                         Component.text()
                                                 .content(
@@ -42,6 +42,7 @@ public final class ASCommandLookup implements ASCommand.ASSubCommand {
                                                                 Example: /as lookup 853c80ef3c3749fdaa49938b674adae6 - Looks up player by UUID without dashes
                                                                 Example: /as lookup jeb_ - Looks up player by name
                                                                 Example: /as lookup 1.1.1.1 - Looks up directly by IP entry
+                                                                Example: /as lookup 2606:4700:4700::1111 - Looks up directly by IP entry
                                                                 Example: /as lookup 13335 - Looks up directly by AS number
                                                                 """
                                                 )
@@ -84,45 +85,65 @@ public final class ASCommandLookup implements ASCommand.ASSubCommand {
             // not an ipv4
         }
 
+        if (input.indexOf(':') != -1) {
+            try {
+                // from IPv6
+                final byte[] ip = Util.getIPv6Address(input);
+                final ASLookup.ASEntry entry = IPASTools.getInstance().getLookup().lookup(Util.getIPv6High(ip), Util.getIPv6Low(ip));
+                if (entry == null || entry == ASLookup.NO_MATCH) {
+                    return CompletableFuture.completedFuture(new ASLookupResult(ASLookupResultType.NO_ENTRY, 0));
+                } else {
+                    return CompletableFuture.completedFuture(new ASLookupResult(ASLookupResultType.SUCCESS, entry.ASNumber()));
+                }
+            } catch (final IllegalArgumentException ex) {
+                // not an ipv6
+            }
+        }
+
         // must be either UUID or username at this point
         // we need to parse to UUID if username so we can look up the player data
 
-        CompletableFuture<UUID> uuidLookup;
+        return lookupPlayerId(input).thenCompose((final UUID playerId) -> {
+            if (playerId == null) {
+                return CompletableFuture.completedFuture(new ASLookupResult(ASLookupResultType.NO_PLAYER_BY_NAME, 0));
+            }
+            return ASPlayerState.acquireAndLoadUserDataAsync(playerId, false).thenApply((final ASPlayerState state) -> {
+                if (state == null) {
+                    return new ASLookupResult(ASLookupResultType.NO_LOGIN_DATA, 0);
+                }
+                try {
+                    final ASPlayerState.ASLoginEntry loginEntry = state.getLastLoginEntry();
+                    if (loginEntry == null) {
+                        return new ASLookupResult(ASLookupResultType.NO_LOGIN_DATA, 0);
+                    }
+
+                    return new ASLookupResult(ASLookupResultType.SUCCESS, loginEntry.ASNumber());
+                } finally {
+                    ASPlayerState.releaseUserData(playerId);
+                }
+            });
+        });
+    }
 
+    /**
+     * Parses the input as a UUID, or otherwise looks up the UUID of the player with the input as name. The future
+     * completes with {@code null} if there is no such player.
+     */
+    public static CompletableFuture<UUID> lookupPlayerId(final String input) {
         try {
             // try to parse UUID
-            uuidLookup = CompletableFuture.completedFuture(Util.parseUUID(input));
+            return CompletableFuture.completedFuture(Util.parseUUID(input));
         } catch (final IllegalArgumentException ex) {
             // must be a username
 
             final PlayerProfile profile = Bukkit.createProfile(null, input);
 
-            uuidLookup = CompletableFuture.supplyAsync(() -> {
+            return CompletableFuture.supplyAsync(() -> {
                 profile.complete(false);
 
                 return profile.getId();
             }, IPASTools.PROFILE_LOOKUP_EXECUTOR);
         }
-
-        return uuidLookup.thenApplyAsync((final UUID playerId) -> {
-            if (playerId == null) {
-                return new ASLookupResult(ASLookupResultType.NO_PLAYER_BY_NAME, 0);
-            }
-            final ASPlayerState state = ASPlayerState.acquireAndLoadUserData(playerId, false);
-            try {
-                if (state == null) {
-                    return new ASLookupResult(ASLookupResultType.NO_LOGIN_DATA, 0);
-                }
-                final ASPlayerState.ASLoginEntry loginEntry = state.getLastLoginEntry();
-                if (loginEntry == null) {
-                    return new ASLookupResult(ASLookupResultType.NO_LOGIN_DATA, 0);
-                }
-
-                return new ASLookupResult(ASLookupResultType.SUCCESS, loginEntry.ASNumber());
-            } finally {
-                ASPlayerState.releaseUserData(playerId);
-            }
-        }, IPASTools.GENERIC_IO_EXECUTOR);
     }
 
     public static CompletableFuture<Integer> handleErrors(final CommandSender sender, final String input, final CompletableFuture<ASLookupResult> rawResult) {
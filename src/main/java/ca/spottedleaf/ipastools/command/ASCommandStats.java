@@ -0,0 +1,41 @@
+package ca.spottedleaf.ipastools.command;
+
+import ca.spottedleaf.ipastools.astools.ASMetrics;
+import net.kyori.adventure.text.Component;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import java.util.Collections;
+import java.util.List;
+
+import static ca.spottedleaf.ipastools.command.ASCommand.*;
+
+public final class ASCommandStats implements ASCommand.ASSubCommand {
+
+    @Override
+    public Component getHelp() {
+        return Component.text()
+                .append(Component.text().content("No arguments").color(HELP_DESCRIPTION_COLOUR))
+                .append(
+                        Component.text().content(" - Shows login, lookup and I/O timings since startup.")
+                                .color(HELP_DESCRIPTION_COLOUR)
+                )
+                .build();
+    }
+
+    @Override
+    public boolean onCommand(@NotNull final CommandSender sender, @NotNull final Command command, @NotNull final String label,
+                             @NotNull final String[] args) {
+        for (final String line : ASMetrics.describe()) {
+            sender.sendMessage(Component.text().content(line).color(COMMAND_SUCCESS_COLOUR).build());
+        }
+        return true;
+    }
+
+    @Override
+    public @Nullable List<String> onTabComplete(@NotNull final CommandSender sender, @NotNull final Command command,
+                                                @NotNull final String label, @NotNull final String[] args) {
+        return Collections.emptyList();
+    }
+}
@@ -0,0 +1,131 @@
+package ca.spottedleaf.ipastools.command;
+
+import ca.spottedleaf.ipastools.IPASTools;
+import ca.spottedleaf.ipastools.astools.LoginSegmentStore;
+import ca.spottedleaf.ipastools.util.Util;
+import net.kyori.adventure.text.Component;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import java.util.Collections;
+import java.util.List;
+
+import static ca.spottedleaf.ipastools.command.ASCommand.*;
+
+public final class ASCommandTop implements ASCommand.ASSubCommand {
+
+    private static final String DEFAULT_WINDOW = "24h";
+    private static final int DEFAULT_LIMIT = 20;
+    private static final int MAX_LIMIT = 100;
+
+    private final IPASTools plugin;
+
+    public ASCommandTop(final IPASTools plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public Component getHelp() {
+        return Component.text()
+                .append(Component.text().content("Arguments: ").color(HELP_DESCRIPTION_COLOUR))
+                .append(
+                        Component.text().content("[window]").color(OPTIONAL_ARG_COLOUR)
+                                .hoverEvent(
+                                        Component.text()
+                                                .content(
+                                                        """
+                                                                How far back to look, defaults to 24h.
+                                                                Example: /as top 6h - Ranks the AS numbers by players in the last 6 hours
+                                                                Example: /as top 7d - Ranks the AS numbers by players in the last week
+                                                                """
+                                                )
+                                                .color(HELP_DESCRIPTION_COLOUR)
+                                                .build()
+                                )
+                )
+                .append(Component.text().content(" "))
+                .append(
+                        Component.text().content("[count]").color(OPTIONAL_ARG_COLOUR)
+                                .hoverEvent(
+                                        Component.text()
+                                                .content(
+                                                        """
+                                                                How many AS numbers to list, defaults to 20 and at most 100.
+                                                                Example: /as top 24h 50 - Lists the top 50 AS numbers of the last 24 hours
+                                                                """
+                                                )
+                                                .color(HELP_DESCRIPTION_COLOUR)
+                                                .build()
+                                )
+                )
+                .append(
+                        Component.text().content(" - Lists the AS numbers with the most distinct players logging in.")
+                                .color(HELP_DESCRIPTION_COLOUR)
+                )
+                .build();
+    }
+
+    @Override
+    public boolean onCommand(@NotNull final CommandSender sender, @NotNull final Command command, @NotNull final String label,
+                             @NotNull final String[] args) {
+        final LoginSegmentStore store = ASCommandHistory.getStore(this.plugin, sender);
+        if (store == null) {
+            return true;
+        }
+
+        final String window = args.length >= 1 ? args[0] : DEFAULT_WINDOW;
+        final long windowMillis = ASCommandHistory.parseWindow(sender, window);
+        if (windowMillis < 0L) {
+            return true;
+        }
+
+        int limit = DEFAULT_LIMIT;
+        if (args.length >= 2) {
+            try {
+                limit = Math.max(1, Math.min(MAX_LIMIT, Integer.parseInt(args[1])));
+            } catch (final NumberFormatException ex) {
+                sender.sendMessage(Component.text().content("Invalid count: " + args[1]).color(COMMAND_ERROR_COLOUR).build());
+                return true;
+            }
+        }
+
+        final long now = System.currentTimeMillis();
+        store.topASes(now - windowMillis, now, limit)
+                .thenAccept((final List<LoginSegmentStore.ASCount> top) -> {
+                    if (top.isEmpty()) {
+                        sender.sendMessage(Component.text().content("No logins from a known AS in the last " + window).color(COMMAND_ERROR_COLOUR).build());
+                        return;
+                    }
+                    sender.sendMessage(
+                            Component.text().content("AS numbers by players in the last " + window + ":").color(COMMAND_SUCCESS_COLOUR).build()
+                    );
+                    for (int i = 0; i < top.size(); ++i) {
+                        final LoginSegmentStore.ASCount entry = top.get(i);
+                        final String ASName = ASCommandTop.this.plugin.getLookup().lookupASName(entry.ASNumber());
+                        final String description = "AS " + Integer.toUnsignedString(entry.ASNumber()) + " (" + (ASName == null ? "Unknown AS Number" : ASName) + ")";
+                        sender.sendMessage(
+                                Component.text()
+                                        .content(" " + (i + 1) + ". " + description + ": " + entry.players() + " players, " + entry.joins() + " logins")
+                                        .color(COMMAND_SUCCESS_COLOUR)
+                                        .build()
+                        );
+                    }
+                })
+                .exceptionally((final Throwable throwable) -> {
+                    return ASCommandHistory.handleQueryFailure(sender, throwable);
+                });
+        return true;
+    }
+
+    @Override
+    public @Nullable List<String> onTabComplete(@NotNull final CommandSender sender, @NotNull final Command command,
+                                                @NotNull final String label, @NotNull final String[] args) {
+        if (args.length == 0) {
+            return List.of("6h", "24h", "7d", "30d");
+        } else if (args.length == 1) {
+            return Util.getAllSorted(args[0], List.of("6h", "24h", "7d", "30d"));
+        }
+        return Collections.emptyList();
+    }
+}
@@ -1,6 +1,7 @@
 package ca.spottedleaf.ipastools.command;
 
 import ca.spottedleaf.ipastools.IPASTools;
+import ca.spottedleaf.ipastools.astools.ASBans;
 import ca.spottedleaf.ipastools.util.Util;
 import net.kyori.adventure.text.Component;
 import org.bukkit.command.Command;
@@ -25,7 +26,7 @@ public final class ASCommandUnBan implements ASSubCommand {
         return Component.text()
                 .append(Component.text().content("Arguments: ").color(HELP_DESCRIPTION_COLOUR))
                 .append(
-                        Component.text().content("<target: one of uuid, player name, ipv4, or AS number>").color(REQUIRED_ARG_COLOUR)
+                        Component.text().content("<target: one of uuid, player name, ip address, AS number, or address range>").color(REQUIRED_ARG_COLOUR)
                                 .hoverEvent(
                                         Component.text()
                                                 .content(
@@ -35,7 +36,10 @@ public final class ASCommandUnBan implements ASSubCommand {
                                                                 Example: /as unban 853c80ef3c3749fdaa49938b674adae6 - Unbans the AS number last used by player
                                                                 Example: /as unban jeb_ - Unbans the AS number last used by player
                                                                 Example: /as unban 1.1.1.1 - Unbans the AS number associated with the IP
+                                                                Example: /as unban 2606:4700:4700::1111 - Unbans the AS number associated with the IP
                                                                 Example: /as unban 13335 - Unbans the AS number provided
+                                                                Example: /as unban 1.1.1.0/24 - Unbans the CIDR prefix
+                                                                Example: /as unban 1.1.1.0-1.1.1.127 - Unbans the inclusive address range
                                                                 """
                                                 )
                                                 .color(HELP_DESCRIPTION_COLOUR)
@@ -43,7 +47,7 @@ public final class ASCommandUnBan implements ASSubCommand {
                                 )
                 )
                 .append(
-                        Component.text().content(" - Unbans an AS number.")
+                        Component.text().content(" - Unbans an AS number or address range.")
                                 .color(HELP_DESCRIPTION_COLOUR)
                 )
                 .build();
@@ -55,13 +59,18 @@ public final class ASCommandUnBan implements ASSubCommand {
         if (args.length == 0) {
             sender.sendMessage(
                     Component.text()
-                            .content("Must provide target: by uuid, player name, ipv4, or AS number")
+                            .content("Must provide target: by uuid, player name, ip address, AS number, or address range")
                             .color(COMMAND_ERROR_COLOUR)
                             .build()
             );
             return true;
         }
 
+        if (ASBans.RangeBanEntry.isRangeTarget(args[0])) {
+            this.unbanRange(sender, args[0]);
+            return true;
+        }
+
         ASCommandLookup.handleErrors(sender, args[0], ASCommandLookup.lookupAS(args[0]))
                 .thenAccept((final Integer res) -> {
                             if (res == null) {
@@ -94,6 +103,42 @@ public final class ASCommandUnBan implements ASSubCommand {
         return true;
     }
 
+    private void unbanRange(final CommandSender sender, final String target) {
+        final String normalised;
+        try {
+            normalised = ASBans.RangeBanEntry.parse(target, "", null).target();
+        } catch (final IllegalArgumentException ex) {
+            sender.sendMessage(
+                    Component.text()
+                            .content("Invalid address range '" + target + "': " + ex.getMessage())
+                            .color(COMMAND_ERROR_COLOUR)
+                            .build()
+            );
+            return;
+        }
+
+        final ASBans.RangeBanEntry removed = this.plugin.getBans().removeRangeBanEntry(normalised);
+        if (removed != null) {
+            this.plugin.getBans().saveToFileAsync();
+        }
+
+        if (removed != null && !removed.hasExpired(System.currentTimeMillis())) {
+            sender.sendMessage(
+                    Component.text()
+                            .content("Unbanned address range " + normalised)
+                            .color(COMMAND_SUCCESS_COLOUR)
+                            .build()
+            );
+        } else {
+            sender.sendMessage(
+                    Component.text()
+                            .content("No ban for address range " + normalised)
+                            .color(COMMAND_ERROR_COLOUR)
+                            .build()
+            );
+        }
+    }
+
     @Override
     public @Nullable List<String> onTabComplete(@NotNull final CommandSender sender, @NotNull final Command command,
                                                 @NotNull final String label, @NotNull final String[] args) {
@@ -1,12 +1,75 @@
 package ca.spottedleaf.ipastools.config;
 
+import ca.spottedleaf.ipastools.astools.IPv4PrefixIndex;
+import ca.spottedleaf.ipastools.storage.UserDataStorage;
 import org.bukkit.configuration.file.FileConfiguration;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
 
 public final class ASConfig {
 
     public final double raidThreshold;
+    public final long raidWindowSeconds;
+    public final long raidBanSeconds;
+    public final String raidBanMessage;
+    public final IPv4PrefixIndex.Engine lookupEngine;
+    public final LookupSources lookupSources;
+    public final UserDataStorage.Type userDataStorage;
+    public final long userDataSyncIntervalMillis;
+    public final long userDataSaveIntervalMillis;
+    public final int userDataSaveBatchSize;
+    public final long shutdownTimeoutSeconds;
+    public final long metricsFileIntervalSeconds;
+    public final String metricsHttpHost;
+    public final int metricsHttpPort;
+    public final long userDataCacheMaxWeight;
+    public final int userDataShutdownSaveThreads;
+    public final long userDataShutdownSaveTimeoutSeconds;
+    public final int loginHistoryMaxEntries;
+    public final boolean loginLogEnabled;
+    public final int loginLogBufferSize;
+    public final long loginLogMaxFileBytes;
+    public final int loginLogMaxFiles;
+    public final boolean loginLogCompress;
+    public final long loginLogSummaryIntervalMillis;
+    public final int loginLogConsoleSample;
+    public final long loginHistoryRetentionMillis;
+    public final long loginHistoryMaxAgeMillis;
 
     public ASConfig(final FileConfiguration config) {
         this.raidThreshold = config.getDouble("raid-threshold");
+        this.raidWindowSeconds = Math.max(1L, config.getLong("raid-window", 10L));
+        this.raidBanSeconds = Math.max(1L, config.getLong("raid-ban-duration", 600L));
+        this.raidBanMessage = config.getString("raid-ban-message", "Too many connections from your network, try again later");
+        this.lookupEngine = IPv4PrefixIndex.Engine.parse(config.getString("lookup-engine", "sorted-ranges"));
+        this.lookupSources = new LookupSources(
+                URI.create(config.getString("lookup-sources.autnums", "https://thyme.apnic.net/current/data-used-autnums")),
+                URI.create(config.getString("lookup-sources.ipv4-raw-table", "https://thyme.apnic.net/current/data-raw-table")),
+                URI.create(config.getString("lookup-sources.ipv6-raw-table", "https://thyme.apnic.net/current/ipv6-raw-table"))
+        );
+        this.userDataStorage = UserDataStorage.Type.parse(config.getString("user-data.storage", "log"));
+        this.userDataSyncIntervalMillis = Math.max(0L, config.getLong("user-data.sync-interval", 1000L));
+        this.userDataSaveIntervalMillis = Math.max(1L, config.getLong("user-data.save-interval", 5000L));
+        this.userDataSaveBatchSize = Math.max(1, config.getInt("user-data.save-batch-size", 256));
+        this.metricsFileIntervalSeconds = Math.max(0L, config.getLong("metrics.file-interval", 60L));
+        this.metricsHttpHost = config.getString("metrics.http-host", "127.0.0.1");
+        this.metricsHttpPort = Math.max(0, Math.min(65535, config.getInt("metrics.http-port", 0)));
+        this.shutdownTimeoutSeconds = Math.max(1L, config.getLong("shutdown-timeout", 60L));
+        this.userDataCacheMaxWeight = Math.max(1L, config.getLong("user-data.cache.max-weight", 65536L));
+        this.userDataShutdownSaveThreads = Math.max(1, config.getInt("user-data.shutdown.save-threads", 4));
+        this.userDataShutdownSaveTimeoutSeconds = Math.max(1L, config.getLong("user-data.shutdown.save-timeout", 30L));
+        this.loginHistoryMaxEntries = Math.max(1, config.getInt("user-data.login-history.max-entries", 64));
+        this.loginLogEnabled = config.getBoolean("login-log.enabled", true);
+        this.loginLogBufferSize = Math.max(64, config.getInt("login-log.buffer-size", 8192));
+        this.loginLogMaxFileBytes = Math.max(1L, config.getLong("login-log.max-file-size", 64L)) * 1024L * 1024L;
+        this.loginLogMaxFiles = Math.max(1, config.getInt("login-log.max-files", 30));
+        this.loginLogCompress = config.getBoolean("login-log.compress", true);
+        this.loginLogSummaryIntervalMillis = TimeUnit.SECONDS.toMillis(Math.max(0L, config.getLong("login-log.console-summary-interval", 60L)));
+        this.loginLogConsoleSample = Math.max(0, config.getInt("login-log.console-sample", 0));
+        this.loginHistoryRetentionMillis = TimeUnit.DAYS.toMillis(Math.max(0L, config.getLong("login-log.history-retention", 90L)));
+        this.loginHistoryMaxAgeMillis = TimeUnit.DAYS.toMillis(Math.max(0L, config.getLong("user-data.login-history.max-age", 365L)));
     }
+
+    // each source is either a http(s) or file URI
+    public static record LookupSources(URI autnums, URI ipv4RawTable, URI ipv6RawTable) {}
 }
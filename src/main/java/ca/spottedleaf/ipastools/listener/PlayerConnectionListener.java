@@ -2,7 +2,10 @@ package ca.spottedleaf.ipastools.listener;
 
 import ca.spottedleaf.ipastools.IPASTools;
 import ca.spottedleaf.ipastools.astools.ASLookup;
+import ca.spottedleaf.ipastools.astools.ASMetrics;
 import ca.spottedleaf.ipastools.astools.ASPlayerState;
+import ca.spottedleaf.ipastools.astools.LoginAuditLog;
+import ca.spottedleaf.ipastools.config.ASConfig;
 import ca.spottedleaf.ipastools.util.Util;
 import com.destroystokyo.paper.event.player.PlayerConnectionCloseEvent;
 import net.kyori.adventure.text.Component;
@@ -15,10 +18,13 @@ import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerKickEvent;
 import java.net.Inet4Address;
+import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.Date;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public final class PlayerConnectionListener implements Listener {
 
@@ -28,49 +34,115 @@ public final class PlayerConnectionListener implements Listener {
         this.plugin = plugin;
     }
 
+    @EventHandler(priority = EventPriority.LOWEST, ignoreCancelled = true)
+    public void onAsyncLoginPrefetch(final AsyncPlayerPreLoginEvent event) {
+        // the uuid is only known once the session is verified, which is when this event fires, so nothing can start the
+        // read any earlier. This only overlaps it with the pre login handlers of other plugins, without any the MONITOR
+        // handler acquires straight after and joins the same load
+        ASPlayerState.prefetchUserData(event.getUniqueId());
+    }
+
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onAsyncLogin(final AsyncPlayerPreLoginEvent event) {
         if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
             return;
         }
 
-        final ASPlayerState state = ASPlayerState.acquireAndLoadUserData(event.getUniqueId(), true);
+        final long start = System.nanoTime();
+        try {
+            this.handleAsyncLogin(event);
+        } finally {
+            ASMetrics.LOGIN.recordSince(start);
+        }
+    }
+
+    private void handleAsyncLogin(final AsyncPlayerPreLoginEvent event) {
+
+        // released on connection close, so acquire even if the login is denied below
+        final CompletableFuture<ASPlayerState> state = ASPlayerState.acquireAndLoadUserDataAsync(event.getUniqueId(), true);
 
         final InetAddress address = event.getAddress();
-        if (!(address instanceof Inet4Address ipv4)) {
+        if (!(address instanceof Inet4Address) && !(address instanceof Inet6Address)) {
             this.plugin.getLogger().info("User " + event.getName() + "(" + event.getUniqueId() + ") is logging in with unknown address type: " + address);
         } else {
-            final ASLookup.ASEntry entry = this.plugin.getLookup().lookup(ipv4);
-            final String ipv4Str = Util.toIPv4String(ipv4);
-
-            if (entry == null) {
-                this.plugin.getLogger().info("User " + event.getName() + "(" + event.getUniqueId() + ":" + ipv4Str + ") is logging in with IPv4: " + ipv4 + ", but AS service is down");
-            } else {
-                if (entry != ASLookup.NO_MATCH) {
-                    final Date now = new Date();
-                    state.addLoginHistory(new ASPlayerState.ASLoginEntry(ipv4Str, entry.ASNumber(), entry.ASName(), now));
-                    final String kickReason = this.plugin.getBans().getKickReason(entry.ASNumber());
-                    if (kickReason != null) {
-                        // banned
-                        this.plugin.getLogger().info("User " + event.getName() + "(" + event.getUniqueId() + ":" + ipv4Str + ") tried to log in with banned ASEntry: " + entry.description() + ", reason: " + kickReason);
-
-                        event.setKickMessage(kickReason);
-                        event.setLoginResult(AsyncPlayerPreLoginEvent.Result.KICK_BANNED);
-                    } else {
-                        this.plugin.getLogger().info("User " + event.getName() + "(" + event.getUniqueId() + ":" + ipv4Str + ") is logging in with ASEntry: " + entry.description());
-                    }
-                } else {
-                    this.plugin.getLogger().info("User " + event.getName() + "(" + event.getUniqueId() + ":" + ipv4Str + ") is logging in with an unknown ASEntry, local/lan?");
+            // only the AS number is needed to decide the login, the AS name and prefix are looked up for messages
+            final ASLookup lookup = this.plugin.getLookup();
+            final int lookupResult = lookup.lookupASNumber(address);
+            final String ipStr = Util.toIPString(address);
+            final boolean serviceDown = lookupResult == -1;
+            final boolean knownAS = lookupResult != -1 && lookupResult != 0;
+            final int ASNumber = knownAS ? lookupResult : -1;
+
+            // range bans apply even if the AS is unknown
+            String kickReason = this.plugin.getBans().getKickReason(ASNumber, address);
+
+            if (knownAS) {
+                ASMetrics.JOINS.record(ASNumber);
+            }
+
+            boolean raidBanned = false;
+            if (kickReason == null && knownAS && this.plugin.getRaidDetector().recordJoin(ASNumber)) {
+                ASMetrics.RAID_BANS.increment();
+                raidBanned = true;
+                final ASConfig config = this.plugin.getASConfig();
+                kickReason = config.raidBanMessage;
+
+                this.plugin.getLogger().warning(
+                        "AS " + Integer.toUnsignedString(ASNumber) + " ('" + lookup.lookupASName(ASNumber) + "') exceeded the raid threshold of " + config.raidThreshold
+                                + " joins per second, banning it for " + config.raidBanSeconds + " seconds"
+                );
+                this.plugin.getBans().addBanEntry(ASNumber, kickReason, new Date(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(config.raidBanSeconds)));
+                this.plugin.getBans().saveToFileAsync();
+            }
+
+            // with the login log enabled, the console only shows a sample of the logins
+            final LoginAuditLog loginLog = this.plugin.getLoginLog();
+            final boolean logToConsole = loginLog == null || loginLog.sampleConsole();
+            if (loginLog != null) {
+                loginLog.record(
+                        System.currentTimeMillis(), event.getUniqueId(), event.getName(), ipStr, ASNumber,
+                        kickReason == null ? LoginAuditLog.Decision.ALLOWED : (raidBanned ? LoginAuditLog.Decision.RAID_BANNED : LoginAuditLog.Decision.BANNED)
+                );
+            }
+
+            if (serviceDown) {
+                if (logToConsole) {
+                    this.plugin.getLogger().info("User " + event.getName() + "(" + event.getUniqueId() + ":" + ipStr + ") is logging in with IP: " + ipStr + ", but AS service is down");
                 }
+            } else if (knownAS) {
+                final ASPlayerState.ASLoginEntry login = ASPlayerState.ASLoginEntry.of(address, ASNumber, System.currentTimeMillis());
+                state.thenAccept((final ASPlayerState userData) -> {
+                    userData.addLoginHistory(login);
+                });
+                if (kickReason == null && logToConsole) {
+                    this.plugin.getLogger().info("User " + event.getName() + "(" + event.getUniqueId() + ":" + ipStr + ") is logging in with ASEntry: " + describe(lookup, address));
+                }
+            } else if (logToConsole) {
+                this.plugin.getLogger().info("User " + event.getName() + "(" + event.getUniqueId() + ":" + ipStr + ") is logging in with an unknown ASEntry, local/lan?");
+            }
+
+            if (kickReason != null) {
+                // banned
+                if (logToConsole) {
+                    this.plugin.getLogger().info("User " + event.getName() + "(" + event.getUniqueId() + ":" + ipStr + ") tried to log in with banned ASEntry: " + (knownAS ? describe(lookup, address) : "unknown") + ", reason: " + kickReason);
+                }
+
+                event.setKickMessage(kickReason);
+                event.setLoginResult(AsyncPlayerPreLoginEvent.Result.KICK_BANNED);
             }
         }
     }
 
+    private static String describe(final ASLookup lookup, final InetAddress address) {
+        final ASLookup.ASEntry entry = lookup.lookup(address);
+        return entry == null || entry == ASLookup.NO_MATCH ? "unknown" : entry.description();
+    }
+
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onPlayerJoin(final PlayerJoinEvent event) {
         final Player player = event.getPlayer();
 
-        // catch bans issued to AS numbers before the player joined the player list, but had passed the async pre login
+        // catch bans issued to AS numbers or address ranges before the player joined the player list, but had passed the async pre login
 
         final InetSocketAddress socketAddr = player.getAddress();
         if (socketAddr == null) {
@@ -78,20 +150,13 @@ public final class PlayerConnectionListener implements Listener {
             return;
         }
 
-        final Inet4Address addr = socketAddr.getAddress() instanceof Inet4Address ipv4 ? ipv4 : null;
-        if (addr == null) {
-            // not using ipv4
-            return;
-        }
-
-        final ASLookup.ASEntry entry = this.plugin.getLookup().lookup(Util.toIPInt(addr));
-        if (entry == null || entry == ASLookup.NO_MATCH) {
-            // no entry
-            return;
-        }
+        final InetAddress address = socketAddr.getAddress();
+        final int lookupResult = this.plugin.getLookup().lookupASNumber(address);
+        // no match and no index loaded are both an unknown AS to the bans
+        final int ASNumber = lookupResult == 0 ? -1 : lookupResult;
 
         player.getScheduler().execute(this.plugin, () -> {
-            final String reason = PlayerConnectionListener.this.plugin.getBans().getKickReason(entry.ASNumber());
+            final String reason = PlayerConnectionListener.this.plugin.getBans().getKickReason(ASNumber, address);
             if (reason != null) {
                 player.kick(Component.text().content(reason).build(), PlayerKickEvent.Cause.BANNED);
             }
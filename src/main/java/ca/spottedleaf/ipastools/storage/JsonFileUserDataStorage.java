@@ -0,0 +1,84 @@
+package ca.spottedleaf.ipastools.storage;
+
+import ca.spottedleaf.ipastools.util.Util;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+/**
+ * Stores the data of each player in its own {@code <uuid>.json} file, replaced atomically on each write.
+ */
+public final class JsonFileUserDataStorage implements UserDataStorage {
+
+    private final File directory;
+
+    public JsonFileUserDataStorage(final File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return this.directory;
+    }
+
+    @Override
+    public boolean storesJson() {
+        return true;
+    }
+
+    private File getFile(final UUID userId) {
+        return new File(this.directory, userId.toString().concat(".json"));
+    }
+
+    @Override
+    public byte[] read(final UUID userId) throws IOException {
+        try {
+            return Files.readAllBytes(this.getFile(userId).toPath());
+        } catch (final NoSuchFileException ex) {
+            return null;
+        }
+    }
+
+    @Override
+    public void write(final UUID userId, final byte[] data) throws IOException {
+        final File file = this.getFile(userId);
+        file.getParentFile().mkdirs();
+
+        final File tempFile = new File(file.getAbsolutePath() + "." + (new Random().nextLong()) + ".tmp");
+        try {
+            Files.write(tempFile.toPath(), data);
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tempFile.delete(); // try to clean up garbage files
+        }
+    }
+
+    @Override
+    public void forEach(final BiConsumer<UUID, byte[]> consumer) throws IOException {
+        final File[] files = this.directory.listFiles((final File dir, final String name) -> name.endsWith(".json"));
+        if (files == null) {
+            return;
+        }
+        for (final File file : files) {
+            final UUID userId;
+            try {
+                userId = Util.parseUUID(file.getName().substring(0, file.getName().length() - ".json".length()));
+            } catch (final IllegalArgumentException ex) {
+                continue;
+            }
+            consumer.accept(userId, Files.readAllBytes(file.toPath()));
+        }
+    }
+
+    @Override
+    public void flush() {
+        // every write is already complete
+    }
+
+    @Override
+    public void close() {}
+}
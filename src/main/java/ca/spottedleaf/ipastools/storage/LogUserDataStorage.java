@@ -0,0 +1,444 @@
+package ca.spottedleaf.ipastools.storage;
+
+import ca.spottedleaf.ipastools.util.Util;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Stores all user data in a single append-only log file.
+ * <p>
+ * Every write appends a record holding the full data of one player, and an in-memory index maps each player to their
+ * latest record. Writes are therefore sequential appends, and the log is only forced to disk once per sync interval
+ * rather than per write. Records superseded by later writes are reclaimed by compaction, which copies the live records
+ * into a new log once they make up less than half of the file.
+ * </p>
+ * <p>
+ * Each record carries a checksum, so that a record torn by a crash is detected when the log is opened and the log is
+ * truncated to the last complete record.
+ * </p>
+ * <p>
+ * A crash can only tear the last record, so an invalid record followed by valid ones is corruption of the file rather
+ * than a torn write. Dropping everything after it would lose the newest data of every player written since, so the
+ * scan instead skips ahead to the next valid record and keeps going, logging the skipped bytes as an error. Only the
+ * players whose latest record was in the skipped bytes fall back to an older record, if any. The skipped bytes are
+ * reclaimed by the next compaction.
+ * </p>
+ */
+public final class LogUserDataStorage implements UserDataStorage {
+
+    // "IPASUSER"
+    private static final long MAGIC = 0x4950415355534552L;
+    // increment when breaking changes are made to the format
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER_SIZE = 8 + 4;
+
+    // "RECD"
+    private static final int RECORD_MAGIC = 0x52454344;
+    // magic, data length, uuid, crc of uuid and data
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 8 + 8 + 4;
+    // the record size must fit in the 24 bits of the index entry
+    private static final int MAX_DATA_SIZE = (1 << 24) - 1 - RECORD_HEADER_SIZE;
+
+    private static final long MIN_COMPACT_SIZE = 1L << 20;
+
+    private final File file;
+    private final long syncIntervalNanos;
+    private final Logger logger;
+
+    // all below guarded by this
+    private FileChannel channel;
+    private long end;
+    private long liveBytes;
+    private long lastSync = System.nanoTime();
+    private boolean unsynced;
+    // record offset in the upper 40 bits, record size in the lower 24 bits
+    private final Map<UUID, Long> index = new HashMap<>();
+
+    /**
+     * Opens or creates the log at the specified file.
+     * @param syncIntervalMillis The maximum time writes may stay unsynced, writes are synced by the next write after
+     *                           the interval has elapsed or by {@link #flush()}.
+     */
+    public LogUserDataStorage(final File file, final long syncIntervalMillis, final Logger logger) throws IOException {
+        this.file = file.getAbsoluteFile();
+        this.syncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(syncIntervalMillis);
+        this.logger = logger;
+        this.open();
+    }
+
+    private static long pack(final long offset, final int size) {
+        return (offset << 24) | (long)size;
+    }
+
+    private static long offset(final long packed) {
+        return packed >>> 24;
+    }
+
+    private static int size(final long packed) {
+        return (int)(packed & ((1L << 24) - 1L));
+    }
+
+    private static int checksum(final UUID userId, final byte[] data, final int length) {
+        final CRC32 crc = new CRC32();
+        final ByteBuffer id = ByteBuffer.allocate(16).order(ByteOrder.BIG_ENDIAN)
+                .putLong(0, userId.getMostSignificantBits()).putLong(8, userId.getLeastSignificantBits());
+        crc.update(id);
+        crc.update(data, 0, length);
+        return (int)crc.getValue();
+    }
+
+    @Override
+    public boolean storesJson() {
+        return false;
+    }
+
+    // must hold lock on this
+    private void open() throws IOException {
+        this.file.getParentFile().mkdirs();
+        this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.index.clear();
+        this.liveBytes = 0L;
+
+        final long size = this.channel.size();
+        if (size == 0L) {
+            final ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.BIG_ENDIAN)
+                    .putLong(0, MAGIC).putInt(8, VERSION);
+            writeFully(this.channel, header, 0L);
+            this.channel.force(true);
+            this.end = FILE_HEADER_SIZE;
+            return;
+        }
+
+        final long valid = this.scan(size);
+        if (valid != size) {
+            this.logger.warning(
+                    "User data log '" + this.file + "' has " + (size - valid) + " trailing bytes of incomplete records, truncating"
+            );
+            this.channel.truncate(valid);
+            this.channel.force(true);
+        }
+        this.end = valid;
+    }
+
+    // rebuilds the index, returns the offset after the last valid record
+    private long scan(final long size) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(this.channel.position(0L)), 1 << 16));
+
+        if (size < FILE_HEADER_SIZE || in.readLong() != MAGIC) {
+            throw new IOException("Not a user data log: " + this.file);
+        }
+        final int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported user data log version " + version + ": " + this.file);
+        }
+
+        long position = this.scanRecords(in, FILE_HEADER_SIZE, size);
+        for (long next; position < size && (next = this.findNextRecord(position, size)) >= 0L; ) {
+            this.logger.severe(
+                    "User data log '" + this.file + "' has a corrupt record at offset " + position + ", skipped "
+                            + (next - position) + " bytes to the next valid record"
+            );
+            position = this.scanRecords(
+                    new DataInputStream(new BufferedInputStream(Channels.newInputStream(this.channel.position(next)), 1 << 16)), next, size
+            );
+        }
+
+        this.channel.position(0L);
+        return position;
+    }
+
+    // indexes the records read from the specified stream at the specified offset, returns the offset of the first
+    // invalid record or the size
+    private long scanRecords(final DataInputStream in, long position, final long size) throws IOException {
+        byte[] data = new byte[1024];
+        try {
+            while (position + RECORD_HEADER_SIZE <= size) {
+                if (in.readInt() != RECORD_MAGIC) {
+                    break;
+                }
+                final int length = in.readInt();
+                final UUID userId = new UUID(in.readLong(), in.readLong());
+                final int crc = in.readInt();
+                if (length < 0 || length > MAX_DATA_SIZE || position + RECORD_HEADER_SIZE + length > size) {
+                    break;
+                }
+                if (data.length < length) {
+                    data = new byte[Math.max(length, data.length << 1)];
+                }
+                in.readFully(data, 0, length);
+                if (checksum(userId, data, length) != crc) {
+                    break;
+                }
+
+                final int recordSize = RECORD_HEADER_SIZE + length;
+                final Long previous = this.index.put(userId, Long.valueOf(pack(position, recordSize)));
+                if (previous != null) {
+                    this.liveBytes -= size(previous.longValue());
+                }
+                this.liveBytes += recordSize;
+                position += recordSize;
+            }
+        } catch (final EOFException ex) {
+            // torn record, the checks above should have caught it
+        }
+        return position;
+    }
+
+    // returns the offset of the first valid record after the invalid one at the specified offset, or -1 if there is
+    // none, in which case the invalid record is a torn tail
+    private long findNextRecord(final long invalid, final long size) throws IOException {
+        final ByteBuffer chunk = ByteBuffer.allocate(1 << 16).order(ByteOrder.BIG_ENDIAN);
+        for (long base = invalid + 1L; base + RECORD_HEADER_SIZE <= size;) {
+            chunk.clear().limit((int)Math.min((long)chunk.capacity(), size - base));
+            readFully(this.channel, chunk, base);
+            final int last = chunk.limit() - 4;
+            for (int i = 0; i <= last; ++i) {
+                if (chunk.getInt(i) == RECORD_MAGIC && this.isValidRecord(base + i, size)) {
+                    return base + i;
+                }
+            }
+            base += last + 1;
+        }
+        return -1L;
+    }
+
+    private boolean isValidRecord(final long position, final long size) throws IOException {
+        if (position + RECORD_HEADER_SIZE > size) {
+            return false;
+        }
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE).order(ByteOrder.BIG_ENDIAN);
+        readFully(this.channel, header, position);
+        final int length = header.getInt(4);
+        if (header.getInt(0) != RECORD_MAGIC || length < 0 || length > MAX_DATA_SIZE || position + RECORD_HEADER_SIZE + length > size) {
+            return false;
+        }
+        final byte[] data = new byte[length];
+        readFully(this.channel, ByteBuffer.wrap(data), position + RECORD_HEADER_SIZE);
+        return checksum(new UUID(header.getLong(8), header.getLong(16)), data, length) == header.getInt(24);
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+    }
+
+    private static void readFully(final FileChannel channel, final ByteBuffer buffer, final long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            final int read = channel.read(buffer, offset);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            offset += read;
+        }
+    }
+
+    @Override
+    public synchronized byte[] read(final UUID userId) throws IOException {
+        final Long packed = this.index.get(userId);
+        if (packed == null) {
+            return null;
+        }
+
+        final long offset = offset(packed.longValue());
+        final ByteBuffer record = ByteBuffer.allocate(size(packed.longValue())).order(ByteOrder.BIG_ENDIAN);
+        readFully(this.channel, record, offset);
+
+        final int length = record.getInt(4);
+        final int crc = record.getInt(24);
+        final byte[] data = new byte[length];
+        record.get(RECORD_HEADER_SIZE, data);
+        if (record.getInt(0) != RECORD_MAGIC || record.getLong(8) != userId.getMostSignificantBits()
+                || record.getLong(16) != userId.getLeastSignificantBits() || checksum(userId, data, length) != crc) {
+            throw new IOException("Corrupt user data record for " + userId + " at offset " + offset);
+        }
+
+        return data;
+    }
+
+    @Override
+    public synchronized void write(final UUID userId, final byte[] data) throws IOException {
+        if (data.length > MAX_DATA_SIZE) {
+            throw new IOException("User data for " + userId + " is too large: " + data.length + " bytes");
+        }
+
+        final int recordSize = RECORD_HEADER_SIZE + data.length;
+        final ByteBuffer record = ByteBuffer.allocate(recordSize).order(ByteOrder.BIG_ENDIAN);
+        record.putInt(RECORD_MAGIC);
+        record.putInt(data.length);
+        record.putLong(userId.getMostSignificantBits());
+        record.putLong(userId.getLeastSignificantBits());
+        record.putInt(checksum(userId, data, data.length));
+        record.put(data);
+        record.flip();
+
+        final long offset = this.end;
+        writeFully(this.channel, record, offset);
+        this.end = offset + recordSize;
+        this.unsynced = true;
+
+        final Long previous = this.index.put(userId, Long.valueOf(pack(offset, recordSize)));
+        if (previous != null) {
+            this.liveBytes -= size(previous.longValue());
+        }
+        this.liveBytes += recordSize;
+
+        if (System.nanoTime() - this.lastSync >= this.syncIntervalNanos) {
+            this.sync();
+        }
+    }
+
+    // must hold lock on this
+    private void sync() throws IOException {
+        this.lastSync = System.nanoTime();
+        if (this.unsynced) {
+            this.unsynced = false;
+            this.channel.force(false);
+        }
+    }
+
+    /**
+     * Syncs the log, and compacts it if most of it is superseded records.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        this.sync();
+        if (this.end >= MIN_COMPACT_SIZE && this.liveBytes < (this.end >>> 1)) {
+            this.compact();
+        }
+    }
+
+    /**
+     * Rewrites the log with only the latest record of each player.
+     */
+    public synchronized void compact() throws IOException {
+        final long start = System.nanoTime();
+        final long oldSize = this.end;
+
+        final List<Map.Entry<UUID, Long>> records = new ArrayList<>(this.index.entrySet());
+        // copy in log order, so that the old log is read sequentially
+        records.sort((final Map.Entry<UUID, Long> e1, final Map.Entry<UUID, Long> e2) -> {
+            return Long.compare(e1.getValue().longValue(), e2.getValue().longValue());
+        });
+
+        final File compacted = new File(this.file.getParentFile(), this.file.getName() + ".compact");
+        final Map<UUID, Long> newIndex = new HashMap<>(this.index.size());
+        long position = FILE_HEADER_SIZE;
+        try (final FileChannel out = FileChannel.open(compacted.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(out, ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.BIG_ENDIAN).putLong(0, MAGIC).putInt(8, VERSION), 0L);
+
+            for (final Map.Entry<UUID, Long> record : records) {
+                final long packed = record.getValue().longValue();
+                final int size = size(packed);
+                out.position(position);
+                for (long copied = 0L; copied < size;) {
+                    copied += this.channel.transferTo(offset(packed) + copied, size - copied, out);
+                }
+                newIndex.put(record.getKey(), Long.valueOf(pack(position, size)));
+                position += size;
+            }
+            out.force(true);
+        } catch (final IOException ex) {
+            compacted.delete();
+            throw ex;
+        }
+
+        this.channel.close();
+        try {
+            Files.move(compacted.toPath(), this.file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            // reopen either log, the old one is intact if the move failed
+            this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+
+        this.index.clear();
+        this.index.putAll(newIndex);
+        this.end = position;
+        this.liveBytes = position - FILE_HEADER_SIZE;
+        this.unsynced = false;
+
+        this.logger.info(
+                "Compacted user data log from " + (oldSize >> 10) + "KiB to " + (position >> 10) + "KiB in "
+                        + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms"
+        );
+    }
+
+    @Override
+    public void forEach(final BiConsumer<UUID, byte[]> consumer) throws IOException {
+        final List<UUID> userIds;
+        synchronized (this) {
+            userIds = new ArrayList<>(this.index.keySet());
+        }
+        for (final UUID userId : userIds) {
+            final byte[] data = this.read(userId);
+            if (data != null) {
+                consumer.accept(userId, data);
+            }
+        }
+    }
+
+    /**
+     * Imports every player from the specified per-file storage which is not already in this log, then renames its
+     * directory so that the import only happens once. Returns the number of players imported.
+     */
+    public int importFrom(final JsonFileUserDataStorage from) throws IOException {
+        final File directory = from.getDirectory();
+        final int[] imported = new int[1];
+        from.forEach((final UUID userId, final byte[] data) -> {
+            synchronized (this) {
+                if (this.index.containsKey(userId)) {
+                    return;
+                }
+                try {
+                    this.write(userId, data);
+                } catch (final IOException ex) {
+                    Util.sneakyThrow(ex);
+                }
+            }
+            ++imported[0];
+        });
+        this.flush();
+
+        final File migrated = new File(directory.getParentFile(), directory.getName() + ".migrated");
+        if (!directory.renameTo(migrated)) {
+            throw new IOException("Failed to rename " + directory + " to " + migrated + " after importing it");
+        }
+
+        return imported[0];
+    }
+
+    public synchronized int size() {
+        return this.index.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!this.channel.isOpen()) {
+            return;
+        }
+        this.sync();
+        this.channel.close();
+    }
+}
@@ -0,0 +1,52 @@
+package ca.spottedleaf.ipastools.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.function.BiConsumer;
+
+/**
+ * Persistent store of serialized user data, keyed by player UUID.
+ * <p>
+ * Implementations must be safe for concurrent use. Data passed to {@link #write} is only guaranteed to be durable once
+ * {@link #flush} or {@link #close} has returned.
+ * </p>
+ */
+public interface UserDataStorage extends Closeable {
+
+    /**
+     * Returns the stored data for the specified player, or {@code null} if there is none.
+     */
+    public byte[] read(final UUID userId) throws IOException;
+
+    public void write(final UUID userId, final byte[] data) throws IOException;
+
+    /**
+     * Returns whether data should be stored as JSON rather than in the binary format, for storages which are meant to
+     * be human-readable. Either format can be read back from any storage.
+     */
+    public boolean storesJson();
+
+    /**
+     * Passes the stored data of every player to the specified consumer, in no particular order.
+     */
+    public void forEach(final BiConsumer<UUID, byte[]> consumer) throws IOException;
+
+    /**
+     * Forces all data written so far to disk.
+     */
+    public void flush() throws IOException;
+
+    public static enum Type {
+        JSON_FILES, LOG;
+
+        public static Type parse(final String name) {
+            for (final Type type : values()) {
+                if (type.name().replace('_', '-').equalsIgnoreCase(name)) {
+                    return type;
+                }
+            }
+            throw new IllegalArgumentException("Unknown user data storage: " + name);
+        }
+    }
+}
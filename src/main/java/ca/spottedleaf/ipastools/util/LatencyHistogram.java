@@ -0,0 +1,105 @@
+package ca.spottedleaf.ipastools.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations in nanoseconds, with power of two buckets.
+ * <p>
+ * Recording is lock-free and does not allocate. Threads record into one of several stripes picked by thread id, each
+ * on its own cache lines, so that threads recording at once rarely contend. Snapshots sum the stripes, so they are
+ * not atomic with respect to concurrent recording.
+ * </p>
+ */
+public final class LatencyHistogram {
+
+    // bucket 0 counts 0ns, bucket i counts [2^(i - 1), 2^i) ns, and the last bucket counts everything from 2^38 ns (~4.6 min)
+    public static final int BUCKETS = 40;
+
+    private static final int SUM_INDEX = BUCKETS;
+    private static final int MAX_INDEX = BUCKETS + 1;
+    // 8 longs per cache line, so that stripes never share a line
+    private static final int STRIDE = (MAX_INDEX + 1 + 7) & ~7;
+
+    private static final int STRIPES = Math.min(64, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1));
+
+    private final AtomicLongArray values = new AtomicLongArray(STRIPES * STRIDE + 8);
+
+    public static record Snapshot(long count, long sumNanos, long maxNanos, long[] buckets) {
+
+        public double meanNanos() {
+            return this.count == 0L ? 0.0 : (double)this.sumNanos / (double)this.count;
+        }
+
+        /**
+         * Returns an upper bound of the specified quantile, which is exact to within a factor of two.
+         */
+        public long quantileNanos(final double quantile) {
+            if (this.count == 0L) {
+                return 0L;
+            }
+            final long rank = (long)Math.ceil(quantile * (double)this.count);
+            long seen = 0L;
+            for (int i = 0; i < BUCKETS; ++i) {
+                seen += this.buckets[i];
+                if (seen >= rank) {
+                    return Math.min(this.maxNanos, upperBound(i));
+                }
+            }
+            return this.maxNanos;
+        }
+    }
+
+    /**
+     * Returns the exclusive upper bound of the specified bucket in nanoseconds, or {@link Long#MAX_VALUE} for the last.
+     */
+    public static long upperBound(final int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    private static int bucket(final long nanos) {
+        return nanos <= 0L ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos));
+    }
+
+    private static int stripeOffset() {
+        // skip the first line, which may share a cache line with the array header
+        final int hash = (int)Thread.currentThread().getId() * 0x9E3779B9;
+        return 8 + (hash >>> 16 & (STRIPES - 1)) * STRIDE;
+    }
+
+    // MT-Safe
+    public void record(final long nanos) {
+        final int offset = stripeOffset();
+        this.values.getAndIncrement(offset + bucket(nanos));
+        this.values.getAndAdd(offset + SUM_INDEX, Math.max(0L, nanos));
+
+        final int maxIndex = offset + MAX_INDEX;
+        for (long max = this.values.get(maxIndex); nanos > max; max = this.values.get(maxIndex)) {
+            if (this.values.compareAndSet(maxIndex, max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    // MT-Safe
+    public void recordSince(final long startNanos) {
+        this.record(System.nanoTime() - startNanos);
+    }
+
+    public Snapshot snapshot() {
+        final long[] buckets = new long[BUCKETS];
+        long count = 0L;
+        long sum = 0L;
+        long max = 0L;
+        for (int stripe = 0; stripe < STRIPES; ++stripe) {
+            final int offset = 8 + stripe * STRIDE;
+            for (int i = 0; i < BUCKETS; ++i) {
+                final long value = this.values.get(offset + i);
+                buckets[i] += value;
+                count += value;
+            }
+            sum += this.values.get(offset + SUM_INDEX);
+            max = Math.max(max, this.values.get(offset + MAX_INDEX));
+        }
+        return new Snapshot(count, sum, max, buckets);
+    }
+}
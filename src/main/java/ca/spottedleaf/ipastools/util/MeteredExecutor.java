@@ -0,0 +1,67 @@
+package ca.spottedleaf.ipastools.util;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed size thread pool which records how long its tasks wait in the queue and how long they take to run.
+ */
+public final class MeteredExecutor extends ThreadPoolExecutor {
+
+    private final LatencyHistogram queueTime = new LatencyHistogram();
+    private final LatencyHistogram runTime = new LatencyHistogram();
+
+    public MeteredExecutor(final int threads, final ThreadFactory threadFactory) {
+        super(threads, threads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), threadFactory);
+    }
+
+    private static final class TimedTask implements Runnable {
+
+        private final Runnable task;
+        private final long queued = System.nanoTime();
+        private long started;
+
+        private TimedTask(final Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            this.task.run();
+        }
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        super.execute(new TimedTask(command));
+    }
+
+    @Override
+    protected void beforeExecute(final Thread thread, final Runnable task) {
+        if (task instanceof TimedTask timed) {
+            timed.started = System.nanoTime();
+            this.queueTime.record(timed.started - timed.queued);
+        }
+    }
+
+    @Override
+    protected void afterExecute(final Runnable task, final Throwable thrown) {
+        if (task instanceof TimedTask timed) {
+            this.runTime.recordSince(timed.started);
+        }
+    }
+
+    public int getQueueDepth() {
+        return this.getQueue().size();
+    }
+
+    public LatencyHistogram getQueueTime() {
+        return this.queueTime;
+    }
+
+    public LatencyHistogram getRunTime() {
+        return this.runTime;
+    }
+}
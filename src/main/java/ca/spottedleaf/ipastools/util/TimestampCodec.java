@@ -0,0 +1,124 @@
+package ca.spottedleaf.ipastools.util;
+
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Formats and parses the timestamps persisted by the plugin, of the form {@code 2024-01-31 23:59:59.999 +0000}.
+ * <p>
+ * Safe for concurrent use. Timestamps of years 0 to 9999 are formatted and parsed by hand at fixed offsets, with a
+ * single {@link String} allocated when formatting. Anything else falls back to a {@link DateTimeFormatter} of the same
+ * pattern. Timestamps are formatted in UTC, and parsed with whichever offset they were written with.
+ * </p>
+ */
+public final class TimestampCodec {
+
+    public static final String PATTERN = "yyyy-MM-dd HH:mm:ss.SSS Z";
+    private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern(PATTERN, Locale.ROOT);
+
+    // "2024-01-31 23:59:59.999 +0000"
+    private static final int LENGTH = 29;
+
+    private TimestampCodec() {}
+
+    private static void putDigits(final char[] into, final int offset, int value, final int digits) {
+        for (int i = offset + digits - 1; i >= offset; --i) {
+            into[i] = (char)('0' + (value % 10));
+            value /= 10;
+        }
+    }
+
+    public static String format(final long epochMillis) {
+        final long epochSecond = Math.floorDiv(epochMillis, 1000L);
+        final long epochDay = Math.floorDiv(epochSecond, 86400L);
+        final int secondOfDay = (int)Math.floorMod(epochSecond, 86400L);
+
+        final LocalDate date = LocalDate.ofEpochDay(epochDay);
+        final int year = date.getYear();
+        if (year < 0 || year > 9999) {
+            return FORMATTER.format(OffsetDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneOffset.UTC));
+        }
+
+        final char[] chars = new char[LENGTH];
+        putDigits(chars, 0, year, 4);
+        chars[4] = '-';
+        putDigits(chars, 5, date.getMonthValue(), 2);
+        chars[7] = '-';
+        putDigits(chars, 8, date.getDayOfMonth(), 2);
+        chars[10] = ' ';
+        putDigits(chars, 11, secondOfDay / 3600, 2);
+        chars[13] = ':';
+        putDigits(chars, 14, (secondOfDay / 60) % 60, 2);
+        chars[16] = ':';
+        putDigits(chars, 17, secondOfDay % 60, 2);
+        chars[19] = '.';
+        putDigits(chars, 20, (int)Math.floorMod(epochMillis, 1000L), 3);
+        chars[23] = ' ';
+        chars[24] = '+';
+        chars[25] = '0';
+        chars[26] = '0';
+        chars[27] = '0';
+        chars[28] = '0';
+
+        return new String(chars);
+    }
+
+    public static String format(final Date date) {
+        return format(date.getTime());
+    }
+
+    // returns -1 if any character is not a digit
+    private static int parseDigits(final CharSequence text, final int offset, final int digits) {
+        int ret = 0;
+        for (int i = offset, end = offset + digits; i < end; ++i) {
+            final int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            ret = ret * 10 + digit;
+        }
+        return ret;
+    }
+
+    /**
+     * Returns the epoch millis of the specified timestamp.
+     * @throws DateTimeException If the timestamp is malformed.
+     */
+    public static long parse(final CharSequence text) {
+        if (text.length() == LENGTH && text.charAt(4) == '-' && text.charAt(7) == '-' && text.charAt(10) == ' '
+                && text.charAt(13) == ':' && text.charAt(16) == ':' && text.charAt(19) == '.' && text.charAt(23) == ' '
+                && (text.charAt(24) == '+' || text.charAt(24) == '-')) {
+            final int year = parseDigits(text, 0, 4);
+            final int month = parseDigits(text, 5, 2);
+            final int day = parseDigits(text, 8, 2);
+            final int hour = parseDigits(text, 11, 2);
+            final int minute = parseDigits(text, 14, 2);
+            final int second = parseDigits(text, 17, 2);
+            final int millis = parseDigits(text, 20, 3);
+            final int offsetHours = parseDigits(text, 25, 2);
+            final int offsetMinutes = parseDigits(text, 27, 2);
+
+            if ((year | month | day | hour | minute | second | millis | offsetHours | offsetMinutes) >= 0
+                    && hour < 24 && minute < 60 && second < 60 && offsetHours < 24 && offsetMinutes < 60) {
+                // validates the date
+                final long epochDay = LocalDate.of(year, month, day).toEpochDay();
+                final int offsetSeconds = (text.charAt(24) == '-' ? -1 : 1) * (offsetHours * 3600 + offsetMinutes * 60);
+                final long epochSecond = epochDay * 86400L + (long)(hour * 3600 + minute * 60 + second) - (long)offsetSeconds;
+                return epochSecond * 1000L + (long)millis;
+            }
+        }
+
+        // report malformed input the same way as anything else
+        return OffsetDateTime.parse(text, FORMATTER).toInstant().toEpochMilli();
+    }
+
+    public static Date parseDate(final CharSequence text) {
+        return new Date(parse(text));
+    }
+}
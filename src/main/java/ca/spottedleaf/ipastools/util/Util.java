@@ -9,6 +9,8 @@ import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -16,23 +18,24 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 
 public final class Util {
 
-    public static final SimpleDateFormat DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS Z");
-
     public static <T> T[] trim(final T[] source, final int by) {
         return Arrays.copyOfRange(source, by, source.length);
     }
@@ -161,6 +164,175 @@ public final class Util {
         return toIPv4String(toIPInt(addr));
     }
 
+    public static byte[] getIPv6Address(final String ip) {
+        final byte[] ret = new byte[16];
+
+        final int compress = ip.indexOf("::");
+        if (compress != -1 && ip.indexOf("::", compress + 1) != -1) {
+            throw new IllegalArgumentException("Invalid ip: " + ip);
+        }
+
+        final String head = compress == -1 ? ip : ip.substring(0, compress);
+        final String tail = compress == -1 ? "" : ip.substring(compress + 2);
+
+        final int headGroups = parseIPv6Groups(ip, head, ret, 0, compress == -1);
+        final int tailBytes = tail.isEmpty() ? 0 : 2 * countIPv6Groups(ip, tail);
+
+        if (compress == -1) {
+            if (headGroups != 8) {
+                throw new IllegalArgumentException("Invalid ip: " + ip);
+            }
+            return ret;
+        }
+
+        if (2 * headGroups + tailBytes > 14) {
+            // '::' must replace at least one group
+            throw new IllegalArgumentException("Invalid ip: " + ip);
+        }
+
+        if (!tail.isEmpty()) {
+            parseIPv6Groups(ip, tail, ret, 16 - tailBytes, true);
+        }
+
+        return ret;
+    }
+
+    private static int countIPv6Groups(final String ip, final String groups) {
+        final String[] split = Util.split(groups, ':');
+        return split[split.length - 1].indexOf('.') != -1 ? split.length + 1 : split.length;
+    }
+
+    // returns the number of 16-bit groups parsed, an embedded IPv4 address counts as two groups
+    private static int parseIPv6Groups(final String ip, final String groups, final byte[] into, int offset, final boolean allowIPv4) {
+        if (groups.isEmpty()) {
+            return 0;
+        }
+
+        final String[] split = Util.split(groups, ':');
+        int parsed = 0;
+
+        for (int i = 0; i < split.length; ++i) {
+            final String group = split[i];
+            if (offset >= 16) {
+                throw new IllegalArgumentException("Invalid ip: " + ip);
+            }
+            if (i == split.length - 1 && allowIPv4 && group.indexOf('.') != -1) {
+                if (offset > 12) {
+                    throw new IllegalArgumentException("Invalid ip: " + ip);
+                }
+                final int ipv4 = getAddress(group);
+                into[offset++] = (byte)(ipv4 >>> 24);
+                into[offset++] = (byte)(ipv4 >>> 16);
+                into[offset++] = (byte)(ipv4 >>> 8);
+                into[offset++] = (byte)ipv4;
+                parsed += 2;
+                continue;
+            }
+            if (group.isEmpty() || group.length() > 4) {
+                throw new IllegalArgumentException("Invalid ip: " + ip);
+            }
+
+            final int value = Integer.parseInt(group, 16);
+            if (value < 0) {
+                throw new IllegalArgumentException("Invalid ip: " + ip);
+            }
+            into[offset++] = (byte)(value >>> 8);
+            into[offset++] = (byte)value;
+            ++parsed;
+        }
+
+        return parsed;
+    }
+
+    public static long getIPv6High(final byte[] addr) {
+        return ByteBuffer.wrap(addr).order(ByteOrder.BIG_ENDIAN).getLong(0);
+    }
+
+    public static long getIPv6Low(final byte[] addr) {
+        return ByteBuffer.wrap(addr).order(ByteOrder.BIG_ENDIAN).getLong(8);
+    }
+
+    private static int getIPv6Group(final long high, final long low, final int group) {
+        return (int)((group < 4 ? high >>> (48 - 16 * group) : low >>> (48 - 16 * (group - 4))) & 0xFFFFL);
+    }
+
+    // RFC 5952 representation
+    public static String toIPv6String(final long high, final long low) {
+        // find the longest run of zero groups, which is compressed to '::' if it is longer than one group
+        int bestStart = -1;
+        int bestLength = 1;
+        for (int i = 0; i < 8;) {
+            if (getIPv6Group(high, low, i) != 0) {
+                ++i;
+                continue;
+            }
+            int end = i;
+            while (end < 8 && getIPv6Group(high, low, end) == 0) {
+                ++end;
+            }
+            if (end - i > bestLength) {
+                bestStart = i;
+                bestLength = end - i;
+            }
+            i = end;
+        }
+
+        final StringBuilder ret = new StringBuilder(39);
+        for (int i = 0; i < 8; ++i) {
+            if (i == bestStart) {
+                ret.append("::");
+                i += bestLength - 1;
+                continue;
+            }
+            if (ret.length() != 0 && ret.charAt(ret.length() - 1) != ':') {
+                ret.append(':');
+            }
+            ret.append(Integer.toHexString(getIPv6Group(high, low, i)));
+        }
+
+        return ret.toString();
+    }
+
+    public static String toIPv6String(final Inet6Address addr) {
+        final byte[] bytes = addr.getAddress();
+        return toIPv6String(getIPv6High(bytes), getIPv6Low(bytes));
+    }
+
+    public static String toIPString(final InetAddress addr) {
+        if (addr instanceof Inet4Address ipv4) {
+            return toIPv4String(ipv4);
+        }
+        if (addr instanceof Inet6Address ipv6) {
+            return toIPv6String(ipv6);
+        }
+        return addr.getHostAddress();
+    }
+
+    public static InetAddress toInetAddress(final byte[] addr) {
+        try {
+            // does not perform a reverse lookup
+            return InetAddress.getByAddress(addr);
+        } catch (final UnknownHostException ex) {
+            throw new IllegalArgumentException(ex);
+        }
+    }
+
+    public static InetAddress toInetAddress(final int ipv4) {
+        return toInetAddress(ByteBuffer.allocate(4).order(ByteOrder.BIG_ENDIAN).putInt(0, ipv4).array());
+    }
+
+    public static InetAddress toInetAddress(final long high, final long low) {
+        return toInetAddress(ByteBuffer.allocate(16).order(ByteOrder.BIG_ENDIAN).putLong(0, high).putLong(8, low).array());
+    }
+
+    // parses either an IPv4 or IPv6 literal, never performs a DNS lookup
+    public static InetAddress parseIP(final String ip) {
+        if (ip.indexOf(':') != -1) {
+            return toInetAddress(getIPv6Address(ip));
+        }
+        return toInetAddress(getAddress(ip));
+    }
+
     public static UUID parseUUID(final String string) {
         if (string.length() == 32) {
             try {
@@ -177,6 +349,54 @@ public final class Util {
         throw new IllegalArgumentException("Not a UUID " + string);
     }
 
+    // parses a duration such as 90m, 24h, 7d or 2w, a plain number is taken as hours
+    public static long parseDurationMillis(final String string) {
+        if (string.isEmpty()) {
+            throw new IllegalArgumentException("Empty duration");
+        }
+        final char last = Character.toLowerCase(string.charAt(string.length() - 1));
+        final long unitMillis;
+        switch (last) {
+            case 'm': {
+                unitMillis = TimeUnit.MINUTES.toMillis(1L);
+                break;
+            }
+            case 'h': {
+                unitMillis = TimeUnit.HOURS.toMillis(1L);
+                break;
+            }
+            case 'd': {
+                unitMillis = TimeUnit.DAYS.toMillis(1L);
+                break;
+            }
+            case 'w': {
+                unitMillis = TimeUnit.DAYS.toMillis(7L);
+                break;
+            }
+            default: {
+                if (!Character.isDigit(last)) {
+                    throw new IllegalArgumentException("Unknown duration unit in " + string);
+                }
+                return parsePositive(string, string) * TimeUnit.HOURS.toMillis(1L);
+            }
+        }
+        return parsePositive(string.substring(0, string.length() - 1), string) * unitMillis;
+    }
+
+    private static long parsePositive(final String number, final String input) {
+        final long ret;
+        try {
+            ret = Long.parseLong(number);
+        } catch (final NumberFormatException ex) {
+            throw new IllegalArgumentException("Not a duration " + input, ex);
+        }
+        // the bound keeps the result from overflowing in any unit
+        if (ret <= 0L || ret > 1_000_000L) {
+            throw new IllegalArgumentException("Duration out of range: " + input);
+        }
+        return ret;
+    }
+
 
     public static JsonElement parseJson(final File file) throws IOException {
         try (final JsonReader reader = new JsonReader(new InputStreamReader(new BufferedInputStream(new FileInputStream(file)), StandardCharsets.UTF_8))) {
@@ -185,6 +405,26 @@ public final class Util {
         }
     }
 
+    public static JsonElement parseJson(final byte[] data) throws IOException {
+        try (final JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(data), StandardCharsets.UTF_8))) {
+            reader.setLenient(true);
+            return JsonParser.parseReader(reader);
+        } catch (final RuntimeException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    public static byte[] writeJsonToBytes(final JsonElement json) throws IOException {
+        final ByteArrayOutputStream ret = new ByteArrayOutputStream(256);
+        try (final JsonWriter writer = new JsonWriter(new OutputStreamWriter(ret, StandardCharsets.UTF_8))) {
+            writer.setIndent(" ");
+            writer.setLenient(true);
+
+            Streams.write(json, writer);
+        }
+        return ret.toByteArray();
+    }
+
     // atomic write to file
     public static void writeJsonToFile(final File file, final JsonElement json) throws IOException {
         file.getParentFile().mkdirs();
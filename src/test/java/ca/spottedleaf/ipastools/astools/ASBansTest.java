@@ -0,0 +1,134 @@
+package ca.spottedleaf.ipastools.astools;
+
+import ca.spottedleaf.ipastools.util.Util;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class ASBansTest {
+
+    // far enough in the future that nothing expires while the tests run
+    private static final Date LATER = new Date(System.currentTimeMillis() + 3_600_000L);
+
+    private File file;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        this.file = Files.createTempFile("ipastools-bans", ".json").toFile();
+        Files.delete(this.file.toPath());
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.file.toPath());
+    }
+
+    @Test
+    public void randomOperationsMatchMap() {
+        final ASBans bans = new ASBans(this.file);
+        final Map<Integer, String> expected = new HashMap<>();
+        final SplittableRandom random = new SplittableRandom(7L);
+
+        for (int i = 0; i < 5_000; ++i) {
+            // includes AS numbers above 2^31-1, which are negative as ints
+            final int ASNumber = random.nextInt(-32, 32);
+            if (random.nextInt(3) == 0) {
+                assertEquals(expected.remove(ASNumber) != null, bans.removeBanEntry(ASNumber));
+            } else {
+                final String reason = "ban " + i;
+                bans.addBanEntry(ASNumber, reason, random.nextBoolean() ? null : LATER);
+                expected.put(ASNumber, reason);
+            }
+
+            assertEquals(expected.size(), bans.getASBanCount());
+            final int probe = random.nextInt(-32, 32);
+            assertEquals(expected.get(probe), bans.getKickReason(probe));
+        }
+        for (int ASNumber = -32; ASNumber < 32; ++ASNumber) {
+            assertEquals(expected.get(ASNumber), bans.getKickReason(ASNumber));
+        }
+    }
+
+    @Test
+    public void rangeBansTakePrecedence() {
+        final ASBans bans = new ASBans(this.file);
+        bans.addBanEntry(100, "as", null);
+        bans.addRangeBanEntry(ASBans.RangeBanEntry.parse("10.0.0.0/8", "range", LATER));
+
+        assertEquals("range", bans.getKickReason(100, Util.getAddress("10.1.2.3")));
+        assertEquals("range", bans.getKickReason(-1, Util.getAddress("10.1.2.3")));
+        assertEquals("as", bans.getKickReason(100, Util.getAddress("11.0.0.0")));
+        assertNull(bans.getKickReason(101, Util.getAddress("11.0.0.0")));
+
+        assertNotNull(bans.removeRangeBanEntry("10.0.0.0/8"));
+        assertNull(bans.removeRangeBanEntry("10.0.0.0/8"));
+        assertEquals(0, bans.getRangeBanCount());
+        assertEquals("as", bans.getKickReason(100, Util.getAddress("10.1.2.3")));
+    }
+
+    @Test
+    public void savedBansAreLoaded() {
+        final ASBans bans = new ASBans(this.file);
+        bans.addBanEntry(100, "permanent", null);
+        bans.addBanEntry((int)4200000000L, "temporary", LATER);
+        bans.addRangeBanEntry(ASBans.RangeBanEntry.parse("10.0.0.0/8", "outer", null));
+        bans.addRangeBanEntry(ASBans.RangeBanEntry.parse("10.1.0.0/16", "inner", LATER));
+        assertTrue(bans.saveToFile());
+
+        final ASBans loaded = new ASBans(this.file);
+        assertEquals(2, loaded.getASBanCount());
+        assertEquals(2, loaded.getRangeBanCount());
+        assertEquals("permanent", loaded.getKickReason(100));
+        assertEquals("temporary", loaded.getKickReason((int)4200000000L));
+        assertEquals("inner", loaded.getKickReason(-1, Util.getAddress("10.1.0.1")));
+        assertEquals("outer", loaded.getKickReason(-1, Util.getAddress("10.2.0.1")));
+    }
+
+    @Test
+    public void readersSeeWholeTables() throws InterruptedException {
+        final ASBans bans = new ASBans(this.file);
+        final int count = 2_000;
+        final AtomicReference<String> failure = new AtomicReference<>();
+
+        // bans are added in order, so a reader which sees one ban must also see every ban added before it
+        final Thread reader = new Thread(() -> {
+            int seen = 0;
+            while (seen < count && failure.get() == null) {
+                int visible = 0;
+                while (visible < count && bans.getKickReason(visible) != null) {
+                    ++visible;
+                }
+                for (int ASNumber = visible; ASNumber < count; ++ASNumber) {
+                    if (bans.getKickReason(ASNumber) != null && bans.getKickReason(visible) == null) {
+                        failure.set("AS" + ASNumber + " visible before AS" + visible);
+                        return;
+                    }
+                }
+                if (visible < seen) {
+                    failure.set("AS" + visible + " disappeared");
+                    return;
+                }
+                seen = visible;
+            }
+        });
+        reader.start();
+
+        for (int i = 0; i < count; ++i) {
+            bans.addBanEntry(i, "ban " + i, null);
+        }
+        reader.join();
+
+        assertNull(failure.get());
+        assertEquals(count, bans.getASBanCount());
+    }
+}
@@ -0,0 +1,168 @@
+package ca.spottedleaf.ipastools.astools;
+
+import ca.spottedleaf.ipastools.util.Util;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class ASFeedParserTest {
+
+    // above Integer.MAX_VALUE, so only representable as an unsigned int
+    private static final long HIGH_AS_NUMBER = 4200000000L;
+
+    private Path feed;
+
+    @AfterEach
+    public void deleteFeed() throws IOException {
+        if (this.feed != null) {
+            Files.deleteIfExists(this.feed);
+        }
+    }
+
+    // the feeds are read from a local file, as they would be from a downloaded copy
+    private InputStream open(final String contents) throws IOException {
+        if (this.feed == null) {
+            this.feed = Files.createTempFile("ipastools-feed", ".txt");
+        }
+        Files.writeString(this.feed, contents, StandardCharsets.UTF_8);
+        return Files.newInputStream(this.feed);
+    }
+
+    private IPv4PrefixIndex parseRawTable(final String contents) throws IOException {
+        final IPv4PrefixIndex.Builder builder = new IPv4PrefixIndex.Builder();
+        try (final InputStream in = this.open(contents)) {
+            ASFeedParser.parseRawTable(in, builder);
+        }
+        return builder.build(IPv4PrefixIndex.Engine.SORTED_RANGES);
+    }
+
+    private IPv6PrefixIndex parseRawTable6(final String contents) throws IOException {
+        final IPv6PrefixIndex.Builder builder = new IPv6PrefixIndex.Builder();
+        try (final InputStream in = this.open(contents)) {
+            ASFeedParser.parseRawTable6(in, builder);
+        }
+        return builder.build();
+    }
+
+    private static int lookup6(final IPv6PrefixIndex index, final String address) {
+        final byte[] ip = Util.getIPv6Address(address);
+        return index.lookupASNumber(Util.getIPv6High(ip), Util.getIPv6Low(ip));
+    }
+
+    @Test
+    public void rawTableNestedPrefixes() throws IOException {
+        final IPv4PrefixIndex index = this.parseRawTable(
+                "10.0.0.0/8\t100\n"
+                        + "\n"
+                        + "10.1.0.0/16 101\r\n"
+                        + "  \n"
+                        + "10.1.2.0/24\t \t102 \n"
+                        + "11.0.0.0/8 " + HIGH_AS_NUMBER + "\n"
+                        + "0.0.0.0/0 1"
+        );
+
+        assertEquals(5, index.prefixCount());
+        assertEquals(100, index.lookupASNumber(Util.getAddress("10.2.0.0")));
+        assertEquals(101, index.lookupASNumber(Util.getAddress("10.1.3.0")));
+        assertEquals(102, index.lookupASNumber(Util.getAddress("10.1.2.255")));
+        assertEquals(HIGH_AS_NUMBER, Integer.toUnsignedLong(index.lookupASNumber(Util.getAddress("11.255.255.255"))));
+        assertEquals(1, index.lookupASNumber(Util.getAddress("255.255.255.255")));
+    }
+
+    @Test
+    public void rawTable6NestedPrefixes() throws IOException {
+        final IPv6PrefixIndex index = this.parseRawTable6(
+                "::/0 1\n"
+                        + "2001:db8::/32 200\n"
+                        + "2001:db8:1::/48\t201\n"
+                        + "2001:db8:1:2:3:4:5:6/128 202\n"
+                        + "ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff/128 " + HIGH_AS_NUMBER + "\n"
+        );
+
+        assertEquals(5, index.prefixCount());
+        assertEquals(1, lookup6(index, "::"));
+        assertEquals(200, lookup6(index, "2001:db8:ffff::"));
+        assertEquals(201, lookup6(index, "2001:db8:1:ffff::"));
+        assertEquals(202, lookup6(index, "2001:db8:1:2:3:4:5:6"));
+        assertEquals(201, lookup6(index, "2001:db8:1:2:3:4:5:7"));
+        assertEquals(HIGH_AS_NUMBER, Integer.toUnsignedLong(lookup6(index, "ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff")));
+        assertEquals(1, lookup6(index, "ffff:ffff:ffff:ffff:ffff:ffff:ffff:fffe"));
+    }
+
+    @Test
+    public void usedAutnums() throws IOException {
+        final ASNameTable.Builder builder = new ASNameTable.Builder();
+        try (final InputStream in = this.open(
+                "   13335 CLOUDFLARENET - Cloudflare, Inc., US\n"
+                        + "\n"
+                        + "  " + HIGH_AS_NUMBER + " PRIVATE-4B, ZZ \r\n"
+                        + "4294967295 LAST\n"
+        )) {
+            ASFeedParser.parseUsedAutnums(in, builder);
+        }
+        final ASNameTable names = builder.build();
+
+        assertEquals(3, names.size());
+        assertEquals("CLOUDFLARENET - Cloudflare, Inc., US", names.getName(13335));
+        assertEquals("PRIVATE-4B, ZZ", names.getName((int)HIGH_AS_NUMBER));
+        assertEquals("LAST", names.getName((int)0xFFFFFFFFL));
+    }
+
+    @Test
+    public void linesAcrossReadChunks() throws IOException {
+        // longer than the parser buffer, so lines are split between reads
+        final StringBuilder contents = new StringBuilder();
+        for (int i = 0; i < 8192; ++i) {
+            contents.append("10.").append(i >>> 8).append('.').append(i & 0xFF).append(".0/24 ").append(1000 + i).append('\n');
+        }
+        final IPv4PrefixIndex index = this.parseRawTable(contents.toString());
+
+        assertEquals(8192, index.prefixCount());
+        for (int i = 0; i < 8192; ++i) {
+            assertEquals(1000 + i, index.lookupASNumber(Util.getAddress("10." + (i >>> 8) + "." + (i & 0xFF) + ".1")));
+        }
+    }
+
+    @Test
+    public void malformedLines() {
+        final String[] rawTable = {
+                "10.0.0.0/8",
+                "10.0.0.0 100",
+                "10.0.0/8 100",
+                "10.0.0.0.0/8 100",
+                "256.0.0.0/8 100",
+                "10.0.0.0/33 100",
+                "10.0.0.0/8 100 extra",
+                "10.0.0.0/8 -100",
+                "10.0.0.0/8 4294967296",
+                "10.0.0.0/8100"
+        };
+        for (final String line : rawTable) {
+            assertThrows(IOException.class, () -> this.parseRawTable("10.0.0.0/8 100\n" + line + "\n"), line);
+        }
+
+        final String[] rawTable6 = {
+                "2001:db8::/129 100",
+                "2001:db8::1::/32 100",
+                "2001:db8:/32 100",
+                "12345::/16 100",
+                "1:2:3:4:5:6:7:8:9/128 100",
+                "2001:db8::/32 4294967296"
+        };
+        for (final String line : rawTable6) {
+            assertThrows(IOException.class, () -> this.parseRawTable6(line + "\n"), line);
+        }
+
+        assertThrows(IOException.class, () -> {
+            try (final InputStream in = this.open("AS13335 CLOUDFLARENET\n")) {
+                ASFeedParser.parseUsedAutnums(in, new ASNameTable.Builder());
+            }
+        });
+    }
+}
@@ -0,0 +1,192 @@
+package ca.spottedleaf.ipastools.astools;
+
+import ca.spottedleaf.ipastools.util.Util;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class ASLookupCacheTest {
+
+    private static final long INVALIDATE_TIME = 1_700_000_000_000L;
+
+    private File file;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        this.file = Files.createTempFile("ipastools-cache", ".bin").toFile();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.file.toPath());
+    }
+
+    private static IPv4PrefixIndex ipv4() {
+        return new IPv4PrefixIndex.Builder()
+                .addPrefix(0, 0, 1)
+                .addPrefix(Util.getAddress("10.0.0.0"), 8, 100)
+                .addPrefix(Util.getAddress("10.1.0.0"), 16, 101)
+                .addPrefix(Util.getAddress("255.255.255.255"), 32, (int)4200000000L)
+                .build(IPv4PrefixIndex.Engine.SORTED_RANGES);
+    }
+
+    private static IPv6PrefixIndex ipv6() {
+        return new IPv6PrefixIndex.Builder()
+                .addPrefix(0x20010DB800000000L, 0L, 32, 200)
+                .addPrefix(0x20010DB800010000L, 0L, 48, 100)
+                .addPrefix(-1L, -1L, 128, 201)
+                .build();
+    }
+
+    private static ASNameTable names() {
+        // AS 101 and AS 200 share a name, so the string table holds it once
+        return new ASNameTable.Builder()
+                .addName(1, "ONE")
+                .addName(100, "TEN")
+                .addName(101, "SHARED \u00E9")
+                .addName(200, "SHARED \u00E9")
+                .addName((int)4200000000L, "")
+                .build();
+    }
+
+    private void write() throws IOException {
+        ASLookupCache.write(this.file, INVALIDATE_TIME, ipv4(), ipv6(), names());
+    }
+
+    private void flipByte(final long offset) throws IOException {
+        try (final RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+            raf.seek(offset);
+            final int b = raf.read();
+            raf.seek(offset);
+            raf.write(b ^ 0x10);
+        }
+    }
+
+    private static void assertSamePrefixes(final IPv4PrefixIndex expected, final IPv4PrefixIndex actual) {
+        assertEquals(expected.prefixCount(), actual.prefixCount());
+        for (int i = 0; i < expected.prefixCount(); ++i) {
+            assertEquals(expected.getPrefixAddress(i), actual.getPrefixAddress(i));
+            assertEquals(expected.getPrefixLength(i), actual.getPrefixLength(i));
+            assertEquals(expected.getPrefixASNumber(i), actual.getPrefixASNumber(i));
+        }
+    }
+
+    private static void assertSamePrefixes(final IPv6PrefixIndex expected, final IPv6PrefixIndex actual) {
+        assertEquals(expected.prefixCount(), actual.prefixCount());
+        for (int i = 0; i < expected.prefixCount(); ++i) {
+            assertEquals(expected.getPrefixAddressHigh(i), actual.getPrefixAddressHigh(i));
+            assertEquals(expected.getPrefixAddressLow(i), actual.getPrefixAddressLow(i));
+            assertEquals(expected.getPrefixLength(i), actual.getPrefixLength(i));
+            assertEquals(expected.getPrefixASNumber(i), actual.getPrefixASNumber(i));
+        }
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        this.write();
+        assertTrue(ASLookupCache.isBinaryCache(this.file));
+
+        for (final IPv4PrefixIndex.Engine engine : IPv4PrefixIndex.Engine.values()) {
+            final ASLookupCache.Contents contents = ASLookupCache.read(this.file, engine);
+
+            assertEquals(INVALIDATE_TIME, contents.invalidateTime());
+            assertEquals(engine, contents.ipv4().getEngine());
+            assertSamePrefixes(ipv4(), contents.ipv4());
+            assertSamePrefixes(ipv6(), contents.ipv6());
+
+            assertEquals(101, contents.ipv4().lookupASNumber(Util.getAddress("10.1.2.3")));
+            assertEquals(100, contents.ipv4().lookupASNumber(Util.getAddress("10.2.0.0")));
+            assertEquals(4200000000L, Integer.toUnsignedLong(contents.ipv4().lookupASNumber(-1)));
+            assertEquals(100, contents.ipv6().lookupASNumber(0x20010DB800010000L, 1L));
+            assertEquals(201, contents.ipv6().lookupASNumber(-1L, -1L));
+
+            final ASNameTable names = contents.names();
+            assertEquals(5, names.size());
+            assertEquals("ONE", names.getName(1));
+            assertEquals("SHARED \u00E9", names.getName(101));
+            assertEquals("SHARED \u00E9", names.getName(200));
+            assertEquals("", names.getName((int)4200000000L));
+            assertNull(names.getName(2));
+        }
+    }
+
+    @Test
+    public void emptyTables() throws IOException {
+        ASLookupCache.write(
+                this.file, 0L, new IPv4PrefixIndex.Builder().build(), new IPv6PrefixIndex.Builder().build(), ASNameTable.EMPTY
+        );
+        final ASLookupCache.Contents contents = ASLookupCache.read(this.file, IPv4PrefixIndex.Engine.SORTED_RANGES);
+
+        assertEquals(0, contents.ipv4().prefixCount());
+        assertEquals(0, contents.ipv6().prefixCount());
+        assertEquals(0, contents.names().size());
+    }
+
+    @Test
+    public void corruptByteIsDetected() throws IOException {
+        this.write();
+        final long length = this.file.length();
+        final byte[] original = Files.readAllBytes(this.file.toPath());
+
+        // every byte outside of the invalidate time is covered by the checksum, including the checksum itself
+        for (long offset = 0L; offset < length; ++offset) {
+            if (offset >= 8 + 4 && offset < 8 + 4 + 8) {
+                continue;
+            }
+            this.flipByte(offset);
+            assertThrows(IOException.class, () -> ASLookupCache.read(this.file, IPv4PrefixIndex.Engine.SORTED_RANGES), "offset " + offset);
+            Files.write(this.file.toPath(), original);
+        }
+    }
+
+    @Test
+    public void truncatedFileIsRejected() throws IOException {
+        this.write();
+        try (final RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+            raf.setLength(raf.length() - 1L);
+        }
+        assertThrows(IOException.class, () -> ASLookupCache.read(this.file, IPv4PrefixIndex.Engine.SORTED_RANGES));
+
+        try (final RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+            raf.setLength(10L);
+        }
+        assertThrows(IOException.class, () -> ASLookupCache.read(this.file, IPv4PrefixIndex.Engine.SORTED_RANGES));
+    }
+
+    @Test
+    public void updateInvalidateTimeKeepsChecksum() throws IOException {
+        this.write();
+        final byte[] before = Files.readAllBytes(this.file.toPath());
+
+        ASLookupCache.updateInvalidateTime(this.file, INVALIDATE_TIME + 1234L);
+
+        final byte[] after = Files.readAllBytes(this.file.toPath());
+        assertEquals(before.length, after.length);
+        for (int i = 0; i < before.length; ++i) {
+            if (i < 8 + 4 || i >= 8 + 4 + 8) {
+                assertEquals(before[i], after[i], "offset " + i);
+            }
+        }
+
+        final ASLookupCache.Contents contents = ASLookupCache.read(this.file, IPv4PrefixIndex.Engine.SORTED_RANGES);
+        assertEquals(INVALIDATE_TIME + 1234L, contents.invalidateTime());
+        assertSamePrefixes(ipv4(), contents.ipv4());
+    }
+
+    @Test
+    public void legacyTextCacheIsNotBinary() throws IOException {
+        Files.write(this.file.toPath(), "{\"invalidateTime\":0}".getBytes(StandardCharsets.UTF_8));
+        assertFalse(ASLookupCache.isBinaryCache(this.file));
+        assertThrows(IOException.class, () -> ASLookupCache.updateInvalidateTime(this.file, 0L));
+
+        Files.write(this.file.toPath(), new byte[3]);
+        assertFalse(ASLookupCache.isBinaryCache(this.file));
+    }
+}
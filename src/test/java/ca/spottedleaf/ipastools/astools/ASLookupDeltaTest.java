@@ -0,0 +1,196 @@
+package ca.spottedleaf.ipastools.astools;
+
+import ca.spottedleaf.ipastools.util.Util;
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class ASLookupDeltaTest {
+
+    private static ASLookup.Tables tables(final IPv4PrefixIndex ipv4, final IPv6PrefixIndex ipv6, final ASNameTable names) {
+        return new ASLookup.Tables(ipv4, ipv6, names, ASLookup.SourceChecksums.UNKNOWN);
+    }
+
+    private static IPv6PrefixIndex emptyIPv6() {
+        return new IPv6PrefixIndex.Builder().build();
+    }
+
+    private static List<String> descriptions(final ASLookupDelta delta) {
+        final List<String> ret = new ArrayList<>();
+        for (final ASLookupDelta.Change change : delta.getChanges()) {
+            ret.add(change.description());
+        }
+        return ret;
+    }
+
+    @Test
+    public void sharedTablesHaveNoChanges() {
+        final IPv4PrefixIndex ipv4 = new IPv4PrefixIndex.Builder().addPrefix(Util.getAddress("10.0.0.0"), 8, 100).build();
+        final IPv6PrefixIndex ipv6 = new IPv6PrefixIndex.Builder().addPrefix(0x20010DB800000000L, 0L, 32, 200).build();
+        final ASNameTable names = new ASNameTable.Builder().addName(100, "TEN").build();
+
+        final ASLookupDelta delta = ASLookupDelta.compute(tables(ipv4, ipv6, names), tables(ipv4, ipv6, names));
+        assertFalse(delta.hasChanges());
+        assertEquals(0, delta.prefixChanges());
+        assertTrue(delta.getChanges().isEmpty());
+
+        // the same table on another engine shares the prefix table, so there is nothing to diff
+        final ASLookupDelta engines = ASLookupDelta.compute(
+                tables(ipv4, ipv6, names), tables(ipv4.withEngine(IPv4PrefixIndex.Engine.STRIDE_TRIE), ipv6, names)
+        );
+        assertFalse(engines.hasChanges());
+    }
+
+    @Test
+    public void rebuiltIdenticalTablesHaveNoChanges() {
+        final IPv4PrefixIndex.Builder ipv4 = new IPv4PrefixIndex.Builder()
+                .addPrefix(Util.getAddress("10.0.0.0"), 8, 100)
+                .addPrefix(Util.getAddress("10.1.0.0"), 16, 101);
+        final ASNameTable.Builder names = new ASNameTable.Builder().addName(100, "TEN").addName(101, "TEN ONE");
+
+        // built without the previous tables, so the merge walk has to run
+        final ASLookupDelta delta = ASLookupDelta.compute(
+                tables(ipv4.build(), emptyIPv6(), names.build()), tables(ipv4.build(), emptyIPv6(), names.build())
+        );
+        assertFalse(delta.hasChanges());
+    }
+
+    @Test
+    public void ipv4Changes() {
+        final IPv4PrefixIndex from = new IPv4PrefixIndex.Builder()
+                .addPrefix(Util.getAddress("10.0.0.0"), 8, 100)
+                .addPrefix(Util.getAddress("10.1.0.0"), 16, 101)
+                .addPrefix(Util.getAddress("192.168.0.0"), 16, 102)
+                .build();
+        final IPv4PrefixIndex to = new IPv4PrefixIndex.Builder()
+                .addPrefix(Util.getAddress("10.0.0.0"), 8, 100)
+                // same address, different length
+                .addPrefix(Util.getAddress("10.1.0.0"), 24, 101)
+                .addPrefix(Util.getAddress("192.168.0.0"), 16, 103)
+                .addPrefix(Util.getAddress("255.0.0.0"), 8, 104)
+                .build();
+
+        final ASLookupDelta delta = ASLookupDelta.compute(
+                tables(from, emptyIPv6(), ASNameTable.EMPTY), tables(to, emptyIPv6(), ASNameTable.EMPTY)
+        );
+
+        assertTrue(delta.hasChanges());
+        assertEquals(4, delta.prefixChanges());
+        assertEquals(List.of(
+                "REMOVED 10.1.0.0/16 AS101",
+                "ADDED 10.1.0.0/24 AS101",
+                "REASSIGNED 192.168.0.0/16 AS102 -> AS103",
+                "ADDED 255.0.0.0/8 AS104"
+        ), descriptions(delta));
+        assertEquals("IPv4 +2 -1 ~1, IPv6 +0 -0 ~0, 0 AS names changed", delta.summary());
+
+        final ASLookupDelta.Change removed = delta.getChanges().get(0);
+        assertEquals(ASLookupDelta.ChangeType.REMOVED, removed.type());
+        assertEquals(101, removed.oldASNumber());
+        assertEquals(-1, removed.newASNumber());
+    }
+
+    @Test
+    public void ipv6Changes() {
+        final IPv6PrefixIndex from = new IPv6PrefixIndex.Builder()
+                .addPrefix(0x20010DB800000000L, 0L, 32, 200)
+                .addPrefix(0x20010DB800000000L, 1L, 128, 201)
+                .build();
+        final IPv6PrefixIndex to = new IPv6PrefixIndex.Builder()
+                .addPrefix(0x20010DB800000000L, 0L, 32, 202)
+                // differs only in the low half
+                .addPrefix(0x20010DB800000000L, 2L, 128, 201)
+                .build();
+        final IPv4PrefixIndex ipv4 = new IPv4PrefixIndex.Builder().build();
+
+        final ASLookupDelta delta = ASLookupDelta.compute(
+                tables(ipv4, from, ASNameTable.EMPTY), tables(ipv4, to, ASNameTable.EMPTY)
+        );
+
+        assertEquals(List.of(
+                "REASSIGNED 2001:db8::/32 AS200 -> AS202",
+                "REMOVED 2001:db8::1/128 AS201",
+                "ADDED 2001:db8::2/128 AS201"
+        ), descriptions(delta));
+        assertEquals("IPv4 +0 -0 ~0, IPv6 +1 -1 ~1, 0 AS names changed", delta.summary());
+    }
+
+    @Test
+    public void nameChanges() {
+        final ASNameTable from = new ASNameTable.Builder()
+                .addName(1, "ONE")
+                .addName(2, "TWO")
+                .addName(3, "THREE")
+                .build();
+        final ASNameTable to = new ASNameTable.Builder()
+                .addName(1, "ONE")
+                .addName(2, "TWO RENAMED")
+                .addName(4, "FOUR")
+                .build();
+        final IPv4PrefixIndex ipv4 = new IPv4PrefixIndex.Builder().build();
+        final IPv6PrefixIndex ipv6 = emptyIPv6();
+
+        final ASLookupDelta delta = ASLookupDelta.compute(tables(ipv4, ipv6, from), tables(ipv4, ipv6, to));
+
+        // names are counted but not recorded as prefix changes
+        assertTrue(delta.hasChanges());
+        assertEquals(0, delta.prefixChanges());
+        assertTrue(delta.getChanges().isEmpty());
+        assertEquals("IPv4 +0 -0 ~0, IPv6 +0 -0 ~0, 3 AS names changed", delta.summary());
+    }
+
+    @Test
+    public void randomTablesMatchMapDiff() {
+        final SplittableRandom random = new SplittableRandom(5L);
+
+        for (int round = 0; round < 100; ++round) {
+            final Map<Long, Integer> fromPrefixes = new HashMap<>();
+            final Map<Long, Integer> toPrefixes = new HashMap<>();
+            final IPv4PrefixIndex.Builder fromBuilder = new IPv4PrefixIndex.Builder();
+            final IPv4PrefixIndex.Builder toBuilder = new IPv4PrefixIndex.Builder();
+            for (int i = 0, len = random.nextInt(0, 64); i < len; ++i) {
+                // few distinct prefixes, so that both sides often hold the same one
+                final int length = 8 * random.nextInt(1, 5);
+                final int address = (random.nextInt(4) << 24) & (int)(0xFFFFFFFF00000000L >>> length);
+                final long key = ((long)address << 8) | length;
+                final int ASNumber = 1 + random.nextInt(3);
+                if (random.nextBoolean()) {
+                    fromBuilder.addPrefix(address, length, ASNumber);
+                    fromPrefixes.put(key, ASNumber);
+                } else {
+                    toBuilder.addPrefix(address, length, ASNumber);
+                    toPrefixes.put(key, ASNumber);
+                }
+            }
+
+            int added = 0;
+            int removed = 0;
+            int reassigned = 0;
+            for (final Map.Entry<Long, Integer> entry : toPrefixes.entrySet()) {
+                final Integer previous = fromPrefixes.get(entry.getKey());
+                if (previous == null) {
+                    ++added;
+                } else if (!previous.equals(entry.getValue())) {
+                    ++reassigned;
+                }
+            }
+            for (final Long key : fromPrefixes.keySet()) {
+                if (!toPrefixes.containsKey(key)) {
+                    ++removed;
+                }
+            }
+
+            final ASLookupDelta delta = ASLookupDelta.compute(
+                    tables(fromBuilder.build(), emptyIPv6(), ASNameTable.EMPTY),
+                    tables(toBuilder.build(), emptyIPv6(), ASNameTable.EMPTY)
+            );
+            assertEquals("IPv4 +" + added + " -" + removed + " ~" + reassigned + ", IPv6 +0 -0 ~0, 0 AS names changed", delta.summary());
+            assertEquals(added + removed + reassigned, delta.getChanges().size());
+        }
+    }
+}
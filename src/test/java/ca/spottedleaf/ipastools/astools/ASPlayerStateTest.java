@@ -0,0 +1,153 @@
+package ca.spottedleaf.ipastools.astools;
+
+import ca.spottedleaf.ipastools.storage.UserDataStorage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class ASPlayerStateTest {
+
+    // storage without any data, whose reads wait for the test to let them through
+    private static final class BlockingStorage implements UserDataStorage {
+
+        private final CountDownLatch readsAllowed = new CountDownLatch(1);
+        private final AtomicInteger reads = new AtomicInteger();
+        private volatile RuntimeException failure;
+
+        @Override
+        public byte[] read(final UUID userId) throws IOException {
+            this.reads.getAndIncrement();
+            try {
+                this.readsAllowed.await();
+            } catch (final InterruptedException ex) {
+                throw new IOException(ex);
+            }
+            final RuntimeException failure = this.failure;
+            if (failure != null) {
+                this.failure = null;
+                throw failure;
+            }
+            return null;
+        }
+
+        @Override
+        public void write(final UUID userId, final byte[] data) {}
+
+        @Override
+        public boolean storesJson() {
+            return false;
+        }
+
+        @Override
+        public void forEach(final BiConsumer<UUID, byte[]> consumer) {}
+
+        @Override
+        public void flush() {}
+
+        @Override
+        public void close() {}
+    }
+
+    private BlockingStorage storage;
+    private ExecutorService loadExecutor;
+    private ScheduledExecutorService saveExecutor;
+
+    @BeforeEach
+    public void setUp() {
+        this.storage = new BlockingStorage();
+        this.loadExecutor = Executors.newSingleThreadExecutor();
+        this.saveExecutor = Executors.newSingleThreadScheduledExecutor();
+        ASPlayerState.setStorage(this.storage);
+        ASPlayerState.setLoadExecutor(this.loadExecutor);
+        ASPlayerState.setSaveQueue(new UserDataSaveQueue(this.saveExecutor, TimeUnit.HOURS.toMillis(1L), 1024));
+        ASPlayerState.setCache(new UserDataCache(1L << 20));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        this.storage.readsAllowed.countDown();
+        this.loadExecutor.shutdownNow();
+        this.saveExecutor.shutdownNow();
+    }
+
+    // the load drops its own reference after completing the future, on the single loader thread
+    private void awaitLoads() throws Exception {
+        this.loadExecutor.submit(() -> {}).get(1L, TimeUnit.MINUTES);
+    }
+
+    @Test
+    public void releaseBeforeLoadCompletes() throws Exception {
+        final UUID userId = UUID.randomUUID();
+
+        // the player disconnects while their data is still being read
+        final CompletableFuture<ASPlayerState> future = ASPlayerState.acquireAndLoadUserDataAsync(userId, true);
+        ASPlayerState.releaseUserData(userId);
+        assertFalse(future.isDone());
+
+        this.storage.readsAllowed.countDown();
+        final ASPlayerState state = future.get(1L, TimeUnit.MINUTES);
+        assertNotNull(state);
+        this.awaitLoads();
+
+        // nothing holds the data anymore, so it must have been released rather than left loaded
+        assertNull(ASPlayerState.getUserData(userId), "user data leaked after release during load");
+        assertTrue(ASPlayerState.getCache().contains(userId));
+
+        final CompletableFuture<ASPlayerState> again = ASPlayerState.acquireAndLoadUserDataAsync(userId, true);
+        assertTrue(again.isDone());
+        assertSame(state, again.get());
+        assertEquals(1, this.storage.reads.get());
+        ASPlayerState.releaseUserData(userId);
+        assertNull(ASPlayerState.getUserData(userId));
+    }
+
+    @Test
+    public void releaseOneOfTwoBeforeLoadCompletes() throws Exception {
+        final UUID userId = UUID.randomUUID();
+
+        final CompletableFuture<ASPlayerState> first = ASPlayerState.acquireAndLoadUserDataAsync(userId, true);
+        final CompletableFuture<ASPlayerState> second = ASPlayerState.acquireAndLoadUserDataAsync(userId, true);
+        ASPlayerState.releaseUserData(userId);
+
+        this.storage.readsAllowed.countDown();
+        assertSame(first.get(1L, TimeUnit.MINUTES), second.get(1L, TimeUnit.MINUTES));
+        this.awaitLoads();
+
+        // the second acquirer still holds the data
+        assertSame(first.get(), ASPlayerState.getUserData(userId));
+        ASPlayerState.releaseUserData(userId);
+        assertNull(ASPlayerState.getUserData(userId));
+        assertEquals(1, this.storage.reads.get());
+    }
+
+    @Test
+    public void failedLoadCompletesExceptionally() throws Exception {
+        final UUID userId = UUID.randomUUID();
+        this.storage.failure = new IllegalStateException("corrupt");
+
+        final CompletableFuture<ASPlayerState> future = ASPlayerState.acquireAndLoadUserDataAsync(userId, true);
+        this.storage.readsAllowed.countDown();
+        final ExecutionException thrown = assertThrows(ExecutionException.class, () -> future.get(1L, TimeUnit.MINUTES));
+        assertTrue(thrown.getCause() instanceof IllegalStateException);
+        assertNull(ASPlayerState.getUserData(userId));
+
+        // the failed load must not be left pending, so a later acquire reads again
+        final ASPlayerState state = ASPlayerState.acquireAndLoadUserDataAsync(userId, true).get(1L, TimeUnit.MINUTES);
+        assertNotNull(state);
+        assertEquals(2, this.storage.reads.get());
+        ASPlayerState.releaseUserData(userId);
+    }
+}
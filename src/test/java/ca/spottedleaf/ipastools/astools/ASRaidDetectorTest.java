@@ -0,0 +1,115 @@
+package ca.spottedleaf.ipastools.astools;
+
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class ASRaidDetectorTest {
+
+    private static final long WINDOW = TimeUnit.SECONDS.toNanos(1L);
+    private static final long NOW = 1_000_000_000_000L;
+
+    @Test
+    public void disabledDetectorTracksNothing() {
+        final ASRaidDetector detector = new ASRaidDetector(0.0, WINDOW);
+
+        assertFalse(detector.isEnabled());
+        for (int i = 0; i < 100; ++i) {
+            assertFalse(detector.recordJoin(1, NOW));
+        }
+        assertEquals(0, detector.size());
+        assertEquals(0.0, detector.getRate(1, NOW), 0.0);
+    }
+
+    @Test
+    public void tripsOncePerRaid() {
+        final ASRaidDetector detector = new ASRaidDetector(2.0, WINDOW);
+
+        assertFalse(detector.recordJoin(100, NOW));
+        assertFalse(detector.recordJoin(100, NOW));
+        // the third join in the window exceeds 2 joins per second
+        assertTrue(detector.recordJoin(100, NOW));
+        assertFalse(detector.recordJoin(100, NOW));
+        assertEquals(4.0, detector.getRate(100, NOW), 0.0);
+
+        // other AS numbers are counted separately
+        assertFalse(detector.recordJoin(101, NOW));
+        assertEquals(1.0, detector.getRate(101, NOW), 0.0);
+
+        // the rate drops back under the threshold once the window has passed, so the next raid trips again
+        final long later = NOW + 2L * WINDOW;
+        assertEquals(0.0, detector.getRate(100, later), 0.0);
+        assertFalse(detector.recordJoin(100, later));
+        assertFalse(detector.recordJoin(100, later));
+        assertTrue(detector.recordJoin(100, later));
+    }
+
+    @Test
+    public void unsignedAndSpecialASNumbers() {
+        final ASRaidDetector detector = new ASRaidDetector(100.0, WINDOW);
+        final int[] ASNumbers = { 0, -1, Integer.MIN_VALUE, Integer.MAX_VALUE, (int)4200000000L };
+
+        for (int i = 0; i < ASNumbers.length; ++i) {
+            for (int k = 0; k <= i; ++k) {
+                detector.recordJoin(ASNumbers[i], NOW);
+            }
+        }
+        assertEquals(ASNumbers.length, detector.size());
+        for (int i = 0; i < ASNumbers.length; ++i) {
+            assertEquals((double)(i + 1), detector.getRate(ASNumbers[i], NOW), 0.0);
+        }
+    }
+
+    @Test
+    public void idleCountersAreEvicted() {
+        final ASRaidDetector detector = new ASRaidDetector(100.0, WINDOW);
+        final int perWindow = 10_000;
+
+        for (int round = 0; round < 10; ++round) {
+            final long now = NOW + (long)round * 2L * WINDOW;
+            for (int i = 0; i < perWindow; ++i) {
+                detector.recordJoin(round * perWindow + i, now);
+            }
+            // counters from earlier windows are dropped as the stripes fill up, rather than growing them
+            assertTrue(detector.size() < 3 * perWindow, "round " + round + ": " + detector.size());
+        }
+
+        final long end = NOW + 9L * 2L * WINDOW;
+        for (int i = 0; i < perWindow; ++i) {
+            assertEquals(1.0, detector.getRate(9 * perWindow + i, end), 0.0);
+            assertEquals(0.0, detector.getRate(i, end), 0.0);
+        }
+    }
+
+    @Test
+    public void concurrentJoinsAreAllCounted() throws InterruptedException {
+        final ASRaidDetector detector = new ASRaidDetector(1.0E9, WINDOW);
+        final int threads = 8;
+        final int joins = 5_000;
+
+        final List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; ++t) {
+            final Thread worker = new Thread(() -> {
+                for (int i = 0; i < joins; ++i) {
+                    // one shared AS, and one AS per join so that the stripes rehash concurrently
+                    detector.recordJoin(7, NOW);
+                    detector.recordJoin(1_000_000 + i, NOW);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+
+        assertEquals((double)(threads * joins), detector.getRate(7, NOW), 0.0);
+        assertEquals(1 + joins, detector.size());
+        for (int i = 0; i < joins; ++i) {
+            assertEquals((double)threads, detector.getRate(1_000_000 + i, NOW), 0.0);
+        }
+    }
+}
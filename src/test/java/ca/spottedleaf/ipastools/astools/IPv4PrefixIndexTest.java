@@ -0,0 +1,197 @@
+package ca.spottedleaf.ipastools.astools;
+
+import ca.spottedleaf.ipastools.util.Util;
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class IPv4PrefixIndexTest {
+
+    // nested, adjacent and overlapping prefixes, and prefixes at both ends of the address space and around 128.0.0.0
+    private static final String[] FIXTURE = {
+            "1.0.0.0/24 13335",
+            "1.0.4.0/22 38803",
+            "10.0.0.0/8 100",
+            "10.1.0.0/16 101",
+            "10.1.2.0/24 102",
+            "10.1.2.128/25 103",
+            "10.1.3.0/24 104",
+            "10.255.255.255/32 105",
+            "11.0.0.0/8 110",
+            "127.255.255.0/24 120",
+            "128.0.0.0/1 200",
+            "128.0.0.1/32 201",
+            "192.168.0.0/16 300",
+            "192.168.255.0/24 301",
+            "255.255.255.255/32 400"
+    };
+
+    // the ASEntry[] table and lookup of ASLookup before IPv4PrefixIndex replaced it
+    private static final class LegacyTable {
+
+        private static record Entry(long address, int subnet, int ASNumber) {
+
+            private boolean matches(final long ip) {
+                final long mask = ((1L << this.subnet) - 1L) << (32 - this.subnet);
+                return (mask & this.address) == (mask & ip);
+            }
+        }
+
+        private static final Comparator<Entry> ENTRY_COMPARATOR = (final Entry e1, final Entry e2) -> {
+            return Long.compare(e1.address, e2.address);
+        };
+
+        private final Entry[] entries;
+
+        private LegacyTable(final List<Entry> entries) {
+            this.entries = entries.toArray(new Entry[0]);
+            Arrays.sort(this.entries, ENTRY_COMPARATOR);
+        }
+
+        // returns the matched entry, or null
+        private Entry lookup(final int ip) {
+            final long ipMasked = ip & 0xFFFFFFFFL;
+            final Entry[] entries = this.entries;
+
+            int idx = Arrays.binarySearch(entries, new Entry(ipMasked, 32, 0), ENTRY_COMPARATOR);
+            if (idx < 0) {
+                idx = (-idx - 1) - 1;
+                if (idx < 0 || idx >= entries.length) {
+                    return null;
+                }
+            }
+
+            while (idx >= 0) {
+                final Entry closest = entries[idx--];
+                if (closest.address > ipMasked) {
+                    break;
+                }
+                if (closest.matches(ipMasked)) {
+                    return closest;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static List<LegacyTable.Entry> parseFixture() {
+        final List<LegacyTable.Entry> ret = new ArrayList<>();
+        for (final String line : FIXTURE) {
+            final String[] fields = line.split("[/ ]");
+            ret.add(new LegacyTable.Entry(Util.getAddress(fields[0]) & 0xFFFFFFFFL, Integer.parseInt(fields[1]), Integer.parseInt(fields[2])));
+        }
+        return ret;
+    }
+
+    private static IPv4PrefixIndex build(final List<LegacyTable.Entry> entries, final IPv4PrefixIndex.Engine engine) {
+        final IPv4PrefixIndex.Builder builder = new IPv4PrefixIndex.Builder();
+        for (final LegacyTable.Entry entry : entries) {
+            builder.addPrefix((int)entry.address(), entry.subnet(), entry.ASNumber());
+        }
+        return builder.build(engine);
+    }
+
+    // the first and last address of every prefix, and the addresses just outside of it
+    private static int[] boundaries(final List<LegacyTable.Entry> entries) {
+        final int[] ret = new int[entries.size() * 4 + 2];
+        int idx = 0;
+        for (final LegacyTable.Entry entry : entries) {
+            final int start = (int)entry.address();
+            final int end = (int)(entry.address() + (1L << (32 - entry.subnet())) - 1L);
+            ret[idx++] = start - 1;
+            ret[idx++] = start;
+            ret[idx++] = end;
+            ret[idx++] = end + 1;
+        }
+        ret[idx++] = 0;
+        ret[idx++] = -1;
+        return ret;
+    }
+
+    private static void assertEquivalent(final List<LegacyTable.Entry> entries, final int[] ips) {
+        final LegacyTable legacy = new LegacyTable(entries);
+        for (final IPv4PrefixIndex.Engine engine : IPv4PrefixIndex.Engine.values()) {
+            final IPv4PrefixIndex index = build(entries, engine);
+            assertEquals(0L, index.verify(), "verify() mismatches for " + engine);
+
+            final int[] batch = new int[ips.length];
+            index.lookupASNumbers(ips, batch);
+
+            for (int i = 0; i < ips.length; ++i) {
+                final int ip = ips[i];
+                final LegacyTable.Entry expected = legacy.lookup(ip);
+                final String where = engine + " at " + Util.toIPv4String(ip);
+
+                final int prefix = index.findPrefix(ip);
+                if (expected == null) {
+                    assertEquals(IPv4PrefixIndex.NO_MATCH, prefix, where);
+                    assertEquals(0, index.lookupASNumber(ip), where);
+                } else {
+                    assertTrue(prefix != IPv4PrefixIndex.NO_MATCH, where + " has no prefix");
+                    assertEquals((int)expected.address(), index.getPrefixAddress(prefix), where);
+                    assertEquals(expected.subnet(), index.getPrefixLength(prefix), where);
+                    assertEquals(expected.ASNumber(), index.lookupASNumber(ip), where);
+                }
+                assertEquals(index.lookupASNumber(ip), batch[i], where + " in batch");
+            }
+        }
+    }
+
+    @Test
+    public void fixtureBoundaries() {
+        final List<LegacyTable.Entry> entries = parseFixture();
+        assertEquivalent(entries, boundaries(entries));
+
+        // spot checks of the fixture itself
+        final IPv4PrefixIndex index = build(entries, IPv4PrefixIndex.Engine.SORTED_RANGES);
+        assertEquals(103, index.lookupASNumber(Util.getAddress("10.1.2.128")));
+        assertEquals(102, index.lookupASNumber(Util.getAddress("10.1.2.127")));
+        assertEquals(101, index.lookupASNumber(Util.getAddress("10.1.4.0")));
+        assertEquals(105, index.lookupASNumber(Util.getAddress("10.255.255.255")));
+        assertEquals(110, index.lookupASNumber(Util.getAddress("11.0.0.0")));
+        assertEquals(200, index.lookupASNumber(Util.getAddress("128.0.0.0")));
+        assertEquals(201, index.lookupASNumber(Util.getAddress("128.0.0.1")));
+        assertEquals(200, index.lookupASNumber(Util.getAddress("255.255.255.254")));
+        assertEquals(400, index.lookupASNumber(Util.getAddress("255.255.255.255")));
+        assertEquals(0, index.lookupASNumber(Util.getAddress("1.0.1.0")));
+        assertEquals(0, index.lookupASNumber(Util.getAddress("127.255.254.255")));
+    }
+
+    @Test
+    public void fixtureRandomAddresses() {
+        final List<LegacyTable.Entry> entries = parseFixture();
+        final SplittableRandom random = new SplittableRandom(1L);
+        final int[] ips = new int[100_000];
+        for (int i = 0; i < ips.length; ++i) {
+            // mostly within the fixture's prefixes
+            final LegacyTable.Entry entry = entries.get(random.nextInt(entries.size()));
+            ips[i] = random.nextInt(4) == 0 ? random.nextInt() : (int)entry.address() + random.nextInt(1 << Math.min(30, 32 - entry.subnet()));
+        }
+        assertEquivalent(entries, ips);
+    }
+
+    @Test
+    public void randomTables() {
+        final SplittableRandom random = new SplittableRandom(2L);
+        for (int table = 0; table < 20; ++table) {
+            // the legacy lookup's choice between prefixes starting at the same address depended on the sort, so starts are distinct
+            final Set<Long> starts = new HashSet<>();
+            final List<LegacyTable.Entry> entries = new ArrayList<>();
+            for (int i = 0; i < 2000; ++i) {
+                final int length = 8 + random.nextInt(25);
+                final long address = (random.nextInt() & 0xFFFFFFFFL) & (((1L << length) - 1L) << (32 - length));
+                if (starts.add(Long.valueOf(address))) {
+                    entries.add(new LegacyTable.Entry(address, length, 1 + random.nextInt(100_000)));
+                }
+            }
+            assertEquivalent(entries, boundaries(entries));
+        }
+    }
+}
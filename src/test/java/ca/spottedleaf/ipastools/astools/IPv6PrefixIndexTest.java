@@ -0,0 +1,217 @@
+package ca.spottedleaf.ipastools.astools;
+
+import ca.spottedleaf.ipastools.util.Util;
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class IPv6PrefixIndexTest {
+
+    private static record Prefix(long high, long low, int length, int ASNumber) {
+
+        private static long maskHigh(final int length) {
+            return length == 0 ? 0L : (length >= 64 ? -1L : (-1L << (64 - length)));
+        }
+
+        private static long maskLow(final int length) {
+            return length <= 64 ? 0L : (length == 128 ? -1L : (-1L << (128 - length)));
+        }
+
+        private static Prefix of(final long high, final long low, final int length, final int ASNumber) {
+            return new Prefix(high & maskHigh(length), low & maskLow(length), length, ASNumber);
+        }
+
+        private boolean contains(final long high, final long low) {
+            return (high & maskHigh(this.length)) == this.high && (low & maskLow(this.length)) == this.low;
+        }
+
+        private long endHigh() {
+            return this.high | ~maskHigh(this.length);
+        }
+
+        private long endLow() {
+            return this.low | ~maskLow(this.length);
+        }
+    }
+
+    private static IPv6PrefixIndex build(final List<Prefix> prefixes) {
+        final IPv6PrefixIndex.Builder builder = new IPv6PrefixIndex.Builder();
+        for (final Prefix prefix : prefixes) {
+            builder.addPrefix(prefix.high(), prefix.low(), prefix.length(), prefix.ASNumber());
+        }
+        return builder.build();
+    }
+
+    // the most specific prefix containing the address, where the last added of duplicate prefixes wins
+    private static Prefix expected(final List<Prefix> prefixes, final long high, final long low) {
+        Prefix ret = null;
+        for (final Prefix prefix : prefixes) {
+            if (prefix.contains(high, low) && (ret == null || prefix.length() >= ret.length())) {
+                ret = prefix;
+            }
+        }
+        return ret;
+    }
+
+    private static void check(final IPv6PrefixIndex index, final List<Prefix> prefixes, final long high, final long low) {
+        final Prefix expected = expected(prefixes, high, low);
+        final String where = Long.toHexString(high) + ":" + Long.toHexString(low);
+        final int prefix = index.findPrefix(high, low);
+        if (expected == null) {
+            assertEquals(IPv6PrefixIndex.NO_MATCH, prefix, where);
+            assertEquals(0, index.lookupASNumber(high, low), where);
+            return;
+        }
+        assertTrue(prefix != IPv6PrefixIndex.NO_MATCH, where);
+        assertEquals(expected.high(), index.getPrefixAddressHigh(prefix), where);
+        assertEquals(expected.low(), index.getPrefixAddressLow(prefix), where);
+        assertEquals(expected.length(), index.getPrefixLength(prefix), where);
+        assertEquals(expected.ASNumber(), index.lookupASNumber(high, low), where);
+    }
+
+    // checks the first and last address of every prefix and the addresses either side of them
+    private static void checkBoundaries(final IPv6PrefixIndex index, final List<Prefix> prefixes) {
+        for (final Prefix prefix : prefixes) {
+            final long beforeLow = prefix.low() - 1L;
+            final long beforeHigh = prefix.low() == 0L ? prefix.high() - 1L : prefix.high();
+            final long afterLow = prefix.endLow() + 1L;
+            final long afterHigh = afterLow == 0L ? prefix.endHigh() + 1L : prefix.endHigh();
+
+            check(index, prefixes, prefix.high(), prefix.low());
+            check(index, prefixes, prefix.endHigh(), prefix.endLow());
+            check(index, prefixes, beforeHigh, beforeLow);
+            check(index, prefixes, afterHigh, afterLow);
+        }
+    }
+
+    private static long[] address(final String address) {
+        final byte[] ip = Util.getIPv6Address(address);
+        return new long[] { Util.getIPv6High(ip), Util.getIPv6Low(ip) };
+    }
+
+    private static Prefix prefix(final String address, final int length, final int ASNumber) {
+        final long[] ip = address(address);
+        return Prefix.of(ip[0], ip[1], length, ASNumber);
+    }
+
+    @Test
+    public void wholeAddressSpace() {
+        final List<Prefix> prefixes = List.of(prefix("::", 0, 1));
+        final IPv6PrefixIndex index = build(prefixes);
+
+        assertEquals(1, index.rangeCount());
+        assertEquals(1, index.lookupASNumber(0L, 0L));
+        assertEquals(1, index.lookupASNumber(-1L, -1L));
+        assertEquals(1, index.lookupASNumber(Long.MIN_VALUE, 0L));
+        checkBoundaries(index, prefixes);
+    }
+
+    @Test
+    public void hostPrefixesAtBothEnds() {
+        final List<Prefix> prefixes = List.of(
+                prefix("::", 0, 1),
+                prefix("::", 128, 2),
+                prefix("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff", 128, 3),
+                prefix("ffff:ffff:ffff:ffff::", 64, 4)
+        );
+        final IPv6PrefixIndex index = build(prefixes);
+
+        assertEquals(2, index.lookupASNumber(0L, 0L));
+        assertEquals(1, index.lookupASNumber(0L, 1L));
+        assertEquals(4, index.lookupASNumber(-1L, -2L));
+        assertEquals(3, index.lookupASNumber(-1L, -1L));
+        assertEquals(1, index.lookupASNumber(-2L, -1L));
+        checkBoundaries(index, prefixes);
+    }
+
+    @Test
+    public void endOfSpaceWithoutEnclosingPrefix() {
+        // nothing covers the address space before the last prefix, and nothing may follow it
+        final List<Prefix> prefixes = List.of(
+                prefix("ff00::", 8, 1),
+                prefix("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ff00", 120, 2)
+        );
+        final IPv6PrefixIndex index = build(prefixes);
+
+        assertEquals(0, index.lookupASNumber(0L, 0L));
+        assertEquals(2, index.lookupASNumber(-1L, -1L));
+        assertEquals(1, index.lookupASNumber(-1L, -257L));
+        checkBoundaries(index, prefixes);
+    }
+
+    @Test
+    public void carryBetweenHalves() {
+        // the nested prefixes end on the last address of the low half, so the next range starts with a carry
+        final List<Prefix> prefixes = List.of(
+                prefix("2001:db8::", 32, 1),
+                prefix("2001:db8:0:0:ffff:ffff:ffff:ffff", 128, 2),
+                prefix("2001:db8:0:0:8000::", 65, 3),
+                prefix("2001:db8:0:1::", 64, 4)
+        );
+        final IPv6PrefixIndex index = build(prefixes);
+
+        final long[] last = address("2001:db8:0:0:ffff:ffff:ffff:ffff");
+        assertEquals(2, index.lookupASNumber(last[0], last[1]));
+        assertEquals(3, index.lookupASNumber(last[0], last[1] - 1L));
+        assertEquals(4, index.lookupASNumber(last[0] + 1L, 0L));
+        assertEquals(1, index.lookupASNumber(last[0] + 2L, 0L));
+        checkBoundaries(index, prefixes);
+    }
+
+    @Test
+    public void duplicatePrefixesLastWins() {
+        final IPv6PrefixIndex index = new IPv6PrefixIndex.Builder()
+                .addPrefix(0x20010DB800000000L, 0L, 32, 1)
+                .addPrefix(0x20010DB800000000L, 0L, 32, 2)
+                .build();
+
+        assertEquals(1, index.prefixCount());
+        assertEquals(2, index.lookupASNumber(0x20010DB800000000L, 5L));
+    }
+
+    @Test
+    public void rebuildReusesPrevious() {
+        final List<Prefix> prefixes = List.of(prefix("2001:db8::", 32, 1), prefix("2001:db8:1::", 48, 2));
+        final IPv6PrefixIndex previous = build(prefixes);
+
+        final IPv6PrefixIndex.Builder same = new IPv6PrefixIndex.Builder();
+        final IPv6PrefixIndex.Builder renumbered = new IPv6PrefixIndex.Builder();
+        for (final Prefix prefix : prefixes) {
+            same.addPrefix(prefix.high(), prefix.low(), prefix.length(), prefix.ASNumber());
+            renumbered.addPrefix(prefix.high(), prefix.low(), prefix.length(), prefix.ASNumber() + 10);
+        }
+
+        assertSame(previous, same.build(previous));
+        final IPv6PrefixIndex rebuilt = renumbered.build(previous);
+        assertEquals(previous.rangeCount(), rebuilt.rangeCount());
+        final long[] ip = address("2001:db8:1::1");
+        assertEquals(2, previous.lookupASNumber(ip[0], ip[1]));
+        assertEquals(12, rebuilt.lookupASNumber(ip[0], ip[1]));
+    }
+
+    @Test
+    public void randomTables() {
+        final SplittableRandom random = new SplittableRandom(6L);
+        // few distinct leading bits, so that the prefixes nest often, including across the two halves
+        final long[] highs = { 0L, 0x20010DB800000000L, 0x7FFFFFFFFFFFFFFFL, Long.MIN_VALUE, -1L };
+        final int[] lengths = { 0, 1, 16, 32, 48, 63, 64, 65, 96, 127, 128 };
+
+        for (int round = 0; round < 200; ++round) {
+            final List<Prefix> prefixes = new ArrayList<>();
+            for (int i = 0, len = random.nextInt(1, 40); i < len; ++i) {
+                final long high = highs[random.nextInt(highs.length)] ^ (random.nextBoolean() ? 0L : random.nextLong() & 0xFFL);
+                final long low = random.nextBoolean() ? (random.nextBoolean() ? 0L : -1L) : random.nextLong();
+                prefixes.add(Prefix.of(high, low, lengths[random.nextInt(lengths.length)], 1 + random.nextInt(1000)));
+            }
+
+            final IPv6PrefixIndex index = build(prefixes);
+            checkBoundaries(index, prefixes);
+            for (int i = 0; i < 100; ++i) {
+                check(index, prefixes, highs[random.nextInt(highs.length)] ^ (random.nextLong() & 0xFFL), random.nextLong());
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package ca.spottedleaf.ipastools.astools;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class LoginSegmentStoreTest {
+
+    private static final Logger LOGGER = Logger.getLogger(LoginSegmentStoreTest.class.getName());
+    private static final long HOUR = 3_600_000L;
+
+    private Path directory;
+    private long now;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("ipastools-segments");
+        // the start of the current hour, so that every login of a test falls within one hour and the retention
+        this.now = System.currentTimeMillis() / HOUR * HOUR;
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (final Stream<Path> paths = Files.walk(this.directory)) {
+            for (final Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private LoginSegmentStore open() throws IOException {
+        // queries complete on the caller, so join returns straight away
+        return new LoginSegmentStore(this.directory.toFile(), 7L * 24L * HOUR, Runnable::run, LOGGER);
+    }
+
+    private static void login(final LoginSegmentStore store, final long time, final int player, final int ASNumber) {
+        store.append(time, new UUID(0L, player), "player" + player, ASNumber, LoginAuditLog.Decision.ALLOWED);
+    }
+
+    private List<LoginSegmentStore.ASCount> top(final LoginSegmentStore store) {
+        return store.topASes(this.now - HOUR, this.now + HOUR, 10).join();
+    }
+
+    private int segmentFiles() {
+        final File[] files = this.directory.toFile().listFiles((final File dir, final String name) -> name.endsWith(".seg"));
+        return files == null ? 0 : files.length;
+    }
+
+    @Test
+    public void unknownASIsNotRanked() throws IOException {
+        final LoginSegmentStore store = this.open();
+        login(store, this.now, 1, -1);
+        login(store, this.now + 1L, 2, -1);
+        login(store, this.now + 2L, 3, -1);
+        login(store, this.now + 3L, 4, 0);
+        login(store, this.now + 4L, 5, 100);
+        login(store, this.now + 5L, 6, (int)4200000000L);
+        login(store, this.now + 6L, 7, (int)4200000000L);
+
+        final List<LoginSegmentStore.ASCount> top = this.top(store);
+        assertEquals(List.of(
+                new LoginSegmentStore.ASCount((int)4200000000L, 2, 2L),
+                new LoginSegmentStore.ASCount(100, 1, 1L)
+        ), top);
+    }
+
+    @Test
+    public void checkpointSurvivesCrash() throws IOException {
+        final LoginSegmentStore store = this.open();
+        login(store, this.now, 1, 100);
+        login(store, this.now + 1L, 2, 100);
+        store.checkpoint();
+        // not checkpointed, so lost in the crash
+        login(store, this.now + 2L, 3, 101);
+
+        // the store is never sealed, as in a crash
+        final LoginSegmentStore restarted = this.open();
+        assertEquals(List.of(new LoginSegmentStore.ASCount(100, 2, 2L)), this.top(restarted));
+
+        // the rest of the hour goes to another segment, rather than replacing the checkpoint
+        login(restarted, this.now + 3L, 4, 100);
+        restarted.seal();
+        assertEquals(2, this.segmentFiles());
+        assertEquals(List.of(new LoginSegmentStore.ASCount(100, 3, 3L)), this.top(this.open()));
+    }
+
+    @Test
+    public void sealReplacesCheckpoint() throws IOException {
+        final LoginSegmentStore store = this.open();
+        login(store, this.now, 1, 100);
+        store.checkpoint();
+        assertEquals(1, this.segmentFiles());
+
+        // the checkpoint is not a segment yet, so queries do not count its logins twice
+        login(store, this.now + 1L, 2, 100);
+        store.checkpoint();
+        assertEquals(List.of(new LoginSegmentStore.ASCount(100, 2, 2L)), this.top(store));
+
+        login(store, this.now + 2L, 3, 100);
+        store.seal();
+        assertEquals(1, this.segmentFiles());
+        assertEquals(List.of(new LoginSegmentStore.ASCount(100, 3, 3L)), this.top(store));
+        assertEquals(List.of(new LoginSegmentStore.ASCount(100, 3, 3L)), this.top(this.open()));
+
+        // the next hour starts a new segment
+        login(store, this.now + HOUR, 4, 100);
+        store.checkpoint();
+        assertEquals(2, this.segmentFiles());
+    }
+}
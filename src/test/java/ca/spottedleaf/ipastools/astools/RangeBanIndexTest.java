@@ -0,0 +1,104 @@
+package ca.spottedleaf.ipastools.astools;
+
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class RangeBanIndexTest {
+
+    private static final long NOW = 1_000_000_000L;
+    private static final Date EXPIRED = new Date(NOW - 1000L);
+    private static final Date ACTIVE = new Date(NOW + 1000L);
+
+    private static String lookup(final RangeBanIndex index, final int ipv4) {
+        return index.getKickReason(0L, ASBans.RangeBanEntry.IPV4_MAPPED | ((long)ipv4 & 0xFFFFFFFFL), NOW);
+    }
+
+    private static int ip(final int a, final int b, final int c, final int d) {
+        return (a << 24) | (b << 16) | (c << 8) | d;
+    }
+
+    @Test
+    public void expiredNestedFallsBackToEnclosing() {
+        final RangeBanIndex index = RangeBanIndex.of(List.of(
+                ASBans.RangeBanEntry.parse("10.0.0.0/8", "outer", ACTIVE),
+                ASBans.RangeBanEntry.parse("10.1.0.0/16", "middle", null),
+                ASBans.RangeBanEntry.parse("10.1.2.0/24", "inner", EXPIRED)
+        ));
+
+        assertEquals("middle", lookup(index, ip(10, 1, 2, 3)));
+        assertEquals("middle", lookup(index, ip(10, 1, 3, 3)));
+        assertEquals("outer", lookup(index, ip(10, 2, 0, 0)));
+        assertNull(lookup(index, ip(11, 0, 0, 0)));
+    }
+
+    @Test
+    public void expiredNestedInsideExpiredEnclosing() {
+        final RangeBanIndex index = RangeBanIndex.of(List.of(
+                ASBans.RangeBanEntry.parse("10.0.0.0/8", "outer", ACTIVE),
+                ASBans.RangeBanEntry.parse("10.1.0.0/16", "middle", EXPIRED),
+                ASBans.RangeBanEntry.parse("10.1.2.0/24", "inner", EXPIRED)
+        ));
+
+        assertEquals("outer", lookup(index, ip(10, 1, 2, 3)));
+        assertEquals("outer", lookup(index, ip(10, 1, 0, 0)));
+    }
+
+    @Test
+    public void overlappingRangesKeepTheirOwnEnclosing() {
+        // the segments of inner differ in which other ranges cover them
+        final RangeBanIndex index = RangeBanIndex.of(List.of(
+                ASBans.RangeBanEntry.parse("10.0.0.50-10.0.0.200", "right", ACTIVE),
+                ASBans.RangeBanEntry.parse("10.0.0.0-10.0.0.99", "inner", EXPIRED)
+        ));
+
+        assertNull(lookup(index, ip(10, 0, 0, 10)));
+        assertEquals("right", lookup(index, ip(10, 0, 0, 60)));
+        assertEquals("right", lookup(index, ip(10, 0, 0, 150)));
+    }
+
+    @Test
+    public void randomRangesMatchLinearScan() {
+        final SplittableRandom random = new SplittableRandom(4L);
+        final Date[] expiries = { null, EXPIRED, ACTIVE };
+
+        for (int round = 0; round < 200; ++round) {
+            final List<ASBans.RangeBanEntry> entries = new ArrayList<>();
+            final Set<String> targets = new HashSet<>();
+            for (int i = 0, len = random.nextInt(1, 16); i < len; ++i) {
+                final int start = random.nextInt(0, 256);
+                final int end = random.nextInt(start, 256);
+                final ASBans.RangeBanEntry entry = ASBans.RangeBanEntry.parse(
+                        "10.0.0." + start + "-10.0.0." + end, "ban " + i, expiries[random.nextInt(expiries.length)]
+                );
+                if (targets.add(entry.target())) {
+                    entries.add(entry);
+                }
+            }
+
+            final RangeBanIndex index = RangeBanIndex.of(entries);
+            for (int last = 0; last < 256; ++last) {
+                final long low = ASBans.RangeBanEntry.IPV4_MAPPED | (ip(10, 0, 0, last) & 0xFFFFFFFFL);
+
+                // the smallest active range covering the address, where ties are won by the range added last
+                ASBans.RangeBanEntry expected = null;
+                for (final ASBans.RangeBanEntry entry : entries) {
+                    if (entry.hasExpired(NOW) || Long.compareUnsigned(entry.startLow(), low) > 0 || Long.compareUnsigned(entry.endLow(), low) < 0) {
+                        continue;
+                    }
+                    if (expected == null || entry.endLow() - entry.startLow() <= expected.endLow() - expected.startLow()) {
+                        expected = entry;
+                    }
+                }
+
+                assertEquals(expected == null ? null : expected.kickReason(), lookup(index, ip(10, 0, 0, last)), "10.0.0." + last + " in " + entries);
+            }
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package ca.spottedleaf.ipastools.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class LogUserDataStorageTest {
+
+    private static final int FILE_HEADER_SIZE = 8 + 4;
+    private static final int RECORD_HEADER_SIZE = 4 + 4 + 8 + 8 + 4;
+
+    private static final Logger LOGGER = Logger.getLogger(LogUserDataStorageTest.class.getName());
+
+    private static final UUID PLAYER_1 = new UUID(1L, 1L);
+    private static final UUID PLAYER_2 = new UUID(2L, 2L);
+    private static final UUID PLAYER_3 = new UUID(3L, 3L);
+
+    private Path directory;
+    private File file;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("ipastools-userdata");
+        this.file = this.directory.resolve("userdata.log").toFile();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        try (final Stream<Path> paths = Files.walk(this.directory)) {
+            for (final Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    private LogUserDataStorage open() throws IOException {
+        return new LogUserDataStorage(this.file, 0L, LOGGER);
+    }
+
+    private static byte[] data(final String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String read(final LogUserDataStorage storage, final UUID userId) throws IOException {
+        final byte[] data = storage.read(userId);
+        return data == null ? null : new String(data, StandardCharsets.UTF_8);
+    }
+
+    private static long recordSize(final String value) {
+        return RECORD_HEADER_SIZE + data(value).length;
+    }
+
+    // flips a bit of the data of the record at the specified offset, so that its checksum no longer matches
+    private void corruptRecord(final long offset) throws IOException {
+        try (final RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+            raf.seek(offset + RECORD_HEADER_SIZE);
+            final int b = raf.read();
+            raf.seek(offset + RECORD_HEADER_SIZE);
+            raf.write(b ^ 1);
+        }
+    }
+
+    @Test
+    public void tornLastRecordIsTruncated() throws IOException {
+        try (final LogUserDataStorage storage = this.open()) {
+            storage.write(PLAYER_1, data("one"));
+            storage.write(PLAYER_2, data("two"));
+            storage.write(PLAYER_3, data("three"));
+        }
+        final long complete = FILE_HEADER_SIZE + recordSize("one") + recordSize("two");
+        try (final RandomAccessFile raf = new RandomAccessFile(this.file, "rw")) {
+            // crash part way through the last record
+            raf.setLength(complete + RECORD_HEADER_SIZE + 2L);
+        }
+
+        try (final LogUserDataStorage storage = this.open()) {
+            assertEquals(2, storage.size());
+            assertEquals("one", read(storage, PLAYER_1));
+            assertEquals("two", read(storage, PLAYER_2));
+            assertNull(read(storage, PLAYER_3));
+            assertEquals(complete, this.file.length());
+
+            // appends continue from the truncated end
+            storage.write(PLAYER_3, data("three again"));
+        }
+        try (final LogUserDataStorage storage = this.open()) {
+            assertEquals("three again", read(storage, PLAYER_3));
+        }
+    }
+
+    @Test
+    public void badChecksumOnLastRecordFallsBackToPrevious() throws IOException {
+        try (final LogUserDataStorage storage = this.open()) {
+            storage.write(PLAYER_1, data("old"));
+            storage.write(PLAYER_1, data("new"));
+        }
+        this.corruptRecord(FILE_HEADER_SIZE + recordSize("old"));
+
+        try (final LogUserDataStorage storage = this.open()) {
+            assertEquals("old", read(storage, PLAYER_1));
+            assertEquals(FILE_HEADER_SIZE + recordSize("old"), this.file.length());
+        }
+    }
+
+    @Test
+    public void corruptRecordInTheMiddleKeepsLaterRecords() throws IOException {
+        try (final LogUserDataStorage storage = this.open()) {
+            storage.write(PLAYER_1, data("one"));
+            storage.write(PLAYER_2, data("two"));
+            storage.write(PLAYER_3, data("three"));
+            storage.write(PLAYER_1, data("one again"));
+        }
+        final long size = this.file.length();
+        this.corruptRecord(FILE_HEADER_SIZE + recordSize("one"));
+
+        try (final LogUserDataStorage storage = this.open()) {
+            // only the corrupt record is lost, and the file is not truncated
+            assertNull(read(storage, PLAYER_2));
+            assertEquals("three", read(storage, PLAYER_3));
+            assertEquals("one again", read(storage, PLAYER_1));
+            assertEquals(size, this.file.length());
+
+            storage.write(PLAYER_2, data("two again"));
+        }
+        try (final LogUserDataStorage storage = this.open()) {
+            assertEquals("two again", read(storage, PLAYER_2));
+            assertEquals(3, storage.size());
+        }
+    }
+
+    @Test
+    public void compactionKeepsLatestRecords() throws IOException {
+        final Map<UUID, String> latest = new HashMap<>();
+        try (final LogUserDataStorage storage = this.open()) {
+            for (int i = 0; i < 100; ++i) {
+                final UUID userId = new UUID(0L, i % 10);
+                final String value = "data " + i;
+                storage.write(userId, data(value));
+                latest.put(userId, value);
+            }
+            storage.compact();
+
+            long expectedSize = FILE_HEADER_SIZE;
+            for (final String value : latest.values()) {
+                expectedSize += recordSize(value);
+            }
+            assertEquals(expectedSize, this.file.length());
+            assertEquals(10, storage.size());
+            for (final Map.Entry<UUID, String> entry : latest.entrySet()) {
+                assertEquals(entry.getValue(), read(storage, entry.getKey()));
+            }
+
+            // writes after compaction append to the new log
+            storage.write(PLAYER_1, data("after"));
+        }
+
+        try (final LogUserDataStorage storage = this.open()) {
+            assertEquals(11, storage.size());
+            assertEquals("after", read(storage, PLAYER_1));
+            for (final Map.Entry<UUID, String> entry : latest.entrySet()) {
+                assertEquals(entry.getValue(), read(storage, entry.getKey()));
+            }
+        }
+        assertFalse(new File(this.directory.toFile(), "userdata.log.compact").exists());
+    }
+
+    @Test
+    public void importMigratesJsonFilesOnce() throws IOException {
+        final File legacyDirectory = this.directory.resolve("userdata").toFile();
+        final JsonFileUserDataStorage legacy = new JsonFileUserDataStorage(legacyDirectory);
+        legacy.write(PLAYER_1, data("{\"legacy\":1}"));
+        legacy.write(PLAYER_2, data("{\"legacy\":2}"));
+
+        try (final LogUserDataStorage storage = this.open()) {
+            // already in the log, so the legacy file must not replace it
+            storage.write(PLAYER_2, data("current"));
+
+            assertEquals(1, storage.importFrom(legacy));
+            assertEquals("{\"legacy\":1}", read(storage, PLAYER_1));
+            assertEquals("current", read(storage, PLAYER_2));
+        }
+
+        assertFalse(legacyDirectory.exists());
+        final File migrated = this.directory.resolve("userdata.migrated").toFile();
+        assertTrue(new File(migrated, PLAYER_1 + ".json").isFile());
+        assertTrue(new File(migrated, PLAYER_2 + ".json").isFile());
+
+        try (final LogUserDataStorage storage = this.open()) {
+            assertEquals(2, storage.size());
+            assertEquals("{\"legacy\":1}", read(storage, PLAYER_1));
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package ca.spottedleaf.ipastools.util;
+
+import org.junit.jupiter.api.Test;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public final class TimestampCodecTest {
+
+    private static final DateTimeFormatter REFERENCE = DateTimeFormatter.ofPattern(TimestampCodec.PATTERN, Locale.ROOT);
+
+    // years 1970 to about 2100, the range the plugin actually writes
+    private static final long MAX_MILLIS = 4102444800000L;
+
+    private static String referenceFormat(final long epochMillis) {
+        return REFERENCE.format(OffsetDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneOffset.UTC));
+    }
+
+    @Test
+    public void formatMatchesFormatter() {
+        final SplittableRandom random = new SplittableRandom(1L);
+        for (int i = 0; i < 100_000; ++i) {
+            final long millis = random.nextLong(MAX_MILLIS);
+            assertEquals(referenceFormat(millis), TimestampCodec.format(millis));
+        }
+        // falls back outside of years 0 to 9999
+        final long far = 300_000_000_000_000L;
+        assertEquals(referenceFormat(far), TimestampCodec.format(far));
+        assertEquals(far, TimestampCodec.parse(TimestampCodec.format(far)));
+    }
+
+    @Test
+    public void parsesOtherOffsets() {
+        assertEquals(0L, TimestampCodec.parse("1970-01-01 01:30:00.000 +0130"));
+        assertEquals(0L, TimestampCodec.parse("1969-12-31 19:00:00.000 -0500"));
+        assertThrows(RuntimeException.class, () -> TimestampCodec.parse("2024-02-30 00:00:00.000 +0000"));
+        assertThrows(RuntimeException.class, () -> TimestampCodec.parse("not a timestamp"));
+    }
+
+    @Test
+    public void concurrentFormatAndParse() throws Exception {
+        // the codec replaced a shared SimpleDateFormat, which corrupts its output when used from several threads
+        final int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; ++t) {
+                final long seed = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    final SplittableRandom random = new SplittableRandom(seed);
+                    for (int i = 0; i < 50_000; ++i) {
+                        final long millis = random.nextLong(MAX_MILLIS);
+                        final String formatted = TimestampCodec.format(millis);
+                        assertEquals(referenceFormat(millis), formatted);
+                        assertEquals(millis, TimestampCodec.parse(formatted));
+                        assertEquals(millis, TimestampCodec.parseDate(formatted).getTime());
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (final Future<?> future : futures) {
+                future.get(1L, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}